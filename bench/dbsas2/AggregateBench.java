@@ -0,0 +1,79 @@
+package dbsas2;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*AggregateBench times dbaggregate's fork-join aggregation of counts by group over row and PAX heap
+ *  files, for a number of threads, to show how the scan scales with cores. The files are warm in
+ *  the page cache; the score is the time for the whole file.*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AggregateBench {
+
+	@Param({"16384"})
+	public int pageSize;
+
+	@Param({"2000000"})
+	public int records;
+
+	@Param({"1", "2", "4", "8"})
+	public int threads;
+
+	@Param({constants.GROUP_SENSOR_ID_ARG, constants.GROUP_MONTH_ARG})
+	public String groupBy;
+
+	private SensorData data;
+	private HeapFile heap;
+	private PaxFile pax;
+	private Aggregator aggregator;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException, ParseException {
+		data = new SensorData(records);
+		String csvFile = data.writeCsv("data.csv");
+		heap = new HeapFile(data.writeHeap(pageSize), pageSize);
+		String paxFile = data.path("pax." + pageSize);
+		dbload.loadSequential(csvFile, paxFile, pageSize, constants.SYNC_NEVER, true);
+		new File(csvFile).delete();
+		pax = new PaxFile(paxFile, pageSize);
+		aggregator = new Aggregator(Aggregator.forName(groupBy), threads);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		aggregator.shutdown();
+		heap.close();
+		pax.close();
+		data.delete();
+	}
+
+	@Benchmark
+	public LongAggregateMap row() {
+		return aggregator.aggregate(heap);
+	}
+
+	@Benchmark
+	public LongAggregateMap pax() throws IOException {
+		return aggregator.aggregate(pax);
+	}
+}
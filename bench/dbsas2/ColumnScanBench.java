@@ -0,0 +1,136 @@
+package dbsas2;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*ColumnScanBench compares full scans of the row heap file with column scans of the PAX heap file
+ *  holding the same records, for two aggregates: the total of counts (one 4 byte column) and the
+ *  total of counts per sensor (two). Both files are mapped and warm in the page cache, so the
+ *  score is the cost of reading the record bytes in memory; the score is the time for the file.*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ColumnScanBench {
+
+	private static final int MAX_SENSOR = 1024;
+	private static final int[] COUNTS = {constants.COUNTS_OFFSET};
+	private static final int[] SENSOR_COUNTS = {constants.SENSORID_OFFSET, constants.COUNTS_OFFSET};
+
+	@Param({"4096", "16384", "65536"})
+	public int pageSize;
+
+	@Param({"1000000"})
+	public int records;
+
+	private SensorData data;
+	private HeapFile heap;
+	private PaxFile pax;
+	private int[] sensorIds;
+	private int[] counts;
+	private long[] totals;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException, ParseException {
+		data = new SensorData(records);
+		String csvFile = data.writeCsv("data.csv");
+		heap = new HeapFile(data.writeHeap(pageSize), pageSize);
+		String paxFile = data.path("pax." + pageSize);
+		dbload.loadSequential(csvFile, paxFile, pageSize, constants.SYNC_NEVER, true);
+		new File(csvFile).delete();
+		pax = new PaxFile(paxFile, pageSize);
+		sensorIds = new int[pax.getCapacity()];
+		counts = new int[pax.getCapacity()];
+		totals = new long[MAX_SENSOR];
+		System.out.println("column scans read " + PaxFile.columnBytes(COUNTS) + " and "
+				+ PaxFile.columnBytes(SENSOR_COUNTS) + " of " + constants.TOTAL_SIZE + " bytes per record");
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		heap.close();
+		pax.close();
+		data.delete();
+	}
+
+	@Benchmark
+	public long rowSumCounts() {
+		long total = 0;
+		for (long pageNumber = 0; pageNumber < heap.getPageCount(); pageNumber++) {
+			ByteBuffer page = heap.page(pageNumber);
+			int count = heap.recordCount(page);
+			for (int i = 0; i < count; i++) {
+				total += page.getInt(HeapFile.recordPosition(i) + constants.COUNTS_OFFSET);
+			}
+		}
+		return total;
+	}
+
+	@Benchmark
+	public long paxSumCounts() throws IOException {
+		final long[] total = new long[1];
+		pax.scan(COUNTS, new ColumnVisitor() {
+			public boolean visit(ColumnPage page) {
+				page.getInts(constants.COUNTS_OFFSET, counts);
+				long sum = 0;
+				for (int i = 0; i < page.recordCount(); i++) {
+					sum += counts[i];
+				}
+				total[0] += sum;
+				return true;
+			}
+		});
+		return total[0];
+	}
+
+	@Benchmark
+	public long[] rowSensorTotals() {
+		Arrays.fill(totals, 0);
+		for (long pageNumber = 0; pageNumber < heap.getPageCount(); pageNumber++) {
+			ByteBuffer page = heap.page(pageNumber);
+			int count = heap.recordCount(page);
+			for (int i = 0; i < count; i++) {
+				int position = HeapFile.recordPosition(i);
+				totals[page.getInt(position + constants.SENSORID_OFFSET) & (MAX_SENSOR - 1)]
+						+= page.getInt(position + constants.COUNTS_OFFSET);
+			}
+		}
+		return totals;
+	}
+
+	@Benchmark
+	public long[] paxSensorTotals() throws IOException {
+		Arrays.fill(totals, 0);
+		pax.scan(SENSOR_COUNTS, new ColumnVisitor() {
+			public boolean visit(ColumnPage page) {
+				page.getInts(constants.SENSORID_OFFSET, sensorIds);
+				page.getInts(constants.COUNTS_OFFSET, counts);
+				for (int i = 0; i < page.recordCount(); i++) {
+					totals[sensorIds[i] & (MAX_SENSOR - 1)] += counts[i];
+				}
+				return true;
+			}
+		});
+		return totals;
+	}
+}
@@ -0,0 +1,90 @@
+package dbsas2;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*CsvParseBench compares encoding one page of csv rows with the String based dbload.encodeRecord
+ *  path (split, parseInt, SimpleDateFormat, padded Strings) and with the byte level CsvRecordParser.
+ *  Both produce the same record bytes; the score is the time to encode a full page of the given size.*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CsvParseBench {
+
+	@Param({"4096", "16384", "65536"})
+	public int pageSize;
+
+	private String[] lines;
+	private byte[] buffer; //all lines, newline separated, as dbload reads them
+	private int[] lineStart;
+	private int[] lineEnd;
+	private SimpleDateFormat dateFormat;
+	private ByteArrayOutputStream byteOutput;
+	private DataOutputStream dataOutput;
+	private CsvRecordParser parser;
+	private ByteBuffer page;
+
+	@Setup
+	public void setup() {
+		int records = pageSize / constants.TOTAL_SIZE;
+		// rows in the Melbourne pedestrian counting layout: one row per sensor per hour
+		lines = new String[records];
+		StringBuilder text = new StringBuilder();
+		lineStart = new int[records];
+		lineEnd = new int[records];
+		for (int i = 0; i < records; i++) {
+			int hour = i % 24;
+			lines[i] = (2887628 + i) + ",11/01/2019 " + String.format("%02d", (hour % 12 == 0) ? 12 : hour % 12)
+					+ ":00:00 " + ((hour < 12) ? "AM" : "PM") + ",2019,November,1,Friday," + hour + "," + (i % 60)
+					+ ",Sensor Location " + (i % 60) + "," + (i * 37 % 2000);
+			lineStart[i] = text.length();
+			text.append(lines[i]);
+			lineEnd[i] = text.length();
+			text.append('\n');
+		}
+		buffer = text.toString().getBytes(StandardCharsets.ISO_8859_1);
+		dateFormat = new SimpleDateFormat("MM/dd/yyyy hh:mm:ss a");
+		byteOutput = new ByteArrayOutputStream(pageSize);
+		dataOutput = new DataOutputStream(byteOutput);
+		parser = new CsvRecordParser();
+		page = ByteBuffer.allocateDirect(pageSize);
+	}
+
+	@Benchmark
+	public int stringPath() throws IOException, ParseException {
+		byteOutput.reset();
+		for (int i = 0; i < lines.length; i++) {
+			dbload.encodeRecord(lines[i], dateFormat, dataOutput);
+		}
+		return byteOutput.size();
+	}
+
+	@Benchmark
+	public ByteBuffer bytePath() throws ParseException {
+		for (int i = 0; i < lineStart.length; i++) {
+			parser.encode(buffer, lineStart[i], lineEnd[i], page, i * constants.TOTAL_SIZE);
+		}
+		return page;
+	}
+}
@@ -0,0 +1,107 @@
+package dbsas2;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*FilterScanBench times dbscan's filter over row and PAX heap files against decoding every record
+ *  and testing the decoded fields, for a selective and a broad filter. The files are warm in the
+ *  page cache; the score is the time for the whole file.*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FilterScanBench {
+
+	@Param({"16384"})
+	public int pageSize;
+
+	@Param({"1000000"})
+	public int records;
+
+	@Param({"1", "4"})
+	public int threads;
+
+	// a filter matching about 1 in 2000 records, and one matching about half of them
+	@Param({"sensorid in 3,7;day = Sunday;counts > 1900", "counts >= 1000"})
+	public String filter;
+
+	private SensorData data;
+	private HeapFile heap;
+	private PaxFile pax;
+	private FilterScan scan;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException, ParseException {
+		data = new SensorData(records);
+		String csvFile = data.writeCsv("data.csv");
+		heap = new HeapFile(data.writeHeap(pageSize), pageSize);
+		String paxFile = data.path("pax." + pageSize);
+		dbload.loadSequential(csvFile, paxFile, pageSize, constants.SYNC_NEVER, true);
+		new File(csvFile).delete();
+		pax = new PaxFile(paxFile, pageSize);
+		String[] conditions = filter.split(";");
+		ScanPredicate[] predicates = new ScanPredicate[conditions.length];
+		for (int i = 0; i < conditions.length; i++) {
+			predicates[i] = ScanPredicate.parse(conditions[i]);
+		}
+		scan = new FilterScan(predicates, threads);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		scan.shutdown();
+		heap.close();
+		pax.close();
+		data.delete();
+	}
+
+	@Benchmark
+	public long[] row() {
+		return scan.scan(heap);
+	}
+
+	@Benchmark
+	public long[] pax() {
+		return scan.scan(pax);
+	}
+
+	// Baseline: decode every record of the row file, on one thread, and test the fields
+	@Benchmark
+	public long decodeAll() {
+		boolean selective = filter.indexOf(';') >= 0;
+		long matches = 0;
+		for (long pageNumber = 0; pageNumber < heap.getPageCount(); pageNumber++) {
+			ByteBuffer page = heap.page(pageNumber);
+			int count = heap.recordCount(page);
+			for (int i = 0; i < count; i++) {
+				HeapRecord record = HeapRecord.decode(page, HeapFile.recordPosition(i));
+				boolean match = selective
+						? (record.sensorId == 3 || record.sensorId == 7) && record.day.equals("Sunday") && record.counts > 1900
+						: record.counts >= 1000;
+				if (match) {
+					matches++;
+				}
+			}
+		}
+		return matches;
+	}
+}
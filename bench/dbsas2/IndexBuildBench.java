@@ -0,0 +1,104 @@
+package dbsas2;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*IndexBuildBench times treeload building the index of a synthetic heap file, bulk loaded and record
+ *  by record through the in-memory tree, for each page size and key type. The score covers the heap
+ *  scan, the build and writing the index file, as treeload's "Time taken" does.*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IndexBuildBench {
+
+	@Param({"4096", "16384", "65536"})
+	public int pageSize;
+
+	@Param({"200000"})
+	public int records;
+
+	@Param({constants.KEY_SDT_NAME_ARG, constants.KEY_SENSOR_TIME_ARG})
+	public String key;
+
+	private SensorData data;
+	private String heapFile;
+	private String indexFile;
+	private int keyType;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException, ParseException {
+		data = new SensorData(records);
+		heapFile = data.writeHeap(pageSize);
+		indexFile = data.path("tree." + pageSize);
+		keyType = IndexKey.forName(key);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		data.delete();
+	}
+
+	@Benchmark
+	public int bulk() throws IOException {
+		BulkLoader loader = new BulkLoader(keyType, constants.DEFAULT_FILL_FACTOR);
+		HeapFile heap = new HeapFile(heapFile, pageSize);
+		try {
+			byte[] keyBytes = new byte[IndexKey.length(keyType)];
+			for (long pageNumber = 0; pageNumber < heap.getPageCount(); pageNumber++) {
+				ByteBuffer page = heap.page(pageNumber);
+				for (int i = 0; i < heap.recordCount(page); i++) {
+					long offset = heap.recordOffset(pageNumber, i);
+					IndexKey.fromRecord(keyType, page, HeapFile.recordPosition(i), offset, keyBytes);
+					loader.add(keyBytes, 0, offset);
+				}
+			}
+		}
+		finally {
+			heap.close();
+		}
+		return loader.build(heapFile, indexFile, pageSize, null, -1);
+	}
+
+	@Benchmark
+	public void insert() throws IOException {
+		int keyLength = IndexKey.length(keyType);
+		treeload.initTree(pageSize, keyLength);
+		HeapFile heap = new HeapFile(heapFile, pageSize);
+		try {
+			byte[] keyBytes = new byte[keyLength];
+			for (long pageNumber = 0; pageNumber < heap.getPageCount(); pageNumber++) {
+				ByteBuffer page = heap.page(pageNumber);
+				for (int i = 0; i < heap.recordCount(page); i++) {
+					long offset = heap.recordOffset(pageNumber, i);
+					IndexKey.fromRecord(keyType, page, HeapFile.recordPosition(i), offset, keyBytes);
+					treeload.insertRecord(treeload.root, new String(keyBytes, StandardCharsets.ISO_8859_1), offset);
+				}
+			}
+		}
+		finally {
+			heap.close();
+		}
+		IndexWriter.writeTree(treeload.root, heapFile, indexFile, pageSize, keyType, null, -1);
+		treeload.root = null;
+	}
+}
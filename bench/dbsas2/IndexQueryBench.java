@@ -0,0 +1,171 @@
+package dbsas2;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*IndexQueryBench measures treequery's work against a bulk loaded index of a synthetic heap file:
+ *  - lookup: point lookup latency, reading the root-to-leaf pages from the file as a cold query does
+ *  - lookupPooled: the same with every index page cached in the buffer pool
+ *  - scan: range scan throughput over the leaf chain, in entries per second
+ *  - scanRecords: the same, fetching and decoding each record from the heap a batch at a time
+ *  Keys are drawn from the heap, so every lookup hits. The index size and height are printed once
+ *  per trial, as page size mostly trades one against the other.*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IndexQueryBench {
+
+	private static final int KEYS = 1024;
+	private static final int SCAN_LENGTH = 1000;
+
+	@Param({"4096", "16384", "65536"})
+	public int pageSize;
+
+	@Param({"200000"})
+	public int records;
+
+	@Param({constants.KEY_SDT_NAME_ARG, constants.KEY_SENSOR_TIME_ARG})
+	public String key;
+
+	private SensorData data;
+	private byte[][] keys;
+	private int next;
+	private IndexReader index;
+	private BufferPool pool;
+	private IndexReader pooledIndex;
+	private RecordReader heap;
+	private OffsetSum sum;
+	private RecordBatch batch;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException, ParseException {
+		data = new SensorData(records);
+		String heapFile = data.writeHeap(pageSize);
+		String indexFile = data.path("tree." + pageSize);
+		int keyType = IndexKey.forName(key);
+		BulkLoader loader = new BulkLoader(keyType, constants.DEFAULT_FILL_FACTOR);
+		HeapFile heapPages = new HeapFile(heapFile, pageSize);
+		try {
+			byte[] keyBytes = new byte[IndexKey.length(keyType)];
+			for (long pageNumber = 0; pageNumber < heapPages.getPageCount(); pageNumber++) {
+				ByteBuffer page = heapPages.page(pageNumber);
+				for (int i = 0; i < heapPages.recordCount(page); i++) {
+					long offset = heapPages.recordOffset(pageNumber, i);
+					IndexKey.fromRecord(keyType, page, HeapFile.recordPosition(i), offset, keyBytes);
+					loader.add(keyBytes, 0, offset);
+				}
+			}
+		}
+		finally {
+			heapPages.close();
+		}
+		loader.build(heapFile, indexFile, pageSize, null, -1);
+		keys = SensorData.sampleKeys(heapFile, pageSize, keyType, KEYS, 42);
+
+		index = new IndexReader(indexFile);
+		pool = new BufferPool(index.getPageCount(), pageSize);
+		pooledIndex = new IndexReader(indexFile, pool);
+		heap = new RecordReader(heapFile, pageSize);
+		sum = new OffsetSum();
+		batch = new RecordBatch(heap);
+		System.out.println(index.getPageCount() + " index pages of " + pageSize + " bytes, height " + index.getHeight());
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		index.close();
+		pooledIndex.close();
+		pool.close();
+		heap.close();
+		data.delete();
+	}
+
+	@Benchmark
+	public long lookup() throws IOException {
+		return index.search(keys[next++ & (KEYS - 1)]);
+	}
+
+	@Benchmark
+	public long lookupPooled() throws IOException {
+		return pooledIndex.search(keys[next++ & (KEYS - 1)]);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	@OperationsPerInvocation(SCAN_LENGTH)
+	public long scan() throws IOException {
+		sum.total = 0;
+		index.scan(keys[next++ & (KEYS - 1)], true, null, false, SCAN_LENGTH, sum);
+		return sum.total;
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	@OperationsPerInvocation(SCAN_LENGTH)
+	public long scanRecords() throws IOException {
+		batch.total = 0;
+		index.scan(keys[next++ & (KEYS - 1)], true, null, false, SCAN_LENGTH, batch);
+		batch.flush();
+		return batch.total;
+	}
+
+	/*OffsetSum consumes the entries of a scan without touching the heap*/
+	private static final class OffsetSum implements IndexEntryVisitor {
+		long total;
+
+		public boolean visit(byte[] key, long offset) {
+			total += offset;
+			return true;
+		}
+	}
+
+	/*RecordBatch fetches the records of a scan a batch at a time, as treequery's RecordPrinter does*/
+	private static final class RecordBatch implements IndexEntryVisitor {
+		private final RecordReader records;
+		private final long[] offsets = new long[constants.FETCH_BATCH_SIZE];
+		private int count;
+		long total;
+
+		RecordBatch(RecordReader records) {
+			this.records = records;
+		}
+
+		public boolean visit(byte[] key, long offset) throws IOException {
+			offsets[count++] = offset;
+			if (count == offsets.length) {
+				flush();
+			}
+			return true;
+		}
+
+		void flush() throws IOException {
+			HeapRecord[] fetched = records.fetchAll(offsets, count);
+			for (int i = 0; i < count; i++) {
+				total += fetched[i].counts;
+			}
+			count = 0;
+		}
+	}
+}
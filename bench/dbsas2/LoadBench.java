@@ -0,0 +1,74 @@
+package dbsas2;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*LoadBench times dbload turning a synthetic csv of the given number of rows into a heap file, on
+ *  the calling thread and with the ParallelLoader on every processor. The score is the time for the
+ *  whole file; records per second is records divided by it. The heap is rewritten from scratch on
+ *  every call and is not synced, so the score is the cost of parsing and writing, not of the disk.*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoadBench {
+
+	@Param({"4096", "16384", "65536"})
+	public int pageSize;
+
+	@Param({"200000"})
+	public int records;
+
+	private SensorData data;
+	private String csvFile;
+	private String heapFile;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		data = new SensorData(records);
+		csvFile = data.writeCsv("data.csv");
+		heapFile = data.path("heap." + pageSize);
+	}
+
+	// the heap writer appends, so every load starts without a heap file
+	@Setup(Level.Invocation)
+	public void removeHeap() {
+		new File(heapFile).delete();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		data.delete();
+	}
+
+	@Benchmark
+	public int sequential() throws IOException, ParseException {
+		return dbload.loadSequential(csvFile, heapFile, pageSize, constants.SYNC_NEVER, false);
+	}
+
+	@Benchmark
+	public int parallel() throws IOException, ParseException, InterruptedException {
+		ParallelLoader loader = new ParallelLoader(pageSize, Runtime.getRuntime().availableProcessors(),
+				constants.SYNC_NEVER);
+		loader.load(csvFile, heapFile);
+		return loader.getNumRecordsLoaded();
+	}
+}
@@ -0,0 +1,117 @@
+package dbsas2;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*NodeSearchBench compares the linear key scans treeload and treequery used inside a node
+ *  with the binary searches in NodeSearch and NodeCursor, on full nodes of SDT_NAME keys.
+ *  The score is the time of one search in a node filling a page of the given size.*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NodeSearchBench {
+
+	private static final int PROBES = 1024;
+
+	@Param({"4096", "16384", "65536"})
+	public int pageSize;
+
+	private List<String> keys;
+	private ByteBuffer page;
+	private NodeCursor cursor;
+	private String[] probes;
+	private byte[][] probeBytes;
+	private int next;
+
+	@Setup
+	public void setup() {
+		int keyLength = constants.STD_NAME_SIZE;
+
+		// one full leaf of keys: a sensor id followed by consecutive hourly timestamps
+		keys = new ArrayList<String>();
+		for (int i = 0; i < pageSize / 4; i++) {
+			keys.add(String.format("%d%02d/%02d/2019 %02d:00:00 %s", 17, 1 + i / 700, 1 + (i / 24) % 28,
+					1 + i % 12, (i % 24 < 12) ? "AM" : "PM"));
+		}
+		Collections.sort(keys);
+		page = ByteBuffer.allocate(pageSize);
+		NodeBuilder node = new NodeBuilder(pageSize, keyLength);
+		node.start(page, true);
+		for (String key : keys) {
+			byte[] bytes = IndexWriter.keyBytes(key, keyLength);
+			if (!node.fits(bytes, 0, keyLength, pageSize)) {
+				break;
+			}
+			node.add(bytes, 0, keyLength, node.count());
+		}
+		node.finish();
+		int fanout = node.count();
+		keys = new ArrayList<String>(keys.subList(0, fanout));
+		cursor = new NodeCursor(keyLength);
+		Random random = new Random(42);
+		probes = new String[PROBES];
+		probeBytes = new byte[PROBES][];
+		for (int i = 0; i < PROBES; i++) {
+			probes[i] = keys.get(random.nextInt(fanout));
+			probeBytes[i] = IndexWriter.keyBytes(probes[i], keyLength);
+		}
+	}
+
+	// The previous treequery leaf search: indexOf to test for the key, then a scan for its position
+	@Benchmark
+	public int blockLinear() {
+		String key = probes[next++ & (PROBES - 1)];
+		if (keys.indexOf(key) == -1) {
+			return -1;
+		}
+		for (int j = 0; j < keys.size(); j++) {
+			if (key.compareTo(keys.get(j)) <= 0) {
+				return j;
+			}
+		}
+		return keys.size();
+	}
+
+	@Benchmark
+	public int blockBinary() {
+		return NodeSearch.lowerBound(keys, probes[next++ & (PROBES - 1)]);
+	}
+
+	// Decode the front coded entries one by one from the start of the page
+	@Benchmark
+	public int pageLinear() {
+		byte[] key = probeBytes[next++ & (PROBES - 1)];
+		cursor.reset(page);
+		while (cursor.next()) {
+			int cmp = cursor.compare(key);
+			if (cmp >= 0) {
+				return (cmp == 0) ? cursor.index() : -1;
+			}
+		}
+		return -1;
+	}
+
+	@Benchmark
+	public int pageBinary() {
+		return cursor.find(page, probeBytes[next++ & (PROBES - 1)]) ? cursor.index() : -1;
+	}
+}
@@ -0,0 +1,101 @@
+package dbsas2;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*RecordDecodeBench measures the cost of getting records out of mapped heap pages: reading two int
+ *  fields in place, decoding whole HeapRecords, and decoding and formatting them as treequery prints
+ *  them. The score is the time for every record of one page, pages taken in turn.*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RecordDecodeBench {
+
+	@Param({"4096", "16384", "65536"})
+	public int pageSize;
+
+	@Param({"50000"})
+	public int records;
+
+	private SensorData data;
+	private HeapFile heap;
+	private ByteBuffer[] pages;
+	private int[] recordCounts;
+	private int next;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException, ParseException {
+		data = new SensorData(records);
+		heap = new HeapFile(data.writeHeap(pageSize), pageSize);
+		pages = new ByteBuffer[(int) heap.getPageCount()];
+		recordCounts = new int[pages.length];
+		for (int i = 0; i < pages.length; i++) {
+			pages[i] = heap.page(i);
+			recordCounts[i] = heap.recordCount(pages[i]);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		heap.close();
+		data.delete();
+	}
+
+	@Benchmark
+	public long fieldsInPlace() {
+		int p = nextPage();
+		ByteBuffer page = pages[p];
+		long total = 0;
+		for (int i = 0; i < recordCounts[p]; i++) {
+			int position = HeapFile.recordPosition(i);
+			total += page.getInt(position + constants.SENSORID_OFFSET) + page.getInt(position + constants.COUNTS_OFFSET);
+		}
+		return total;
+	}
+
+	@Benchmark
+	public long decode() {
+		int p = nextPage();
+		long total = 0;
+		for (int i = 0; i < recordCounts[p]; i++) {
+			HeapRecord record = HeapRecord.decode(pages[p], HeapFile.recordPosition(i));
+			total += record.sensorId + record.counts + record.sdtName.length();
+		}
+		return total;
+	}
+
+	@Benchmark
+	public long decodeAndFormat() {
+		int p = nextPage();
+		long total = 0;
+		for (int i = 0; i < recordCounts[p]; i++) {
+			total += HeapRecord.decode(pages[p], HeapFile.recordPosition(i)).toString().length();
+		}
+		return total;
+	}
+
+	private int nextPage() {
+		int p = next;
+		next = (next + 1 == pages.length) ? 0 : next + 1;
+		return p;
+	}
+}
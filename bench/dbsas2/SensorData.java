@@ -0,0 +1,177 @@
+package dbsas2;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+
+/*SensorData generates synthetic pedestrian counting data in the layout of the source csv: SENSORS
+ *  sensors reporting once an hour from the start of 2019, rows in time order. The rows only depend
+ *  on the record count, so every benchmark and page size sees the same data. Files are written into
+ *  a temporary directory that delete() removes.*/
+final class SensorData {
+
+	public static final int SENSORS = 60;
+	private static final long START_MILLIS = 1546300800000L; // 2019-01-01 00:00 UTC
+	private static final String HEADER = "ID,Date_Time,Year,Month,Mdate,Day,Time,Sensor_ID,Sensor_Name,Hourly_Counts";
+
+	private final File dir;
+	private final int records;
+
+	/**
+	 * @param records : number of rows to generate
+	 * */
+	public SensorData(int records) throws IOException {
+		this.dir = Files.createTempDirectory("dbsas2bench").toFile();
+		this.records = records;
+	}
+
+	public int getRecords() {
+		return records;
+	}
+
+	// Path of a file in the data directory
+	public String path(String name) {
+		return new File(dir, name).getPath();
+	}
+
+	/**
+	 * Write the rows as a csv file with its header line, as dbload reads it
+	 *
+	 * @param name : file name in the data directory
+	 * @return path of the file
+	 * */
+	public String writeCsv(String name) throws IOException {
+		String path = path(name);
+		Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(path), StandardCharsets.ISO_8859_1),
+				1 << 16);
+		try {
+			out.write(HEADER);
+			out.write('\n');
+			Rows rows = new Rows();
+			for (int i = 0; i < records; i++) {
+				out.write(rows.line(i));
+				out.write('\n');
+			}
+		}
+		finally {
+			out.close();
+		}
+		return path;
+	}
+
+	/**
+	 * Write the rows straight into a heap file, encoded as dbload encodes them
+	 *
+	 * @param pageSize : page size of the heap file
+	 * @return path of the heap file, heap.pageSize in the data directory
+	 * */
+	public String writeHeap(int pageSize) throws IOException, ParseException {
+		String path = path("heap." + pageSize);
+		new File(path).delete();
+		CsvRecordParser parser = new CsvRecordParser();
+		HeapWriter writer = new HeapWriter(path, pageSize, constants.LOAD_WRITE_BATCH_PAGES, constants.SYNC_NEVER);
+		try {
+			int perPage = pageSize / constants.TOTAL_SIZE;
+			int inPage = 0;
+			Rows rows = new Rows();
+			for (int i = 0; i < records; i++) {
+				byte[] bytes = rows.line(i).getBytes(StandardCharsets.ISO_8859_1);
+				parser.encode(bytes, 0, bytes.length, writer.page(), HeapFile.recordPosition(inPage));
+				if (++inPage == perPage) {
+					writer.finishPage(inPage * constants.TOTAL_SIZE);
+					inPage = 0;
+				}
+			}
+			if (inPage > 0) {
+				writer.finishPage(inPage * constants.TOTAL_SIZE);
+			}
+		}
+		finally {
+			writer.close();
+		}
+		return path;
+	}
+
+	/**
+	 * Pick keys of records in the heap, for lookups and range scan starts
+	 *
+	 * @param heapFile : heap file written by writeHeap
+	 * @param pageSize : page size of the heap file
+	 * @param keyType : one of the INDEX_KEY_ constants
+	 * @param count : number of keys
+	 * @param seed : seed of the record choice
+	 * @return the keys, in random order
+	 * */
+	public static byte[][] sampleKeys(String heapFile, int pageSize, int keyType, int count, long seed)
+			throws IOException {
+		HeapFile heap = new HeapFile(heapFile, pageSize);
+		try {
+			Random random = new Random(seed);
+			byte[][] keys = new byte[count][];
+			for (int i = 0; i < count; i++) {
+				long pageNumber = random.nextInt((int) heap.getPageCount());
+				ByteBuffer page = heap.page(pageNumber);
+				int slot = random.nextInt(heap.recordCount(page));
+				keys[i] = new byte[IndexKey.length(keyType)];
+				IndexKey.fromRecord(keyType, page, HeapFile.recordPosition(slot), heap.recordOffset(pageNumber, slot),
+						keys[i]);
+			}
+			return keys;
+		}
+		finally {
+			heap.close();
+		}
+	}
+
+	// Remove the data directory and the files in it
+	public void delete() {
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		dir.delete();
+	}
+
+	/*Rows formats row i of the data set. Date fields use the default time zone, as dbload's parser does.*/
+	private static final class Rows {
+
+		private final SimpleDateFormat dateFormat = new SimpleDateFormat("MM/dd/yyyy hh:mm:ss a", Locale.ENGLISH);
+		private final Calendar calendar = Calendar.getInstance();
+		private final StringBuilder line = new StringBuilder(128);
+		private long hour = -1; //hour the date fields below were formatted for
+		private String dateFields;
+
+		String line(int i) {
+			int sensor = 1 + i % SENSORS;
+			long rowHour = i / SENSORS;
+			if (rowHour != hour) {
+				hour = rowHour;
+				Date date = new Date(START_MILLIS + rowHour * 3600000L);
+				calendar.setTime(date);
+				dateFields = dateFormat.format(date) + "," + calendar.get(Calendar.YEAR) + ","
+						+ calendar.getDisplayName(Calendar.MONTH, Calendar.LONG, Locale.ENGLISH) + ","
+						+ calendar.get(Calendar.DAY_OF_MONTH) + ","
+						+ calendar.getDisplayName(Calendar.DAY_OF_WEEK, Calendar.LONG, Locale.ENGLISH) + ","
+						+ calendar.get(Calendar.HOUR_OF_DAY);
+			}
+			line.setLength(0);
+			line.append(i + 1).append(',').append(dateFields).append(',').append(sensor)
+					.append(",Sensor Location Number ").append(sensor).append(',').append(i * 37 % 2000);
+			return line.toString();
+		}
+	}
+}
@@ -0,0 +1,286 @@
+package dbsas2;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/*Aggregator computes count, sum, min and max of counts per group over a heap file, row or PAX.
+ *  The pages are split in halves recursively into fork-join tasks of a few hundred pages; every
+ *  task aggregates its pages into its own LongAggregateMap, and the maps are merged as the tasks
+ *  join, so the threads share nothing while they scan. Group keys are numbers chosen so that their
+ *  order is the natural order of the groups:
+ *  - GROUP_SENSOR_ID: the sensor id
+ *  - GROUP_MONTH: year * 100 + month number
+ *  - GROUP_DAY: day of the week, 1 for Monday to 7 for Sunday
+ *  - GROUP_HOUR: the time field, 0 to 23
+ *  - GROUP_ALL: 0, a single group*/
+final class Aggregator {
+
+	private static final String[] MONTHS = {"January", "February", "March", "April", "May", "June", "July",
+			"August", "September", "October", "November", "December"};
+	private static final String[] DAYS = {"Monday", "Tuesday", "Wednesday", "Thursday", "Friday", "Saturday",
+			"Sunday"};
+
+	private final int groupBy;
+	private final ForkJoinPool pool;
+
+	/**
+	 * @param groupBy : one of the GROUP_ constants
+	 * @param threads : number of threads to scan with
+	 * */
+	public Aggregator(int groupBy, int threads) {
+		this.groupBy = groupBy;
+		this.pool = new ForkJoinPool(threads);
+	}
+
+	/**
+	 * @param name : grouping as given on the command line
+	 * @return one of the GROUP_ constants, or -1 if the name is not known
+	 * */
+	public static int forName(String name) {
+		if (name.equals(constants.GROUP_ALL_ARG)) {
+			return constants.GROUP_ALL;
+		}
+		if (name.equals(constants.GROUP_SENSOR_ID_ARG)) {
+			return constants.GROUP_SENSOR_ID;
+		}
+		if (name.equals(constants.GROUP_MONTH_ARG)) {
+			return constants.GROUP_MONTH;
+		}
+		if (name.equals(constants.GROUP_DAY_ARG)) {
+			return constants.GROUP_DAY;
+		}
+		if (name.equals(constants.GROUP_HOUR_ARG)) {
+			return constants.GROUP_HOUR;
+		}
+		return -1;
+	}
+
+	/**
+	 * Aggregate the records of a row heap file
+	 *
+	 * @param heap : mapped heap file
+	 * @return the aggregates per group key
+	 * */
+	public LongAggregateMap aggregate(HeapFile heap) {
+		return pool.invoke(new RowTask(heap, 0, heap.getPageCount(), taskPages(heap.getPageCount())));
+	}
+
+	/**
+	 * Aggregate the records of a PAX heap file, reading only the columns the grouping needs
+	 *
+	 * @param pax : mapped PAX heap file
+	 * @return the aggregates per group key
+	 * */
+	public LongAggregateMap aggregate(PaxFile pax) throws IOException {
+		try {
+			return pool.invoke(new PaxTask(pax, 0, pax.getPageCount(), taskPages(pax.getPageCount())));
+		}
+		catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	// Pages per task: enough tasks for the threads to balance their load, but not so many that merging shows
+	private int taskPages(long pageCount) {
+		long tasks = (long) pool.getParallelism() * constants.AGGREGATE_TASKS_PER_THREAD;
+		return (int) Math.max(1, (pageCount + tasks - 1) / tasks);
+	}
+
+	// Group key of the record at the given position of a row page
+	private long groupKey(ByteBuffer page, int position) {
+		switch (groupBy) {
+		case constants.GROUP_SENSOR_ID:
+			return page.getInt(position + constants.SENSORID_OFFSET);
+		case constants.GROUP_MONTH:
+			int month = position + constants.MONTH_OFFSET;
+			return page.getInt(position + constants.YEAR_OFFSET) * 100L
+					+ monthNumber(page.get(month), page.get(month + 1), page.get(month + 2));
+		case constants.GROUP_DAY:
+			int day = position + constants.DAY_OFFSET;
+			return dayNumber(page.get(day), page.get(day + 1), page.get(day + 2));
+		case constants.GROUP_HOUR:
+			return page.getInt(position + constants.TIME_OFFSET);
+		default:
+			return 0;
+		}
+	}
+
+	// Group key of a record of a PAX page
+	private long groupKey(ColumnPage page, int row) {
+		switch (groupBy) {
+		case constants.GROUP_SENSOR_ID:
+			return page.getInt(constants.SENSORID_OFFSET, row);
+		case constants.GROUP_MONTH:
+			return page.getInt(constants.YEAR_OFFSET, row) * 100L
+					+ monthNumber(page.getByte(constants.MONTH_OFFSET, row, 0),
+							page.getByte(constants.MONTH_OFFSET, row, 1), page.getByte(constants.MONTH_OFFSET, row, 2));
+		case constants.GROUP_DAY:
+			return dayNumber(page.getByte(constants.DAY_OFFSET, row, 0), page.getByte(constants.DAY_OFFSET, row, 1),
+					page.getByte(constants.DAY_OFFSET, row, 2));
+		case constants.GROUP_HOUR:
+			return page.getInt(constants.TIME_OFFSET, row);
+		default:
+			return 0;
+		}
+	}
+
+	// Columns a PAX scan reads for the grouping: the grouping fields and counts
+	private int[] columns() {
+		switch (groupBy) {
+		case constants.GROUP_SENSOR_ID:
+			return new int[] {constants.SENSORID_OFFSET, constants.COUNTS_OFFSET};
+		case constants.GROUP_MONTH:
+			return new int[] {constants.YEAR_OFFSET, constants.MONTH_OFFSET, constants.COUNTS_OFFSET};
+		case constants.GROUP_DAY:
+			return new int[] {constants.DAY_OFFSET, constants.COUNTS_OFFSET};
+		case constants.GROUP_HOUR:
+			return new int[] {constants.TIME_OFFSET, constants.COUNTS_OFFSET};
+		default:
+			return new int[] {constants.COUNTS_OFFSET};
+		}
+	}
+
+	// Month number, 1 to 12, from the first three letters of the month name; 0 if it is not a month
+	static int monthNumber(byte a, byte b, byte c) {
+		switch ((a << 16) | (b << 8) | c) {
+		case ('J' << 16) | ('a' << 8) | 'n': return 1;
+		case ('F' << 16) | ('e' << 8) | 'b': return 2;
+		case ('M' << 16) | ('a' << 8) | 'r': return 3;
+		case ('A' << 16) | ('p' << 8) | 'r': return 4;
+		case ('M' << 16) | ('a' << 8) | 'y': return 5;
+		case ('J' << 16) | ('u' << 8) | 'n': return 6;
+		case ('J' << 16) | ('u' << 8) | 'l': return 7;
+		case ('A' << 16) | ('u' << 8) | 'g': return 8;
+		case ('S' << 16) | ('e' << 8) | 'p': return 9;
+		case ('O' << 16) | ('c' << 8) | 't': return 10;
+		case ('N' << 16) | ('o' << 8) | 'v': return 11;
+		case ('D' << 16) | ('e' << 8) | 'c': return 12;
+		default: return 0;
+		}
+	}
+
+	// Day of the week, 1 for Monday to 7 for Sunday, from the first three letters of the day name
+	static int dayNumber(byte a, byte b, byte c) {
+		switch ((a << 16) | (b << 8) | c) {
+		case ('M' << 16) | ('o' << 8) | 'n': return 1;
+		case ('T' << 16) | ('u' << 8) | 'e': return 2;
+		case ('W' << 16) | ('e' << 8) | 'd': return 3;
+		case ('T' << 16) | ('h' << 8) | 'u': return 4;
+		case ('F' << 16) | ('r' << 8) | 'i': return 5;
+		case ('S' << 16) | ('a' << 8) | 't': return 6;
+		case ('S' << 16) | ('u' << 8) | 'n': return 7;
+		default: return 0;
+		}
+	}
+
+	/**
+	 * @param groupBy : one of the GROUP_ constants
+	 * @param key : group key produced for that grouping
+	 * @return the group as it is printed
+	 * */
+	public static String groupName(int groupBy, long key) {
+		switch (groupBy) {
+		case constants.GROUP_MONTH:
+			int month = (int) (key % 100);
+			return (key / 100) + " " + ((month >= 1 && month <= 12) ? MONTHS[month - 1] : "?");
+		case constants.GROUP_DAY:
+			return (key >= 1 && key <= 7) ? DAYS[(int) key - 1] : "?";
+		case constants.GROUP_ALL:
+			return constants.GROUP_ALL_ARG;
+		default:
+			return String.valueOf(key);
+		}
+	}
+
+	/*RowTask aggregates a range of pages of a row heap file*/
+	@SuppressWarnings("serial") //fork-join tasks are never serialized
+	private final class RowTask extends RecursiveTask<LongAggregateMap> {
+
+		private final HeapFile heap;
+		private final long firstPage;
+		private final long endPage;
+		private final int taskPages;
+
+		RowTask(HeapFile heap, long firstPage, long endPage, int taskPages) {
+			this.heap = heap;
+			this.firstPage = firstPage;
+			this.endPage = endPage;
+			this.taskPages = taskPages;
+		}
+
+		protected LongAggregateMap compute() {
+			if (endPage - firstPage > taskPages) {
+				long middle = (firstPage + endPage) >>> 1;
+				RowTask left = new RowTask(heap, firstPage, middle, taskPages);
+				left.fork();
+				LongAggregateMap aggregates = new RowTask(heap, middle, endPage, taskPages).compute();
+				aggregates.merge(left.join());
+				return aggregates;
+			}
+			LongAggregateMap aggregates = new LongAggregateMap();
+			for (long pageNumber = firstPage; pageNumber < endPage; pageNumber++) {
+				ByteBuffer page = heap.page(pageNumber);
+				int count = heap.recordCount(page);
+				for (int i = 0; i < count; i++) {
+					int position = HeapFile.recordPosition(i);
+					aggregates.add(groupKey(page, position), page.getInt(position + constants.COUNTS_OFFSET));
+				}
+			}
+			return aggregates;
+		}
+	}
+
+	/*PaxTask aggregates a range of pages of a PAX heap file*/
+	@SuppressWarnings("serial")
+	private final class PaxTask extends RecursiveTask<LongAggregateMap> implements ColumnVisitor {
+
+		private final PaxFile pax;
+		private final long firstPage;
+		private final long endPage;
+		private final int taskPages;
+		private LongAggregateMap aggregates;
+		private int[] counts;
+
+		PaxTask(PaxFile pax, long firstPage, long endPage, int taskPages) {
+			this.pax = pax;
+			this.firstPage = firstPage;
+			this.endPage = endPage;
+			this.taskPages = taskPages;
+		}
+
+		protected LongAggregateMap compute() {
+			if (endPage - firstPage > taskPages) {
+				long middle = (firstPage + endPage) >>> 1;
+				PaxTask left = new PaxTask(pax, firstPage, middle, taskPages);
+				left.fork();
+				LongAggregateMap result = new PaxTask(pax, middle, endPage, taskPages).compute();
+				result.merge(left.join());
+				return result;
+			}
+			aggregates = new LongAggregateMap();
+			counts = new int[pax.getCapacity()];
+			try {
+				pax.scan(columns(), firstPage, endPage, this);
+			}
+			catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			return aggregates;
+		}
+
+		public boolean visit(ColumnPage page) {
+			page.getInts(constants.COUNTS_OFFSET, counts);
+			for (int i = 0; i < page.recordCount(); i++) {
+				aggregates.add(groupKey(page, i), counts[i]);
+			}
+			return true;
+		}
+	}
+}
@@ -0,0 +1,26 @@
+package dbsas2;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*BPlusTree class to store various details regarding each block of the file like,
+ *  the key values and pointers to connecting blocks*/
+class BPlusTree {
+	public List<String> key; //ArrayList to store the key of the records
+	public List<BPlusTree> blockPtr; //ArrayList to store the block pointers of intermediate blocks to corresponding blocks
+	public BPlusTree parent; //stores the pointer to the parent of the current block
+	public List<Long> offsetval; //ArrayList to store the offset of the records present in the input text data file
+	public BPlusTree rightBlockPtr; //pointer of right block of the current node 
+	public BPlusTree leftBlockPtr; //pointer of right block of the current node 
+	public boolean isLeafBlock; //determines if the current block is a leaf block or intermediate block
+	
+	public BPlusTree() {
+		this.key = new ArrayList<String>();
+		this.blockPtr = new ArrayList<BPlusTree>();
+		this.parent = null;
+		this.offsetval = new ArrayList<Long>();
+		this.rightBlockPtr = null;
+		this.leftBlockPtr = null;
+		this.isLeafBlock = false;
+	}
+}
@@ -0,0 +1,333 @@
+package dbsas2;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/*BufferPool caches pages of the heap and index files in a fixed number of frames. Pages are keyed by
+ *  (file id, page number), stay resident while pinned, and are evicted with the CLOCK algorithm once
+ *  unpinned. Dirty pages are written back to their file when evicted or flushed*/
+class BufferPool implements Closeable {
+
+	private static final int NO_FILE = -1;
+
+	private final int pageSize;
+	private final int capacity; //number of frames, the memory budget in pages
+	private final ByteBuffer[] frames;
+	private final int[] frameFile; //file id of the page held in each frame, NO_FILE if the frame is free
+	private final long[] framePage; //page number of the page held in each frame
+	private final int[] pinCount;
+	private final boolean[] referenced; //CLOCK reference bit
+	private final boolean[] dirty;
+	private final PageTable table;
+	private final List<FileChannel> files = new ArrayList<FileChannel>();
+	private int hand; //CLOCK hand
+	private long hits;
+	private long misses;
+	private long evictions;
+	private long writeBacks;
+
+	/**
+	 * @param capacity : memory budget in pages
+	 * @param pageSize : size in bytes of every page cached by the pool
+	 * */
+	public BufferPool(int capacity, int pageSize) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Buffer pool needs at least one frame");
+		}
+		this.pageSize = pageSize;
+		this.capacity = capacity;
+		this.frames = new ByteBuffer[capacity];
+		this.frameFile = new int[capacity];
+		this.framePage = new long[capacity];
+		this.pinCount = new int[capacity];
+		this.referenced = new boolean[capacity];
+		this.dirty = new boolean[capacity];
+		this.table = new PageTable(capacity);
+		for (int i = 0; i < capacity; i++) {
+			frameFile[i] = NO_FILE;
+		}
+	}
+
+	public int getPageSize() {
+		return pageSize;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	public synchronized long getWriteBacks() {
+		return writeBacks;
+	}
+
+	// Hit and miss counters in one line, for the statistics printed by treeload and treequery
+	public synchronized String statistics() {
+		long requests = hits + misses;
+		String ratio = (requests == 0) ? "0" : String.format("%.1f", 100.0 * hits / requests);
+		return "Buffer pool: " + capacity + " pages, hits " + hits + ", misses " + misses + " (" + ratio
+				+ "% hit), evictions " + evictions + ", write-backs " + writeBacks;
+	}
+
+	/**
+	 * Register a file whose pages will be cached
+	 *
+	 * @param channel : open channel of the file; it stays owned by the caller
+	 * @return file id to use with pin and unpin
+	 * */
+	public synchronized int register(FileChannel channel) {
+		files.add(channel);
+		return files.size() - 1;
+	}
+
+	/**
+	 * Pin a page, reading it from its file unless it is already cached. The returned buffer is
+	 * only valid until the matching unpin and must be used with absolute gets and puts.
+	 *
+	 * @param fileId : id returned by register
+	 * @param pageNumber : page of the file, counting from 0
+	 * @return the frame holding the page
+	 * */
+	public synchronized ByteBuffer pin(int fileId, long pageNumber) throws IOException {
+		return pin(fileId, pageNumber, true);
+	}
+
+	/**
+	 * Pin a page that is about to be overwritten completely, without reading it from its file
+	 *
+	 * @param fileId : id returned by register
+	 * @param pageNumber : page of the file, counting from 0
+	 * @return the frame for the page
+	 * */
+	public synchronized ByteBuffer pinNew(int fileId, long pageNumber) throws IOException {
+		return pin(fileId, pageNumber, false);
+	}
+
+	private ByteBuffer pin(int fileId, long pageNumber, boolean read) throws IOException {
+		int frame = table.get(fileId, pageNumber);
+		if (frame >= 0) {
+			hits++;
+		}
+		else {
+			misses++;
+			frame = victim();
+			if (frames[frame] == null) {
+				frames[frame] = ByteBuffer.allocate(pageSize);
+			}
+			if (read) {
+				readPage(files.get(fileId), pageNumber, frames[frame]);
+			}
+			frameFile[frame] = fileId;
+			framePage[frame] = pageNumber;
+			dirty[frame] = false;
+			table.put(fileId, pageNumber, frame);
+		}
+		pinCount[frame]++;
+		referenced[frame] = true;
+		return frames[frame];
+	}
+
+	/**
+	 * Release a pin taken with pin or pinNew
+	 *
+	 * @param fileId : id returned by register
+	 * @param pageNumber : page of the file, counting from 0
+	 * @param modified : true if the page was changed and must be written back
+	 * */
+	public synchronized void unpin(int fileId, long pageNumber, boolean modified) {
+		int frame = table.get(fileId, pageNumber);
+		if (frame < 0 || pinCount[frame] == 0) {
+			throw new IllegalStateException("Page " + pageNumber + " of file " + fileId + " is not pinned");
+		}
+		pinCount[frame]--;
+		if (modified) {
+			dirty[frame] = true;
+		}
+	}
+
+	/**
+	 * Write back every dirty page of a file
+	 *
+	 * @param fileId : id returned by register
+	 * */
+	public synchronized void flush(int fileId) throws IOException {
+		for (int frame = 0; frame < capacity; frame++) {
+			if (frameFile[frame] == fileId && dirty[frame]) {
+				writeBack(frame);
+			}
+		}
+	}
+
+	/**
+	 * Write back the dirty pages of a file and drop all of its pages from the pool.
+	 * None of its pages may still be pinned.
+	 *
+	 * @param fileId : id returned by register
+	 * */
+	public synchronized void release(int fileId) throws IOException {
+		flush(fileId);
+		for (int frame = 0; frame < capacity; frame++) {
+			if (frameFile[frame] == fileId) {
+				if (pinCount[frame] > 0) {
+					throw new IllegalStateException("Page " + framePage[frame] + " of file " + fileId + " is still pinned");
+				}
+				table.remove(fileId, framePage[frame]);
+				frameFile[frame] = NO_FILE;
+			}
+		}
+		files.set(fileId, null);
+	}
+
+	// Write back every dirty page; the files themselves stay open
+	public synchronized void close() throws IOException {
+		for (int frame = 0; frame < capacity; frame++) {
+			if (frameFile[frame] != NO_FILE && dirty[frame]) {
+				writeBack(frame);
+			}
+		}
+	}
+
+	// Choose a frame for a new page with the CLOCK algorithm, writing back its old page if dirty
+	private int victim() throws IOException {
+		for (int step = 0; step < 2 * capacity; step++) {
+			int frame = hand;
+			hand = (hand + 1) % capacity;
+			if (frameFile[frame] == NO_FILE) {
+				return frame;
+			}
+			if (pinCount[frame] > 0) {
+				continue;
+			}
+			if (referenced[frame]) {
+				// second chance
+				referenced[frame] = false;
+				continue;
+			}
+			if (dirty[frame]) {
+				writeBack(frame);
+			}
+			table.remove(frameFile[frame], framePage[frame]);
+			frameFile[frame] = NO_FILE;
+			evictions++;
+			return frame;
+		}
+		throw new IOException("All " + capacity + " buffer pool pages are pinned");
+	}
+
+	private void writeBack(int frame) throws IOException {
+		ByteBuffer buffer = frames[frame].duplicate();
+		buffer.clear();
+		FileChannel channel = files.get(frameFile[frame]);
+		long position = framePage[frame] * pageSize;
+		while (buffer.hasRemaining()) {
+			channel.write(buffer, position + buffer.position());
+		}
+		dirty[frame] = false;
+		writeBacks++;
+	}
+
+	// Read a page; the part of a page past the end of the file reads as zeros
+	private void readPage(FileChannel channel, long pageNumber, ByteBuffer frame) throws IOException {
+		ByteBuffer buffer = frame.duplicate();
+		buffer.clear();
+		long position = pageNumber * pageSize;
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				break;
+			}
+		}
+		while (buffer.hasRemaining()) {
+			buffer.put((byte) 0);
+		}
+	}
+
+	/*PageTable maps (file id, page number) to the frame holding the page, using open addressing
+	 *  over primitive arrays so lookups allocate nothing*/
+	private static final class PageTable {
+		private final long[] keys;
+		private final int[] values;
+		private final int mask;
+
+		PageTable(int entries) {
+			int size = Integer.highestOneBit(Math.max(entries, 2) * 2 - 1) << 1;
+			keys = new long[size];
+			values = new int[size];
+			mask = size - 1;
+			for (int i = 0; i < size; i++) {
+				values[i] = -1;
+			}
+		}
+
+		private static long key(int fileId, long pageNumber) {
+			return ((long) fileId << 48) | pageNumber;
+		}
+
+		private int slot(long key) {
+			long h = key * 0x9E3779B97F4A7C15L;
+			return (int) (h >>> 32) & mask;
+		}
+
+		int get(int fileId, long pageNumber) {
+			long key = key(fileId, pageNumber);
+			for (int i = slot(key); values[i] >= 0; i = (i + 1) & mask) {
+				if (keys[i] == key) {
+					return values[i];
+				}
+			}
+			return -1;
+		}
+
+		void put(int fileId, long pageNumber, int frame) {
+			long key = key(fileId, pageNumber);
+			int i = slot(key);
+			while (values[i] >= 0 && keys[i] != key) {
+				i = (i + 1) & mask;
+			}
+			keys[i] = key;
+			values[i] = frame;
+		}
+
+		void remove(int fileId, long pageNumber) {
+			long key = key(fileId, pageNumber);
+			int i = slot(key);
+			while (values[i] >= 0 && keys[i] != key) {
+				i = (i + 1) & mask;
+			}
+			if (values[i] < 0) {
+				return;
+			}
+			// shift the following entries of the probe run back so lookups never stop early
+			values[i] = -1;
+			int j = i;
+			while (true) {
+				j = (j + 1) & mask;
+				if (values[j] < 0) {
+					return;
+				}
+				int home = slot(keys[j]);
+				boolean movable = (j > i) ? (home <= i || home > j) : (home <= i && home > j);
+				if (movable) {
+					keys[i] = keys[j];
+					values[i] = values[j];
+					values[j] = -1;
+					i = j;
+				}
+			}
+		}
+	}
+}
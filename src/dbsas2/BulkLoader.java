@@ -0,0 +1,298 @@
+package dbsas2;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/*BulkLoader builds the paged index bottom-up: the (key, record offset) pairs are collected,
+ *  sorted once, packed into leaves left to right and then into internal levels up to the root.
+ *  Internal nodes hold the shortest separators between adjacent nodes rather than whole keys.
+ *  Records sharing a key go into one leaf entry with a posting list of their offsets.*/
+class BulkLoader {
+
+	private final int keyType;
+	private final int keyLength;
+	private final double fillFactor;
+	private byte[] keys; //all collected keys, keyLength bytes each
+	private long[] offsets; //record offset of each collected key
+	private int size; //number of collected pairs
+	private int duplicates; //number of pairs whose key an earlier pair has
+
+	/**
+	 * @param keyType : type of the keys, one of the INDEX_KEY_ constants
+	 * @param fillFactor : fraction of each node to fill, between 0 (exclusive) and 1
+	 * */
+	public BulkLoader(int keyType, double fillFactor) {
+		if (fillFactor <= 0 || fillFactor > 1) {
+			throw new IllegalArgumentException("Fill factor must be in (0, 1]: " + fillFactor);
+		}
+		this.keyType = keyType;
+		this.keyLength = IndexKey.length(keyType);
+		this.fillFactor = fillFactor;
+		this.keys = new byte[1024 * keyLength];
+		this.offsets = new long[1024];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int getDuplicates() {
+		return duplicates;
+	}
+
+	/**
+	 * Add one (key, record offset) pair, copying keyLength bytes of the key from a buffer
+	 *
+	 * @param source : buffer holding the key
+	 * @param position : position of the key in the buffer
+	 * @param offset : position of the record in the heap file
+	 * */
+	public void add(byte[] source, int position, long offset) {
+		ensureCapacity();
+		System.arraycopy(source, position, keys, size * keyLength, keyLength);
+		offsets[size] = offset;
+		size++;
+	}
+
+	private void ensureCapacity() {
+		if (size == offsets.length) {
+			int capacity = offsets.length * 2;
+			byte[] newKeys = new byte[capacity * keyLength];
+			System.arraycopy(keys, 0, newKeys, 0, size * keyLength);
+			keys = newKeys;
+			long[] newOffsets = new long[capacity];
+			System.arraycopy(offsets, 0, newOffsets, 0, size);
+			offsets = newOffsets;
+		}
+	}
+
+	/**
+	 * Sort the collected pairs and write them to the index file
+	 *
+	 * @param heapFile : path of the heap file the record offsets point into
+	 * @param indexFile : path where the index file needs to be generated
+	 * @param pageSize : size in bytes of every page of the index file
+	 * @param pool : buffer pool to write pages through, or null to write them directly
+	 * @param heapEnd : heap offset just past the last record collected, see HeapFile.end(), or -1 if unknown
+	 * @return number of pages written, superblock included
+	 * */
+	public int build(String heapFile, String indexFile, int pageSize, BufferPool pool, long heapEnd)
+			throws IOException {
+
+		int[] order = sortedOrder();
+
+		// nodes are filled up to the fill factor of the page; front coding makes entry sizes vary,
+		// so nodes are packed by bytes rather than by a fixed number of keys
+		int limit = (int) (pageSize * fillFactor);
+
+		for (int i = 1; i < size; i++) {
+			if (compareKeys(order[i - 1], order[i]) == 0) {
+				duplicates++;
+			}
+		}
+		int maxPosting = IndexNode.maxPostingSize(pageSize, keyLength);
+		long[] run = new long[Math.max(maxPosting, 1)];
+
+		IndexWriter writer = new IndexWriter(indexFile, pageSize, keyType, pool);
+		try {
+			int nextPage = 1;
+
+			// leaves take contiguous page ids, so each leaf's siblings are the pages either side of it
+			Level level = new Level(keyLength);
+			int firstLeaf = nextPage;
+			int entry = 0;
+			do {
+				int pageId = nextPage++;
+				NodeBuilder node = writer.newNode(true);
+				int first = entry;
+				while (entry < size) {
+					int pair = order[entry];
+					int count = postingRun(order, entry, maxPosting, run);
+					// every node takes at least one entry, whatever the fill factor
+					int nodeLimit = (node.count() == 0) ? pageSize : limit;
+					if (!node.fits(keys, pair * keyLength, keyLength, IndexNode.postingSize(run, 0, count), nodeLimit)) {
+						if (node.count() == 0) {
+							throw new IOException("Page size " + pageSize + " is too small for keys of " + keyLength + " bytes");
+						}
+						break;
+					}
+					if (count == 1) {
+						node.add(keys, pair * keyLength, keyLength, offsets[pair]);
+					}
+					else {
+						node.add(keys, pair * keyLength, keyLength, run, 0, count);
+					}
+					entry += count;
+				}
+				node.setSiblings((pageId == firstLeaf) ? constants.INDEX_NO_PAGE : pageId - 1,
+						(entry == size) ? constants.INDEX_NO_PAGE : pageId + 1);
+				writer.writeNode(pageId);
+				// the separator in front of a leaf is the shortest prefix of its first key above the previous key
+				int separatorLength = (first == 0) ? 0 : IndexNode.separatorLength(keys, order[first - 1] * keyLength,
+						keys, order[first] * keyLength, keyLength);
+				level.add(pageId, keys, (first < size) ? order[first] * keyLength : 0, separatorLength);
+			}
+			while (entry < size);
+
+			// internal levels: every node takes a run of children with the separators between them,
+			// and the separator in front of its first child becomes its own separator in the parent
+			int height = 1;
+			while (level.size > 1) {
+				Level parent = new Level(keyLength);
+				int child = 0;
+				while (child < level.size) {
+					int pageId = nextPage++;
+					NodeBuilder node = writer.newNode(false);
+					int first = child;
+					node.setFirstChild(level.pages[child++]);
+					while (child < level.size) {
+						int nodeLimit = (node.count() == 0) ? pageSize : limit;
+						if (!node.fits(level.separators, child * keyLength, level.lengths[child], nodeLimit)) {
+							if (node.count() == 0) {
+								throw new IOException("Page size " + pageSize + " is too small for keys of " + keyLength + " bytes");
+							}
+							break;
+						}
+						node.add(level.separators, child * keyLength, level.lengths[child], level.pages[child]);
+						child++;
+					}
+					writer.writeNode(pageId);
+					parent.add(pageId, level.separators, first * keyLength, level.lengths[first]);
+				}
+				level = parent;
+				height++;
+			}
+
+			writer.writeSuperblock(heapFile, level.pages[0], firstLeaf, nextPage, height, size, heapEnd);
+			return nextPage;
+		}
+		finally {
+			writer.close();
+		}
+	}
+
+	/*Level collects the nodes of one tree level as they are written: their page ids and the
+	 *  separator in front of each of them, to be stored in the level above*/
+	private static final class Level {
+		private final int keyLength;
+		int[] pages = new int[64];
+		int[] lengths = new int[64]; //separator lengths; 0 for the first node of the level
+		byte[] separators; //keyLength bytes per node
+		int size;
+
+		Level(int keyLength) {
+			this.keyLength = keyLength;
+			this.separators = new byte[pages.length * keyLength];
+		}
+
+		void add(int pageId, byte[] source, int from, int length) {
+			if (size == pages.length) {
+				pages = Arrays.copyOf(pages, size * 2);
+				lengths = Arrays.copyOf(lengths, size * 2);
+				separators = Arrays.copyOf(separators, size * 2 * keyLength);
+			}
+			pages[size] = pageId;
+			lengths[size] = length;
+			System.arraycopy(source, from, separators, size * keyLength, length);
+			size++;
+		}
+	}
+
+	/**
+	 * Collect the offsets of the pairs from order[start] on that share its key, as many as one
+	 * posting list of at most maxSize bytes holds
+	 *
+	 * @param run : receives the offsets, ascending as the pairs are sorted
+	 * @return number of offsets collected, at least one
+	 * */
+	private int postingRun(int[] order, int start, int maxSize, long[] run) {
+		int first = order[start];
+		run[0] = offsets[first];
+		int count = 1;
+		int gaps = 0;
+		while (start + count < size && count < run.length) {
+			int pair = order[start + count];
+			if (compareKeys(first, pair) != 0) {
+				break;
+			}
+			int gap = IndexNode.varintSize(offsets[pair] - run[count - 1]);
+			if (constants.INDEX_OFFSET_SIZE + IndexNode.varintSize(gaps + gap) + gaps + gap > maxSize) {
+				break;
+			}
+			gaps += gap;
+			run[count++] = offsets[pair];
+		}
+		return count;
+	}
+
+	// Compare two collected pairs by key, then by record offset
+	private int compare(int a, int b) {
+		int cmp = compareKeys(a, b);
+		return (cmp != 0) ? cmp : Long.compare(offsets[a], offsets[b]);
+	}
+
+	// Compare two collected keys as unsigned bytes
+	private int compareKeys(int a, int b) {
+		int posA = a * keyLength;
+		int posB = b * keyLength;
+		for (int j = 0; j < keyLength; j++) {
+			int x = keys[posA + j] & 0xff;
+			int y = keys[posB + j] & 0xff;
+			if (x != y) {
+				return x - y;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Sort the collected pairs by key and record offset without moving the key bytes, so the
+	 * offsets of a shared key come out ascending as a posting list stores them. Runs that are
+	 * already in order (the common case for time-ordered sensor feeds) are merged in linear time.
+	 *
+	 * @return pair numbers in ascending key order
+	 * */
+	private int[] sortedOrder() {
+		int[] order = new int[size];
+		for (int i = 0; i < size; i++) {
+			order[i] = i;
+		}
+		if (size > 1) {
+			mergeSort(order, new int[size], 0, size);
+		}
+		return order;
+	}
+
+	private void mergeSort(int[] order, int[] scratch, int from, int to) {
+		if (to - from <= 16) {
+			// insertion sort for short ranges
+			for (int i = from + 1; i < to; i++) {
+				int pair = order[i];
+				int j = i - 1;
+				while (j >= from && compare(order[j], pair) > 0) {
+					order[j + 1] = order[j];
+					j--;
+				}
+				order[j + 1] = pair;
+			}
+			return;
+		}
+		int mid = (from + to) >>> 1;
+		mergeSort(order, scratch, from, mid);
+		mergeSort(order, scratch, mid, to);
+		if (compare(order[mid - 1], order[mid]) <= 0) {
+			return;
+		}
+		System.arraycopy(order, from, scratch, from, to - from);
+		int i = from;
+		int j = mid;
+		for (int k = from; k < to; k++) {
+			if (j >= to || (i < mid && compare(scratch[i], scratch[j]) <= 0)) {
+				order[k] = scratch[i++];
+			}
+			else {
+				order[k] = scratch[j++];
+			}
+		}
+	}
+}
@@ -0,0 +1,149 @@
+package dbsas2;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.zip.CRC32;
+
+/*CheckpointJournal makes the page writes of a checkpoint atomic. The new images of all pages the
+ *  checkpoint writes, from every index file, first go to the journal file with a crc32 of the whole
+ *  journal, and are forced to disk; only then are they written in place. A crash while the pages
+ *  are written in place leaves a complete journal, and restore writes the pages again from it; a
+ *  crash while the journal is written leaves one that fails its check, and the files in place have
+ *  not been touched. The journal is deleted once the pages are on disk in place.*/
+final class CheckpointJournal {
+
+	private CheckpointJournal() {
+	}
+
+	/**
+	 * Write the journal of a checkpoint and force it to disk
+	 *
+	 * @param journalFile : path of the journal file
+	 * @param pageSize : size in bytes of the pages
+	 * @param pages : for each index file, in file number order, the new page images by page id
+	 * */
+	public static void write(String journalFile, int pageSize, List<SortedMap<Integer, ByteBuffer>> pages)
+			throws IOException {
+		int count = 0;
+		for (SortedMap<Integer, ByteBuffer> filePages : pages) {
+			count += filePages.size();
+		}
+		CRC32 crc = new CRC32();
+		FileChannel channel = FileChannel.open(Paths.get(journalFile), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		try {
+			ByteBuffer header = ByteBuffer.allocate(constants.JOURNAL_HEADER_SIZE);
+			header.putInt(constants.JOURNAL_MAGIC);
+			header.putInt(count);
+			header.flip();
+			write(channel, header, crc);
+			ByteBuffer pageHeader = ByteBuffer.allocate(constants.JOURNAL_PAGE_HEADER_SIZE);
+			for (int file = 0; file < pages.size(); file++) {
+				for (Map.Entry<Integer, ByteBuffer> page : pages.get(file).entrySet()) {
+					pageHeader.clear();
+					pageHeader.putInt(file);
+					pageHeader.putInt(page.getKey());
+					pageHeader.flip();
+					write(channel, pageHeader, crc);
+					ByteBuffer image = page.getValue().duplicate();
+					image.clear();
+					write(channel, image, crc);
+				}
+			}
+			ByteBuffer trailer = ByteBuffer.allocate(constants.JOURNAL_TRAILER_SIZE);
+			trailer.putLong(crc.getValue());
+			trailer.flip();
+			while (trailer.hasRemaining()) {
+				channel.write(trailer);
+			}
+			channel.force(true);
+		}
+		finally {
+			channel.close();
+		}
+	}
+
+	private static void write(FileChannel channel, ByteBuffer buffer, CRC32 crc) throws IOException {
+		// the crc is taken over a copy, as an update from a direct buffer would move its position
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.duplicate().get(bytes);
+		crc.update(bytes, 0, bytes.length);
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	/**
+	 * Write the pages of a complete journal into their index files and delete the journal; a missing
+	 * or incomplete journal is deleted and nothing is written
+	 *
+	 * @param journalFile : path of the journal file
+	 * @param pageSize : size in bytes of the pages
+	 * @param indexFiles : paths of the index files, by file number
+	 * @return number of pages written
+	 * */
+	public static int restore(String journalFile, int pageSize, String[] indexFiles) throws IOException {
+		Path path = Paths.get(journalFile);
+		if (!Files.exists(path)) {
+			return 0;
+		}
+		byte[] journal = Files.readAllBytes(path);
+		ByteBuffer buffer = ByteBuffer.wrap(journal);
+		int entry = constants.JOURNAL_PAGE_HEADER_SIZE + pageSize;
+		boolean complete = journal.length >= constants.JOURNAL_HEADER_SIZE + constants.JOURNAL_TRAILER_SIZE
+				&& buffer.getInt(0) == constants.JOURNAL_MAGIC
+				&& journal.length == constants.JOURNAL_HEADER_SIZE + (long) buffer.getInt(4) * entry
+						+ constants.JOURNAL_TRAILER_SIZE;
+		if (complete) {
+			CRC32 crc = new CRC32();
+			crc.update(journal, 0, journal.length - constants.JOURNAL_TRAILER_SIZE);
+			complete = buffer.getLong(journal.length - constants.JOURNAL_TRAILER_SIZE) == crc.getValue();
+		}
+		int written = 0;
+		if (complete) {
+			FileChannel[] channels = new FileChannel[indexFiles.length];
+			try {
+				int count = buffer.getInt(4);
+				for (int i = 0; i < count; i++) {
+					int at = constants.JOURNAL_HEADER_SIZE + i * entry;
+					int file = buffer.getInt(at);
+					int pageId = buffer.getInt(at + 4);
+					if (file < 0 || file >= indexFiles.length) {
+						throw new IOException(journalFile + " refers to index file " + file + " of " + indexFiles.length);
+					}
+					if (channels[file] == null) {
+						channels[file] = FileChannel.open(Paths.get(indexFiles[file]), StandardOpenOption.WRITE);
+					}
+					ByteBuffer image = ByteBuffer.wrap(journal, at + constants.JOURNAL_PAGE_HEADER_SIZE, pageSize);
+					long position = (long) pageId * pageSize;
+					while (image.hasRemaining()) {
+						position += channels[file].write(image, position);
+					}
+					written++;
+				}
+				for (FileChannel channel : channels) {
+					if (channel != null) {
+						channel.force(true);
+					}
+				}
+			}
+			finally {
+				for (FileChannel channel : channels) {
+					if (channel != null) {
+						channel.close();
+					}
+				}
+			}
+		}
+		Files.delete(path);
+		return written;
+	}
+}
@@ -0,0 +1,100 @@
+package dbsas2;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/*ColumnPage gives a column scan access to the requested columns of one PAX page. Columns are named
+ *  by the offset of their field in a row record (constants.*_OFFSET); values are read in place from
+ *  the page, one at a time or a whole column into an array. Asking for a column the scan did not
+ *  request is an error, so a scan states every byte it reads up front.*/
+final class ColumnPage {
+
+	private final int capacity;
+	private final boolean[] requested; //by field offset
+	private ByteBuffer page;
+	private long pageNumber;
+	private int count;
+
+	/**
+	 * @param capacity : number of slots per page, see PaxPage.capacity
+	 * @param columns : offsets of the requested fields
+	 * */
+	ColumnPage(int capacity, int[] columns) {
+		this.capacity = capacity;
+		this.requested = new boolean[constants.TOTAL_SIZE];
+		for (int column : columns) {
+			PaxPage.fieldSize(column);
+			requested[column] = true;
+		}
+	}
+
+	void reset(ByteBuffer page, long pageNumber) {
+		this.page = page;
+		this.pageNumber = pageNumber;
+		this.count = PaxPage.recordCount(page);
+	}
+
+	public long pageNumber() {
+		return pageNumber;
+	}
+
+	public int recordCount() {
+		return count;
+	}
+
+	public int getInt(int field, int row) {
+		return page.getInt(position(field) + row * Integer.BYTES);
+	}
+
+	public long getLong(int field, int row) {
+		return page.getLong(position(field) + row * Long.BYTES);
+	}
+
+	// One byte of a text field of a record
+	public byte getByte(int field, int row, int index) {
+		return page.get(position(field) + row * PaxPage.fieldSize(field) + index);
+	}
+
+	// Text field of a record, without its blank padding
+	public String getText(int field, int row) {
+		int size = PaxPage.fieldSize(field);
+		byte[] bytes = new byte[size];
+		int start = position(field) + row * size;
+		for (int i = 0; i < size; i++) {
+			bytes[i] = page.get(start + i);
+		}
+		return new String(bytes, StandardCharsets.ISO_8859_1).trim();
+	}
+
+	/**
+	 * Copy a 4 byte column into an array
+	 *
+	 * @param field : offset of an int field
+	 * @param values : array of at least recordCount() values
+	 * */
+	public void getInts(int field, int[] values) {
+		ByteBuffer column = page.duplicate();
+		column.position(position(field));
+		column.asIntBuffer().get(values, 0, count);
+	}
+
+	/**
+	 * Copy an 8 byte column into an array
+	 *
+	 * @param field : offset of a long field
+	 * @param values : array of at least recordCount() values
+	 * */
+	public void getLongs(int field, long[] values) {
+		ByteBuffer column = page.duplicate();
+		column.position(position(field));
+		column.asLongBuffer().get(values, 0, count);
+	}
+
+	// Position of a requested column in the page
+	private int position(int field) {
+		if (field < 0 || field >= requested.length || !requested[field]) {
+			throw new IllegalArgumentException("Column at offset " + field + " was not requested by the scan");
+		}
+		return PaxPage.columnStart(capacity, field);
+	}
+}
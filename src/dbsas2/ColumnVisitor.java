@@ -0,0 +1,15 @@
+package dbsas2;
+
+import java.io.IOException;
+
+/*ColumnVisitor receives the pages of a column scan of a PAX heap file, in page order*/
+interface ColumnVisitor {
+
+	/**
+	 * Called once for each page of the scan
+	 *
+	 * @param page : the requested columns of the page; the object is reused for the next page
+	 * @return true to continue the scan, false to stop it
+	 * */
+	boolean visit(ColumnPage page) throws IOException;
+}
@@ -0,0 +1,92 @@
+package dbsas2;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+public class CsvLineReader {
+
+    /*
+     * Reads an input stream line by line without decoding it. Each line is exposed as a
+     * range of the reader's byte buffer, without the line terminator ("\n" or "\r\n"),
+     * and stays valid until the next call to next().
+     */
+
+    private final InputStream input;
+    private byte[] buffer;
+    private int length; // number of valid bytes in buffer
+    private int position; // start of the unread part of buffer
+    private int lineStart;
+    private int lineEnd;
+    private boolean endOfInput;
+
+    public CsvLineReader(InputStream input, int bufferSize) {
+        this.input = input;
+        this.buffer = new byte[bufferSize];
+    }
+
+    /**
+     * Advance to the next line
+     *
+     * @return false once the input is exhausted
+     */
+    public boolean next() throws IOException {
+        while (true) {
+            for (int i = position; i < length; i++) {
+                if (buffer[i] == '\n') {
+                    setLine(position, i);
+                    position = i + 1;
+                    return true;
+                }
+            }
+            if (endOfInput) {
+                if (position < length) {
+                    // last line without a terminator
+                    setLine(position, length);
+                    position = length;
+                    return true;
+                }
+                return false;
+            }
+            fill();
+        }
+    }
+
+    public byte[] buffer() {
+        return buffer;
+    }
+
+    public int start() {
+        return lineStart;
+    }
+
+    public int end() {
+        return lineEnd;
+    }
+
+    private void setLine(int start, int end) {
+        lineStart = start;
+        lineEnd = (end > start && buffer[end - 1] == '\r') ? end - 1 : end;
+    }
+
+    // Move the unread bytes to the front of the buffer, growing it for very long lines, and read more
+    private void fill() throws IOException {
+        int unread = length - position;
+        if (unread == buffer.length) {
+            byte[] larger = new byte[buffer.length * 2];
+            System.arraycopy(buffer, position, larger, 0, unread);
+            buffer = larger;
+        }
+        else {
+            System.arraycopy(buffer, position, buffer, 0, unread);
+        }
+        position = 0;
+        length = unread;
+        int n = input.read(buffer, length, buffer.length - length);
+        if (n < 0) {
+            endOfInput = true;
+        }
+        else {
+            length += n;
+        }
+    }
+}
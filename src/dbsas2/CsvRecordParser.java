@@ -0,0 +1,219 @@
+package dbsas2;
+
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+
+public class CsvRecordParser {
+
+    /*
+     * Byte-level version of dbload.encodeRecord. Parses one csv line in place in the input
+     * buffer and writes the fixed-length record straight into a page buffer, with no
+     * per-row Strings, Date objects or StringBuilders. The output bytes are the same as
+     * those written by encodeRecord for ASCII input. The page is written with absolute puts,
+     * so it may be a direct buffer, and must keep the default big-endian byte order.
+     *
+     * The date time field ("MM/dd/yyyy hh:mm:ss a") is parsed by hand. It is converted to
+     * epoch millis with a reusable lenient GregorianCalendar in the default time zone, as
+     * SimpleDateFormat does, so daylight saving gaps and overlaps resolve the same way.
+     * Consecutive rows usually share a timestamp (one row per sensor per hour), so the
+     * last conversion is cached.
+     *
+     * An instance keeps state between rows and must not be shared between threads.
+     */
+
+    private static final int FIELD_COUNT = 10;
+
+    private final int[] fieldStart = new int[FIELD_COUNT];
+    private final int[] fieldEnd = new int[FIELD_COUNT];
+    private final Calendar calendar = new GregorianCalendar();
+    private int position; // parse position within the date time field
+
+    // fields of the last converted timestamp
+    private int cachedMonth = -1;
+    private int cachedDay;
+    private int cachedYear;
+    private int cachedHour;
+    private int cachedMinute;
+    private int cachedSecond;
+    private int cachedAmPm;
+    private long cachedMillis;
+
+    /**
+     * Encode one csv line into a fixed-length record
+     *
+     * @param line : buffer holding the line
+     * @param start : position of the first byte of the line
+     * @param end : position just past the last byte of the line, without the line terminator
+     * @param page : page buffer the record is written to; its position and limit are not used
+     * @param recordPosition : position of the record in the page
+     */
+    public void encode(byte[] line, int start, int end, ByteBuffer page, int recordPosition) throws ParseException {
+
+        splitFields(line, start, end);
+
+        int id = parseInt(line, constants.ID_POS);
+        long dateTime = parseDateTime(line, fieldStart[constants.DATETIME_POS], fieldEnd[constants.DATETIME_POS]);
+        int year = parseInt(line, constants.YEAR_POS);
+        int mdate = parseInt(line, constants.MDATE_POS);
+        int time = parseInt(line, constants.TIME_POS);
+        int sensorId = parseInt(line, constants.SENSORID_POS);
+        int counts = parseInt(line, constants.COUNTS_POS);
+
+        // SDT_NAME is the sensor id text followed by the date time text
+        int sdtNameEnd = putText(line, fieldStart[constants.SENSORID_POS], fieldEnd[constants.SENSORID_POS],
+                page, recordPosition, recordPosition + constants.STD_NAME_SIZE);
+        sdtNameEnd = putText(line, fieldStart[constants.DATETIME_POS], fieldEnd[constants.DATETIME_POS],
+                page, sdtNameEnd, recordPosition + constants.STD_NAME_SIZE);
+        pad(page, sdtNameEnd, recordPosition + constants.STD_NAME_SIZE);
+
+        // big-endian ints and longs, as DataOutputStream writes them
+        page.putInt(recordPosition + constants.ID_OFFSET, id);
+        page.putLong(recordPosition + constants.DATE_OFFSET, dateTime);
+        page.putInt(recordPosition + constants.YEAR_OFFSET, year);
+        putField(line, constants.MONTH_POS, page, recordPosition + constants.MONTH_OFFSET, constants.MONTH_SIZE);
+        page.putInt(recordPosition + constants.MDATE_OFFSET, mdate);
+        putField(line, constants.DAY_POS, page, recordPosition + constants.DAY_OFFSET, constants.DAY_SIZE);
+        page.putInt(recordPosition + constants.TIME_OFFSET, time);
+        page.putInt(recordPosition + constants.SENSORID_OFFSET, sensorId);
+        putField(line, constants.SENSORNAME_POS, page, recordPosition + constants.SENSORNAME_OFFSET,
+                constants.SENSORNAME_SIZE);
+        page.putInt(recordPosition + constants.COUNTS_OFFSET, counts);
+    }
+
+    // Find the comma separated fields of the line; fields past the tenth are ignored
+    private void splitFields(byte[] line, int start, int end) throws ParseException {
+        int field = 0;
+        fieldStart[0] = start;
+        for (int i = start; i < end && field < FIELD_COUNT; i++) {
+            if (line[i] == ',') {
+                fieldEnd[field] = i;
+                field++;
+                if (field < FIELD_COUNT) {
+                    fieldStart[field] = i + 1;
+                }
+            }
+        }
+        if (field < FIELD_COUNT) {
+            if (field < FIELD_COUNT - 1) {
+                throw new ParseException("Expected " + FIELD_COUNT + " fields but found " + (field + 1), end - start);
+            }
+            fieldEnd[field] = end;
+        }
+    }
+
+    private int parseInt(byte[] line, int field) {
+        int start = fieldStart[field];
+        int end = fieldEnd[field];
+        boolean negative = false;
+        int i = start;
+        if (i < end && (line[i] == '-' || line[i] == '+')) {
+            negative = line[i] == '-';
+            i++;
+        }
+        if (i == end) {
+            throw new NumberFormatException("For input string: \"" + new String(line, start, end - start) + "\"");
+        }
+        int value = 0;
+        for (; i < end; i++) {
+            int digit = line[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("For input string: \"" + new String(line, start, end - start) + "\"");
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parse "MM/dd/yyyy hh:mm:ss a" into milliseconds since the epoch
+     *
+     * @param line : buffer holding the field
+     * @param start : position of the first byte of the field
+     * @param end : position just past the field
+     * @return the date time as epoch milliseconds
+     */
+    private long parseDateTime(byte[] line, int start, int end) throws ParseException {
+        position = start;
+        int month = parseNumber(line, end, '/');
+        int day = parseNumber(line, end, '/');
+        int year = parseNumber(line, end, ' ');
+        int hour = parseNumber(line, end, ':');
+        int minute = parseNumber(line, end, ':');
+        int second = parseNumber(line, end, ' ');
+        if (position >= end) {
+            throw new ParseException("Unparseable date: missing AM/PM marker", position - start);
+        }
+        int amPm;
+        byte marker = line[position];
+        if (marker == 'A' || marker == 'a') {
+            amPm = Calendar.AM;
+        }
+        else if (marker == 'P' || marker == 'p') {
+            amPm = Calendar.PM;
+        }
+        else {
+            throw new ParseException("Unparseable date: bad AM/PM marker", position - start);
+        }
+
+        if (month != cachedMonth || day != cachedDay || year != cachedYear || hour != cachedHour
+                || minute != cachedMinute || second != cachedSecond || amPm != cachedAmPm) {
+            // same fields SimpleDateFormat sets: "hh" of 12 means hour 0 of the half day
+            calendar.clear();
+            calendar.set(Calendar.YEAR, year);
+            calendar.set(Calendar.MONTH, month - 1);
+            calendar.set(Calendar.DAY_OF_MONTH, day);
+            calendar.set(Calendar.HOUR, (hour == 12) ? 0 : hour);
+            calendar.set(Calendar.MINUTE, minute);
+            calendar.set(Calendar.SECOND, second);
+            calendar.set(Calendar.AM_PM, amPm);
+            cachedMillis = calendar.getTimeInMillis();
+            cachedMonth = month;
+            cachedDay = day;
+            cachedYear = year;
+            cachedHour = hour;
+            cachedMinute = minute;
+            cachedSecond = second;
+            cachedAmPm = amPm;
+        }
+        return cachedMillis;
+    }
+
+    // Parse digits from the current position up to the separator, then step past it
+    private int parseNumber(byte[] line, int end, char separator) throws ParseException {
+        int value = 0;
+        int digits = 0;
+        while (position < end && line[position] >= '0' && line[position] <= '9') {
+            value = value * 10 + (line[position] - '0');
+            position++;
+            digits++;
+        }
+        if (digits == 0 || position >= end || line[position] != separator) {
+            throw new ParseException("Unparseable date at byte " + position, position);
+        }
+        position++;
+        return value;
+    }
+
+    // Copy a text field into the page, truncated or blank padded to size
+    private void putField(byte[] line, int field, ByteBuffer page, int position, int size) {
+        int end = putText(line, fieldStart[field], fieldEnd[field], page, position, position + size);
+        pad(page, end, position + size);
+    }
+
+    // Copy bytes into the page up to limit; returns the position after the last byte copied
+    private static int putText(byte[] line, int start, int end, ByteBuffer page, int position, int limit) {
+        int length = Math.min(end - start, limit - position);
+        for (int i = 0; i < length; i++) {
+            page.put(position + i, line[start + i]);
+        }
+        return position + length;
+    }
+
+    private static void pad(ByteBuffer page, int from, int to) {
+        for (int i = from; i < to; i++) {
+            page.put(i, (byte) ' ');
+        }
+    }
+}
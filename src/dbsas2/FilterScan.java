@@ -0,0 +1,151 @@
+package dbsas2;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/*FilterScan finds the records of a heap file, row or PAX, matching every one of a list of
+ *  predicates. Each page is filtered a predicate at a time over a selection vector of its slots
+ *  (see ScanPredicate.filter), reading the fields straight from the page, so no record is decoded
+ *  unless it matches. Pages are split into fork-join tasks as Aggregator splits them, and the
+ *  matches of the tasks are joined in page order.
+ *  A match is returned as the address page number * page size + slot * TOTAL_SIZE: the byte offset
+ *  of the record in a row heap file, as an index stores it, and the same page and slot numbering in
+ *  a PAX file.*/
+final class FilterScan {
+
+	private final ScanPredicate[] predicates;
+	private final ForkJoinPool pool;
+
+	/**
+	 * @param predicates : conditions a record must all meet; none matches every record
+	 * @param threads : number of threads to scan with
+	 * */
+	public FilterScan(ScanPredicate[] predicates, int threads) {
+		this.predicates = predicates;
+		this.pool = new ForkJoinPool(threads);
+	}
+
+	/**
+	 * Find the matching records of a row heap file
+	 *
+	 * @param heap : mapped heap file
+	 * @return addresses of the matching records, in file order
+	 * */
+	public long[] scan(HeapFile heap) {
+		return pool.invoke(new ScanTask(heap, null, 0, heap.getPageCount(), taskPages(heap.getPageCount()))).toArray();
+	}
+
+	/**
+	 * Find the matching records of a PAX heap file, reading only the columns of the predicates
+	 *
+	 * @param pax : mapped PAX heap file
+	 * @return addresses of the matching records, in file order
+	 * */
+	public long[] scan(PaxFile pax) {
+		return pool.invoke(new ScanTask(null, pax, 0, pax.getPageCount(), taskPages(pax.getPageCount()))).toArray();
+	}
+
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	// Page number of a record address
+	public static long pageNumber(long address, int pageSize) {
+		return address / pageSize;
+	}
+
+	// Slot of a record address in its page
+	public static int slot(long address, int pageSize) {
+		return (int) (address % pageSize) / constants.TOTAL_SIZE;
+	}
+
+	private int taskPages(long pageCount) {
+		long tasks = (long) pool.getParallelism() * constants.AGGREGATE_TASKS_PER_THREAD;
+		return (int) Math.max(1, (pageCount + tasks - 1) / tasks);
+	}
+
+	/*Matches is a growable list of record addresses*/
+	private static final class Matches {
+
+		private long[] addresses = new long[64];
+		private int size;
+
+		void add(long address) {
+			if (size == addresses.length) {
+				addresses = Arrays.copyOf(addresses, size * 2);
+			}
+			addresses[size++] = address;
+		}
+
+		void addAll(Matches other) {
+			if (size + other.size > addresses.length) {
+				addresses = Arrays.copyOf(addresses, Math.max(size + other.size, size * 2));
+			}
+			System.arraycopy(other.addresses, 0, addresses, size, other.size);
+			size += other.size;
+		}
+
+		long[] toArray() {
+			return Arrays.copyOf(addresses, size);
+		}
+	}
+
+	/*ScanTask filters a range of pages of either a row or a PAX heap file*/
+	@SuppressWarnings("serial") //fork-join tasks are never serialized
+	private final class ScanTask extends RecursiveTask<Matches> {
+
+		private final HeapFile heap;
+		private final PaxFile pax;
+		private final long firstPage;
+		private final long endPage;
+		private final int taskPages;
+
+		ScanTask(HeapFile heap, PaxFile pax, long firstPage, long endPage, int taskPages) {
+			this.heap = heap;
+			this.pax = pax;
+			this.firstPage = firstPage;
+			this.endPage = endPage;
+			this.taskPages = taskPages;
+		}
+
+		protected Matches compute() {
+			if (endPage - firstPage > taskPages) {
+				long middle = (firstPage + endPage) >>> 1;
+				ScanTask right = new ScanTask(heap, pax, middle, endPage, taskPages);
+				right.fork();
+				Matches matches = new ScanTask(heap, pax, firstPage, middle, taskPages).compute();
+				matches.addAll(right.join());
+				return matches;
+			}
+			int pageSize = (heap != null) ? heap.getPageSize() : pax.getPageSize();
+			int capacity = (heap != null) ? heap.getRecordsPerPage() : pax.getCapacity();
+			// where the field of slot 0 is and how far apart the fields of two slots are, per predicate
+			int[] bases = new int[predicates.length];
+			int[] strides = new int[predicates.length];
+			for (int p = 0; p < predicates.length; p++) {
+				int field = predicates[p].getFieldOffset();
+				bases[p] = (heap != null) ? field : PaxPage.columnStart(capacity, field);
+				strides[p] = (heap != null) ? constants.TOTAL_SIZE : PaxPage.fieldSize(field);
+			}
+			int[] selection = new int[capacity];
+			Matches matches = new Matches();
+			for (long pageNumber = firstPage; pageNumber < endPage; pageNumber++) {
+				ByteBuffer page = (heap != null) ? heap.page(pageNumber) : pax.page(pageNumber);
+				int count = (heap != null) ? heap.recordCount(page) : PaxPage.recordCount(page);
+				for (int i = 0; i < count; i++) {
+					selection[i] = i;
+				}
+				for (int p = 0; p < predicates.length && count > 0; p++) {
+					count = predicates[p].filter(page, bases[p], strides[p], selection, count);
+				}
+				long pageAddress = pageNumber * pageSize;
+				for (int i = 0; i < count; i++) {
+					matches.add(pageAddress + HeapFile.recordPosition(selection[i]));
+				}
+			}
+			return matches;
+		}
+	}
+}
@@ -0,0 +1,120 @@
+package dbsas2;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/*HeapFile maps heap.pagesize read-only into memory and exposes its pages as buffers over the mapping,
+ *  so record fields can be read in place at constants.*_OFFSET without copying them out first.
+ *  The file is mapped in chunks of whole pages, so no page straddles two mappings*/
+class HeapFile implements Closeable {
+
+	private final RandomAccessFile file;
+	private final MappedByteBuffer[] chunks;
+	private final int pageSize;
+	private final int pagesPerChunk;
+	private final long pageCount;
+	private final int recordsPerPage;
+
+	/**
+	 * Map the heap file
+	 *
+	 * @param heapFile : path of the heap file
+	 * @param pageSize : page size the heap file was loaded with
+	 * */
+	public HeapFile(String heapFile, int pageSize) throws IOException {
+		this.file = new RandomAccessFile(heapFile, "r");
+		this.pageSize = pageSize;
+		this.pagesPerChunk = Integer.MAX_VALUE / pageSize;
+		this.pageCount = file.length() / pageSize;
+		this.recordsPerPage = pageSize / constants.TOTAL_SIZE;
+
+		FileChannel channel = file.getChannel();
+		int chunkCount = (int) ((pageCount + pagesPerChunk - 1) / pagesPerChunk);
+		this.chunks = new MappedByteBuffer[chunkCount];
+		for (int i = 0; i < chunkCount; i++) {
+			long firstPage = (long) i * pagesPerChunk;
+			long pages = Math.min(pagesPerChunk, pageCount - firstPage);
+			chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, firstPage * pageSize, pages * pageSize);
+		}
+	}
+
+	public int getPageSize() {
+		return pageSize;
+	}
+
+	public long getPageCount() {
+		return pageCount;
+	}
+
+	public int getRecordsPerPage() {
+		return recordsPerPage;
+	}
+
+	/**
+	 * View of one page of the mapping, positioned from 0 to pageSize. No bytes are copied.
+	 *
+	 * @param pageNumber : page to view, counting from 0
+	 * @return buffer over the page, for absolute reads at recordPosition(slot) + field offset
+	 * */
+	public ByteBuffer page(long pageNumber) {
+		MappedByteBuffer chunk = chunks[(int) (pageNumber / pagesPerChunk)];
+		int start = (int) (pageNumber % pagesPerChunk) * pageSize;
+		ByteBuffer view = chunk.duplicate();
+		view.position(start);
+		view.limit(start + pageSize);
+		return view.slice();
+	}
+
+	// Position of the record in the given slot of a page
+	public static int recordPosition(int slot) {
+		return slot * constants.TOTAL_SIZE;
+	}
+
+	// Byte offset in the heap file of the record in the given page and slot
+	public long recordOffset(long pageNumber, int slot) {
+		return pageNumber * pageSize + recordPosition(slot);
+	}
+
+	/**
+	 * Count the records of a page. Pages are packed, so the first slot with an
+	 * empty SDT_NAME field marks the end of the records.
+	 *
+	 * @param page : page view returned by page()
+	 * @return number of records in the page
+	 * */
+	public int recordCount(ByteBuffer page) {
+		int slot = 0;
+		while (slot < recordsPerPage && page.get(recordPosition(slot)) != 0) {
+			slot++;
+		}
+		return slot;
+	}
+
+	/**
+	 * The high-water mark of the heap: the offset just past its last record. Pages are packed, so
+	 * every record at or past this offset was appended after it was taken.
+	 *
+	 * @return the offset, 0 for an empty heap
+	 * */
+	public long end() {
+		if (pageCount == 0) {
+			return 0;
+		}
+		return recordOffset(pageCount - 1, recordCount(page(pageCount - 1)));
+	}
+
+	// Copy the SDT_NAME key of the record at the given position of a page
+	public static void copyKey(ByteBuffer page, int position, byte[] key) {
+		for (int i = 0; i < constants.STD_NAME_SIZE; i++) {
+			key[i] = page.get(position + i);
+		}
+	}
+
+	public void close() throws IOException {
+		file.close();
+	}
+}
@@ -0,0 +1,60 @@
+package dbsas2;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/*HeapRecord holds the typed fields of one fixed-length record of the heap file*/
+class HeapRecord {
+	public String sdtName; //SDT_NAME field, the sensor id followed by the date time text
+	public int id;
+	public long date; //date time as milliseconds since the epoch
+	public int year;
+	public String month;
+	public int mdate;
+	public String day;
+	public int time;
+	public int sensorId;
+	public String sensorName;
+	public int counts;
+
+	/**
+	 * Decode the record stored at the given position of a page
+	 *
+	 * @param page : heap page holding the record
+	 * @param position : position of the first byte of the record in the page
+	 * @return the decoded record
+	 * */
+	public static HeapRecord decode(ByteBuffer page, int position) {
+		HeapRecord record = new HeapRecord();
+		record.sdtName = text(page, position, constants.STD_NAME_SIZE);
+		record.id = page.getInt(position + constants.ID_OFFSET);
+		record.date = page.getLong(position + constants.DATE_OFFSET);
+		record.year = page.getInt(position + constants.YEAR_OFFSET);
+		record.month = text(page, position + constants.MONTH_OFFSET, constants.MONTH_SIZE);
+		record.mdate = page.getInt(position + constants.MDATE_OFFSET);
+		record.day = text(page, position + constants.DAY_OFFSET, constants.DAY_SIZE);
+		record.time = page.getInt(position + constants.TIME_OFFSET);
+		record.sensorId = page.getInt(position + constants.SENSORID_OFFSET);
+		record.sensorName = text(page, position + constants.SENSORNAME_OFFSET, constants.SENSORNAME_SIZE);
+		record.counts = page.getInt(position + constants.COUNTS_OFFSET);
+		return record;
+	}
+
+	// Read a blank padded text field, dropping the padding
+	private static String text(ByteBuffer page, int position, int size) {
+		byte[] bytes = new byte[size];
+		for (int i = 0; i < size; i++) {
+			bytes[i] = page.get(position + i);
+		}
+		return new String(bytes, StandardCharsets.ISO_8859_1).trim();
+	}
+
+	// Returns the record in the field order of the input csv
+	public String toString() {
+		SimpleDateFormat dateFormat = new SimpleDateFormat("MM/dd/yyyy hh:mm:ss a");
+		return id + "," + dateFormat.format(new Date(date)) + "," + year + "," + month + "," + mdate + ","
+				+ day + "," + time + "," + sensorId + "," + sensorName + "," + counts;
+	}
+}
@@ -0,0 +1,170 @@
+package dbsas2;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+public class HeapWriter implements Closeable {
+
+    /*
+     * Appends pages to a heap file. Records are assembled in place in a batch of reusable
+     * direct pages, and a full batch goes to the file with one gathering write, so the page
+     * bytes are never copied on the Java heap and there is one system call per batch
+     * rather than per page.
+     *
+     * The durability policy decides when the file is forced to disk:
+     * constants.SYNC_NEVER leaves it to the operating system, constants.SYNC_AT_END forces
+     * once when the writer is closed, and a positive interval forces after every that many
+     * pages (and at close).
+     */
+
+    private final FileChannel channel;
+    private final int pageSize;
+    private final int syncInterval;
+    private final ByteBuffer[] batch;
+    private int pagesInBatch;
+    private int pagesSinceSync;
+    private int pagesWritten;
+
+    /**
+     * @param fileName : path of the heap file; pages are appended to it
+     * @param pageSize : size in bytes of every page
+     * @param batchPages : number of pages sent to the file per write
+     * @param syncInterval : durability policy, SYNC_NEVER, SYNC_AT_END or a number of pages
+     */
+    public HeapWriter(String fileName, int pageSize, int batchPages, int syncInterval) throws IOException {
+        this(fileName, pageSize, batchPages, syncInterval, -1);
+    }
+
+    /**
+     * Open a heap file to continue writing at a given page, so a partly filled last page can be
+     * read back into page(), completed and written over the old copy
+     *
+     * @param fileName : path of the heap file
+     * @param pageSize : size in bytes of every page
+     * @param batchPages : number of pages sent to the file per write
+     * @param syncInterval : durability policy, SYNC_NEVER, SYNC_AT_END or a number of pages
+     * @param firstPage : page the first page written replaces, or -1 to append after the last page
+     */
+    public HeapWriter(String fileName, int pageSize, int batchPages, int syncInterval, long firstPage)
+            throws IOException {
+        if (syncInterval < constants.SYNC_AT_END) {
+            throw new IllegalArgumentException("Bad sync interval: " + syncInterval);
+        }
+        if (firstPage < 0) {
+            this.channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+        else {
+            this.channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            this.channel.position(firstPage * pageSize);
+        }
+        this.pageSize = pageSize;
+        this.syncInterval = syncInterval;
+        // a sync always falls on a batch boundary, so a batch never spans two sync intervals
+        if (syncInterval > 0) {
+            batchPages = Math.min(batchPages, syncInterval);
+        }
+        this.batch = new ByteBuffer[Math.max(1, batchPages)];
+    }
+
+    public int getPagesWritten() {
+        return pagesWritten;
+    }
+
+    /**
+     * The page currently being filled. It still holds the bytes of the page it was last used
+     * for, up to the records that overwrite them; finishPage clears the rest.
+     *
+     * @return the page, to be written with absolute puts
+     */
+    public ByteBuffer page() {
+        if (batch[pagesInBatch] == null) {
+            batch[pagesInBatch] = ByteBuffer.allocateDirect(pageSize);
+        }
+        return batch[pagesInBatch];
+    }
+
+    /**
+     * Finish the current page, zero filling it past the bytes used, and move on to the next
+     *
+     * @param bytesUsed : number of bytes at the start of the page holding records
+     */
+    public void finishPage(int bytesUsed) throws IOException {
+        ByteBuffer page = page();
+        for (int i = bytesUsed; i < pageSize; i++) {
+            page.put(i, (byte) 0);
+        }
+        pagesInBatch++;
+        if (pagesInBatch == batch.length) {
+            writeBatch();
+        }
+    }
+
+    /**
+     * Append pages already assembled in an array, after any pages waiting in the batch
+     *
+     * @param pages : page bytes, pageSize bytes per page
+     * @param pageCount : number of pages to append
+     */
+    public void writePages(byte[] pages, int pageCount) throws IOException {
+        writeBatch();
+        int page = 0;
+        while (page < pageCount) {
+            // stop at the next sync point so the interval is kept exactly
+            int count = pageCount - page;
+            if (syncInterval > 0) {
+                count = Math.min(count, syncInterval - pagesSinceSync);
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(pages, page * pageSize, count * pageSize);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            written(count);
+            page += count;
+        }
+    }
+
+    // Gathering write of the finished pages of the batch
+    private void writeBatch() throws IOException {
+        if (pagesInBatch == 0) {
+            return;
+        }
+        for (int i = 0; i < pagesInBatch; i++) {
+            batch[i].clear();
+        }
+        long remaining = (long) pagesInBatch * pageSize;
+        while (remaining > 0) {
+            remaining -= channel.write(batch, 0, pagesInBatch);
+        }
+        int pages = pagesInBatch;
+        pagesInBatch = 0;
+        written(pages);
+    }
+
+    private void written(int pages) throws IOException {
+        pagesWritten += pages;
+        pagesSinceSync += pages;
+        if (syncInterval > 0 && pagesSinceSync >= syncInterval) {
+            channel.force(true);
+            pagesSinceSync = 0;
+        }
+    }
+
+    // Write the pages still in the batch, force them to disk if the policy asks for it, and close the file
+    public void close() throws IOException {
+        try {
+            writeBatch();
+            if (syncInterval != constants.SYNC_NEVER && pagesSinceSync > 0) {
+                channel.force(true);
+                pagesSinceSync = 0;
+            }
+        }
+        finally {
+            channel.close();
+        }
+    }
+}
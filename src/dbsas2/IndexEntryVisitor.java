@@ -0,0 +1,16 @@
+package dbsas2;
+
+import java.io.IOException;
+
+/*IndexEntryVisitor receives the (key, record offset) entries produced by an index scan, in key order*/
+interface IndexEntryVisitor {
+
+	/**
+	 * Called once for each entry in the scanned range
+	 *
+	 * @param key : key of the entry; the array is reused for the next entry
+	 * @param offset : position of the record in the heap file
+	 * @return true to continue the scan, false to stop it
+	 * */
+	boolean visit(byte[] key, long offset) throws IOException;
+}
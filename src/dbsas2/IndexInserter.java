@@ -0,0 +1,827 @@
+package dbsas2;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+
+/*IndexInserter adds entries to an existing paged index file in place, so new records cost the pages
+ *  on their root-to-leaf paths instead of a rebuild. An insert decodes the front coded leaf that
+ *  should hold the key, adds the entry and encodes the leaf again; a leaf that no longer fits its
+ *  page is split in two, the shortest separator between the halves goes into the parent, and full
+ *  parents split the same way up to the root. A split of the last leaf keeps every old entry on the
+ *  left, so keys arriving in ascending order leave full leaves behind. New pages are added at the end
+ *  of the file, and the superblock is updated when the inserter is closed.
+ *  A record whose key the leaf holds already joins the posting list of the key's last entry, or
+ *  starts a new entry after it once that list is as long as a leaf entry may grow.
+ *  Inserts and lookups can run from several threads at once, latching pages (see PageLatches) by
+ *  crabbing down the tree: a lookup holds the read latch of a node until it has the latch of the
+ *  child. An insert descends the same way and latches only its leaf for writing, as most inserts
+ *  change nothing else; if the leaf must split, it lets go and descends again taking write latches,
+ *  letting go of every latch above an internal node that has room for one more separator, as a
+ *  split below stops there. The split so sees no other change to the nodes it rewrites, and only a
+ *  split reaching a full root keeps the root latched.
+ *  An inserter that holds its pages keeps every page it changes pinned until writeHeldPages, so the
+ *  pool never writes a changed page back on its own and the file keeps the tree as it was at the
+ *  last checkpoint (see RecordStore).*/
+final class IndexInserter implements Closeable {
+
+	private static final int INSERTED = 0;
+	private static final int DUPLICATE = 1;
+	private static final int SPLIT_NEEDED = 2; //the leaf is full and the insert must descend again for a split
+
+	private final RandomAccessFile file;
+	private final BufferPool pool;
+	private final int poolFileId;
+	private final int pageSize;
+	private final int keyType;
+	private final int keyLength;
+	private final int maxPosting; //largest posting list value of one leaf entry
+	private final String heapFileName;
+	private final PageLatches latches;
+	private final ThreadLocal<Descent> descents; //the decoding state of each thread using the inserter
+	private volatile int rootPage;
+	private volatile int height;
+	private final AtomicInteger pageCount;
+	private final AtomicLong recordCount;
+	private final AtomicLong duplicates = new AtomicLong();
+	private final AtomicLong splits = new AtomicLong();
+	private long heapEnd;
+	private final SortedMap<Integer, ByteBuffer> held; //pages changed since the last checkpoint, null if not holding
+	private final BitSet heldIds = new BitSet(); //page ids of the held pages
+
+	/**
+	 * Open an index file for inserts, reading its superblock
+	 *
+	 * @param indexFile : path of the index file
+	 * @param pool : buffer pool the node pages are read and written through
+	 * */
+	public IndexInserter(String indexFile, BufferPool pool) throws IOException {
+		this(indexFile, pool, false);
+	}
+
+	/**
+	 * Open an index file for inserts, reading its superblock
+	 *
+	 * @param indexFile : path of the index file
+	 * @param pool : buffer pool the node pages are read and written through
+	 * @param holdPages : true to keep changed pages pinned in the pool until writeHeldPages
+	 * */
+	public IndexInserter(String indexFile, BufferPool pool, boolean holdPages) throws IOException {
+		IndexReader index = new IndexReader(indexFile);
+		try {
+			this.pageSize = index.getPageSize();
+			this.keyType = index.getKeyType();
+			this.keyLength = index.getKeyLength();
+			this.heapFileName = index.getHeapFileName();
+			this.rootPage = index.getRootPage();
+			this.pageCount = new AtomicInteger(index.getPageCount());
+			this.height = index.getHeight();
+			this.recordCount = new AtomicLong(index.getRecordCount());
+			this.heapEnd = index.getHeapEnd();
+		}
+		finally {
+			index.close();
+		}
+		if (pool.getPageSize() != pageSize) {
+			throw new IOException(indexFile + " has " + pageSize + " byte pages, the buffer pool " + pool.getPageSize());
+		}
+		this.maxPosting = IndexNode.maxPostingSize(pageSize, keyLength);
+		this.file = new RandomAccessFile(indexFile, "rw");
+		this.pool = pool;
+		this.poolFileId = pool.register(file.getChannel());
+		this.latches = new PageLatches(pageCount.get());
+		this.descents = new ThreadLocal<Descent>() {
+			@Override
+			protected Descent initialValue() {
+				return new Descent(pageSize, keyLength);
+			}
+		};
+		this.held = holdPages ? new TreeMap<Integer, ByteBuffer>() : null;
+	}
+
+	public int getKeyType() {
+		return keyType;
+	}
+
+	public int getKeyLength() {
+		return keyLength;
+	}
+
+	public String getHeapFileName() {
+		return heapFileName;
+	}
+
+	public long getRecordCount() {
+		return recordCount.get();
+	}
+
+	// Number of levels of the tree, which a root split raises by one
+	public int getHeight() {
+		return height;
+	}
+
+	// Heap offset just past the last record indexed, or -1 if the file does not record it
+	public long getHeapEnd() {
+		return heapEnd;
+	}
+
+	// Move the high-water mark written to the superblock on close, once the records up to it are inserted
+	public void setHeapEnd(long heapEnd) {
+		this.heapEnd = heapEnd;
+	}
+
+	public long getDuplicates() {
+		return duplicates.get();
+	}
+
+	public long getSplits() {
+		return splits.get();
+	}
+
+	// Pages changed since the last checkpoint by page id, pinned frames holding their new content;
+	// only for use while no insert runs
+	public SortedMap<Integer, ByteBuffer> getHeldPages() {
+		return (held == null) ? Collections.<Integer, ByteBuffer>emptySortedMap() : Collections.unmodifiableSortedMap(held);
+	}
+
+	public int getHeldPageCount() {
+		if (held == null) {
+			return 0;
+		}
+		synchronized (heldIds) {
+			return held.size();
+		}
+	}
+
+	/**
+	 * Look up a key
+	 *
+	 * @param key : key to search for, keyLength bytes long
+	 * @return a record offset stored with the key, or -1 if the index does not hold it
+	 * */
+	public long search(byte[] key) throws IOException {
+		Descent descent = descents.get();
+		NodeCursor search = descent.cursor;
+		try {
+			int pageId = latchRoot(descent, false, false);
+			while (true) {
+				ByteBuffer page = pool.pin(poolFileId, pageId);
+				int child;
+				try {
+					if (IndexNode.isLeaf(page)) {
+						return search.find(page, key) ? search.offset() : -1;
+					}
+					child = search.childFor(page, key);
+				}
+				finally {
+					pool.unpin(poolFileId, pageId, false);
+				}
+				// the child is latched before the parent is let go, so no split can move the key between them
+				descent.latch(latches.latch(child).readLock());
+				descent.unlatch(descent.depth - 2);
+				pageId = child;
+			}
+		}
+		finally {
+			descent.unlatchAll();
+		}
+	}
+
+	/**
+	 * Insert an entry
+	 *
+	 * @param key : key of the entry, keyLength bytes long
+	 * @param offset : record offset stored with the key
+	 * @return false if the leaf of the key already holds this offset with it; the index is left unchanged
+	 * */
+	public boolean insert(byte[] key, long offset) throws IOException {
+		Descent descent = descents.get();
+		try {
+			int result = insert(descent, key, offset, false);
+			if (result == SPLIT_NEEDED) {
+				descent.unlatchAll();
+				result = insert(descent, key, offset, true);
+			}
+			return result == INSERTED;
+		}
+		finally {
+			descent.unlatchAll();
+		}
+	}
+
+	/**
+	 * Latch the root page, making sure it is still the root once latched; a root split changes it
+	 * only while holding the latch of the old root
+	 *
+	 * @param descent : state of the calling thread, which gets the latch as the first of its path
+	 * @param write : true to latch it for writing
+	 * @param leafWrite : true to latch it for writing if it is the only node, a leaf
+	 * @return page id of the root
+	 * */
+	private int latchRoot(Descent descent, boolean write, boolean leafWrite) {
+		while (true) {
+			int root = rootPage;
+			int levels = height;
+			Lock latch = (write || (leafWrite && levels == 1)) ? latches.latch(root).writeLock() : latches.latch(root).readLock();
+			latch.lock();
+			if (root == rootPage && levels == height) {
+				descent.height = levels;
+				descent.path[0] = root;
+				descent.held[0] = latch;
+				descent.depth = 1;
+				return root;
+			}
+			latch.unlock();
+		}
+	}
+
+	/**
+	 * Insert an entry, latching the path either for a leaf change only or for splits
+	 *
+	 * @param descent : state of the calling thread
+	 * @param key : key of the entry
+	 * @param offset : record offset stored with the key
+	 * @param splitting : true to hold the write latches of the path up to the lowest node with room for
+	 *        a separator, false to latch only the leaf for writing and give up if it is full
+	 * @return INSERTED, DUPLICATE or SPLIT_NEEDED
+	 * */
+	private int insert(Descent descent, byte[] key, long offset, boolean splitting) throws IOException {
+		// descend from the root, remembering the path for the splits
+		int pageId = latchRoot(descent, splitting, true);
+		int depth = 0;
+		int top = 0; //highest level still latched; a split never goes above it
+		Node node = descent.node;
+		while (true) {
+			ByteBuffer page = pool.pin(poolFileId, pageId);
+			int child;
+			try {
+				if (IndexNode.isLeaf(page)) {
+					// the entries before the restart run the key falls in keep their bytes, only the rest is decoded
+					node.read(page, descent.cursor, IndexNode.restartBefore(page, key, true));
+					break;
+				}
+				if (splitting && depth > top && takesSeparator(page, descent.cursor)) {
+					// a split from below ends at this node, so no thread need wait for the nodes above it
+					for (int level = top; level < depth; level++) {
+						descent.unlatch(level);
+					}
+					top = depth;
+				}
+				child = descent.cursor.childFor(page, key);
+			}
+			finally {
+				pool.unpin(poolFileId, pageId, false);
+			}
+			boolean leafNext = (depth + 2 == descent.height);
+			descent.latch((splitting || leafNext) ? latches.latch(child).writeLock() : latches.latch(child).readLock());
+			if (!splitting) {
+				descent.unlatch(depth);
+			}
+			depth++;
+			descent.path[depth] = child;
+			pageId = child;
+		}
+
+		int position = node.add(key, offset, maxPosting);
+		if (position < 0) {
+			duplicates.incrementAndGet();
+			return DUPLICATE;
+		}
+		if (write(descent, pageId, node, 0, node.count, node.firstChild)) {
+			recordCount.incrementAndGet();
+			return INSERTED;
+		}
+		if (!splitting) {
+			return SPLIT_NEEDED;
+		}
+		recordCount.incrementAndGet();
+
+		// the leaf is full: decode all of it to split it
+		boolean appended = (position == node.count - 1 && node.right == constants.INDEX_NO_PAGE);
+		if (node.restart > 0) {
+			ByteBuffer page = pool.pin(poolFileId, pageId);
+			try {
+				node.read(page, descent.cursor, 0);
+			}
+			finally {
+				pool.unpin(poolFileId, pageId, false);
+			}
+			node.add(key, offset, maxPosting);
+		}
+
+		// split the node and its ancestors while they overflow
+		int[] path = descent.path;
+		Node parent = descent.parent;
+		for (int level = depth; ; level--) {
+			if (level < depth && write(descent, path[level], node, 0, node.count, node.firstChild)) {
+				return INSERTED;
+			}
+			splits.incrementAndGet();
+			int newPage = pageCount.getAndIncrement();
+			byte[] separator;
+			int separatorLength;
+			if (node.leaf) {
+				// keep a run of ascending inserts at the right edge packed, otherwise split in the middle
+				int middle = appended ? node.count - 1 : node.middle();
+				int right = node.right;
+				node.right = newPage;
+				writeOrFail(descent, path[level], node, 0, middle, 0);
+				node.left = path[level];
+				node.right = right;
+				writeOrFail(descent, newPage, node, middle, node.count, 0);
+				if (right != constants.INDEX_NO_PAGE) {
+					// siblings are latched left to right, after the leaf on their left
+					Lock latch = latches.latch(right).writeLock();
+					latch.lock();
+					try {
+						ByteBuffer page = pool.pin(poolFileId, right);
+						IndexNode.setSiblings(page, newPage, IndexNode.rightSibling(page));
+						changed(right, page);
+					}
+					finally {
+						latch.unlock();
+					}
+				}
+				separatorLength = IndexNode.separatorLength(node.keys[middle - 1], 0, node.keys[middle], 0, keyLength);
+				separator = node.keys[middle];
+			}
+			else {
+				// the middle separator moves up; the child right of it starts the new node
+				int middle = node.count / 2;
+				writeOrFail(descent, path[level], node, 0, middle, node.firstChild);
+				writeOrFail(descent, newPage, node, middle + 1, node.count, (int) node.values[middle]);
+				separatorLength = node.lengths[middle];
+				separator = node.keys[middle];
+			}
+
+			if (level == top && level > 0) {
+				throw new IllegalStateException("A split reached page " + path[level] + ", which was latched as having room");
+			}
+			if (level == 0) {
+				// the root split: a new root holds the two halves; readers latching the old root see it moved
+				int newRoot = pageCount.getAndIncrement();
+				parent.clear(false);
+				parent.insert(0, separator, 0, separatorLength, newPage);
+				writeOrFail(descent, newRoot, parent, 0, 1, path[0]);
+				height++;
+				rootPage = newRoot;
+				return INSERTED;
+			}
+
+			// add the separator and the new node to the parent, right after the node that split
+			ByteBuffer page = pool.pin(poolFileId, path[level - 1]);
+			try {
+				parent.read(page, descent.cursor, 0);
+			}
+			finally {
+				pool.unpin(poolFileId, path[level - 1], false);
+			}
+			parent.insert(parent.childIndex(path[level]) + 1, separator, 0, separatorLength, newPage);
+			Node changed = parent;
+			parent = node;
+			node = changed;
+			appended = false;
+		}
+	}
+
+	/**
+	 * Whether an internal node page has room for one more separator whatever its key: the entry with a
+	 * whole key, and a whole key more for every restart run with the one it may add, as the entries
+	 * after it shift and each run may then start with an entry that stored a short suffix before
+	 *
+	 * @param page : internal node page
+	 * @param cursor : cursor to decode the last run of entries with
+	 * @return true if a split of a child leaves the node unsplit
+	 * */
+	private boolean takesSeparator(ByteBuffer page, NodeCursor cursor) {
+		int restarts = IndexNode.restartCount(page);
+		cursor.resetAt(page, Math.max(restarts - 1, 0));
+		while (cursor.next()) {
+			// decode to the end of the last run
+		}
+		int entries = IndexNode.keyCount(page) + 1;
+		int entry = constants.NODE_ENTRY_OVERHEAD + keyLength + constants.INDEX_CHILD_SIZE;
+		int needed = cursor.end() + entry + (restarts + 1) * keyLength
+				+ IndexNode.trailerSize((entries + constants.NODE_RESTART_INTERVAL - 1) / constants.NODE_RESTART_INTERVAL);
+		return needed <= pageSize;
+	}
+
+	/**
+	 * Encode entries from..to of a node into a page. A node decoded from a restart point on replaces
+	 * the entries of its page from that restart point, a whole node replaces the page.
+	 *
+	 * @return false if they do not fit, leaving the page as it was
+	 * */
+	private boolean write(Descent descent, int pageId, Node source, int from, int to, int firstChild) throws IOException {
+		int start = (source.restart == 0) ? IndexNode.entriesStart(source.leaf) : source.restartPosition;
+		if (start + source.encodedSize(from, to) > pageSize) {
+			return false;
+		}
+		// a whole node is encoded from scratch, so the old page is never read
+		ByteBuffer page = (source.restart == 0) ? pool.pinNew(poolFileId, pageId) : pool.pin(poolFileId, pageId);
+		NodeBuilder builder = descent.builder;
+		try {
+			if (source.restart > 0) {
+				builder.resume(page, source.restart);
+			}
+			else {
+				builder.start(page, source.leaf);
+				if (source.leaf) {
+					builder.setSiblings(source.left, source.right);
+				}
+				else {
+					builder.setFirstChild(firstChild);
+				}
+			}
+			for (int i = from; i < to; i++) {
+				if (source.postingCounts[i] > 1) {
+					builder.add(source.keys[i], 0, source.lengths[i], source.postings[i], 0, source.postingCounts[i]);
+				}
+				else {
+					builder.add(source.keys[i], 0, source.lengths[i], source.values[i]);
+				}
+			}
+			builder.finish();
+		}
+		finally {
+			changed(pageId, page);
+		}
+		return true;
+	}
+
+	private void writeOrFail(Descent descent, int pageId, Node source, int from, int to, int firstChild) throws IOException {
+		if (!write(descent, pageId, source, from, to, firstChild)) {
+			throw new IOException("Half a node does not fit in a page of " + pageSize + " bytes");
+		}
+	}
+
+	// Release the pin on a page that was changed, or keep the page pinned until the next checkpoint
+	private void changed(int pageId, ByteBuffer page) {
+		if (held == null) {
+			pool.unpin(poolFileId, pageId, true);
+			return;
+		}
+		synchronized (heldIds) {
+			if (heldIds.get(pageId)) {
+				pool.unpin(poolFileId, pageId, true);
+			}
+			else {
+				heldIds.set(pageId);
+				held.put(pageId, page);
+			}
+		}
+	}
+
+	// Write the root, page count, height, record count and high-water mark into the superblock page
+	public void updateSuperblock() throws IOException {
+		ByteBuffer superblock = pool.pin(poolFileId, constants.INDEX_SUPERBLOCK_PAGE);
+		superblock.putInt(constants.SB_VERSION_OFFSET, constants.INDEX_VERSION);
+		superblock.putInt(constants.SB_ROOT_PAGE_OFFSET, rootPage);
+		superblock.putInt(constants.SB_PAGE_COUNT_OFFSET, pageCount.get());
+		superblock.putInt(constants.SB_HEIGHT_OFFSET, height);
+		superblock.putLong(constants.SB_RECORD_COUNT_OFFSET, recordCount.get());
+		superblock.putLong(constants.SB_HEAP_END_OFFSET, heapEnd);
+		changed(constants.INDEX_SUPERBLOCK_PAGE, superblock);
+	}
+
+	// Write the held pages back in place, force them to disk and stop holding them; only while no insert runs
+	public void writeHeldPages() throws IOException {
+		if (held == null) {
+			return;
+		}
+		synchronized (heldIds) {
+			for (int pageId : held.keySet()) {
+				pool.unpin(poolFileId, pageId, true);
+			}
+			held.clear();
+			heldIds.clear();
+		}
+		pool.flush(poolFileId);
+		file.getChannel().force(true);
+	}
+
+	// Write the changed pages, then the superblock pointing at them, and close the file
+	public void close() throws IOException {
+		try {
+			writeHeldPages();
+			// node pages reach the file before the superblock that points at them
+			pool.flush(poolFileId);
+			file.getChannel().force(true);
+			updateSuperblock();
+			writeHeldPages();
+			pool.release(poolFileId);
+			file.getChannel().force(true);
+		}
+		finally {
+			file.close();
+		}
+	}
+
+	// Close the file without writing anything more to it, after an error that left the changes incomplete
+	public void abandon() throws IOException {
+		file.close();
+	}
+
+	/*Descent holds what one thread needs to go down the tree and change it: the decoded node and
+	 *  parent, the page ids of its path and the latches it holds on them*/
+	private static final class Descent {
+
+		final NodeCursor cursor;
+		final NodeBuilder builder;
+		final Node node;
+		final Node parent;
+		int[] path = new int[8]; //page ids from the root to the leaf of the last descent
+		Lock[] held = new Lock[8]; //latches taken on the path, null once let go
+		int depth; //number of latches taken on the path
+		int height; //height of the tree when the root was latched
+
+		Descent(int pageSize, int keyLength) {
+			this.cursor = new NodeCursor(keyLength);
+			this.builder = new NodeBuilder(pageSize, keyLength);
+			this.node = new Node(keyLength);
+			this.parent = new Node(keyLength);
+		}
+
+		void latch(Lock latch) {
+			if (depth == held.length) {
+				int[] longerPath = new int[depth * 2];
+				System.arraycopy(path, 0, longerPath, 0, depth);
+				path = longerPath;
+				Lock[] longerHeld = new Lock[depth * 2];
+				System.arraycopy(held, 0, longerHeld, 0, depth);
+				held = longerHeld;
+			}
+			latch.lock();
+			held[depth++] = latch;
+		}
+
+		void unlatch(int level) {
+			if (held[level] != null) {
+				held[level].unlock();
+				held[level] = null;
+			}
+		}
+
+		void unlatchAll() {
+			for (int level = 0; level < depth; level++) {
+				unlatch(level);
+			}
+			depth = 0;
+		}
+	}
+
+	/*Node holds the decoded entries of one node page: whole keys (or separators in an internal node)
+	 *  and their values, with the header fields, so entries can be added before it is encoded again.
+	 *  A leaf entry of several records keeps their offsets in its posting array as well.*/
+	private static final class Node {
+
+		private final int keyLength;
+		boolean leaf;
+		int left;
+		int right;
+		int firstChild;
+		int restart; //restart point the decoded entries start at, 0 for the whole node
+		int restartPosition; //position of the first decoded entry in the page
+		int count;
+		byte[][] keys = new byte[64][];
+		int[] lengths = new int[64];
+		long[] values = new long[64]; //the first record offset of a leaf entry
+		long[][] postings = new long[64][]; //record offsets of leaf entries of several records, ascending
+		int[] postingCounts = new int[64]; //number of record offsets of each entry, 1 for internal entries
+
+		Node(int keyLength) {
+			this.keyLength = keyLength;
+		}
+
+		void clear(boolean leaf) {
+			this.leaf = leaf;
+			this.left = constants.INDEX_NO_PAGE;
+			this.right = constants.INDEX_NO_PAGE;
+			this.firstChild = constants.INDEX_NO_PAGE;
+			this.restart = 0;
+			this.count = 0;
+		}
+
+		// Decode the entries of a page from a restart point on
+		void read(ByteBuffer page, NodeCursor cursor, int fromRestart) {
+			clear(IndexNode.isLeaf(page));
+			restart = fromRestart;
+			restartPosition = (restart == 0) ? IndexNode.entriesStart(leaf) : IndexNode.restartPosition(page, restart);
+			if (leaf) {
+				left = IndexNode.leftSibling(page);
+				right = IndexNode.rightSibling(page);
+			}
+			else {
+				firstChild = IndexNode.firstChild(page);
+			}
+			cursor.resetAt(page, restart);
+			while (cursor.next()) {
+				insert(count, cursor.key(), 0, cursor.keyLength(), leaf ? cursor.offset() : cursor.child());
+				while (leaf && cursor.nextOffset()) {
+					addOffset(count - 1, cursor.offset());
+				}
+			}
+		}
+
+		void insert(int at, byte[] key, int from, int length, long value) {
+			if (count == keys.length) {
+				grow();
+			}
+			byte[] slot = keys[count];
+			long[] list = postings[count];
+			System.arraycopy(keys, at, keys, at + 1, count - at);
+			System.arraycopy(lengths, at, lengths, at + 1, count - at);
+			System.arraycopy(values, at, values, at + 1, count - at);
+			System.arraycopy(postings, at, postings, at + 1, count - at);
+			System.arraycopy(postingCounts, at, postingCounts, at + 1, count - at);
+			// reuse the arrays that fell off the end
+			keys[at] = (slot != null) ? slot : new byte[keyLength];
+			System.arraycopy(key, from, keys[at], 0, length);
+			lengths[at] = length;
+			values[at] = value;
+			postings[at] = list;
+			postingCounts[at] = 1;
+			count++;
+		}
+
+		/**
+		 * Add a record to a leaf: to the posting list of the last entry with its key while the list
+		 * stays within maxPosting bytes, otherwise as a new entry after the entries with its key
+		 *
+		 * @param key : key of the record, keyLength bytes long
+		 * @param offset : record offset
+		 * @param maxPosting : largest posting list value of one entry
+		 * @return position of the entry that took the record, or -1 if an entry of the key holds it already
+		 * */
+		int add(byte[] key, long offset, int maxPosting) {
+			int position = upperBound(key, keyLength);
+			for (int i = position - 1; i >= 0 && compare(i, key, keyLength) == 0; i--) {
+				if (holds(i, offset)) {
+					return -1;
+				}
+			}
+			int last = position - 1;
+			if (last >= 0 && compare(last, key, keyLength) == 0) {
+				addOffset(last, offset);
+				if (valueSize(last) <= maxPosting) {
+					return last;
+				}
+				removeOffset(last, offset);
+			}
+			insert(position, key, 0, keyLength, offset);
+			return position;
+		}
+
+		// Add a record offset to a leaf entry, keeping its offsets ascending
+		void addOffset(int i, long offset) {
+			int n = postingCounts[i];
+			long[] list = postings[i];
+			if (list == null || list.length == n) {
+				list = new long[Math.max(8, n * 2)];
+				if (n > 1) {
+					System.arraycopy(postings[i], 0, list, 0, n);
+				}
+				postings[i] = list;
+			}
+			if (n == 1) {
+				list[0] = values[i];
+			}
+			int at = n;
+			while (at > 0 && list[at - 1] > offset) {
+				at--;
+			}
+			System.arraycopy(list, at, list, at + 1, n - at);
+			list[at] = offset;
+			postingCounts[i] = n + 1;
+			values[i] = list[0];
+		}
+
+		private void removeOffset(int i, long offset) {
+			long[] list = postings[i];
+			int n = postingCounts[i];
+			int at = 0;
+			while (list[at] != offset) {
+				at++;
+			}
+			System.arraycopy(list, at + 1, list, at, n - at - 1);
+			postingCounts[i] = n - 1;
+			values[i] = list[0];
+		}
+
+		private boolean holds(int i, long offset) {
+			if (postingCounts[i] == 1) {
+				return values[i] == offset;
+			}
+			for (int j = 0; j < postingCounts[i]; j++) {
+				if (postings[i][j] == offset) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private int valueSize(int i) {
+			return (leaf && postingCounts[i] > 1) ? IndexNode.postingSize(postings[i], 0, postingCounts[i]) : IndexNode.valueSize(leaf);
+		}
+
+		/**
+		 * Where to split a leaf in two halves of about the same number of bytes; posting lists make
+		 * entries vary too much in size to split by their number
+		 *
+		 * @return number of entries kept on the left, between 1 and count - 1
+		 * */
+		int middle() {
+			int total = 0;
+			for (int i = 0; i < count; i++) {
+				total += constants.NODE_ENTRY_OVERHEAD + lengths[i] + valueSize(i);
+			}
+			int size = 0;
+			int middle = 0;
+			while (middle < count - 1 && size < total / 2) {
+				size += constants.NODE_ENTRY_OVERHEAD + lengths[middle] + valueSize(middle);
+				middle++;
+			}
+			return Math.max(middle, 1);
+		}
+
+		private void grow() {
+			byte[][] newKeys = new byte[keys.length * 2][];
+			System.arraycopy(keys, 0, newKeys, 0, count);
+			keys = newKeys;
+			int[] newLengths = new int[lengths.length * 2];
+			System.arraycopy(lengths, 0, newLengths, 0, count);
+			lengths = newLengths;
+			long[] newValues = new long[values.length * 2];
+			System.arraycopy(values, 0, newValues, 0, count);
+			values = newValues;
+			long[][] newPostings = new long[postings.length * 2][];
+			System.arraycopy(postings, 0, newPostings, 0, count);
+			postings = newPostings;
+			int[] newCounts = new int[postingCounts.length * 2];
+			System.arraycopy(postingCounts, 0, newCounts, 0, count);
+			postingCounts = newCounts;
+		}
+
+		/**
+		 * Bytes taken by entries from..to encoded after the entries before this node's restart point,
+		 * with the restart trailer of the whole node
+		 * */
+		int encodedSize(int from, int to) {
+			int first = restart * constants.NODE_RESTART_INTERVAL;
+			int size = 0;
+			for (int i = from; i < to; i++) {
+				int shared = 0;
+				if ((first + i - from) % constants.NODE_RESTART_INTERVAL != 0) {
+					int n = Math.min(Math.min(lengths[i - 1], lengths[i]), constants.NODE_MAX_KEY_LENGTH);
+					while (shared < n && keys[i][shared] == keys[i - 1][shared]) {
+						shared++;
+					}
+				}
+				size += constants.NODE_ENTRY_OVERHEAD + lengths[i] - shared + valueSize(i);
+			}
+			int entries = first + to - from;
+			return size + IndexNode.trailerSize((entries + constants.NODE_RESTART_INTERVAL - 1) / constants.NODE_RESTART_INTERVAL);
+		}
+
+		int compare(int i, byte[] key, int length) {
+			return IndexNode.compare(keys[i], lengths[i], key, length);
+		}
+
+		// Position of the first entry whose key is greater than the given key
+		int upperBound(byte[] key, int length) {
+			int low = 0;
+			int high = count;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (compare(mid, key, length) <= 0) {
+					low = mid + 1;
+				}
+				else {
+					high = mid;
+				}
+			}
+			return low;
+		}
+
+		// Entry whose child is the given page, -1 for the first child
+		int childIndex(int child) {
+			if (firstChild == child) {
+				return -1;
+			}
+			for (int i = 0; i < count; i++) {
+				if (values[i] == child) {
+					return i;
+				}
+			}
+			throw new IllegalStateException("Page " + child + " is not a child of its parent");
+		}
+	}
+}
@@ -0,0 +1,273 @@
+package dbsas2;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+
+/*IndexKey lays out the keys an index can be built on. The key type is kept in the superblock, so a
+ *  reader knows both the key length and how query text maps to key bytes. Every key type compares
+ *  as unsigned bytes:
+ *  - INDEX_KEY_SDT_NAME: the 24 byte SDT_NAME text, ordered as text
+ *  - INDEX_KEY_SENSOR_TIME: sensor id (4 bytes) then epoch millis (8 bytes), big-endian with the
+ *    sign bits flipped, so byte order is numeric order and a sensor's readings are in time order
+ *  - INDEX_KEY_SENSOR_ID, INDEX_KEY_DATE, INDEX_KEY_COUNTS: secondary index keys, the field value
+ *    encoded the same way followed by the record offset, so records with equal values are distinct
+ *    keys, adjacent and in heap order*/
+final class IndexKey {
+
+	private IndexKey() {
+	}
+
+	/**
+	 * @param keyType : one of the INDEX_KEY_ constants
+	 * @return length in bytes of every key of the type
+	 * */
+	public static int length(int keyType) {
+		switch (keyType) {
+		case constants.INDEX_KEY_SDT_NAME:
+			return constants.STD_NAME_SIZE;
+		case constants.INDEX_KEY_SENSOR_TIME:
+			return constants.SENSOR_TIME_KEY_SIZE;
+		default:
+			return fieldSize(keyType) + constants.INDEX_OFFSET_SIZE;
+		}
+	}
+
+	public static boolean isKnown(int keyType) {
+		return keyType >= constants.INDEX_KEY_SDT_NAME && keyType <= constants.INDEX_KEY_COUNTS;
+	}
+
+	public static boolean isSecondary(int keyType) {
+		return keyType >= constants.INDEX_KEY_SENSOR_ID && keyType <= constants.INDEX_KEY_COUNTS;
+	}
+
+	/**
+	 * @param name : key type as given on the command line
+	 * @return the key type, or -1 if the name is not known
+	 * */
+	public static int forName(String name) {
+		if (name.equals(constants.KEY_SDT_NAME_ARG)) {
+			return constants.INDEX_KEY_SDT_NAME;
+		}
+		if (name.equals(constants.KEY_SENSOR_TIME_ARG)) {
+			return constants.INDEX_KEY_SENSOR_TIME;
+		}
+		return -1;
+	}
+
+	/**
+	 * @param name : field of a secondary index as given on the command line
+	 * @return the secondary key type, or -1 if the field cannot be indexed
+	 * */
+	public static int forField(String name) {
+		if (name.equals(constants.INDEX_SENSOR_ID_ARG)) {
+			return constants.INDEX_KEY_SENSOR_ID;
+		}
+		if (name.equals(constants.INDEX_DATE_ARG)) {
+			return constants.INDEX_KEY_DATE;
+		}
+		if (name.equals(constants.INDEX_COUNTS_ARG)) {
+			return constants.INDEX_KEY_COUNTS;
+		}
+		return -1;
+	}
+
+	/**
+	 * Name of the index file of a page size: tree.pagesize for the primary index,
+	 * tree.pagesize.fieldname for a secondary index
+	 *
+	 * @param pageSize : page size of the heap and index files
+	 * @param keyType : one of the INDEX_KEY_ constants
+	 * @return the file name
+	 * */
+	public static String fileName(int pageSize, int keyType) {
+		switch (keyType) {
+		case constants.INDEX_KEY_SENSOR_ID:
+			return "tree." + pageSize + "." + constants.INDEX_SENSOR_ID_ARG;
+		case constants.INDEX_KEY_DATE:
+			return "tree." + pageSize + "." + constants.INDEX_DATE_ARG;
+		case constants.INDEX_KEY_COUNTS:
+			return "tree." + pageSize + "." + constants.INDEX_COUNTS_ARG;
+		default:
+			return "tree." + pageSize;
+		}
+	}
+
+	// Position of the indexed field in a record
+	private static int fieldOffset(int keyType) {
+		switch (keyType) {
+		case constants.INDEX_KEY_SENSOR_ID:
+			return constants.SENSORID_OFFSET;
+		case constants.INDEX_KEY_DATE:
+			return constants.DATE_OFFSET;
+		case constants.INDEX_KEY_COUNTS:
+			return constants.COUNTS_OFFSET;
+		default:
+			throw new IllegalArgumentException("Unknown key type " + keyType);
+		}
+	}
+
+	// Size of the indexed field, which is also the length of its encoding in the key
+	private static int fieldSize(int keyType) {
+		switch (keyType) {
+		case constants.INDEX_KEY_SENSOR_ID:
+			return constants.SENSORID_SIZE;
+		case constants.INDEX_KEY_DATE:
+			return constants.DATE_SIZE;
+		case constants.INDEX_KEY_COUNTS:
+			return constants.COUNTS_SIZE;
+		default:
+			throw new IllegalArgumentException("Unknown key type " + keyType);
+		}
+	}
+
+	/**
+	 * Build the key of a heap record in place from its page
+	 *
+	 * @param keyType : one of the INDEX_KEY_ constants
+	 * @param page : page view holding the record
+	 * @param position : position of the record in the page
+	 * @param offset : byte offset of the record in the heap file, the tail of a secondary key
+	 * @param key : buffer of length(keyType) bytes receiving the key
+	 * */
+	public static void fromRecord(int keyType, ByteBuffer page, int position, long offset, byte[] key) {
+		switch (keyType) {
+		case constants.INDEX_KEY_SDT_NAME:
+			HeapFile.copyKey(page, position, key);
+			break;
+		case constants.INDEX_KEY_SENSOR_TIME:
+			encodeSensorTime(page.getInt(position + constants.SENSORID_OFFSET),
+					page.getLong(position + constants.DATE_OFFSET), key);
+			break;
+		case constants.INDEX_KEY_DATE:
+			encodeLong(page.getLong(position + constants.DATE_OFFSET), key, 0);
+			encodeOffset(offset, key, constants.DATE_SIZE);
+			break;
+		default:
+			encodeInt(page.getInt(position + fieldOffset(keyType)), key, 0);
+			encodeOffset(offset, key, fieldSize(keyType));
+			break;
+		}
+	}
+
+	// Encode (sensor id, epoch millis) so unsigned byte order matches signed numeric order
+	public static void encodeSensorTime(int sensorId, long epochMillis, byte[] key) {
+		encodeInt(sensorId, key, 0);
+		encodeLong(epochMillis, key, constants.SENSORID_SIZE);
+	}
+
+	// Big-endian with the sign bit flipped, so unsigned byte order matches signed numeric order
+	private static void encodeInt(int value, byte[] key, int from) {
+		int flipped = value ^ Integer.MIN_VALUE;
+		for (int i = 0; i < 4; i++) {
+			key[from + i] = (byte) (flipped >>> (24 - 8 * i));
+		}
+	}
+
+	private static void encodeLong(long value, byte[] key, int from) {
+		encodeOffset(value ^ Long.MIN_VALUE, key, from);
+	}
+
+	// Record offsets are never negative, so they are stored as they are
+	private static void encodeOffset(long offset, byte[] key, int from) {
+		for (int i = 0; i < 8; i++) {
+			key[from + i] = (byte) (offset >>> (56 - 8 * i));
+		}
+	}
+
+	public static int sensorId(byte[] key) {
+		return ByteBuffer.wrap(key).getInt(0) ^ Integer.MIN_VALUE;
+	}
+
+	public static long epochMillis(byte[] key) {
+		return ByteBuffer.wrap(key).getLong(constants.SENSORID_SIZE) ^ Long.MIN_VALUE;
+	}
+
+	/**
+	 * Convert query text to a key. SDT_NAME keys take the text itself, padded with blanks or
+	 * truncated. Sensor time keys take "sensorid MM/dd/yyyy hh:mm:ss a", or just "sensorid"
+	 * for the start (or with upper set, the end) of the sensor's readings. Secondary keys take
+	 * the field value, a number or for the date field "MM/dd/yyyy hh:mm:ss a", and stand for
+	 * the first (or with upper set, the last) record holding it.
+	 *
+	 * @param keyType : one of the INDEX_KEY_ constants
+	 * @param text : query text
+	 * @param upper : whether the text stands for the last key it covers rather than the first
+	 * @return the key bytes
+	 * */
+	public static byte[] parse(int keyType, String text, boolean upper) {
+		if (keyType == constants.INDEX_KEY_SDT_NAME) {
+			return IndexWriter.keyBytes(text, length(keyType));
+		}
+		byte[] key = new byte[length(keyType)];
+		String trimmed = text.trim();
+		if (keyType == constants.INDEX_KEY_SENSOR_TIME) {
+			int space = trimmed.indexOf(' ');
+			int sensorId = parseInt((space < 0) ? trimmed : trimmed.substring(0, space), "Sensor id");
+			long epochMillis = upper ? Long.MAX_VALUE : Long.MIN_VALUE;
+			if (space >= 0) {
+				epochMillis = parseDate(trimmed.substring(space + 1).trim(), text);
+			}
+			encodeSensorTime(sensorId, epochMillis, key);
+			return key;
+		}
+		if (keyType == constants.INDEX_KEY_DATE) {
+			encodeLong(parseDate(trimmed, text), key, 0);
+		}
+		else {
+			encodeInt(parseInt(trimmed, "Number"), key, 0);
+		}
+		// the record offsets of equal values run from all zero to all one bytes
+		for (int i = fieldSize(keyType); i < key.length; i++) {
+			key[i] = upper ? (byte) 0xff : 0;
+		}
+		return key;
+	}
+
+	/**
+	 * Convert query text to the leading key bytes a prefix scan matches. For sensor time keys
+	 * a sensor id alone selects every reading of the sensor; for secondary keys the field value
+	 * selects every record holding it.
+	 *
+	 * @param keyType : one of the INDEX_KEY_ constants
+	 * @param text : query text
+	 * @return the prefix bytes
+	 * */
+	public static byte[] prefix(int keyType, String text) {
+		if (keyType == constants.INDEX_KEY_SDT_NAME) {
+			return text.getBytes(StandardCharsets.ISO_8859_1);
+		}
+		byte[] key = parse(keyType, text, false);
+		int length;
+		if (keyType == constants.INDEX_KEY_SENSOR_TIME) {
+			length = (text.trim().indexOf(' ') >= 0) ? key.length : constants.SENSORID_SIZE;
+		}
+		else {
+			length = fieldSize(keyType);
+		}
+		byte[] prefix = new byte[length];
+		System.arraycopy(key, 0, prefix, 0, length);
+		return prefix;
+	}
+
+	private static int parseInt(String text, String what) {
+		try {
+			return Integer.parseInt(text);
+		}
+		catch (NumberFormatException e) {
+			throw new IllegalArgumentException(what + " expected in key, found \"" + text + "\"");
+		}
+	}
+
+	// Parse a date time with the same pattern and time zone dbload used to convert the date time field
+	private static long parseDate(String dateTime, String text) {
+		SimpleDateFormat dateFormat = new SimpleDateFormat("MM/dd/yyyy hh:mm:ss a");
+		try {
+			return dateFormat.parse(dateTime).getTime();
+		}
+		catch (ParseException e) {
+			throw new IllegalArgumentException("Unparseable date time in key \"" + text + "\"");
+		}
+	}
+}
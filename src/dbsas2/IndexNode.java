@@ -0,0 +1,281 @@
+package dbsas2;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/*IndexNode reads and writes the fields of one B+ tree node page of the paged index file.
+ *  After the header, an internal node holds child0 and a leaf holds nothing extra; then come the
+ *  entries, (key, record offset) in a leaf and (separator, child) in an internal node. Keys are
+ *  front coded: each entry stores the length of the prefix it shares with the previous key, the
+ *  length of the rest and the rest itself. Every NODE_RESTART_INTERVAL-th entry is a restart point
+ *  holding its whole key, and the positions of the restart points are kept in a trailer at the end
+ *  of the page (restart count in the last two bytes, restart positions before it), so a search can
+ *  binary search the restart points and decode at most one run of entries. Separators in internal
+ *  nodes are suffix truncated and may be shorter than the key length.
+ *  A leaf key shared by several records holds a posting list of their offsets instead of one offset
+ *  (see constants.POSTING_FLAG). A key with more records than one list takes continues in the next
+ *  entry, possibly on the next leaf, so equal keys are adjacent and the separator in front of a
+ *  leaf may equal the key before it.*/
+final class IndexNode {
+
+	private IndexNode() {
+	}
+
+	public static boolean isLeaf(ByteBuffer page) {
+		return page.get(constants.NODE_TYPE_OFFSET) == constants.NODE_LEAF;
+	}
+
+	public static int keyCount(ByteBuffer page) {
+		return page.getShort(constants.NODE_KEY_COUNT_OFFSET) & 0xffff;
+	}
+
+	public static int leftSibling(ByteBuffer page) {
+		return page.getInt(constants.NODE_LEFT_OFFSET);
+	}
+
+	public static int rightSibling(ByteBuffer page) {
+		return page.getInt(constants.NODE_RIGHT_OFFSET);
+	}
+
+	/**
+	 * Initialise the header of an empty node page
+	 *
+	 * @param page : page buffer to initialise
+	 * @param leaf : true for a leaf node, false for an internal node
+	 * */
+	public static void init(ByteBuffer page, boolean leaf) {
+		if (page.hasArray()) {
+			Arrays.fill(page.array(), page.arrayOffset(), page.arrayOffset() + page.capacity(), (byte) 0);
+		}
+		else {
+			for (int i = 0; i < page.capacity(); i++) {
+				page.put(i, (byte) 0);
+			}
+		}
+		page.put(constants.NODE_TYPE_OFFSET, leaf ? constants.NODE_LEAF : constants.NODE_INTERNAL);
+		page.putInt(constants.NODE_LEFT_OFFSET, constants.INDEX_NO_PAGE);
+		page.putInt(constants.NODE_RIGHT_OFFSET, constants.INDEX_NO_PAGE);
+	}
+
+	public static void setKeyCount(ByteBuffer page, int count) {
+		page.putShort(constants.NODE_KEY_COUNT_OFFSET, (short) count);
+	}
+
+	public static void setSiblings(ByteBuffer page, int left, int right) {
+		page.putInt(constants.NODE_LEFT_OFFSET, left);
+		page.putInt(constants.NODE_RIGHT_OFFSET, right);
+	}
+
+	public static void putFirstChild(ByteBuffer page, int child) {
+		page.putInt(constants.NODE_HEADER_SIZE, child);
+	}
+
+	// Child of an internal page covering the keys below its first separator
+	public static int firstChild(ByteBuffer page) {
+		return page.getInt(constants.NODE_HEADER_SIZE);
+	}
+
+	// Position of the first entry of a page
+	public static int entriesStart(boolean leaf) {
+		return leaf ? constants.NODE_HEADER_SIZE : constants.NODE_HEADER_SIZE + constants.INDEX_CHILD_SIZE;
+	}
+
+	// Size of the value stored after each key: a record offset in a leaf, a child page id in an internal node
+	public static int valueSize(boolean leaf) {
+		return leaf ? constants.INDEX_OFFSET_SIZE : constants.INDEX_CHILD_SIZE;
+	}
+
+	/**
+	 * Size of a leaf value holding record offsets: 8 bytes for one, a posting list for several
+	 *
+	 * @param offsets : buffer holding the offsets, in ascending order
+	 * @param from : position of the first offset in the buffer
+	 * @param count : number of offsets, at least one
+	 * @return number of bytes putPostings writes
+	 * */
+	public static int postingSize(long[] offsets, int from, int count) {
+		if (count == 1) {
+			return constants.INDEX_OFFSET_SIZE;
+		}
+		int gaps = gapsSize(offsets, from, count);
+		return constants.INDEX_OFFSET_SIZE + varintSize(gaps) + gaps;
+	}
+
+	private static int gapsSize(long[] offsets, int from, int count) {
+		int size = 0;
+		for (int i = from + 1; i < from + count; i++) {
+			size += varintSize(offsets[i] - offsets[i - 1]);
+		}
+		return size;
+	}
+
+	/**
+	 * Write a leaf value holding record offsets, see postingSize
+	 *
+	 * @param page : node page
+	 * @param pos : position of the value
+	 * @return position after the value
+	 * */
+	public static int putPostings(ByteBuffer page, int pos, long[] offsets, int from, int count) {
+		if (count == 1) {
+			page.putLong(pos, offsets[from]);
+			return pos + constants.INDEX_OFFSET_SIZE;
+		}
+		page.putLong(pos, offsets[from] | constants.POSTING_FLAG);
+		pos = putVarint(page, pos + constants.INDEX_OFFSET_SIZE, gapsSize(offsets, from, count));
+		for (int i = from + 1; i < from + count; i++) {
+			pos = putVarint(page, pos, offsets[i] - offsets[i - 1]);
+		}
+		return pos;
+	}
+
+	// Largest posting list value one leaf entry may hold, so a leaf always takes a few entries
+	public static int maxPostingSize(int pageSize, int keyLength) {
+		int usable = pageSize - entriesStart(true) - trailerSize(1);
+		return usable / constants.NODE_POSTING_SHARE - constants.NODE_ENTRY_OVERHEAD - keyLength;
+	}
+
+	public static int varintSize(long value) {
+		int size = 1;
+		while ((value >>>= 7) != 0) {
+			size++;
+		}
+		return size;
+	}
+
+	// Write a value 7 bits a byte, low bits first, the top bit set on every byte but the last
+	public static int putVarint(ByteBuffer page, int pos, long value) {
+		while ((value & ~0x7fL) != 0) {
+			page.put(pos++, (byte) ((value & 0x7f) | 0x80));
+			value >>>= 7;
+		}
+		page.put(pos++, (byte) value);
+		return pos;
+	}
+
+	public static int restartCount(ByteBuffer page) {
+		return page.getShort(page.capacity() - constants.NODE_RESTART_SIZE) & 0xffff;
+	}
+
+	// Position of the entry at restart point i
+	public static int restartPosition(ByteBuffer page, int i) {
+		return page.getShort(page.capacity() - constants.NODE_RESTART_SIZE * (i + 2)) & 0xffff;
+	}
+
+	public static void putRestarts(ByteBuffer page, int[] positions, int count) {
+		int end = page.capacity();
+		page.putShort(end - constants.NODE_RESTART_SIZE, (short) count);
+		for (int i = 0; i < count; i++) {
+			page.putShort(end - constants.NODE_RESTART_SIZE * (i + 2), (short) positions[i]);
+		}
+	}
+
+	/**
+	 * Number of entries a node page is sure to hold, whatever front coding saves: every entry is
+	 * counted with its whole key, as a restart point stores it
+	 *
+	 * @param pageSize : size in bytes of the page
+	 * @param keyLength : length in bytes of the keys
+	 * @param leaf : true for a leaf node, false for an internal node
+	 * @return the number of entries
+	 * */
+	public static int capacity(int pageSize, int keyLength, boolean leaf) {
+		int entry = constants.NODE_ENTRY_OVERHEAD + keyLength + valueSize(leaf);
+		int entries = (pageSize - entriesStart(leaf) - trailerSize(0)) / entry;
+		// make room for the restart positions the entries need
+		while (entries > 0 && entriesStart(leaf) + entries * entry
+				+ trailerSize((entries + constants.NODE_RESTART_INTERVAL - 1) / constants.NODE_RESTART_INTERVAL) > pageSize) {
+			entries--;
+		}
+		return Math.min(entries, constants.NODE_MAX_KEY_COUNT);
+	}
+
+	// Number of bytes the trailer takes for the given number of restart points
+	public static int trailerSize(int restarts) {
+		return constants.NODE_RESTART_SIZE * (restarts + 1);
+	}
+
+	/**
+	 * Binary search the restart points for the last one before a key, where decoding must start
+	 * to reach the key or the place it would go
+	 *
+	 * @param page : node page
+	 * @param target : key to search for
+	 * @param inclusive : true if an entry equal to target is looked for, false if only those past it
+	 * @return number of the restart point, 0 if every restart key is at or past the target
+	 * */
+	public static int restartBefore(ByteBuffer page, byte[] target, boolean inclusive) {
+		int low = 0;
+		int high = restartCount(page);
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			int cmp = compareRestartKey(page, mid, target);
+			if (cmp < 0 || (cmp == 0 && !inclusive)) {
+				low = mid + 1;
+			}
+			else {
+				high = mid;
+			}
+		}
+		// restart points before low are all before the target; decoding starts at the last of them
+		return Math.max(0, low - 1);
+	}
+
+	/**
+	 * Compare the whole key stored at a restart point with the given key, as unsigned bytes
+	 * with a proper prefix ordered before the longer key
+	 *
+	 * @return negative, zero or positive as the stored key is less than, equal to or greater than key
+	 * */
+	public static int compareRestartKey(ByteBuffer page, int restart, byte[] key) {
+		int pos = restartPosition(page, restart);
+		// a restart entry shares nothing, so its suffix is the whole key
+		int length = page.get(pos + 1) & 0xff;
+		return compare(page, pos + 2, length, key, 0, key.length);
+	}
+
+	public static int compare(ByteBuffer page, int pos, int length, byte[] key, int from, int keyLength) {
+		int n = Math.min(length, keyLength);
+		for (int j = 0; j < n; j++) {
+			int a = page.get(pos + j) & 0xff;
+			int b = key[from + j] & 0xff;
+			if (a != b) {
+				return a - b;
+			}
+		}
+		return length - keyLength;
+	}
+
+	public static int compare(byte[] a, int aLength, byte[] b, int bLength) {
+		int n = Math.min(aLength, bLength);
+		for (int j = 0; j < n; j++) {
+			int x = a[j] & 0xff;
+			int y = b[j] & 0xff;
+			if (x != y) {
+				return x - y;
+			}
+		}
+		return aLength - bLength;
+	}
+
+	/**
+	 * Length of the shortest separator between two adjacent keys: the shortest prefix of the
+	 * right key that is still greater than the left key. Every key of the left node stays below
+	 * it and every key of the right node is at or above it.
+	 *
+	 * @param left : last key of the left node
+	 * @param leftFrom : position of the left key in its buffer
+	 * @param right : first key of the right node
+	 * @param rightFrom : position of the right key in its buffer
+	 * @param keyLength : length of both keys
+	 * @return number of leading bytes of the right key to use as the separator
+	 * */
+	public static int separatorLength(byte[] left, int leftFrom, byte[] right, int rightFrom, int keyLength) {
+		for (int j = 0; j < keyLength; j++) {
+			if (left[leftFrom + j] != right[rightFrom + j]) {
+				return j + 1;
+			}
+		}
+		return keyLength;
+	}
+}
@@ -0,0 +1,489 @@
+package dbsas2;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/*IndexReader answers lookups against the paged index file. Only the superblock is read
+ *  when the file is opened; a lookup reads the node pages on its root-to-leaf path.
+ *  A reader keeps its position in the tree between calls and is used by one thread at a time;
+ *  other threads read the same file through duplicates, see duplicate().
+ *  Where treeload left a Bloom filter next to the file (see KeyFilter), lookups ask it first and
+ *  skip the descent for the keys it rules out.*/
+class IndexReader implements Closeable {
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final BufferPool pool; //cache the node pages are read through, null to read them directly
+	private final int poolFileId;
+	private ByteBuffer page;
+	private final NodeCursor cursor;
+	private int readPageId; //id of the page currently held in the page buffer
+	private final String heapFileName;
+	private final int pageSize;
+	private final int keyType;
+	private final int keyLength;
+	private final int rootPage;
+	private final int firstLeaf;
+	private final int pageCount;
+	private final int height;
+	private final long recordCount;
+	private final long heapEnd;
+	private final KeyFilter filter; //null if the index has none built for its current contents
+	private final boolean owner; //false for a duplicate, which shares the file and its pool file id
+	private long descents; //root-to-leaf descents made, for the batch lookup statistics
+	private long siblingReads; //leaves reached through a right sibling pointer instead of a descent
+	private long filtered; //lookups the filter answered without a descent
+
+	/**
+	 * Open the index file and read its superblock
+	 *
+	 * @param indexFile : path where the index file is generated
+	 * */
+	public IndexReader(String indexFile) throws IOException {
+		this(indexFile, null);
+	}
+
+	/**
+	 * Open the index file and read its superblock. Node pages are read through the buffer pool,
+	 * which keeps the page last returned by readPage pinned until the next call.
+	 *
+	 * @param indexFile : path where the index file is generated
+	 * @param pool : buffer pool to cache node pages in, or null to read them directly
+	 * */
+	public IndexReader(String indexFile, BufferPool pool) throws IOException {
+		this.file = new RandomAccessFile(indexFile, "r");
+		this.channel = file.getChannel();
+
+		// the superblock fields all sit in the first bytes of page 0, whatever the page size
+		ByteBuffer superblock = ByteBuffer.allocate(constants.SB_SIZE);
+		readFully(superblock, 0);
+		if (superblock.getInt(constants.SB_MAGIC_OFFSET) != constants.INDEX_MAGIC) {
+			file.close();
+			throw new IOException(indexFile + " is not a paged index file");
+		}
+		int version = superblock.getInt(constants.SB_VERSION_OFFSET);
+		if (version < constants.INDEX_MIN_VERSION || version > constants.INDEX_VERSION) {
+			file.close();
+			throw new IOException(indexFile + " has unsupported index version " + superblock.getInt(constants.SB_VERSION_OFFSET));
+		}
+		this.pageSize = superblock.getInt(constants.SB_PAGE_SIZE_OFFSET);
+		this.keyLength = superblock.getInt(constants.SB_KEY_LENGTH_OFFSET);
+		this.keyType = superblock.getInt(constants.SB_KEY_TYPE_OFFSET);
+		if (!IndexKey.isKnown(keyType) || IndexKey.length(keyType) != keyLength) {
+			file.close();
+			throw new IOException(indexFile + " has unsupported key type " + keyType + " of " + keyLength + " bytes");
+		}
+		this.rootPage = superblock.getInt(constants.SB_ROOT_PAGE_OFFSET);
+		this.firstLeaf = superblock.getInt(constants.SB_FIRST_LEAF_OFFSET);
+		this.pageCount = superblock.getInt(constants.SB_PAGE_COUNT_OFFSET);
+		this.height = superblock.getInt(constants.SB_HEIGHT_OFFSET);
+		this.recordCount = superblock.getLong(constants.SB_RECORD_COUNT_OFFSET);
+		this.heapEnd = (version < 3) ? -1 : superblock.getLong(constants.SB_HEAP_END_OFFSET);
+		byte[] name = new byte[constants.SB_HEAP_NAME_SIZE];
+		superblock.position(constants.SB_HEAP_NAME_OFFSET);
+		superblock.get(name);
+		this.heapFileName = new String(name, StandardCharsets.ISO_8859_1).trim();
+		if (pool != null && pool.getPageSize() != pageSize) {
+			file.close();
+			throw new IOException(indexFile + " has " + pageSize + " byte pages, the buffer pool " + pool.getPageSize());
+		}
+		try {
+			this.filter = KeyFilter.open(indexFile + constants.FILTER_FILE_SUFFIX, keyType, recordCount, heapEnd, false);
+		}
+		catch (IOException e) {
+			file.close();
+			throw e;
+		}
+		this.pool = pool;
+		this.poolFileId = (pool == null) ? -1 : pool.register(channel);
+		this.page = (pool == null) ? ByteBuffer.allocate(pageSize) : null;
+		this.readPageId = constants.INDEX_NO_PAGE;
+		this.cursor = new NodeCursor(keyLength);
+		this.owner = true;
+	}
+
+	// Reader over the same open file as another, with its own page buffer and cursor
+	private IndexReader(IndexReader shared) {
+		this.file = shared.file;
+		this.channel = shared.channel;
+		this.pool = shared.pool;
+		this.poolFileId = shared.poolFileId;
+		this.page = (pool == null) ? ByteBuffer.allocate(shared.pageSize) : null;
+		this.readPageId = constants.INDEX_NO_PAGE;
+		this.cursor = new NodeCursor(shared.keyLength);
+		this.heapFileName = shared.heapFileName;
+		this.pageSize = shared.pageSize;
+		this.keyType = shared.keyType;
+		this.keyLength = shared.keyLength;
+		this.rootPage = shared.rootPage;
+		this.firstLeaf = shared.firstLeaf;
+		this.pageCount = shared.pageCount;
+		this.height = shared.height;
+		this.recordCount = shared.recordCount;
+		this.heapEnd = shared.heapEnd;
+		this.filter = shared.filter;
+		this.owner = false;
+	}
+
+	/**
+	 * Open another reader over the same index file for use by another thread. Duplicates read the
+	 * file with positional reads and cache pages in the same buffer pool, which is thread safe, but
+	 * each holds its own position. Close every duplicate before the reader it was made from.
+	 *
+	 * @return the new reader
+	 * */
+	public IndexReader duplicate() {
+		return new IndexReader(this);
+	}
+
+	public String getHeapFileName() {
+		return heapFileName;
+	}
+
+	public int getPageSize() {
+		return pageSize;
+	}
+
+	public int getKeyType() {
+		return keyType;
+	}
+
+	public int getKeyLength() {
+		return keyLength;
+	}
+
+	public int getRootPage() {
+		return rootPage;
+	}
+
+	public int getFirstLeaf() {
+		return firstLeaf;
+	}
+
+	public int getPageCount() {
+		return pageCount;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public long getRecordCount() {
+		return recordCount;
+	}
+
+	// Heap offset just past the last record the index covers, or -1 if the file does not record it
+	public long getHeapEnd() {
+		return heapEnd;
+	}
+
+	public long getDescents() {
+		return descents;
+	}
+
+	public long getSiblingReads() {
+		return siblingReads;
+	}
+
+	// Bloom filter of the index, or null if it has none built for its current contents
+	public KeyFilter getFilter() {
+		return filter;
+	}
+
+	public long getFiltered() {
+		return filtered;
+	}
+
+	// Whether the filter rules the key out, so a lookup can answer without a descent
+	private boolean filteredOut(byte[] key) {
+		if (filter == null || filter.mightContain(key)) {
+			return false;
+		}
+		filtered++;
+		return true;
+	}
+
+	/**
+	 * Read one node page. The returned buffer is reused by the next call.
+	 *
+	 * @param pageId : id of the page to read
+	 * @return the page contents
+	 * */
+	public ByteBuffer readPage(int pageId) throws IOException {
+		if (pageId <= constants.INDEX_SUPERBLOCK_PAGE || pageId >= pageCount) {
+			throw new IOException("Page " + pageId + " is outside the index file");
+		}
+		if (pool == null) {
+			readFully(page, (long) pageId * pageSize);
+		}
+		else if (pageId != readPageId) {
+			unpinPage();
+			page = pool.pin(poolFileId, pageId);
+		}
+		readPageId = pageId;
+		return page;
+	}
+
+	private void unpinPage() {
+		if (pool != null && readPageId != constants.INDEX_NO_PAGE) {
+			pool.unpin(poolFileId, readPageId, false);
+			readPageId = constants.INDEX_NO_PAGE;
+		}
+	}
+
+	private void readFully(ByteBuffer buffer, long position) throws IOException {
+		buffer.clear();
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, position + buffer.position());
+			if (read < 0) {
+				throw new IOException("Unexpected end of index file");
+			}
+		}
+	}
+
+	/**
+	 * Descend from the root to the leaf that would hold the key
+	 *
+	 * @param key : search key, keyLength bytes long
+	 * @return page id of the leaf; the leaf itself is left in the page buffer
+	 * */
+	public int findLeaf(byte[] key) throws IOException {
+		return findLeaf(key, false);
+	}
+
+	/**
+	 * Descend from the root to a leaf for a key
+	 *
+	 * @param key : search key, keyLength bytes long
+	 * @param first : true for the leftmost leaf that may hold entries of the key, as a scan from the key
+	 *        needs when its entries span leaves; a key with none there is in the leaves on its right
+	 * @return page id of the leaf; the leaf itself is left in the page buffer
+	 * */
+	private int findLeaf(byte[] key, boolean first) throws IOException {
+		descents++;
+		int pageId = rootPage;
+		ByteBuffer node = readPage(pageId);
+		while (!IndexNode.isLeaf(node)) {
+			// follow the child to the left of the first separator greater than the key,
+			// or not less than it for the first leaf
+			pageId = first ? cursor.childBefore(node, key) : cursor.childFor(node, key);
+			node = readPage(pageId);
+		}
+		return pageId;
+	}
+
+	/**
+	 * Look up the record offset stored for a key
+	 *
+	 * @param key : search key, keyLength bytes long
+	 * @return the record offset, one of them for a key several records share, or -1 if the key is not in the index
+	 * */
+	public long search(byte[] key) throws IOException {
+		if (filteredOut(key)) {
+			return -1;
+		}
+		findLeaf(key);
+		return cursor.find(page, key) ? cursor.offset() : -1;
+	}
+
+	/**
+	 * Look up many keys in one forward walk over the leaves. Each key is searched in the leaf the
+	 * walk is on, and a key past that leaf moves the walk on to the right sibling. A key past the
+	 * sibling as well is found by descending from the root again: reading further siblings could read
+	 * any number of leaves, while the internal pages of a descent are usually in the buffer pool,
+	 * so the jump costs about one leaf read. Once a sibling has been read for nothing, keys past
+	 * their leaf are found by descents straight away, until a descent lands on the next leaf again.
+	 * Keys the filter rules out are skipped without moving the walk.
+	 *
+	 * @param keys : search keys, keyLength bytes long, in ascending order
+	 * @param count : number of keys to look up from the start of the array
+	 * @param offsets : receives the record offset of each key, or -1 if it is not in the index
+	 * @return the number of keys found
+	 * */
+	public int searchBatch(byte[][] keys, int count, long[] offsets) throws IOException {
+		int found = 0;
+		int first = 0;
+		while (first < count && filteredOut(keys[first])) {
+			offsets[first++] = -1;
+		}
+		if (first == count) {
+			return 0;
+		}
+		int pageId = findLeaf(keys[first]);
+		boolean descended = true; //whether the leaf was reached by a descent for the current key
+		boolean walk = true; //whether the keys are close enough together to try the right sibling first
+		for (int i = first; i < count; i++) {
+			byte[] key = keys[i];
+			if (i > first && filteredOut(key)) {
+				offsets[i] = -1;
+				continue;
+			}
+			int steps = 0;
+			while (true) {
+				cursor.reset((pageId == readPageId) ? page : readPage(pageId));
+				if (cursor.seek(key, true)) {
+					// the walk never passes a key, so the first key at or past it is the key or it is absent
+					offsets[i] = (cursor.compare(key) == 0) ? cursor.offset() : -1;
+					break;
+				}
+				int right = IndexNode.rightSibling(page);
+				if (descended || right == constants.INDEX_NO_PAGE) {
+					// a descent lands on the only leaf that could hold the key
+					offsets[i] = -1;
+					break;
+				}
+				if (!walk || steps == constants.BATCH_SIBLING_STEPS) {
+					pageId = findLeaf(key);
+					descended = true;
+					// walk again once the keys are in neighbouring leaves
+					walk = (pageId == right);
+					continue;
+				}
+				pageId = right;
+				siblingReads++;
+				steps++;
+			}
+			if (offsets[i] >= 0) {
+				found++;
+			}
+			descended = false;
+		}
+		return found;
+	}
+
+	/**
+	 * Visit the entries with keys between startKey and endKey in key order, every record of a shared
+	 * key in turn. The scan starts at the first leaf holding startKey and stops
+	 * at the first key past endKey or once limit records are visited, so it reads only the leaves
+	 * that hold the result.
+	 *
+	 * @param startKey : lower bound, keyLength bytes long, or null to start at the first key
+	 * @param startInclusive : whether a key equal to startKey is part of the range
+	 * @param endKey : upper bound, keyLength bytes long, or null for no upper bound
+	 * @param endInclusive : whether a key equal to endKey is part of the range
+	 * @param limit : maximum number of records to visit
+	 * @param visitor : receives each record
+	 * @return number of records visited
+	 * */
+	public long scan(byte[] startKey, boolean startInclusive, byte[] endKey, boolean endInclusive, long limit,
+			IndexEntryVisitor visitor) throws IOException {
+		return scan(startKey, startInclusive, endKey, endInclusive, null, limit, visitor);
+	}
+
+	/**
+	 * Visit the entries whose keys start with the given prefix, for example every
+	 * reading of one sensor id
+	 *
+	 * @param prefix : leading bytes of the keys to visit, at most keyLength bytes
+	 * @param limit : maximum number of records to visit
+	 * @param visitor : receives each record
+	 * @return number of records visited
+	 * */
+	public long scanPrefix(byte[] prefix, long limit, IndexEntryVisitor visitor) throws IOException {
+		// the smallest key with the prefix is the prefix followed by zero bytes
+		byte[] startKey = new byte[keyLength];
+		System.arraycopy(prefix, 0, startKey, 0, Math.min(prefix.length, keyLength));
+		return scan(startKey, true, null, false, prefix, limit, visitor);
+	}
+
+	private long scan(byte[] startKey, boolean startInclusive, byte[] endKey, boolean endInclusive, byte[] prefix,
+			long limit, IndexEntryVisitor visitor) throws IOException {
+
+		int pageId;
+		boolean positioned; //whether the cursor is already on the first entry to visit
+		if (startKey == null) {
+			pageId = firstLeaf;
+			cursor.reset(readPage(pageId));
+			positioned = cursor.next();
+		}
+		else {
+			pageId = findLeaf(startKey, startInclusive);
+			cursor.reset(page);
+			positioned = cursor.seek(startKey, startInclusive);
+		}
+
+		long visited = 0;
+		while (visited < limit) {
+			if (!positioned && !cursor.next()) {
+				// continue in the right sibling leaf
+				pageId = IndexNode.rightSibling(page);
+				if (pageId == constants.INDEX_NO_PAGE) {
+					break;
+				}
+				cursor.reset(readPage(pageId));
+				continue;
+			}
+			positioned = false;
+			if (endKey != null) {
+				int cmp = cursor.compare(endKey);
+				if (cmp > 0 || (cmp == 0 && !endInclusive)) {
+					break;
+				}
+			}
+			byte[] key = cursor.key();
+			if (prefix != null && !startsWith(key, prefix)) {
+				break;
+			}
+			visited++;
+			// the visitor may read other pages, so remember where the scan is
+			boolean more = visitor.visit(key, cursor.offset());
+			if (readPageId != pageId) {
+				cursor.setPage(readPage(pageId));
+			}
+			// the other records sharing the key
+			while (more && visited < limit && cursor.nextOffset()) {
+				visited++;
+				more = visitor.visit(key, cursor.offset());
+				if (readPageId != pageId) {
+					cursor.setPage(readPage(pageId));
+				}
+			}
+			if (!more) {
+				break;
+			}
+		}
+		return visited;
+	}
+
+	private static boolean startsWith(byte[] key, byte[] prefix) {
+		int length = Math.min(prefix.length, key.length);
+		for (int i = 0; i < length; i++) {
+			if (key[i] != prefix[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// Returns query text as a key of the index's key type, see IndexKey.parse
+	public byte[] keyBytes(String key) {
+		return IndexKey.parse(keyType, key, false);
+	}
+
+	// Returns query text as a key, taking a sensor id alone as the end of the sensor's readings
+	public byte[] endKeyBytes(String key) {
+		return IndexKey.parse(keyType, key, true);
+	}
+
+	// Returns query text as the leading key bytes of a prefix scan, see IndexKey.prefix
+	public byte[] prefixBytes(String prefix) {
+		return IndexKey.prefix(keyType, prefix);
+	}
+
+	public void close() throws IOException {
+		if (pool != null) {
+			unpinPage();
+		}
+		if (!owner) {
+			return;
+		}
+		if (pool != null) {
+			pool.release(poolFileId);
+		}
+		file.close();
+	}
+}
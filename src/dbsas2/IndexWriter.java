@@ -0,0 +1,327 @@
+package dbsas2;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*IndexWriter writes the paged index file: a superblock in page 0 followed by
+ *  fixed-size node pages that refer to each other by page id. The pages go to a temporary file next
+ *  to the index file, which replaces the index file in one rename once the superblock is written,
+ *  so a build that fails or crashes half way leaves the previous index file as it was.*/
+class IndexWriter implements Closeable {
+
+	private final String indexFile;
+	private final String tempFile;
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final ByteBuffer page;
+	private final NodeBuilder builder;
+	private final int pageSize;
+	private final int keyType;
+	private final int keyLength;
+	private final BufferPool pool; //cache the pages are written back from, null to write them directly
+	private final int poolFileId;
+	private boolean complete; //set once the superblock is written, when the file may replace the index file
+
+	/**
+	 * Open the index file for writing, discarding any previous content
+	 *
+	 * @param indexFile : path where the index file needs to be generated
+	 * @param pageSize : size in bytes of every page of the index file
+	 * @param keyType : type of the keys stored in the index, one of the INDEX_KEY_ constants
+	 * */
+	public IndexWriter(String indexFile, int pageSize, int keyType) throws IOException {
+		this(indexFile, pageSize, keyType, null);
+	}
+
+	/**
+	 * Open the index file for writing through a buffer pool. Written pages stay in the pool as
+	 * dirty pages and reach the file when they are evicted or the writer is closed.
+	 *
+	 * @param indexFile : path where the index file needs to be generated
+	 * @param pageSize : size in bytes of every page of the index file
+	 * @param keyType : type of the keys stored in the index, one of the INDEX_KEY_ constants
+	 * @param pool : buffer pool to write pages through, or null to write them directly
+	 * */
+	public IndexWriter(String indexFile, int pageSize, int keyType, BufferPool pool) throws IOException {
+		if (pool != null && pool.getPageSize() != pageSize) {
+			throw new IOException("Index pages of " + pageSize + " bytes do not fit buffer pool pages of " + pool.getPageSize());
+		}
+		this.indexFile = indexFile;
+		this.tempFile = indexFile + constants.INDEX_TEMP_SUFFIX;
+		this.file = new RandomAccessFile(tempFile, "rw");
+		this.file.setLength(0);
+		this.channel = file.getChannel();
+		this.pool = pool;
+		this.poolFileId = (pool == null) ? -1 : pool.register(channel);
+		this.page = ByteBuffer.allocate(pageSize);
+		this.pageSize = pageSize;
+		this.keyType = keyType;
+		this.keyLength = IndexKey.length(keyType);
+		this.builder = new NodeBuilder(pageSize, keyLength);
+	}
+
+	public int getPageSize() {
+		return pageSize;
+	}
+
+	public int getKeyType() {
+		return keyType;
+	}
+
+	public int getKeyLength() {
+		return keyLength;
+	}
+
+	// Starts an empty node in the writer's page buffer and returns the builder that fills it
+	public NodeBuilder newNode(boolean leaf) {
+		builder.start(page, leaf);
+		return builder;
+	}
+
+	// Finishes the node being built and writes it as the given page
+	public void writeNode(int pageId) throws IOException {
+		builder.finish();
+		writePage(pageId, page);
+	}
+
+	public void writePage(int pageId, ByteBuffer buffer) throws IOException {
+		if (pool != null) {
+			ByteBuffer frame = pool.pinNew(poolFileId, pageId).duplicate();
+			buffer.clear();
+			frame.clear();
+			frame.put(buffer);
+			pool.unpin(poolFileId, pageId, true);
+			return;
+		}
+		buffer.clear();
+		long position = (long) pageId * pageSize;
+		while (buffer.hasRemaining()) {
+			position += channel.write(buffer, position);
+		}
+	}
+
+	/**
+	 * Write the superblock describing the tree into page 0
+	 *
+	 * @param heapFile : path of the heap file the record offsets point into
+	 * @param rootPage : page id of the root node
+	 * @param firstLeaf : page id of the leftmost leaf
+	 * @param pageCount : number of pages in the file, superblock included
+	 * @param height : number of levels in the tree
+	 * @param recordCount : number of keys stored in the leaves
+	 * @param heapEnd : heap offset just past the last record indexed, see HeapFile.end(), or -1 if unknown
+	 * */
+	public void writeSuperblock(String heapFile, int rootPage, int firstLeaf, int pageCount, int height,
+			long recordCount, long heapEnd) throws IOException {
+		for (int i = 0; i < pageSize; i++) {
+			page.put(i, (byte) 0);
+		}
+		page.putInt(constants.SB_MAGIC_OFFSET, constants.INDEX_MAGIC);
+		page.putInt(constants.SB_VERSION_OFFSET, constants.INDEX_VERSION);
+		page.putInt(constants.SB_PAGE_SIZE_OFFSET, pageSize);
+		page.putInt(constants.SB_KEY_LENGTH_OFFSET, keyLength);
+		page.putInt(constants.SB_ROOT_PAGE_OFFSET, rootPage);
+		page.putInt(constants.SB_FIRST_LEAF_OFFSET, firstLeaf);
+		page.putInt(constants.SB_PAGE_COUNT_OFFSET, pageCount);
+		page.putInt(constants.SB_HEIGHT_OFFSET, height);
+		page.putLong(constants.SB_RECORD_COUNT_OFFSET, recordCount);
+		page.putInt(constants.SB_KEY_TYPE_OFFSET, keyType);
+		page.putLong(constants.SB_HEAP_END_OFFSET, heapEnd);
+		byte[] name = heapFile.getBytes(StandardCharsets.ISO_8859_1);
+		int length = Math.min(name.length, constants.SB_HEAP_NAME_SIZE);
+		for (int i = 0; i < length; i++) {
+			page.put(constants.SB_HEAP_NAME_OFFSET + i, name[i]);
+		}
+		writePage(constants.INDEX_SUPERBLOCK_PAGE, page);
+		complete = true;
+	}
+
+	// Write back the pages and, if the superblock was written, move the file into place
+	public void close() throws IOException {
+		try {
+			if (pool != null) {
+				pool.release(poolFileId);
+			}
+			channel.force(true);
+		}
+		catch (IOException e) {
+			complete = false;
+			throw e;
+		}
+		finally {
+			file.close();
+			if (!complete) {
+				Files.deleteIfExists(Paths.get(tempFile));
+			}
+		}
+		// an incomplete file was deleted above and leaves the index file as it was
+		if (complete) {
+			Path target = Paths.get(indexFile);
+			Files.move(Paths.get(tempFile), target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			syncDirectory(target);
+		}
+	}
+
+	/**
+	 * Force the directory entry of a file that was just renamed into place to disk, where the
+	 * platform allows a directory to be opened
+	 *
+	 * @param file : path of the renamed file
+	 * */
+	static void syncDirectory(Path file) {
+		Path dir = file.toAbsolutePath().getParent();
+		try {
+			FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ);
+			try {
+				channel.force(true);
+			}
+			finally {
+				channel.close();
+			}
+		}
+		catch (IOException e) {
+			// not every platform can open a directory; the rename is still atomic there
+		}
+	}
+
+	/**
+	 * Write an in-memory BPlusTree to the index file. Nodes are numbered level by level
+	 * starting with the root at page 1, so a lookup only reads the pages on its root-to-leaf path.
+	 * Adjacent leaf keys of several records become one entry with a posting list of their offsets.
+	 *
+	 * @param root : root block of the tree to write
+	 * @param heapFile : path of the heap file the record offsets point into
+	 * @param indexFile : path where the index file needs to be generated
+	 * @param pageSize : size in bytes of every page of the index file
+	 * @param keyType : type of the keys stored in the tree, one of the INDEX_KEY_ constants
+	 * @param pool : buffer pool to write pages through, or null to write them directly
+	 * @param heapEnd : heap offset just past the last record in the tree, or -1 if unknown
+	 * */
+	public static void writeTree(BPlusTree root, String heapFile, String indexFile, int pageSize, int keyType,
+			BufferPool pool, long heapEnd) throws IOException {
+
+		int keyLength = IndexKey.length(keyType);
+		int maxPosting = IndexNode.maxPostingSize(pageSize, keyLength);
+		long[] run = new long[Math.max(maxPosting, 1)];
+
+		// number the blocks level by level, so the leaves come out in key order
+		List<BPlusTree> order = new ArrayList<BPlusTree>();
+		List<BPlusTree> leaves = new ArrayList<BPlusTree>();
+		Map<BPlusTree, Integer> pageIds = new IdentityHashMap<BPlusTree, Integer>();
+		order.add(root);
+		pageIds.put(root, 1);
+		for (int i = 0; i < order.size(); i++) {
+			BPlusTree block = order.get(i);
+			if (block.isLeafBlock || block.blockPtr.isEmpty()) {
+				leaves.add(block);
+			}
+			else {
+				for (BPlusTree child : block.blockPtr) {
+					pageIds.put(child, order.size() + 1);
+					order.add(child);
+				}
+			}
+		}
+		int height = 1;
+		for (BPlusTree block = root; !block.isLeafBlock && !block.blockPtr.isEmpty(); block = block.blockPtr.get(0)) {
+			height++;
+		}
+
+		IndexWriter writer = new IndexWriter(indexFile, pageSize, keyType, pool);
+		try {
+			int firstLeaf = constants.INDEX_NO_PAGE;
+			long recordCount = 0;
+			int leafIndex = 0;
+			for (BPlusTree block : order) {
+				int pageId = pageIds.get(block);
+				int keys = block.key.size();
+				NodeBuilder node = writer.newNode(block.isLeafBlock);
+				if (block.isLeafBlock) {
+					if (firstLeaf == constants.INDEX_NO_PAGE) {
+						firstLeaf = pageId;
+					}
+					int left = (leafIndex > 0) ? pageIds.get(leaves.get(leafIndex - 1)) : constants.INDEX_NO_PAGE;
+					int right = (leafIndex < leaves.size() - 1) ? pageIds.get(leaves.get(leafIndex + 1)) : constants.INDEX_NO_PAGE;
+					node.setSiblings(left, right);
+					recordCount += keys;
+					leafIndex++;
+				}
+				else {
+					node.setFirstChild(pageIds.get(block.blockPtr.get(0)));
+				}
+				for (int i = 0; i < keys; ) {
+					// leaf keys are whole keys, separators may have been truncated by split
+					byte[] key = block.isLeafBlock ? keyBytes(block.key.get(i), keyLength)
+							: block.key.get(i).getBytes(StandardCharsets.ISO_8859_1);
+					int count = block.isLeafBlock ? postingRun(block, i, maxPosting, run) : 1;
+					int valueSize = block.isLeafBlock ? IndexNode.postingSize(run, 0, count) : IndexNode.valueSize(false);
+					if (!node.fits(key, 0, key.length, valueSize, pageSize)) {
+						throw new IOException("Block of " + keys + " keys does not fit in a page of " + pageSize + " bytes");
+					}
+					if (!block.isLeafBlock) {
+						node.add(key, 0, key.length, pageIds.get(block.blockPtr.get(i + 1)));
+					}
+					else if (count == 1) {
+						node.add(key, 0, key.length, run[0]);
+					}
+					else {
+						node.add(key, 0, key.length, run, 0, count);
+					}
+					i += count;
+				}
+				writer.writeNode(pageId);
+			}
+			writer.writeSuperblock(heapFile, 1, firstLeaf, order.size() + 1, height, recordCount, heapEnd);
+		}
+		finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Collect the offsets of the leaf keys from start on that equal the key at start, as many as one
+	 * posting list of at most maxSize bytes holds; treeload keeps them in insertion, so heap, order
+	 *
+	 * @param run : receives the offsets
+	 * @return number of offsets collected, at least one
+	 * */
+	private static int postingRun(BPlusTree block, int start, int maxSize, long[] run) {
+		String key = block.key.get(start);
+		run[0] = block.offsetval.get(start);
+		int count = 1;
+		int gaps = 0;
+		while (start + count < block.key.size() && count < run.length && block.key.get(start + count).equals(key)) {
+			long offset = block.offsetval.get(start + count);
+			int gap = IndexNode.varintSize(offset - run[count - 1]);
+			if (constants.INDEX_OFFSET_SIZE + IndexNode.varintSize(gaps + gap) + gaps + gap > maxSize) {
+				break;
+			}
+			gaps += gap;
+			run[count++] = offset;
+		}
+		return count;
+	}
+
+	// Returns the key as exactly keyLength bytes, padded with blanks or truncated
+	public static byte[] keyBytes(String key, int keyLength) {
+		byte[] bytes = new byte[keyLength];
+		int length = Math.min(key.length(), keyLength);
+		for (int i = 0; i < keyLength; i++) {
+			bytes[i] = (i < length) ? (byte) key.charAt(i) : (byte) ' ';
+		}
+		return bytes;
+	}
+}
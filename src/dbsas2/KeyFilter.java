@@ -0,0 +1,274 @@
+package dbsas2;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+/*KeyFilter is a blocked Bloom filter over the keys of an index file, kept next to it in the index file
+ *  name followed by FILTER_FILE_SUFFIX, so a lookup of a key the index does not hold mostly ends
+ *  without reading a node page. A key hashes to one block of FILTER_BLOCK_BITS bits and sets a few
+ *  bits inside it, so a probe reads one cache line, or one page of the mapped file, rather than a
+ *  bit anywhere in the filter. The bit numbers within the block are taken a few at a time from
+ *  remixed words of the key hash; double hashing in so few bits makes the bits of a key depend on
+ *  each other. Keys spread unevenly over the blocks, which passes more absent keys than a plain
+ *  Bloom filter of the same size, so the filter is sized for the rate of its blocks.
+ *  A key that was added always passes.
+ *  The file records the number of keys and the heap end of the index it was built for, and a reader
+ *  ignores a filter that no longer matches its index, such as after online inserts (see RecordStore).*/
+final class KeyFilter {
+
+	private final ByteBuffer bits; //FILTER_HEADER_SIZE bytes of header, then the blocks
+	private final int keyType;
+	private final int hashes;
+	private final int blocks;
+	private long keyCount;
+
+	private static final int BIT_NUMBER_BITS = Integer.numberOfTrailingZeros(constants.FILTER_BLOCK_BITS);
+	private static final int BIT_NUMBERS_PER_WORD = 64 / BIT_NUMBER_BITS;
+
+	private KeyFilter(ByteBuffer bits) {
+		this.bits = bits;
+		this.keyType = bits.getInt(constants.FILTER_KEY_TYPE_OFFSET);
+		this.hashes = bits.getInt(constants.FILTER_HASHES_OFFSET);
+		this.blocks = bits.getInt(constants.FILTER_BLOCKS_OFFSET);
+		this.keyCount = bits.getLong(constants.FILTER_KEY_COUNT_OFFSET);
+	}
+
+	/**
+	 * An empty filter sized for a number of keys
+	 *
+	 * @param keyType : type of the keys, one of the INDEX_KEY_ constants
+	 * @param expectedKeys : number of keys the filter is sized for; more may be added at a higher false-positive rate
+	 * @param falsePositiveRate : share of absent keys allowed to pass, between 0 and 1 (both exclusive)
+	 * */
+	public static KeyFilter create(int keyType, long expectedKeys, double falsePositiveRate) {
+		if (!(falsePositiveRate > 0 && falsePositiveRate < 1)) {
+			throw new IllegalArgumentException("False-positive rate must be in (0, 1): " + falsePositiveRate);
+		}
+		// a plain Bloom filter of m bits over n keys with k = (m / n) ln 2 hash functions passes a share
+		// p = 2^-k of absent keys, so m / n = -ln p / (ln 2)^2; blocks need some more bits for the same p
+		double bitsPerKey = -Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2));
+		int hashes = hashCount(bitsPerKey);
+		while (blockedRate(constants.FILTER_BLOCK_BITS / bitsPerKey, hashes) > falsePositiveRate) {
+			bitsPerKey *= 1.05;
+			hashes = hashCount(bitsPerKey);
+		}
+		long blocks = (long) Math.ceil(Math.max(expectedKeys, 1) * bitsPerKey / constants.FILTER_BLOCK_BITS);
+		if (blocks > (Integer.MAX_VALUE - constants.FILTER_HEADER_SIZE) / (constants.FILTER_BLOCK_BITS / 8)) {
+			throw new IllegalArgumentException("A filter for " + expectedKeys + " keys at rate " + falsePositiveRate
+					+ " does not fit in memory");
+		}
+		ByteBuffer bits = ByteBuffer.allocate(constants.FILTER_HEADER_SIZE + (int) blocks * (constants.FILTER_BLOCK_BITS / 8));
+		bits.putInt(constants.FILTER_MAGIC_OFFSET, constants.FILTER_MAGIC);
+		bits.putInt(constants.FILTER_KEY_TYPE_OFFSET, keyType);
+		bits.putInt(constants.FILTER_HASHES_OFFSET, hashes);
+		bits.putInt(constants.FILTER_BLOCKS_OFFSET, (int) blocks);
+		return new KeyFilter(bits);
+	}
+
+	/**
+	 * Open the filter of an index file, if it has one built for the index as it is now
+	 *
+	 * @param filterFile : path of the filter file
+	 * @param keyType : key type of the index
+	 * @param recordCount : number of records the index holds, from its superblock
+	 * @param heapEnd : heap offset the index covers up to, from its superblock
+	 * @param writable : true to read the filter into memory to add keys to it, false to map it read-only
+	 * @return the filter, or null if there is none or it was built for other contents of the index
+	 * */
+	public static KeyFilter open(String filterFile, int keyType, long recordCount, long heapEnd, boolean writable)
+			throws IOException {
+		if (!new File(filterFile).exists()) {
+			return null;
+		}
+		RandomAccessFile file = new RandomAccessFile(filterFile, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			ByteBuffer header = ByteBuffer.allocate(constants.FILTER_HEADER_SIZE);
+			readFully(channel, header, 0);
+			long size = constants.FILTER_HEADER_SIZE
+					+ (long) header.getInt(constants.FILTER_BLOCKS_OFFSET) * (constants.FILTER_BLOCK_BITS / 8);
+			if (header.getInt(constants.FILTER_MAGIC_OFFSET) != constants.FILTER_MAGIC
+					|| header.getInt(constants.FILTER_KEY_TYPE_OFFSET) != keyType
+					|| header.getLong(constants.FILTER_KEY_COUNT_OFFSET) != recordCount
+					|| header.getLong(constants.FILTER_HEAP_END_OFFSET) != heapEnd
+					|| channel.size() != size) {
+				return null;
+			}
+			if (!writable) {
+				// the mapping stays valid once the file is closed; a probe faults in one page
+				return new KeyFilter(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+			}
+			ByteBuffer bits = ByteBuffer.allocate((int) size);
+			readFully(channel, bits, 0);
+			return new KeyFilter(bits);
+		}
+		finally {
+			file.close();
+		}
+	}
+
+	private static int hashCount(double bitsPerKey) {
+		return (int) Math.max(1, Math.min(constants.FILTER_MAX_HASHES, Math.round(bitsPerKey * Math.log(2))));
+	}
+
+	/**
+	 * Share of absent keys a blocked filter passes: the number of keys in the block an absent key
+	 * probes follows a Poisson distribution, and a block of j keys passes it with the rate of a
+	 * plain Bloom filter of FILTER_BLOCK_BITS bits over j keys
+	 *
+	 * @param keysPerBlock : mean number of keys in a block
+	 * @param hashes : number of bits each key sets
+	 * */
+	private static double blockedRate(double keysPerBlock, int hashes) {
+		double rate = 0;
+		double probability = Math.exp(-keysPerBlock); //of a block holding j keys
+		int last = (int) (keysPerBlock + 10 * Math.sqrt(keysPerBlock) + 10);
+		for (int j = 0; j <= last; j++) {
+			double unset = Math.pow(1 - 1.0 / constants.FILTER_BLOCK_BITS, (double) hashes * j);
+			rate += probability * Math.pow(1 - unset, hashes);
+			probability *= keysPerBlock / (j + 1);
+		}
+		return rate;
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		buffer.clear();
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new IOException("Unexpected end of filter file");
+			}
+		}
+	}
+
+	public int getKeyType() {
+		return keyType;
+	}
+
+	public long getKeyCount() {
+		return keyCount;
+	}
+
+	// Bytes of memory the filter takes, header included
+	public long getSize() {
+		return bits.capacity();
+	}
+
+	// Share of absent keys expected to pass with the keys added so far
+	public double getFalsePositiveRate() {
+		return blockedRate((double) keyCount / blocks, hashes);
+	}
+
+	/**
+	 * Add a key
+	 *
+	 * @param key : the whole key, as the index stores it
+	 * */
+	public void add(byte[] key) {
+		long hash = hash(key);
+		int block = block(hash);
+		long seed = hash;
+		long stream = 0; //bit numbers not yet taken, from the top
+		for (int i = 0; i < hashes; i++) {
+			if (i % BIT_NUMBERS_PER_WORD == 0) {
+				seed = mix(seed + 0x9e3779b97f4a7c15L);
+				stream = seed;
+			}
+			int bit = (int) (stream >>> (64 - BIT_NUMBER_BITS));
+			stream <<= BIT_NUMBER_BITS;
+			int word = block + (bit >>> 6) * 8;
+			bits.putLong(word, bits.getLong(word) | (1L << (bit & 63)));
+		}
+		keyCount++;
+	}
+
+	/**
+	 * Whether the index may hold a key
+	 *
+	 * @param key : the whole key, as the index stores it
+	 * @return false if the key was never added, true if it was or, rarely, if it was not
+	 * */
+	public boolean mightContain(byte[] key) {
+		long hash = hash(key);
+		int block = block(hash);
+		long seed = hash;
+		long stream = 0; //bit numbers not yet taken, from the top
+		for (int i = 0; i < hashes; i++) {
+			if (i % BIT_NUMBERS_PER_WORD == 0) {
+				seed = mix(seed + 0x9e3779b97f4a7c15L);
+				stream = seed;
+			}
+			int bit = (int) (stream >>> (64 - BIT_NUMBER_BITS));
+			stream <<= BIT_NUMBER_BITS;
+			if ((bits.getLong(block + (bit >>> 6) * 8) & (1L << (bit & 63))) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// FNV-1a over the key bytes, finished with the murmur3 64-bit mixer as FNV leaves the bits poorly mixed
+	private static long hash(byte[] key) {
+		long h = 0xcbf29ce484222325L;
+		for (byte b : key) {
+			h = (h ^ (b & 0xff)) * 0x100000001b3L;
+		}
+		return mix(h);
+	}
+
+	// The murmur3 64-bit finalizer
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		return h ^ (h >>> 33);
+	}
+
+	// Position of the block of a hash in the buffer, taken from the high 32 bits
+	private int block(long hash) {
+		long block = ((hash >>> 32) * blocks) >>> 32;
+		return constants.FILTER_HEADER_SIZE + (int) block * (constants.FILTER_BLOCK_BITS / 8);
+	}
+
+	/**
+	 * Write the filter to a file, replacing it only once the whole filter is on disk
+	 *
+	 * @param filterFile : path of the filter file
+	 * @param heapEnd : heap offset the index covers up to, from its superblock
+	 * */
+	public void write(String filterFile, long heapEnd) throws IOException {
+		ByteBuffer out = bits.duplicate();
+		out.putLong(constants.FILTER_KEY_COUNT_OFFSET, keyCount);
+		out.putLong(constants.FILTER_HEAP_END_OFFSET, heapEnd);
+		out.clear();
+		String tempFile = filterFile + ".tmp";
+		RandomAccessFile file = new RandomAccessFile(tempFile, "rw");
+		try {
+			file.setLength(0);
+			FileChannel channel = file.getChannel();
+			while (out.hasRemaining()) {
+				channel.write(out, out.position());
+			}
+			channel.force(true);
+		}
+		finally {
+			file.close();
+		}
+		Path target = Paths.get(filterFile);
+		Files.move(Paths.get(tempFile), target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		IndexWriter.syncDirectory(target);
+	}
+
+	// One line describing the filter, e.g. for a tool to print after building it
+	public String statistics() {
+		return String.format("Bloom filter: %d keys, %d KB, %d hashes, about %.2f%% false positives",
+				keyCount, (getSize() + 1023) / 1024, hashes, getFalsePositiveRate() * 100);
+	}
+}
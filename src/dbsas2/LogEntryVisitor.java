@@ -0,0 +1,15 @@
+package dbsas2;
+
+import java.io.IOException;
+
+/*LogEntryVisitor receives the records of a write-ahead log replay, in the order they were logged*/
+interface LogEntryVisitor {
+
+	/**
+	 * Called once for each intact entry of the log
+	 *
+	 * @param heapOffset : position of the record in the heap file
+	 * @param record : the record, TOTAL_SIZE bytes in heap layout; the array is reused for the next entry
+	 * */
+	void apply(long heapOffset, byte[] record) throws IOException;
+}
@@ -0,0 +1,172 @@
+package dbsas2;
+
+import java.util.Arrays;
+
+/*LongAggregateMap keeps count, sum, min and max of int values per long group key, in open
+ *  addressing tables of primitives, so adding a value neither boxes nor allocates. Each fork-join
+ *  task fills its own map and the maps of two tasks are merged when they join.*/
+final class LongAggregateMap {
+
+	private static final long EMPTY = Long.MIN_VALUE; //group keys are never Long.MIN_VALUE
+	private static final int INITIAL_CAPACITY = 64;
+
+	private long[] keys;
+	private long[] counts;
+	private long[] sums;
+	private int[] mins;
+	private int[] maxs;
+	private int size;
+	private int mask;
+
+	public LongAggregateMap() {
+		allocate(INITIAL_CAPACITY);
+	}
+
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		Arrays.fill(keys, EMPTY);
+		counts = new long[capacity];
+		sums = new long[capacity];
+		mins = new int[capacity];
+		maxs = new int[capacity];
+		mask = capacity - 1;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Add one value to the aggregates of its group
+	 *
+	 * @param key : group key, anything but Long.MIN_VALUE
+	 * @param value : value to aggregate
+	 * */
+	public void add(long key, int value) {
+		int slot = insert(key);
+		counts[slot]++;
+		sums[slot] += value;
+		if (value < mins[slot]) {
+			mins[slot] = value;
+		}
+		if (value > maxs[slot]) {
+			maxs[slot] = value;
+		}
+	}
+
+	/**
+	 * Fold the aggregates of another map into this one
+	 *
+	 * @param other : map to merge, left unchanged
+	 * */
+	public void merge(LongAggregateMap other) {
+		for (int i = 0; i < other.keys.length; i++) {
+			if (other.keys[i] == EMPTY) {
+				continue;
+			}
+			int slot = insert(other.keys[i]);
+			counts[slot] += other.counts[i];
+			sums[slot] += other.sums[i];
+			mins[slot] = Math.min(mins[slot], other.mins[i]);
+			maxs[slot] = Math.max(maxs[slot], other.maxs[i]);
+		}
+	}
+
+	// Slot of the key, claiming an empty one with neutral aggregates if the key is new
+	private int insert(long key) {
+		int slot = hash(key) & mask;
+		while (keys[slot] != key) {
+			if (keys[slot] == EMPTY) {
+				if (2 * (size + 1) > keys.length) {
+					grow();
+					return insert(key);
+				}
+				keys[slot] = key;
+				mins[slot] = Integer.MAX_VALUE;
+				maxs[slot] = Integer.MIN_VALUE;
+				size++;
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private void grow() {
+		long[] oldKeys = keys;
+		long[] oldCounts = counts;
+		long[] oldSums = sums;
+		int[] oldMins = mins;
+		int[] oldMaxs = maxs;
+		allocate(oldKeys.length * 2);
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] == EMPTY) {
+				continue;
+			}
+			int slot = hash(oldKeys[i]) & mask;
+			while (keys[slot] != EMPTY) {
+				slot = (slot + 1) & mask;
+			}
+			keys[slot] = oldKeys[i];
+			counts[slot] = oldCounts[i];
+			sums[slot] = oldSums[i];
+			mins[slot] = oldMins[i];
+			maxs[slot] = oldMaxs[i];
+		}
+	}
+
+	private static int hash(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	// Group keys in ascending order
+	public long[] sortedKeys() {
+		long[] sorted = new long[size];
+		int n = 0;
+		for (long key : keys) {
+			if (key != EMPTY) {
+				sorted[n++] = key;
+			}
+		}
+		Arrays.sort(sorted);
+		return sorted;
+	}
+
+	public long count(long key) {
+		int slot = find(key);
+		return (slot < 0) ? 0 : counts[slot];
+	}
+
+	public long sum(long key) {
+		int slot = find(key);
+		return (slot < 0) ? 0 : sums[slot];
+	}
+
+	public int min(long key) {
+		return mins[slotOf(key)];
+	}
+
+	public int max(long key) {
+		return maxs[slotOf(key)];
+	}
+
+	private int slotOf(long key) {
+		int slot = find(key);
+		if (slot < 0) {
+			throw new IllegalArgumentException("No group " + key);
+		}
+		return slot;
+	}
+
+	private int find(long key) {
+		int slot = hash(key) & mask;
+		while (keys[slot] != key) {
+			if (keys[slot] == EMPTY) {
+				return -1;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+}
@@ -0,0 +1,178 @@
+package dbsas2;
+
+import java.nio.ByteBuffer;
+
+/*NodeBuilder fills one node page at a time with front coded entries in key order, recording a
+ *  restart point every NODE_RESTART_INTERVAL entries, and writes the key count and the restart
+ *  trailer once the node is finished. See IndexNode for the page layout.*/
+final class NodeBuilder {
+
+	private final int pageSize;
+	private final byte[] lastKey; //previous key added, the base of the next entry's shared prefix
+	private final int[] restarts;
+	private ByteBuffer page;
+	private boolean leaf;
+	private int lastLength;
+	private int count; //entries added to the current page
+	private int restartCount;
+	private int end; //position after the last entry
+
+	/**
+	 * @param pageSize : size in bytes of every node page
+	 * @param keyLength : length in bytes of the longest key
+	 * */
+	public NodeBuilder(int pageSize, int keyLength) {
+		if (pageSize > constants.NODE_MAX_PAGE_SIZE) {
+			throw new IllegalArgumentException("Node pages are limited to " + constants.NODE_MAX_PAGE_SIZE + " bytes");
+		}
+		if (keyLength > constants.NODE_MAX_KEY_LENGTH) {
+			throw new IllegalArgumentException("Node keys are limited to " + constants.NODE_MAX_KEY_LENGTH + " bytes");
+		}
+		this.pageSize = pageSize;
+		this.lastKey = new byte[keyLength];
+		this.restarts = new int[pageSize / constants.NODE_ENTRY_OVERHEAD + 1];
+	}
+
+	/**
+	 * Start a new node in the page buffer, clearing it
+	 *
+	 * @param page : page buffer of pageSize bytes
+	 * @param leaf : true for a leaf node, false for an internal node
+	 * */
+	public void start(ByteBuffer page, boolean leaf) {
+		IndexNode.init(page, leaf);
+		this.page = page;
+		this.leaf = leaf;
+		this.count = 0;
+		this.restartCount = 0;
+		this.lastLength = 0;
+		this.end = IndexNode.entriesStart(leaf);
+	}
+
+	/**
+	 * Continue a node already in the page buffer, keeping its entries before a restart point and
+	 * its header and replacing the entries from the restart point on with the entries added next.
+	 * Bytes between the last entry and the restart trailer are not used by the node.
+	 *
+	 * @param page : page buffer holding a finished node
+	 * @param restart : number of the first restart point whose entries are replaced
+	 * */
+	public void resume(ByteBuffer page, int restart) {
+		this.page = page;
+		this.leaf = IndexNode.isLeaf(page);
+		for (int i = 0; i < restart; i++) {
+			restarts[i] = IndexNode.restartPosition(page, i);
+		}
+		this.count = restart * constants.NODE_RESTART_INTERVAL;
+		this.restartCount = restart;
+		this.lastLength = 0;
+		this.end = (restart == 0) ? IndexNode.entriesStart(leaf) : IndexNode.restartPosition(page, restart);
+	}
+
+	public void setSiblings(int left, int right) {
+		IndexNode.setSiblings(page, left, right);
+	}
+
+	public void setFirstChild(int child) {
+		IndexNode.putFirstChild(page, child);
+	}
+
+	public int count() {
+		return count;
+	}
+
+	/**
+	 * Whether one more entry fits in the first limit bytes of the page
+	 *
+	 * @param key : buffer holding the key
+	 * @param from : position of the key in the buffer
+	 * @param length : length of the key
+	 * @param limit : number of bytes of the page the node may use, at most the page size
+	 * @return true if add would keep the finished node within limit bytes
+	 * */
+	public boolean fits(byte[] key, int from, int length, int limit) {
+		return fits(key, from, length, IndexNode.valueSize(leaf), limit);
+	}
+
+	/**
+	 * Whether one more entry with a value of the given size fits in the first limit bytes of the page
+	 *
+	 * @param valueSize : size of the value, see IndexNode.postingSize for a leaf entry of several records
+	 * */
+	public boolean fits(byte[] key, int from, int length, int valueSize, int limit) {
+		boolean restart = count % constants.NODE_RESTART_INTERVAL == 0;
+		int shared = restart ? 0 : sharedPrefix(key, from, length);
+		int entry = constants.NODE_ENTRY_OVERHEAD + (length - shared) + valueSize;
+		return end + entry + IndexNode.trailerSize(restartCount + (restart ? 1 : 0)) <= Math.min(limit, pageSize);
+	}
+
+	/**
+	 * Append an entry; keys must come in ascending order and fit (see fits)
+	 *
+	 * @param key : buffer holding the key
+	 * @param from : position of the key in the buffer
+	 * @param length : length of the key
+	 * @param value : record offset for a leaf, child page id for an internal node
+	 * */
+	public void add(byte[] key, int from, int length, long value) {
+		int pos = putKey(key, from, length);
+		if (leaf) {
+			page.putLong(pos, value);
+		}
+		else {
+			page.putInt(pos, (int) value);
+		}
+		end = pos + IndexNode.valueSize(leaf);
+	}
+
+	/**
+	 * Append a leaf entry for the records sharing a key; keys must come in ascending order and fit
+	 *
+	 * @param key : buffer holding the key
+	 * @param from : position of the key in the buffer
+	 * @param length : length of the key
+	 * @param offsets : buffer holding the record offsets, in ascending order
+	 * @param first : position of the first offset in the buffer
+	 * @param offsetCount : number of offsets
+	 * */
+	public void add(byte[] key, int from, int length, long[] offsets, int first, int offsetCount) {
+		int pos = putKey(key, from, length);
+		end = IndexNode.putPostings(page, pos, offsets, first, offsetCount);
+	}
+
+	// Write the front coded key of the next entry, returning the position of its value
+	private int putKey(byte[] key, int from, int length) {
+		int shared = 0;
+		if (count % constants.NODE_RESTART_INTERVAL == 0) {
+			restarts[restartCount++] = end;
+		}
+		else {
+			shared = sharedPrefix(key, from, length);
+		}
+		page.put(end, (byte) shared);
+		page.put(end + 1, (byte) (length - shared));
+		int pos = end + constants.NODE_ENTRY_OVERHEAD;
+		for (int j = shared; j < length; j++) {
+			page.put(pos++, key[from + j]);
+		}
+		System.arraycopy(key, from, lastKey, 0, length);
+		lastLength = length;
+		count++;
+		return pos;
+	}
+
+	// Write the key count and the restart trailer of the node
+	public void finish() {
+		IndexNode.setKeyCount(page, count);
+		IndexNode.putRestarts(page, restarts, restartCount);
+	}
+
+	private int sharedPrefix(byte[] key, int from, int length) {
+		int n = Math.min(Math.min(length, lastLength), constants.NODE_MAX_KEY_LENGTH);
+		int shared = 0;
+		while (shared < n && key[from + shared] == lastKey[shared]) {
+			shared++;
+		}
+		return shared;
+	}
+}
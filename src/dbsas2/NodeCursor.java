@@ -0,0 +1,230 @@
+package dbsas2;
+
+import java.nio.ByteBuffer;
+
+/*NodeCursor walks the front coded entries of one node page, rebuilding each key in a buffer it
+ *  owns. Searches binary search the restart points, whose keys are stored whole, and then decode
+ *  forward from the chosen restart point, so a search decodes at most NODE_RESTART_INTERVAL entries.*/
+final class NodeCursor {
+
+	private final byte[] key; //key of the current entry
+	private ByteBuffer page;
+	private boolean leaf;
+	private int count;
+	private int index; //number of the current entry, -1 before the first
+	private int next; //position of the entry after the current one
+	private int keyLength; //length of the current key
+	private long value;
+	private int postingNext; //position of the next gap in the posting list of the current entry
+	private int postingEnd; //end of that posting list, postingNext if the entry has one offset
+
+	/**
+	 * @param keyLength : length in bytes of the longest key in the index
+	 * */
+	public NodeCursor(int keyLength) {
+		this.key = new byte[keyLength];
+	}
+
+	/**
+	 * Position the cursor before the first entry of a page
+	 *
+	 * @param page : leaf or internal node page
+	 * */
+	public void reset(ByteBuffer page) {
+		this.page = page;
+		this.leaf = IndexNode.isLeaf(page);
+		this.count = IndexNode.keyCount(page);
+		this.index = -1;
+		this.next = IndexNode.entriesStart(leaf);
+	}
+
+	/**
+	 * Point the cursor at another buffer holding the same page, keeping its position. Used when
+	 * the buffer the page was read into has been reused in the meantime and the page read again.
+	 *
+	 * @param page : buffer holding the same page as before
+	 * */
+	public void setPage(ByteBuffer page) {
+		this.page = page;
+	}
+
+	/**
+	 * Move to the next entry
+	 *
+	 * @return false if the page has no more entries
+	 * */
+	public boolean next() {
+		if (index + 1 >= count) {
+			index = count;
+			return false;
+		}
+		int pos = next;
+		int shared = page.get(pos) & 0xff;
+		int suffix = page.get(pos + 1) & 0xff;
+		pos += constants.NODE_ENTRY_OVERHEAD;
+		for (int j = 0; j < suffix; j++) {
+			key[shared + j] = page.get(pos + j);
+		}
+		pos += suffix;
+		keyLength = shared + suffix;
+		value = leaf ? page.getLong(pos) : page.getInt(pos);
+		pos += IndexNode.valueSize(leaf);
+		postingNext = pos;
+		if (leaf && value < 0) {
+			// a posting list: the flagged first offset, the length of the gaps, then the gaps
+			value &= ~constants.POSTING_FLAG;
+			int length = (int) readVarint();
+			pos = postingNext + length;
+		}
+		postingEnd = pos;
+		next = pos;
+		index++;
+		return true;
+	}
+
+	// Position just past the current entry, the end of the entries once next has returned false
+	public int end() {
+		return next;
+	}
+
+	// Key of the current entry; the buffer is reused by the next move
+	public byte[] key() {
+		return key;
+	}
+
+	public int keyLength() {
+		return keyLength;
+	}
+
+	public int index() {
+		return index;
+	}
+
+	// Record offset of the current leaf entry; the first of them for a key several records share
+	public long offset() {
+		return value;
+	}
+
+	/**
+	 * Move to the next record offset of the current leaf entry, for a key several records share
+	 *
+	 * @return false if the entry has no more offsets
+	 * */
+	public boolean nextOffset() {
+		if (postingNext >= postingEnd) {
+			return false;
+		}
+		value += readVarint();
+		return true;
+	}
+
+	private long readVarint() {
+		long result = 0;
+		for (int shift = 0; ; shift += 7) {
+			byte b = page.get(postingNext++);
+			result |= (long) (b & 0x7f) << shift;
+			if (b >= 0) {
+				return result;
+			}
+		}
+	}
+
+	// Child page id of the current internal entry
+	public int child() {
+		return (int) value;
+	}
+
+	// Compare the current key with a key, as unsigned bytes with a proper prefix ordered first
+	public int compare(byte[] other) {
+		return IndexNode.compare(key, keyLength, other, other.length);
+	}
+
+	/**
+	 * Move to the first entry whose key is at or past the given key
+	 *
+	 * @param target : key to search for
+	 * @param inclusive : true to stop at a key equal to target, false to stop only past it
+	 * @return false if every key of the page is before that point
+	 * */
+	public boolean seek(byte[] target, boolean inclusive) {
+		startAtRestart(target, inclusive);
+		while (next()) {
+			int cmp = compare(target);
+			if (cmp > 0 || (cmp == 0 && inclusive)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Find the child of an internal page covering a key: the child right of the last separator
+	 * not greater than the key, or child0 if every separator is greater
+	 *
+	 * @param page : internal node page
+	 * @param target : search key
+	 * @return page id of the child
+	 * */
+	public int childFor(ByteBuffer page, byte[] target) {
+		reset(page);
+		int child = IndexNode.firstChild(page);
+		startAtRestart(target, false);
+		while (next() && compare(target) <= 0) {
+			child = child();
+		}
+		return child;
+	}
+
+	/**
+	 * Find the child of an internal page where the entries of a key may start: the child right of
+	 * the last separator less than the key. Where a key's entries span leaves, the separator in
+	 * front of the later leaves equals the key, and childFor passes those leaves' left neighbours.
+	 *
+	 * @param page : internal node page
+	 * @param target : search key
+	 * @return page id of the child
+	 * */
+	public int childBefore(ByteBuffer page, byte[] target) {
+		reset(page);
+		int child = IndexNode.firstChild(page);
+		startAtRestart(target, true);
+		while (next() && compare(target) < 0) {
+			child = child();
+		}
+		return child;
+	}
+
+	/**
+	 * Find the entry holding a key in a leaf page
+	 *
+	 * @param page : leaf node page
+	 * @param target : key to search for
+	 * @return true if the leaf holds the key; the cursor is then on its entry
+	 * */
+	public boolean find(ByteBuffer page, byte[] target) {
+		reset(page);
+		return seek(target, true) && compare(target) == 0;
+	}
+
+	// Position the cursor at the last restart point that comes before the target, so the entries
+	// the search is looking for are all after it
+	private void startAtRestart(byte[] target, boolean inclusive) {
+		moveToRestart(IndexNode.restartBefore(page, target, inclusive));
+	}
+
+	/**
+	 * Position the cursor before the entry stored at a restart point of a page
+	 *
+	 * @param page : leaf or internal node page
+	 * @param restart : number of the restart point
+	 * */
+	public void resetAt(ByteBuffer page, int restart) {
+		reset(page);
+		moveToRestart(restart);
+	}
+
+	private void moveToRestart(int restart) {
+		index = restart * constants.NODE_RESTART_INTERVAL - 1;
+		next = (restart == 0) ? IndexNode.entriesStart(leaf) : IndexNode.restartPosition(page, restart);
+	}
+}
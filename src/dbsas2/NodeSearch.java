@@ -0,0 +1,56 @@
+package dbsas2;
+
+import java.util.List;
+
+/*NodeSearch holds the binary searches used to find a key inside one in-memory BPlusTree block
+ *  built by treeload. Node pages of the index file are searched with NodeCursor.*/
+final class NodeSearch {
+
+	private NodeSearch() {
+	}
+
+	/**
+	 * Find the first key of a block that is greater than or equal to the given key
+	 *
+	 * @param keys : sorted keys of the block
+	 * @param key : key to search for
+	 * @return index of that key, or keys.size() if every key is smaller
+	 * */
+	public static int lowerBound(List<String> keys, String key) {
+		int low = 0;
+		int high = keys.size();
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (keys.get(mid).compareTo(key) < 0) {
+				low = mid + 1;
+			}
+			else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Find the first key of a block that is strictly greater than the given key. In an internal
+	 * block this is the position of the child that covers the key.
+	 *
+	 * @param keys : sorted keys of the block
+	 * @param key : key to search for
+	 * @return index of that key, or keys.size() if no key is greater
+	 * */
+	public static int upperBound(List<String> keys, String key) {
+		int low = 0;
+		int high = keys.size();
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (keys.get(mid).compareTo(key) <= 0) {
+				low = mid + 1;
+			}
+			else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+}
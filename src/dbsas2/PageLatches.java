@@ -0,0 +1,53 @@
+package dbsas2;
+
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/*PageLatches holds one read-write latch for each page of an index file, so several threads can read
+ *  and change the tree at once (see IndexInserter). A latch guards the bytes of its page while they
+ *  are read or changed; the buffer pool pin keeps the page in memory meanwhile. Threads take latches
+ *  from the root down and, on one level, from left to right, so none waits for a latch held by a
+ *  thread that waits for one of its own. The table grows with the file; a latch handed out stays
+ *  the latch of its page.*/
+final class PageLatches {
+
+	private volatile ReentrantReadWriteLock[] latches;
+
+	/**
+	 * @param pages : number of pages the table starts with
+	 * */
+	public PageLatches(int pages) {
+		this.latches = fill(new ReentrantReadWriteLock[Math.max(pages, 1)], 0);
+	}
+
+	/**
+	 * The latch of a page
+	 *
+	 * @param pageId : page of the index file, counting from 0
+	 * @return the same latch for every call with this page
+	 * */
+	public ReentrantReadWriteLock latch(int pageId) {
+		ReentrantReadWriteLock[] table = latches;
+		if (pageId >= table.length) {
+			table = grow(pageId);
+		}
+		return table[pageId];
+	}
+
+	private synchronized ReentrantReadWriteLock[] grow(int pageId) {
+		ReentrantReadWriteLock[] table = latches;
+		if (pageId >= table.length) {
+			ReentrantReadWriteLock[] larger = new ReentrantReadWriteLock[Math.max(table.length * 2, pageId + 1)];
+			System.arraycopy(table, 0, larger, 0, table.length);
+			latches = fill(larger, table.length);
+			table = larger;
+		}
+		return table;
+	}
+
+	private static ReentrantReadWriteLock[] fill(ReentrantReadWriteLock[] table, int from) {
+		for (int i = from; i < table.length; i++) {
+			table[i] = new ReentrantReadWriteLock();
+		}
+		return table;
+	}
+}
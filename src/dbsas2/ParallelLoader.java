@@ -0,0 +1,256 @@
+package dbsas2;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class ParallelLoader {
+
+    /*
+     * Parallel version of the dbload loop. The calling thread reads the csv and cuts it into
+     * chunks of whole lines, each holding the records of a fixed number of full pages. Worker
+     * threads parse the chunks straight into pages, and a writer thread appends the pages to the heap
+     * file in input order. Because every chunk but the last fills its pages exactly, the heap
+     * file is byte-identical to the one the sequential loop writes.
+     */
+
+    private final int pageSize;
+    private final int threads;
+    private final int syncInterval;
+    private final int numRecordsPerPage;
+    private final int linesPerChunk;
+    private int numRecordsLoaded;
+    private int numberOfPagesUsed;
+
+    /**
+     * @param pageSize : page size of the heap file
+     * @param threads : number of worker threads encoding records
+     * @param syncInterval : durability policy of the heap file, as for HeapWriter
+     */
+    public ParallelLoader(int pageSize, int threads, int syncInterval) {
+        this.pageSize = pageSize;
+        this.threads = threads;
+        this.syncInterval = syncInterval;
+        this.numRecordsPerPage = pageSize / constants.TOTAL_SIZE;
+        this.linesPerChunk = numRecordsPerPage * constants.LOAD_CHUNK_PAGES;
+    }
+
+    public int getNumRecordsLoaded() {
+        return numRecordsLoaded;
+    }
+
+    public int getNumberOfPagesUsed() {
+        return numberOfPagesUsed;
+    }
+
+    /**
+     * Load a csv file, appending its records to the heap file
+     *
+     * @param datafile : path of the input csv
+     * @param outputFileName : path of the heap file
+     */
+    public void load(String datafile, String outputFileName)
+            throws IOException, ParseException, InterruptedException {
+
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        ExecutorService writer = Executors.newSingleThreadExecutor();
+        // chunks in input order; the bound keeps the reader at most a few chunks ahead of the writer
+        final BlockingQueue<Future<Chunk>> pending = new ArrayBlockingQueue<Future<Chunk>>(threads * 2);
+        InputStream input = null;
+        final HeapWriter heap = new HeapWriter(outputFileName, pageSize, constants.LOAD_WRITE_BATCH_PAGES,
+                syncInterval);
+
+        try {
+            Future<Integer> written = writer.submit(new Callable<Integer>() {
+                public Integer call() throws Exception {
+                    int pages = 0;
+                    while (true) {
+                        Chunk chunk = pending.take().get();
+                        if (chunk == null) {
+                            return pages;
+                        }
+                        heap.writePages(chunk.pages, chunk.pageCount);
+                        numRecordsLoaded += chunk.records;
+                        pages += chunk.pageCount;
+                    }
+                }
+            });
+
+            input = new FileInputStream(datafile);
+            byte[] block = new byte[1 << 16];
+            byte[] chunk = new byte[1 << 20];
+            int chunkLength = 0;
+            int lines = 0;
+            boolean header = true;
+            boolean lineHasContent = false;
+            int n;
+
+            while ((n = input.read(block)) > 0) {
+                int start = 0;
+                for (int i = 0; i < n; i++) {
+                    byte b = block[i];
+                    if (b != '\n') {
+                        if (b != '\r') {
+                            lineHasContent = true;
+                        }
+                        continue;
+                    }
+                    if (header) {
+                        // the header line is not processed, as datafile fieldnames are known
+                        header = false;
+                        start = i + 1;
+                        lineHasContent = false;
+                        continue;
+                    }
+                    if (lineHasContent) {
+                        lines++;
+                    }
+                    lineHasContent = false;
+                    if (lines == linesPerChunk) {
+                        chunk = append(chunk, chunkLength, block, start, i + 1 - start);
+                        chunkLength += i + 1 - start;
+                        submit(workers, pending, written, chunk, chunkLength);
+                        chunk = new byte[chunk.length];
+                        chunkLength = 0;
+                        lines = 0;
+                        start = i + 1;
+                    }
+                }
+                if (!header) {
+                    chunk = append(chunk, chunkLength, block, start, n - start);
+                    chunkLength += n - start;
+                }
+            }
+            if (chunkLength > 0) {
+                submit(workers, pending, written, chunk, chunkLength);
+            }
+            // end of input marker for the writer
+            putInOrder(pending, written, new CompletedChunk(null));
+            numberOfPagesUsed = written.get();
+            heap.close();
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof ExecutionException) {
+                cause = cause.getCause();
+            }
+            if (cause instanceof ParseException) {
+                throw (ParseException) cause;
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Loading failed: " + cause, cause);
+        }
+        finally {
+            workers.shutdownNow();
+            writer.shutdownNow();
+            if (input != null) {
+                input.close();
+            }
+            heap.close();
+        }
+    }
+
+    private void submit(ExecutorService workers, BlockingQueue<Future<Chunk>> pending, Future<Integer> written,
+            final byte[] chunk, final int chunkLength) throws InterruptedException, ExecutionException {
+        putInOrder(pending, written, workers.submit(new Callable<Chunk>() {
+            public Chunk call() throws Exception {
+                return encodeChunk(chunk, chunkLength);
+            }
+        }));
+    }
+
+    // Queue a chunk for the writer, giving up if the writer has already stopped with an error
+    private static void putInOrder(BlockingQueue<Future<Chunk>> pending, Future<Integer> written, Future<Chunk> chunk)
+            throws InterruptedException, ExecutionException {
+        while (!pending.offer(chunk, 100, TimeUnit.MILLISECONDS)) {
+            if (written.isDone()) {
+                written.get();
+            }
+        }
+    }
+
+    private static byte[] append(byte[] chunk, int chunkLength, byte[] block, int start, int length) {
+        if (chunkLength + length > chunk.length) {
+            byte[] larger = new byte[Math.max(chunk.length * 2, chunkLength + length)];
+            System.arraycopy(chunk, 0, larger, 0, chunkLength);
+            chunk = larger;
+        }
+        System.arraycopy(block, start, chunk, chunkLength, length);
+        return chunk;
+    }
+
+    // Encode the lines of one chunk into zero-padded pages
+    private Chunk encodeChunk(byte[] chunk, int chunkLength) throws ParseException {
+        CsvRecordParser parser = new CsvRecordParser();
+        Chunk result = new Chunk();
+        result.pages = new byte[((linesPerChunk + numRecordsPerPage - 1) / numRecordsPerPage) * pageSize];
+        ByteBuffer pages = ByteBuffer.wrap(result.pages);
+
+        int start = 0;
+        while (start < chunkLength) {
+            int end = start;
+            while (end < chunkLength && chunk[end] != '\n') {
+                end++;
+            }
+            int lineEnd = (end > start && chunk[end - 1] == '\r') ? end - 1 : end;
+            if (lineEnd > start) {
+                // records are parsed straight into their slot of their page
+                int page = result.records / numRecordsPerPage;
+                int slot = result.records % numRecordsPerPage;
+                parser.encode(chunk, start, lineEnd, pages, page * pageSize + slot * constants.TOTAL_SIZE);
+                result.records++;
+            }
+            start = end + 1;
+        }
+        result.pageCount = (result.records + numRecordsPerPage - 1) / numRecordsPerPage;
+        return result;
+    }
+
+    /*Chunk holds the pages encoded from one chunk of input lines*/
+    private static class Chunk {
+        byte[] pages;
+        int pageCount;
+        int records;
+    }
+
+    /*CompletedChunk is an already finished future, used to queue the end of input marker*/
+    private static class CompletedChunk implements Future<Chunk> {
+        private final Chunk chunk;
+
+        CompletedChunk(Chunk chunk) {
+            this.chunk = chunk;
+        }
+
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        public boolean isCancelled() {
+            return false;
+        }
+
+        public boolean isDone() {
+            return true;
+        }
+
+        public Chunk get() {
+            return chunk;
+        }
+
+        public Chunk get(long timeout, TimeUnit unit) {
+            return chunk;
+        }
+    }
+}
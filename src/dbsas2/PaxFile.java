@@ -0,0 +1,103 @@
+package dbsas2;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/*PaxFile reads a PAX heap file (pax.pagesize, see PaxPage) through the same read-only mapping as
+ *  HeapFile. A column scan visits the pages in order and reads only the minipages of the columns
+ *  it asks for, so an aggregate over one 4 byte field touches 4 of every 112 record bytes.*/
+class PaxFile implements Closeable {
+
+	private final HeapFile pages;
+	private final int capacity;
+
+	/**
+	 * Map the PAX heap file
+	 *
+	 * @param paxFile : path of the PAX heap file
+	 * @param pageSize : page size the file was loaded with
+	 * */
+	public PaxFile(String paxFile, int pageSize) throws IOException {
+		this.pages = new HeapFile(paxFile, pageSize);
+		this.capacity = PaxPage.capacity(pageSize);
+	}
+
+	public int getPageSize() {
+		return pages.getPageSize();
+	}
+
+	public long getPageCount() {
+		return pages.getPageCount();
+	}
+
+	// Number of record slots per page
+	public int getCapacity() {
+		return capacity;
+	}
+
+	// View of one page of the mapping, see HeapFile.page
+	public ByteBuffer page(long pageNumber) {
+		return pages.page(pageNumber);
+	}
+
+	/**
+	 * Visit every page, giving access to the requested columns only
+	 *
+	 * @param columns : offsets of the fields to read, constants.*_OFFSET
+	 * @param visitor : receives each page
+	 * @return number of records in the pages visited
+	 * */
+	public long scan(int[] columns, ColumnVisitor visitor) throws IOException {
+		return scan(columns, 0, getPageCount(), visitor);
+	}
+
+	/**
+	 * Visit a range of pages, giving access to the requested columns only. Scans of
+	 * separate ranges may run at the same time on one PaxFile.
+	 *
+	 * @param columns : offsets of the fields to read, constants.*_OFFSET
+	 * @param firstPage : first page to visit
+	 * @param endPage : page after the last page to visit
+	 * @param visitor : receives each page
+	 * @return number of records in the pages visited
+	 * */
+	public long scan(int[] columns, long firstPage, long endPage, ColumnVisitor visitor) throws IOException {
+		ColumnPage columnPage = new ColumnPage(capacity, columns);
+		long records = 0;
+		for (long pageNumber = firstPage; pageNumber < endPage; pageNumber++) {
+			columnPage.reset(pages.page(pageNumber), pageNumber);
+			records += columnPage.recordCount();
+			if (!visitor.visit(columnPage)) {
+				break;
+			}
+		}
+		return records;
+	}
+
+	// Number of bytes a scan of the given columns reads per record
+	public static int columnBytes(int[] columns) {
+		int bytes = 0;
+		for (int column : columns) {
+			bytes += PaxPage.fieldSize(column);
+		}
+		return bytes;
+	}
+
+	/**
+	 * Decode the record in a slot, gathering its fields from the minipages
+	 *
+	 * @param pageNumber : page of the record
+	 * @param slot : slot of the record in the page
+	 * @return the decoded record
+	 * */
+	public HeapRecord record(long pageNumber, int slot) {
+		ByteBuffer row = ByteBuffer.allocate(constants.TOTAL_SIZE);
+		PaxPage.getRecord(pages.page(pageNumber), capacity, slot, row, 0);
+		return HeapRecord.decode(row, 0);
+	}
+
+	public void close() throws IOException {
+		pages.close();
+	}
+}
@@ -0,0 +1,105 @@
+package dbsas2;
+
+import java.nio.ByteBuffer;
+
+/*PaxPage lays out one page of a PAX heap file. A page holds the same fields as a row page but
+ *  groups them by field: after the record count comes one minipage per field, in the order of the
+ *  record fields, holding that field for every slot of the page. Since the fields of a record are
+ *  contiguous, the minipage of the field at offset f starts at PAX_HEADER_SIZE + capacity * f, so
+ *  the constants.*_OFFSET values locate the columns as they locate the fields of a row record.
+ *  A scan that needs one field reads one minipage per page instead of every record.*/
+final class PaxPage {
+
+	// offsets and sizes of the record fields, in record order
+	static final int[] FIELD_OFFSETS = {0, constants.ID_OFFSET, constants.DATE_OFFSET, constants.YEAR_OFFSET,
+			constants.MONTH_OFFSET, constants.MDATE_OFFSET, constants.DAY_OFFSET, constants.TIME_OFFSET,
+			constants.SENSORID_OFFSET, constants.SENSORNAME_OFFSET, constants.COUNTS_OFFSET};
+	static final int[] FIELD_SIZES = {constants.STD_NAME_SIZE, constants.ID_SIZE, constants.DATE_SIZE,
+			constants.YEAR_SIZE, constants.MONTH_SIZE, constants.MDATE_SIZE, constants.DAY_SIZE, constants.TIME_SIZE,
+			constants.SENSORID_SIZE, constants.SENSORNAME_SIZE, constants.COUNTS_SIZE};
+
+	private PaxPage() {
+	}
+
+	// Number of record slots in a page
+	public static int capacity(int pageSize) {
+		return (pageSize - constants.PAX_HEADER_SIZE) / constants.TOTAL_SIZE;
+	}
+
+	/**
+	 * @param capacity : number of slots per page, see capacity()
+	 * @param fieldOffset : offset of the field in a row record, one of constants.*_OFFSET
+	 * @return position in the page of the minipage holding the field
+	 * */
+	public static int columnStart(int capacity, int fieldOffset) {
+		return constants.PAX_HEADER_SIZE + capacity * fieldOffset;
+	}
+
+	// Size of the field at the given offset of a row record
+	public static int fieldSize(int fieldOffset) {
+		for (int i = 0; i < FIELD_OFFSETS.length; i++) {
+			if (FIELD_OFFSETS[i] == fieldOffset) {
+				return FIELD_SIZES[i];
+			}
+		}
+		throw new IllegalArgumentException("No record field at offset " + fieldOffset);
+	}
+
+	public static int recordCount(ByteBuffer page) {
+		return page.getInt(constants.PAX_COUNT_OFFSET);
+	}
+
+	/**
+	 * Store a row record in a slot, splitting its fields into the minipages
+	 *
+	 * @param page : page being filled; its position is moved
+	 * @param capacity : number of slots per page
+	 * @param slot : slot of the record
+	 * @param row : array holding the record in row layout
+	 * @param rowPosition : position of the record in row
+	 * */
+	public static void putRecord(ByteBuffer page, int capacity, int slot, byte[] row, int rowPosition) {
+		for (int f = 0; f < FIELD_OFFSETS.length; f++) {
+			int size = FIELD_SIZES[f];
+			page.position(columnStart(capacity, FIELD_OFFSETS[f]) + slot * size);
+			page.put(row, rowPosition + FIELD_OFFSETS[f], size);
+		}
+	}
+
+	/**
+	 * Gather the fields of a slot back into a row record, e.g. to decode it with HeapRecord
+	 *
+	 * @param page : PAX page
+	 * @param capacity : number of slots per page
+	 * @param slot : slot of the record
+	 * @param row : buffer receiving the record in row layout
+	 * @param rowPosition : position of the record in row
+	 * */
+	public static void getRecord(ByteBuffer page, int capacity, int slot, ByteBuffer row, int rowPosition) {
+		for (int f = 0; f < FIELD_OFFSETS.length; f++) {
+			int size = FIELD_SIZES[f];
+			int from = columnStart(capacity, FIELD_OFFSETS[f]) + slot * size;
+			int to = rowPosition + FIELD_OFFSETS[f];
+			for (int j = 0; j < size; j++) {
+				row.put(to + j, page.get(from + j));
+			}
+		}
+	}
+
+	/**
+	 * Write the record count and zero the unused slots of every minipage
+	 *
+	 * @param page : page being filled
+	 * @param capacity : number of slots per page
+	 * @param count : number of records stored, in slots 0 to count - 1
+	 * */
+	public static void finish(ByteBuffer page, int capacity, int count) {
+		page.putInt(constants.PAX_COUNT_OFFSET, count);
+		for (int f = 0; f < FIELD_OFFSETS.length; f++) {
+			int start = columnStart(capacity, FIELD_OFFSETS[f]);
+			for (int i = start + count * FIELD_SIZES[f]; i < start + capacity * FIELD_SIZES[f]; i++) {
+				page.put(i, (byte) 0);
+			}
+		}
+	}
+}
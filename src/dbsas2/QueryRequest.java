@@ -0,0 +1,122 @@
+package dbsas2;
+
+import java.io.IOException;
+import java.io.PrintStream;
+
+/*QueryRequest is one treequery query: a key followed by the scan options
+ *  [-after] [-to endkey | -before endkey] [-prefix] [-limit n] [-index field], or the path of a
+ *  file of keys followed by -batch to look up all of them.
+ *  treequery reads it from the command line and treeserver from every line a client sends; a client
+ *  may not ask for -batch, which would have the server read a file of the client's choosing.*/
+final class QueryRequest {
+
+	private final String key;
+	private String endKey;
+	private boolean startInclusive = true;
+	private boolean endInclusive = true;
+	private boolean prefix;
+	private boolean rangeScan;
+	private boolean batch;
+	private long limit = Long.MAX_VALUE;
+	private int secondaryType = -1;
+	private int poolPages = constants.DEFAULT_BUFFER_POOL_PAGES;
+
+	private QueryRequest(String key) {
+		this.key = key;
+	}
+
+	/**
+	 * Read a query from its words
+	 *
+	 * @param key : key, key range start or prefix to query
+	 * @param args : words holding the options
+	 * @param from : position of the first option in args
+	 * @param poolOption : whether -pool pages, the size of the buffer pool, is accepted
+	 * @param batchOption : whether -batch, looking up the keys of the file named by key, is accepted
+	 * @return the query
+	 * */
+	public static QueryRequest parse(String key, String[] args, int from, boolean poolOption, boolean batchOption) {
+		QueryRequest request = new QueryRequest(key);
+		for (int i = from; i < args.length; i++) {
+			if (args[i].equals(constants.SCAN_TO_FLAG) && i + 1 < args.length) {
+				request.endKey = args[++i];
+				request.endInclusive = true;
+			}
+			else if (args[i].equals(constants.SCAN_BEFORE_FLAG) && i + 1 < args.length) {
+				request.endKey = args[++i];
+				request.endInclusive = false;
+			}
+			else if (args[i].equals(constants.SCAN_AFTER_FLAG)) {
+				request.startInclusive = false;
+			}
+			else if (args[i].equals(constants.SCAN_PREFIX_FLAG)) {
+				request.prefix = true;
+			}
+			else if (batchOption && args[i].equals(constants.BATCH_FLAG)) {
+				request.batch = true;
+				continue;
+			}
+			else if (args[i].equals(constants.SCAN_LIMIT_FLAG) && i + 1 < args.length) {
+				request.limit = Long.parseLong(args[++i]);
+			}
+			else if (poolOption && args[i].equals(constants.BUFFER_POOL_FLAG) && i + 1 < args.length) {
+				request.poolPages = Integer.parseInt(args[++i]);
+				continue;
+			}
+			else if (args[i].equals(constants.INDEX_FLAG) && i + 1 < args.length) {
+				request.secondaryType = IndexKey.forField(args[++i]);
+				if (request.secondaryType < 0) {
+					throw new IllegalArgumentException("No secondary index on " + args[i]);
+				}
+				continue;
+			}
+			else {
+				throw new IllegalArgumentException("Unknown option " + args[i]);
+			}
+			request.rangeScan = true;
+		}
+		if (request.batch && (request.rangeScan || request.secondaryType >= 0)) {
+			throw new IllegalArgumentException("Batch lookups take no scan options and need the primary index");
+		}
+		return request;
+	}
+
+	// Key type of the secondary index the query reads, or -1 for the primary index
+	public int getSecondaryType() {
+		return secondaryType;
+	}
+
+	public int getPoolPages() {
+		return poolPages;
+	}
+
+	/**
+	 * Run the query and print the records it lists
+	 *
+	 * @param index : opened index file of the query, primary or the secondary one asked for
+	 * @param records : opened heap file the index points into
+	 * @param out : stream to print the records to
+	 * */
+	public void execute(IndexReader index, RecordReader records, PrintStream out) throws IOException {
+		if (batch) {
+			treequery.lookupBatch(index, records, key, out);
+		}
+		else if (prefix) {
+			long listed = treequery.scanPrefix(index, records, key, limit, out);
+			out.println("The number of records listed: " + listed);
+		}
+		else if (rangeScan) {
+			long listed = treequery.scan(index, records, key, startInclusive, endKey, endInclusive, limit, out);
+			out.println("The number of records listed: " + listed);
+		}
+		else if (IndexKey.isSecondary(index.getKeyType())) {
+			// a field value is held by many records: list all of them
+			long listed = treequery.scan(index, records, key, true, key, true, limit, out);
+			out.println("The number of records listed: " + listed);
+		}
+		else {
+			// list all records which has the key in index file
+			treequery.listRecords(index, records, key, false, out);
+		}
+	}
+}
@@ -0,0 +1,339 @@
+package dbsas2;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/*QueryServer opens the index files of a page size once and answers treequery queries from clients
+ *  on a local TCP port, so a query costs the pages it reads rather than a JVM start and a file open.
+ *  Connections are served by a fixed number of worker threads; once they are all busy, up to
+ *  SERVER_QUEUE_SIZE connections wait for one and further connections are turned away.
+ *  Every worker reads through its own duplicates of the index and heap readers, which share the
+ *  open files and one buffer pool, the only state the workers have in common.
+ *  A client sends one query per line, treequery's arguments without the page size, e.g.
+ *  "17 -index sensorid -limit 10" or "\"1701/01/2019 12:00:00 AM\" -limit 5", with words holding
+ *  blanks in double quotes. The server replies with treequery's output followed by an empty line,
+ *  or "Error: ..." and an empty line, and closes the connection on "quit" or end of input.*/
+final class QueryServer implements Closeable {
+
+	private final BufferPool pool;
+	private final IndexReader primary;
+	private final IndexReader[] secondaries; //by key type, null where there is no index file
+	private final RecordReader records;
+	private final ThreadPoolExecutor workers;
+	private final ThreadLocal<Session> sessions;
+	private final List<Session> opened = Collections.synchronizedList(new ArrayList<Session>());
+	private final Set<Socket> clients = Collections.synchronizedSet(new HashSet<Socket>());
+	private ServerSocket socket;
+	private volatile boolean closed;
+
+	/**
+	 * Open tree.pageSize, the secondary indexes built next to it and the heap file they point into
+	 *
+	 * @param pageSize : page size the files were built with
+	 * @param poolPages : memory budget of the shared buffer pool, in pages
+	 * @param threads : number of worker threads, the number of connections served at once
+	 * */
+	public QueryServer(int pageSize, int poolPages, int threads) throws IOException {
+		this.secondaries = new IndexReader[constants.INDEX_KEY_COUNTS + 1];
+		int indexes = 1;
+		for (int type = 0; type < secondaries.length; type++) {
+			if (IndexKey.isSecondary(type) && new File(IndexKey.fileName(pageSize, type)).exists()) {
+				indexes++;
+			}
+		}
+		// every worker keeps the last page of each of its readers pinned between queries
+		int pinned = threads * (indexes + 1);
+		if (poolPages <= pinned) {
+			throw new IllegalArgumentException(threads + " threads need a buffer pool of more than " + pinned + " pages");
+		}
+		this.pool = new BufferPool(poolPages, pageSize);
+		this.primary = new IndexReader(IndexKey.fileName(pageSize, constants.INDEX_KEY_SDT_NAME), pool);
+		try {
+			for (int type = 0; type < secondaries.length; type++) {
+				if (IndexKey.isSecondary(type) && new File(IndexKey.fileName(pageSize, type)).exists()) {
+					secondaries[type] = new IndexReader(IndexKey.fileName(pageSize, type), pool);
+				}
+			}
+			this.records = new RecordReader(primary.getHeapFileName(), pageSize, pool);
+		}
+		catch (IOException e) {
+			closeIndexes();
+			throw e;
+		}
+		this.workers = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(constants.SERVER_QUEUE_SIZE));
+		this.sessions = new ThreadLocal<Session>() {
+			protected Session initialValue() {
+				Session session = new Session();
+				opened.add(session);
+				return session;
+			}
+		};
+	}
+
+	public BufferPool getPool() {
+		return pool;
+	}
+
+	// Bloom filter of the primary index, or null if it has none built for its current contents
+	public KeyFilter getFilter() {
+		return primary.getFilter();
+	}
+
+	// Key types of the secondary indexes found next to the primary index
+	public List<Integer> getSecondaryTypes() {
+		List<Integer> types = new ArrayList<Integer>();
+		for (int type = 0; type < secondaries.length; type++) {
+			if (secondaries[type] != null) {
+				types.add(type);
+			}
+		}
+		return types;
+	}
+
+	/**
+	 * Start listening on the loopback interface
+	 *
+	 * @param port : port to listen on, 0 for any free port
+	 * @return the port listened on
+	 * */
+	public int listen(int port) throws IOException {
+		socket = new ServerSocket(port, constants.SERVER_QUEUE_SIZE, InetAddress.getLoopbackAddress());
+		return socket.getLocalPort();
+	}
+
+	// Accept connections and hand them to the workers until the server is closed
+	public void serve() throws IOException {
+		while (!closed) {
+			final Socket client;
+			try {
+				client = socket.accept();
+			}
+			catch (SocketException e) {
+				if (closed) {
+					return;
+				}
+				throw e;
+			}
+			try {
+				workers.execute(new Runnable() {
+					public void run() {
+						handle(client);
+					}
+				});
+			}
+			catch (RejectedExecutionException e) {
+				reject(client);
+			}
+		}
+	}
+
+	// Answer the queries of one connection on a worker thread
+	private void handle(Socket client) {
+		clients.add(client);
+		try {
+			BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.ISO_8859_1));
+			PrintStream out = new PrintStream(new BufferedOutputStream(client.getOutputStream(), 1 << 16), false, "ISO-8859-1");
+			Session session = sessions.get();
+			String line;
+			while (!closed && (line = in.readLine()) != null) {
+				line = line.trim();
+				if (line.equals(constants.SERVER_QUIT)) {
+					break;
+				}
+				if (line.isEmpty()) {
+					continue;
+				}
+				session.execute(line, out);
+				out.println();
+				out.flush();
+			}
+		}
+		catch (IOException e) {
+			// the client went away; nothing to answer
+		}
+		finally {
+			clients.remove(client);
+			closeQuietly(client);
+		}
+	}
+
+	private void reject(Socket client) {
+		try {
+			PrintStream out = new PrintStream(client.getOutputStream(), false, "ISO-8859-1");
+			out.println("Error: Server busy, try again later");
+			out.println();
+			out.flush();
+		}
+		catch (IOException e) {
+			// the client went away
+		}
+		finally {
+			closeQuietly(client);
+		}
+	}
+
+	private static void closeQuietly(Socket client) {
+		try {
+			client.close();
+		}
+		catch (IOException e) {
+			// closing is all that is left to do with it
+		}
+	}
+
+	/**
+	 * Split a query line into words at blanks; a word in double quotes may hold blanks
+	 *
+	 * @param line : query line sent by a client
+	 * @return the words, without their quotes
+	 * */
+	static String[] words(String line) {
+		List<String> words = new ArrayList<String>();
+		StringBuilder word = new StringBuilder();
+		boolean quoted = false;
+		boolean inWord = false;
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (c == '"') {
+				quoted = !quoted;
+				inWord = true;
+			}
+			else if (c == ' ' && !quoted) {
+				if (inWord) {
+					words.add(word.toString());
+					word.setLength(0);
+					inWord = false;
+				}
+			}
+			else {
+				word.append(c);
+				inWord = true;
+			}
+		}
+		if (quoted) {
+			throw new IllegalArgumentException("Unbalanced quotes");
+		}
+		if (inWord) {
+			words.add(word.toString());
+		}
+		return words.toArray(new String[words.size()]);
+	}
+
+	// Stop accepting connections, let the workers finish their queries and close the files
+	public void close() throws IOException {
+		closed = true;
+		if (socket != null) {
+			socket.close();
+		}
+		workers.shutdown();
+		// a connection waiting for its next query ends now, one in the middle of a query when it is answered
+		synchronized (clients) {
+			for (Socket client : clients) {
+				try {
+					client.shutdownInput();
+				}
+				catch (IOException e) {
+					// already closed by the client
+				}
+			}
+		}
+		boolean finished = false;
+		try {
+			finished = workers.awaitTermination(constants.SERVER_SHUTDOWN_SECONDS, TimeUnit.SECONDS);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (!finished) {
+			// a worker still reading through its session and the shared files: they are only read, so they are
+			// left open to the process exit rather than closed under it
+			throw new IOException("Queries still running after " + constants.SERVER_SHUTDOWN_SECONDS
+					+ " seconds; the index files were left open");
+		}
+		synchronized (opened) {
+			for (Session session : opened) {
+				session.close();
+			}
+		}
+		records.close();
+		closeIndexes();
+	}
+
+	private void closeIndexes() throws IOException {
+		for (IndexReader index : secondaries) {
+			if (index != null) {
+				index.close();
+			}
+		}
+		primary.close();
+	}
+
+	/*Session holds the readers of one worker thread*/
+	private final class Session {
+
+		private final IndexReader primary = QueryServer.this.primary.duplicate();
+		private final IndexReader[] secondaries = new IndexReader[QueryServer.this.secondaries.length];
+		private final RecordReader records = QueryServer.this.records.duplicate();
+
+		Session() {
+			for (int type = 0; type < secondaries.length; type++) {
+				if (QueryServer.this.secondaries[type] != null) {
+					secondaries[type] = QueryServer.this.secondaries[type].duplicate();
+				}
+			}
+		}
+
+		void execute(String line, PrintStream out) {
+			try {
+				String[] words = words(line);
+				QueryRequest request = QueryRequest.parse(words[0], words, 1, false, false);
+				IndexReader index = primary;
+				if (request.getSecondaryType() >= 0) {
+					index = secondaries[request.getSecondaryType()];
+					if (index == null) {
+						out.println("Error: No " + IndexKey.fileName(primary.getPageSize(), request.getSecondaryType())
+								+ " index file");
+						return;
+					}
+				}
+				request.execute(index, records, out);
+			}
+			catch (IllegalArgumentException e) {
+				out.println("Error: " + e.getMessage());
+			}
+			catch (IOException e) {
+				out.println("Error: " + e.getMessage());
+			}
+		}
+
+		void close() throws IOException {
+			for (IndexReader index : secondaries) {
+				if (index != null) {
+					index.close();
+				}
+			}
+			primary.close();
+			records.close();
+		}
+	}
+}
@@ -0,0 +1,161 @@
+package dbsas2;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/*RecordReader fetches heap records by their byte offset. The heap file is opened once and
+ *  read a whole page at a time, so records on the same page cost a single read. A reader is used
+ *  by one thread at a time; other threads read the same file through duplicates, see duplicate()*/
+class RecordReader implements Closeable {
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final BufferPool pool; //cache the heap pages are read through, null to read them directly
+	private final int poolFileId;
+	private ByteBuffer page;
+	private final int pageSize;
+	private long currentPage; //number of the page held in the page buffer, -1 if none
+	private long pagesRead; //number of pages requested, from the file or the buffer pool
+	private final boolean owner; //false for a duplicate, which shares the file and its pool file id
+
+	/**
+	 * Open the heap file
+	 *
+	 * @param heapFile : path of the heap file
+	 * @param pageSize : page size the heap file was loaded with
+	 * */
+	public RecordReader(String heapFile, int pageSize) throws IOException {
+		this(heapFile, pageSize, null);
+	}
+
+	/**
+	 * Open the heap file and read its pages through a buffer pool. The page holding the
+	 * last record fetched stays pinned until a record on another page is fetched.
+	 *
+	 * @param heapFile : path of the heap file
+	 * @param pageSize : page size the heap file was loaded with
+	 * @param pool : buffer pool to cache heap pages in, or null to read them directly
+	 * */
+	public RecordReader(String heapFile, int pageSize, BufferPool pool) throws IOException {
+		if (pool != null && pool.getPageSize() != pageSize) {
+			throw new IOException("Heap pages of " + pageSize + " bytes do not fit buffer pool pages of " + pool.getPageSize());
+		}
+		this.file = new RandomAccessFile(heapFile, "r");
+		this.channel = file.getChannel();
+		this.pool = pool;
+		this.poolFileId = (pool == null) ? -1 : pool.register(channel);
+		this.page = (pool == null) ? ByteBuffer.allocate(pageSize) : null;
+		this.pageSize = pageSize;
+		this.currentPage = -1;
+		this.owner = true;
+	}
+
+	// Reader over the same open file as another, with its own page buffer
+	private RecordReader(RecordReader shared) {
+		this.file = shared.file;
+		this.channel = shared.channel;
+		this.pool = shared.pool;
+		this.poolFileId = shared.poolFileId;
+		this.page = (pool == null) ? ByteBuffer.allocate(shared.pageSize) : null;
+		this.pageSize = shared.pageSize;
+		this.currentPage = -1;
+		this.owner = false;
+	}
+
+	/**
+	 * Open another reader over the same heap file for use by another thread, sharing the file
+	 * and the buffer pool. Close every duplicate before the reader it was made from.
+	 *
+	 * @return the new reader
+	 * */
+	public RecordReader duplicate() {
+		return new RecordReader(this);
+	}
+
+	public long getPagesRead() {
+		return pagesRead;
+	}
+
+	/**
+	 * Fetch the record at the given offset, reading its page unless it is already held
+	 *
+	 * @param offset : byte offset of the record in the heap file
+	 * @return the decoded record
+	 * */
+	public HeapRecord fetch(long offset) throws IOException {
+		long pageNumber = offset / pageSize;
+		if (pageNumber != currentPage) {
+			readPage(pageNumber);
+		}
+		return HeapRecord.decode(page, (int) (offset % pageSize));
+	}
+
+	/**
+	 * Fetch a batch of records. The offsets are visited in page order so every page
+	 * is read once, however the hits are spread over the batch.
+	 *
+	 * @param offsets : byte offsets of the records in the heap file
+	 * @param count : number of offsets to fetch from the start of the array
+	 * @return the decoded records, in the order of the offsets given
+	 * */
+	public HeapRecord[] fetchAll(long[] offsets, int count) throws IOException {
+		// sort positions by offset; the offsets themselves are left in the caller's order
+		long[] sorted = new long[count];
+		for (int i = 0; i < count; i++) {
+			sorted[i] = offsets[i];
+		}
+		Arrays.sort(sorted);
+		HeapRecord[] byOffset = new HeapRecord[count];
+		for (int i = 0; i < count; i++) {
+			byOffset[i] = (i > 0 && sorted[i] == sorted[i - 1]) ? byOffset[i - 1] : fetch(sorted[i]);
+		}
+		HeapRecord[] records = new HeapRecord[count];
+		for (int i = 0; i < count; i++) {
+			records[i] = byOffset[Arrays.binarySearch(sorted, offsets[i])];
+		}
+		return records;
+	}
+
+	private void readPage(long pageNumber) throws IOException {
+		if (pool != null) {
+			unpinPage();
+			page = pool.pin(poolFileId, pageNumber);
+			currentPage = pageNumber;
+			pagesRead++;
+			return;
+		}
+		page.clear();
+		long position = pageNumber * pageSize;
+		while (page.hasRemaining()) {
+			if (channel.read(page, position + page.position()) < 0) {
+				break;
+			}
+		}
+		currentPage = pageNumber;
+		pagesRead++;
+	}
+
+	private void unpinPage() {
+		if (currentPage >= 0) {
+			pool.unpin(poolFileId, currentPage, false);
+			currentPage = -1;
+		}
+	}
+
+	public void close() throws IOException {
+		if (pool != null) {
+			unpinPage();
+		}
+		if (!owner) {
+			return;
+		}
+		if (pool != null) {
+			pool.release(poolFileId);
+		}
+		file.close();
+	}
+}
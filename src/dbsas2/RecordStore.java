@@ -0,0 +1,507 @@
+package dbsas2;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/*RecordStore inserts records into the heap file of a page size and its index files while they are
+ *  in use, durably and one record at a time. An insert adds the record after the last one in the
+ *  heap, writes it there, inserts its keys into tree.pagesize and every secondary index next to it
+ *  and logs the record in the write-ahead log; it returns once the log entry is on disk, where
+ *  concurrent inserts share one fsync (see WriteAheadLog).
+ *  Changed index pages stay pinned in the buffer pool until a checkpoint, which runs when they take
+ *  half of the pool or the log grows past WAL_CHECKPOINT_BYTES, or earlier when an insert could
+ *  not otherwise reserve frames for all the pages it may change: it writes them through a
+ *  CheckpointJournal with superblocks recording the new heap end, then empties the log. On disk the
+ *  index files so always hold a whole tree as of the last checkpoint, and opening a store after a
+ *  crash restores an interrupted checkpoint, inserts the logged records again and clears the heap
+ *  slots written past the last of them. The log file exists only while a store is open, so a store
+ *  opened without one expects the heap and indexes to end at the same record.
+ *  Inserts and lookups run at once from any number of threads, sharing a lock that a checkpoint
+ *  takes exclusively, so it sees every logged record in place. Only the heap offset and the log
+ *  entry are taken in turn, so log order is heap order and the records a crash loses are the last
+ *  ones of the heap, which are packed; the keys then go into the trees at once, which latch their
+ *  own pages (see IndexInserter). The heap file grows as records are written past its end and is
+ *  filled up to whole pages at each checkpoint.
+ *  An insert that fails after taking its heap slot may leave the record in some indexes only, so the
+ *  store takes no more inserts or checkpoints; abort closes it keeping the log, which the next store
+ *  opened replays.*/
+final class RecordStore implements Closeable {
+
+	private final int pageSize;
+	private final int recordsPerPage;
+	private final String logFile;
+	private final String journalFile;
+	private final BufferPool pool;
+	private final IndexInserter[] indexes; //tree.pagesize first, then the secondary indexes
+	private final FileChannel heap;
+	private final WriteAheadLog log;
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock(); //shared by inserts, exclusive for checkpoints
+	private final Object order = new Object(); //taken in turn by inserts for the heap offset and log entry
+	private final int checkpointPages; //changed pages held in the pool that trigger a checkpoint
+	private final int pinLimit; //pool frames held and reserved pages may take; one per index file is left for its superblock
+	private final Object reservations = new Object();
+	private int reserved; //frames reserved by the inserts and lookups in progress, guarded by reservations
+	private long nextOffset; //heap offset just past the last record
+	private long inserted;
+	private long checkpoints;
+	private long recovered; //records inserted again from the log when the store was opened
+	private volatile boolean failed; //an insert failed after taking its heap slot; the files are left to recovery
+
+	/**
+	 * Open the heap and index files of a page size for inserts, recovering them if the store
+	 * using them last did not close
+	 *
+	 * @param pageSize : page size of the heap and index files
+	 * @param poolPages : size in pages of the buffer pool holding the index pages
+	 * */
+	public RecordStore(int pageSize, int poolPages) throws IOException {
+		this.pageSize = pageSize;
+		this.recordsPerPage = pageSize / constants.TOTAL_SIZE;
+		this.logFile = constants.WAL_FILE_PREFIX + pageSize;
+		this.journalFile = constants.JOURNAL_FILE_PREFIX + pageSize;
+		this.checkpointPages = poolPages / 2;
+		boolean recovering = new File(logFile).exists();
+
+		List<String> indexFiles = new ArrayList<String>();
+		indexFiles.add(IndexKey.fileName(pageSize, constants.INDEX_KEY_SDT_NAME));
+		for (int type = 0; type <= constants.INDEX_KEY_COUNTS; type++) {
+			if (IndexKey.isSecondary(type) && new File(IndexKey.fileName(pageSize, type)).exists()) {
+				indexFiles.add(IndexKey.fileName(pageSize, type));
+			}
+		}
+		// a checkpoint interrupted while writing pages in place is finished first
+		CheckpointJournal.restore(journalFile, pageSize, indexFiles.toArray(new String[indexFiles.size()]));
+
+		this.pool = new BufferPool(poolPages, pageSize);
+		this.pinLimit = poolPages - indexFiles.size();
+		this.indexes = new IndexInserter[indexFiles.size()];
+		FileChannel heapChannel = null;
+		WriteAheadLog openedLog = null;
+		try {
+			long mark = Long.MAX_VALUE;
+			for (int i = 0; i < indexes.length; i++) {
+				indexes[i] = new IndexInserter(indexFiles.get(i), pool, true);
+				if (indexes[i].getHeapEnd() < 0) {
+					throw new IOException(indexFiles.get(i) + " does not record the heap offset it covers, rebuild it");
+				}
+				mark = Math.min(mark, indexes[i].getHeapEnd());
+			}
+			String heapFile = indexes[0].getHeapFileName();
+			long heapEnd = heapEnd(heapFile);
+			if (!recovering && heapEnd != mark) {
+				throw new IOException("The index files cover " + mark + " bytes of " + heapFile + ", which holds "
+						+ heapEnd + "; run treeload " + constants.APPEND_FLAG + " first");
+			}
+			heapChannel = FileChannel.open(Paths.get(heapFile), StandardOpenOption.READ, StandardOpenOption.WRITE);
+			openedLog = new WriteAheadLog(logFile, pageSize);
+		}
+		catch (IOException e) {
+			closeAfterError(heapChannel, openedLog);
+			throw e;
+		}
+		this.heap = heapChannel;
+		this.log = openedLog;
+
+		try {
+			recover();
+		}
+		catch (IOException e) {
+			closeAfterError(heap, log);
+			throw e;
+		}
+	}
+
+	// Heap end as HeapFile finds it: past the last record of the last page
+	private long heapEnd(String heapFile) throws IOException {
+		HeapFile file = new HeapFile(heapFile, pageSize);
+		try {
+			return file.end();
+		}
+		finally {
+			file.close();
+		}
+	}
+
+	// Insert the logged records again, clear what was written past them and start a new checkpoint
+	private void recover() throws IOException {
+		nextOffset = Long.MAX_VALUE;
+		for (IndexInserter index : indexes) {
+			nextOffset = Math.min(nextOffset, index.getHeapEnd());
+		}
+		final long mark = nextOffset;
+		recovered = log.replay(new LogEntryVisitor() {
+			public void apply(long heapOffset, byte[] record) throws IOException {
+				// records before the checkpoint mark are in the index files already
+				if (heapOffset >= mark) {
+					insertRecord(heapOffset, record, 0);
+					nextOffset = Math.max(nextOffset, heapOffset + constants.TOTAL_SIZE);
+				}
+			}
+		});
+		// records whose log entry never reached the disk may have reached the heap
+		long pageEnd = pageEnd(nextOffset);
+		if (pageEnd > nextOffset) {
+			write(ByteBuffer.allocate((int) (pageEnd - nextOffset)), nextOffset);
+		}
+		if (heap.size() > pageEnd) {
+			heap.truncate(pageEnd);
+		}
+		checkpointLocked();
+	}
+
+	public int getPageSize() {
+		return pageSize;
+	}
+
+	public long getInserted() {
+		synchronized (order) {
+			return inserted;
+		}
+	}
+
+	public long getCheckpoints() {
+		lock.readLock().lock();
+		try {
+			return checkpoints;
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	public long getRecovered() {
+		return recovered;
+	}
+
+	// Number of fsyncs of the log, each making one group of inserts durable
+	public long getLogSyncs() {
+		return log.getSyncs();
+	}
+
+	/**
+	 * Insert a record and wait until it is durable
+	 *
+	 * @param record : buffer holding the record in heap layout, as CsvRecordParser encodes it
+	 * @param from : position of the record in the buffer
+	 * @return heap offset of the record
+	 * */
+	public long insert(byte[] record, int from) throws IOException {
+		ByteBuffer row = ByteBuffer.wrap(record, from, constants.TOTAL_SIZE).slice();
+		long offset;
+		long sequence;
+		int pages = insertPages();
+		reserve(pages);
+		try {
+			lock.readLock().lock();
+			boolean done = false;
+			try {
+				checkNotFailed();
+				synchronized (order) {
+					offset = nextRecordOffset();
+					nextOffset = offset + constants.TOTAL_SIZE;
+					inserted++;
+					sequence = log.append(offset, record, from);
+				}
+				// the changed pages stay in memory until a checkpoint, after the log entry is on disk
+				if (!insertKey(0, offset, row)) {
+					throw new IOException("tree." + pageSize + " already holds a record at heap offset " + offset);
+				}
+				for (int i = 1; i < indexes.length; i++) {
+					insertKey(i, offset, row);
+				}
+				writeRecord(offset, row);
+				done = true;
+			}
+			finally {
+				// the slot is taken and the record may be in some indexes only: no checkpoint may write that
+				if (!done) {
+					failed = true;
+				}
+				lock.readLock().unlock();
+			}
+		}
+		finally {
+			release(pages);
+		}
+		if (checkpointDue()) {
+			lock.writeLock().lock();
+			try {
+				// another insert may have checkpointed while this one waited
+				if (checkpointDue()) {
+					checkpointLocked();
+				}
+			}
+			finally {
+				lock.writeLock().unlock();
+			}
+		}
+		log.commit(sequence);
+		return offset;
+	}
+
+	/**
+	 * Look up a key of tree.pagesize
+	 *
+	 * @param key : key to search for, as IndexReader.keyBytes returns it
+	 * @return heap offset of a record with the key, or -1 if there is none
+	 * */
+	public long search(byte[] key) throws IOException {
+		// a lookup pins one page at a time
+		reserve(1);
+		try {
+			lock.readLock().lock();
+			try {
+				return indexes[0].search(key);
+			}
+			finally {
+				lock.readLock().unlock();
+			}
+		}
+		finally {
+			release(1);
+		}
+	}
+
+	/**
+	 * Most pool frames an insert may take: on every index a leaf split changes the leaf, the new leaf
+	 * and its right sibling, a split on each level above changes the node and the new node, and a
+	 * root split adds a root, where a concurrent root split may have added a level meanwhile; and one
+	 * page at a time is pinned to read it
+	 * */
+	private int insertPages() {
+		int pages = 1;
+		for (IndexInserter index : indexes) {
+			pages += 2 * (index.getHeight() + 1) + 2;
+		}
+		return pages;
+	}
+
+	/**
+	 * Reserve pool frames for the pages an insert or lookup may pin, so the pages held until a
+	 * checkpoint never take the frames it needs: checkpoint first if the held pages are in the way,
+	 * or wait for the inserts in progress if their reservations are
+	 *
+	 * @param pages : number of frames to reserve
+	 * */
+	private void reserve(int pages) throws IOException {
+		if (pages > pinLimit) {
+			throw new IOException("A buffer pool of " + pool.getCapacity() + " pages is too small for inserts into "
+					+ indexes.length + " index files, which may change " + pages + " pages");
+		}
+		while (true) {
+			synchronized (reservations) {
+				while (reserved + pages > pinLimit) {
+					try {
+						reservations.wait();
+					}
+					catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new InterruptedIOException("Interrupted waiting for buffer pool frames");
+					}
+				}
+				// the held pages of the inserts in progress count twice, which only checkpoints earlier
+				if (heldPages() + reserved + pages <= pinLimit) {
+					reserved += pages;
+					return;
+				}
+			}
+			lock.writeLock().lock();
+			try {
+				boolean full;
+				synchronized (reservations) {
+					full = heldPages() > 0 && heldPages() + reserved + pages > pinLimit;
+				}
+				if (full) {
+					checkpointLocked();
+				}
+			}
+			finally {
+				lock.writeLock().unlock();
+			}
+		}
+	}
+
+	private void release(int pages) {
+		synchronized (reservations) {
+			reserved -= pages;
+			reservations.notifyAll();
+		}
+	}
+
+	// Offset of the end of the heap page holding the given heap offset, or the offset itself at a page boundary
+	private long pageEnd(long offset) {
+		return (offset + pageSize - 1) / pageSize * pageSize;
+	}
+
+	// Heap offset of the slot after the last record, on the next page if the last one is full
+	private long nextRecordOffset() {
+		long pageNumber = nextOffset / pageSize;
+		int slot = (int) (nextOffset % pageSize) / constants.TOTAL_SIZE;
+		if (slot == recordsPerPage) {
+			pageNumber++;
+			slot = 0;
+		}
+		return pageNumber * pageSize + HeapFile.recordPosition(slot);
+	}
+
+	/**
+	 * Write a record into the heap and its keys into the indexes that do not cover it yet
+	 * */
+	private void insertRecord(long offset, byte[] record, int from) throws IOException {
+		ByteBuffer row = ByteBuffer.wrap(record, from, constants.TOTAL_SIZE).slice();
+		for (int i = 0; i < indexes.length; i++) {
+			if (offset >= indexes[i].getHeapEnd()) {
+				insertKey(i, offset, row);
+			}
+		}
+		writeRecord(offset, row);
+	}
+
+	private boolean insertKey(int index, long offset, ByteBuffer row) throws IOException {
+		byte[] key = new byte[indexes[index].getKeyLength()];
+		IndexKey.fromRecord(indexes[index].getKeyType(), row, 0, offset, key);
+		return indexes[index].insert(key, offset);
+	}
+
+	private void writeRecord(long offset, ByteBuffer row) throws IOException {
+		write(row.duplicate(), offset);
+	}
+
+	private void write(ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			position += heap.write(buffer, position);
+		}
+	}
+
+	private boolean checkpointDue() {
+		return heldPages() >= checkpointPages || log.size() >= constants.WAL_CHECKPOINT_BYTES;
+	}
+
+	private int heldPages() {
+		int pages = 0;
+		for (IndexInserter index : indexes) {
+			pages += index.getHeldPageCount();
+		}
+		return pages;
+	}
+
+	// Write the changed index pages to their files and empty the log
+	public void checkpoint() throws IOException {
+		lock.writeLock().lock();
+		try {
+			checkpointLocked();
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private void checkpointLocked() throws IOException {
+		checkNotFailed();
+		// the heap first: the superblocks are about to claim its records. Every slot before nextOffset holds
+		// its record, so the file reaches that far; it is filled up to whole pages with empty slots.
+		long size = heap.size();
+		if (size < pageEnd(nextOffset)) {
+			write(ByteBuffer.allocate((int) (pageEnd(nextOffset) - size)), size);
+		}
+		heap.force(false);
+		List<SortedMap<Integer, ByteBuffer>> pages = new ArrayList<SortedMap<Integer, ByteBuffer>>();
+		for (IndexInserter index : indexes) {
+			index.setHeapEnd(nextOffset);
+			index.updateSuperblock();
+			pages.add(index.getHeldPages());
+		}
+		CheckpointJournal.write(journalFile, pageSize, pages);
+		for (IndexInserter index : indexes) {
+			index.writeHeldPages();
+		}
+		log.reset(nextOffset);
+		Files.deleteIfExists(Paths.get(journalFile));
+		checkpoints++;
+	}
+
+	private void checkNotFailed() throws IOException {
+		if (failed) {
+			throw new IOException("An insert failed; close the store with abort and open it again to recover");
+		}
+	}
+
+	// Checkpoint, close the files and remove the log, which marks the store as closed cleanly
+	public void close() throws IOException {
+		lock.writeLock().lock();
+		try {
+			if (failed) {
+				abortLocked();
+				throw new IOException("An insert failed; the store was closed without a checkpoint, to recover when opened");
+			}
+			checkpointLocked();
+			for (IndexInserter index : indexes) {
+				index.close();
+			}
+			log.close();
+			heap.close();
+			pool.close();
+			Files.delete(Paths.get(logFile));
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Close the files after a failed insert, without a checkpoint: the log entries appended so far
+	 * are written if the log still can be, and the log file is kept, so the next store opened
+	 * replays them into the index files as of the last checkpoint
+	 * */
+	public void abort() throws IOException {
+		failed = true;
+		lock.writeLock().lock();
+		try {
+			abortLocked();
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private void abortLocked() {
+		try {
+			log.commit(log.getAppended());
+		}
+		catch (IOException e) {
+			// the entries not written are of inserts that never returned
+		}
+		closeAfterError(heap, log);
+	}
+
+	// Close the files without writing to them, leaving the recovery to the next store opened
+	private void closeAfterError(FileChannel heapChannel, WriteAheadLog openedLog) {
+		try {
+			for (IndexInserter index : indexes) {
+				if (index != null) {
+					index.abandon();
+				}
+			}
+			if (openedLog != null) {
+				openedLog.close();
+			}
+			if (heapChannel != null) {
+				heapChannel.close();
+			}
+		}
+		catch (IOException e) {
+			// the error that led here is the one reported
+		}
+	}
+}
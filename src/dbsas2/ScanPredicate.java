@@ -0,0 +1,244 @@
+package dbsas2;
+
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+
+/*ScanPredicate is a condition on one fixed field of a record, evaluated on the page bytes without
+ *  decoding the record. Number and date conditions become a closed range or a set of values, text
+ *  conditions an equality with the blank padded field bytes. A predicate filters a selection vector:
+ *  the slots of a page still matching the predicates before it, compacted in place, so each
+ *  predicate is one tight loop over the surviving slots and a record failing early costs no more.
+ *  Conditions are written "field op value", with op one of = < <= > >=, or as
+ *  "field in v1,v2,...", parentheses optional, and "field between v1 and v2". Fields are named as in the csv header:
+ *  id, date, year, month, mdate, day, time, sensorid, sensorname, counts and sdtname.*/
+final class ScanPredicate {
+
+	private static final int INT_FIELD = 0;
+	private static final int DATE_FIELD = 1;
+	private static final int TEXT_FIELD = 2;
+	private static final String[] FIELD_NAMES = {"sdtname", "id", "date", "year", "month", "mdate", "day", "time",
+			"sensorid", "sensorname", "counts"};
+	private static final int[] FIELD_TYPES = {TEXT_FIELD, INT_FIELD, DATE_FIELD, INT_FIELD, TEXT_FIELD, INT_FIELD,
+			TEXT_FIELD, INT_FIELD, INT_FIELD, TEXT_FIELD, INT_FIELD};
+	private static final int MAX_LOOKUP_SPAN = 1 << 16; //widest value span an IN list gets a lookup table for
+
+	private final int fieldOffset;
+	private final int fieldSize;
+	private final int type;
+	private final long low; //range of matching numbers and dates, inclusive
+	private final long high;
+	private final boolean[] lookup; //IN list as a table from value - low, null for a range or text
+	private final int[] values; //IN list sorted, when too spread out for a table
+	private final byte[] text; //blank padded text to match
+
+	private ScanPredicate(int fieldOffset, int type, long low, long high, int[] values, byte[] text) {
+		this.fieldOffset = fieldOffset;
+		this.fieldSize = PaxPage.fieldSize(fieldOffset);
+		this.type = type;
+		this.text = text;
+		if (values != null && values.length > 0 && (long) values[values.length - 1] - values[0] < MAX_LOOKUP_SPAN) {
+			this.low = values[0];
+			this.high = values[values.length - 1];
+			this.lookup = new boolean[values[values.length - 1] - values[0] + 1];
+			for (int value : values) {
+				lookup[value - values[0]] = true;
+			}
+			this.values = null;
+		}
+		else {
+			this.low = low;
+			this.high = high;
+			this.lookup = null;
+			this.values = values;
+		}
+	}
+
+	// Offset in a row record of the field the predicate reads
+	public int getFieldOffset() {
+		return fieldOffset;
+	}
+
+	/**
+	 * Parse a condition
+	 *
+	 * @param condition : e.g. "counts > 1000", "sensorid in 3,7", "day = Sunday",
+	 *  "date between 01/01/2019 12:00:00 AM and 01/31/2019 11:00:00 PM"
+	 * @return the predicate
+	 * */
+	public static ScanPredicate parse(String condition) {
+		String trimmed = condition.trim();
+		int space = indexOfSpaceOrOperator(trimmed);
+		String name = trimmed.substring(0, space).toLowerCase();
+		int field = Arrays.asList(FIELD_NAMES).indexOf(name);
+		if (field < 0) {
+			throw new IllegalArgumentException("Unknown field \"" + name + "\" in \"" + condition + "\"");
+		}
+		int offset = PaxPage.FIELD_OFFSETS[field];
+		int type = FIELD_TYPES[field];
+		String rest = trimmed.substring(space).trim();
+		String lower = rest.toLowerCase();
+
+		if (lower.startsWith("in ")) {
+			if (type != INT_FIELD) {
+				throw new IllegalArgumentException("IN lists take number fields, in \"" + condition + "\"");
+			}
+			String list = rest.substring(3).trim();
+			if (list.startsWith("(") && list.endsWith(")")) {
+				list = list.substring(1, list.length() - 1);
+			}
+			String[] items = list.split(",");
+			int[] values = new int[items.length];
+			for (int i = 0; i < items.length; i++) {
+				values[i] = (int) number(items[i], type, condition);
+			}
+			Arrays.sort(values);
+			return new ScanPredicate(offset, type, 0, -1, values, null);
+		}
+		if (lower.startsWith("between ")) {
+			int and = lower.indexOf(" and ");
+			if (and < 0 || type == TEXT_FIELD) {
+				throw new IllegalArgumentException("Expected \"field between low and high\" for a number or date, found \""
+						+ condition + "\"");
+			}
+			return new ScanPredicate(offset, type, number(rest.substring(8, and), type, condition),
+					number(rest.substring(and + 5), type, condition), null, null);
+		}
+
+		String op = rest.startsWith("<=") || rest.startsWith(">=") ? rest.substring(0, 2) : rest.substring(0, 1);
+		String value = rest.substring(op.length()).trim();
+		if (type == TEXT_FIELD) {
+			if (!op.equals("=")) {
+				throw new IllegalArgumentException("Text fields only take =, in \"" + condition + "\"");
+			}
+			return new ScanPredicate(offset, type, 0, -1, null, IndexWriter.keyBytes(unquote(value), PaxPage.fieldSize(offset)));
+		}
+		long v = number(value, type, condition);
+		long min = (type == DATE_FIELD) ? Long.MIN_VALUE : Integer.MIN_VALUE;
+		long max = (type == DATE_FIELD) ? Long.MAX_VALUE : Integer.MAX_VALUE;
+		if (op.equals("=")) {
+			return new ScanPredicate(offset, type, v, v, null, null);
+		}
+		if (op.equals("<")) {
+			return new ScanPredicate(offset, type, min, v - 1, null, null);
+		}
+		if (op.equals("<=")) {
+			return new ScanPredicate(offset, type, min, v, null, null);
+		}
+		if (op.equals(">")) {
+			return new ScanPredicate(offset, type, v + 1, max, null, null);
+		}
+		if (op.equals(">=")) {
+			return new ScanPredicate(offset, type, v, max, null, null);
+		}
+		throw new IllegalArgumentException("Unknown operator \"" + op + "\" in \"" + condition + "\"");
+	}
+
+	// End of the field name: the first blank or comparison character
+	private static int indexOfSpaceOrOperator(String condition) {
+		for (int i = 0; i < condition.length(); i++) {
+			char c = condition.charAt(i);
+			if (c == ' ' || c == '=' || c == '<' || c == '>') {
+				return i;
+			}
+		}
+		throw new IllegalArgumentException("Expected \"field op value\", found \"" + condition + "\"");
+	}
+
+	private static String unquote(String value) {
+		if (value.length() >= 2 && (value.charAt(0) == '\'' || value.charAt(0) == '"')
+				&& value.charAt(value.length() - 1) == value.charAt(0)) {
+			return value.substring(1, value.length() - 1);
+		}
+		return value;
+	}
+
+	// A number, or for the date field a date time in the pattern dbload parsed it with
+	private static long number(String text, int type, String condition) {
+		String value = unquote(text.trim());
+		if (type == DATE_FIELD) {
+			try {
+				return new SimpleDateFormat("MM/dd/yyyy hh:mm:ss a").parse(value).getTime();
+			}
+			catch (ParseException e) {
+				throw new IllegalArgumentException("Unparseable date time \"" + value + "\" in \"" + condition + "\"");
+			}
+		}
+		try {
+			return Integer.parseInt(value);
+		}
+		catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Number expected, found \"" + value + "\" in \"" + condition + "\"");
+		}
+	}
+
+	/**
+	 * Keep the slots of a selection vector whose field matches. The field of slot s is read at
+	 * base + s * stride, which covers both row pages (base the field offset, stride the record
+	 * size) and PAX pages (base the start of the field's minipage, stride the field size).
+	 *
+	 * @param page : heap page
+	 * @param base : position of the field of slot 0
+	 * @param stride : distance between the fields of consecutive slots
+	 * @param selection : slots to test, in ascending order; the matching ones are moved to the front
+	 * @param count : number of slots in selection
+	 * @return number of matching slots
+	 * */
+	public int filter(ByteBuffer page, int base, int stride, int[] selection, int count) {
+		int kept = 0;
+		if (type == TEXT_FIELD) {
+			for (int i = 0; i < count; i++) {
+				int slot = selection[i];
+				if (textEquals(page, base + slot * stride)) {
+					selection[kept++] = slot;
+				}
+			}
+		}
+		else if (type == DATE_FIELD) {
+			for (int i = 0; i < count; i++) {
+				int slot = selection[i];
+				long value = page.getLong(base + slot * stride);
+				if (value >= low && value <= high) {
+					selection[kept++] = slot;
+				}
+			}
+		}
+		else if (lookup != null) {
+			for (int i = 0; i < count; i++) {
+				int slot = selection[i];
+				long index = page.getInt(base + slot * stride) - low;
+				if (index >= 0 && index < lookup.length && lookup[(int) index]) {
+					selection[kept++] = slot;
+				}
+			}
+		}
+		else if (values != null) {
+			for (int i = 0; i < count; i++) {
+				int slot = selection[i];
+				if (Arrays.binarySearch(values, page.getInt(base + slot * stride)) >= 0) {
+					selection[kept++] = slot;
+				}
+			}
+		}
+		else {
+			for (int i = 0; i < count; i++) {
+				int slot = selection[i];
+				int value = page.getInt(base + slot * stride);
+				if (value >= low && value <= high) {
+					selection[kept++] = slot;
+				}
+			}
+		}
+		return kept;
+	}
+
+	private boolean textEquals(ByteBuffer page, int position) {
+		for (int j = 0; j < fieldSize; j++) {
+			if (page.get(position + j) != text[j]) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,263 @@
+package dbsas2;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/*WriteAheadLog records the records inserted since the last checkpoint, each with its heap offset, so
+ *  the inserts can be done again after a crash (see RecordStore). Appending an entry only copies it
+ *  into a buffer; commit makes it durable. Commits are grouped: the first writer to commit while no
+ *  write is running becomes the leader and writes and forces every entry appended so far, writers
+ *  arriving meanwhile append to a second buffer and wait, and when the leader is done one of them
+ *  leads the next write. Concurrent writers so share one fsync instead of paying for one each.
+ *  Every entry carries a crc32, so a replay stops at an entry torn by the crash.*/
+final class WriteAheadLog implements Closeable {
+
+	private final FileChannel channel;
+	private final int pageSize;
+	private final CRC32 crc = new CRC32();
+	private ByteBuffer filling; //entries appended and not yet being written
+	private ByteBuffer spare; //the other buffer, null while the leader writes it
+	private long position; //end of the entries in the file
+	private long appended; //sequence number of the last entry appended
+	private long durable; //sequence number of the last entry forced to disk
+	private boolean flushing;
+	private IOException failure; //error of the last write; the log refuses commits after it
+	private long syncs;
+
+	/**
+	 * Open the log of a page size, creating it with an empty header if it does not exist
+	 *
+	 * @param logFile : path of the log file
+	 * @param pageSize : page size of the heap and index files the log belongs to
+	 * */
+	public WriteAheadLog(String logFile, int pageSize) throws IOException {
+		this.channel = FileChannel.open(Paths.get(logFile), StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		this.pageSize = pageSize;
+		this.filling = ByteBuffer.allocate(constants.WAL_BUFFER_SIZE);
+		this.spare = ByteBuffer.allocate(constants.WAL_BUFFER_SIZE);
+		try {
+			if (channel.size() < constants.WAL_HEADER_SIZE) {
+				writeHeader(-1);
+			}
+			ByteBuffer header = ByteBuffer.allocate(constants.WAL_HEADER_SIZE);
+			read(header, 0);
+			if (header.getInt(constants.WAL_MAGIC_OFFSET) != constants.WAL_MAGIC) {
+				throw new IOException(logFile + " is not a write-ahead log");
+			}
+			if (header.getInt(constants.WAL_PAGE_SIZE_OFFSET) != pageSize) {
+				throw new IOException(logFile + " belongs to page size " + header.getInt(constants.WAL_PAGE_SIZE_OFFSET));
+			}
+		}
+		catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		this.position = constants.WAL_HEADER_SIZE;
+	}
+
+	public synchronized long getSyncs() {
+		return syncs;
+	}
+
+	public synchronized long getAppended() {
+		return appended;
+	}
+
+	// Bytes of entries in the file and in the buffers, which a replay would read
+	public synchronized long size() {
+		return position + filling.position();
+	}
+
+	/**
+	 * Read the entries of the log in order, up to the end of the file or the first entry that was
+	 * not completely written, and cut the log there so new entries follow the last intact one
+	 *
+	 * @param visitor : receives each entry
+	 * @return number of entries read
+	 * */
+	public synchronized long replay(LogEntryVisitor visitor) throws IOException {
+		ByteBuffer block = ByteBuffer.allocate(constants.WAL_BUFFER_SIZE - constants.WAL_BUFFER_SIZE % constants.WAL_ENTRY_SIZE);
+		byte[] record = new byte[constants.TOTAL_SIZE];
+		long at = constants.WAL_HEADER_SIZE;
+		long size = channel.size();
+		long entries = 0;
+		boolean intact = true;
+		while (intact && at + constants.WAL_ENTRY_SIZE <= size) {
+			block.clear();
+			block.limit((int) Math.min(block.capacity(), (size - at) / constants.WAL_ENTRY_SIZE * constants.WAL_ENTRY_SIZE));
+			read(block, at);
+			for (int entry = 0; entry < block.limit(); entry += constants.WAL_ENTRY_SIZE) {
+				crc.reset();
+				crc.update(block.array(), entry + 4, constants.WAL_ENTRY_SIZE - 4);
+				if (block.getInt(entry) != (int) crc.getValue()) {
+					intact = false;
+					break;
+				}
+				long heapOffset = block.getLong(entry + 4);
+				System.arraycopy(block.array(), entry + 12, record, 0, constants.TOTAL_SIZE);
+				visitor.apply(heapOffset, record);
+				at += constants.WAL_ENTRY_SIZE;
+				entries++;
+			}
+		}
+		channel.truncate(at);
+		position = at;
+		return entries;
+	}
+
+	/**
+	 * Add an entry to the log buffer. It is written by the next commit that reaches it.
+	 *
+	 * @param heapOffset : position of the record in the heap file
+	 * @param record : buffer holding the record in heap layout
+	 * @param from : position of the record in the buffer
+	 * @return sequence number of the entry, to pass to commit
+	 * */
+	public synchronized long append(long heapOffset, byte[] record, int from) throws IOException {
+		while (filling.remaining() < constants.WAL_ENTRY_SIZE) {
+			if (flushing) {
+				await();
+			}
+			else {
+				// the buffer filled up between commits; write it without forcing, the next commit forces it
+				filling.flip();
+				while (filling.hasRemaining()) {
+					position += channel.write(filling, position);
+				}
+				filling.clear();
+			}
+		}
+		int entry = filling.position();
+		filling.putInt(0);
+		filling.putLong(heapOffset);
+		filling.put(record, from, constants.TOTAL_SIZE);
+		crc.reset();
+		crc.update(filling.array(), entry + 4, constants.WAL_ENTRY_SIZE - 4);
+		filling.putInt(entry, (int) crc.getValue());
+		return ++appended;
+	}
+
+	/**
+	 * Wait until an entry and every entry before it are on disk, writing them as the leader of a
+	 * group commit if no other writer is doing so
+	 *
+	 * @param sequence : sequence number returned by append
+	 * */
+	public void commit(long sequence) throws IOException {
+		while (true) {
+			ByteBuffer batch;
+			long target;
+			long at;
+			synchronized (this) {
+				while (flushing && durable < sequence) {
+					await();
+				}
+				if (durable >= sequence) {
+					return;
+				}
+				if (failure != null) {
+					throw new IOException("The log could not be written", failure);
+				}
+				// lead a write of everything appended so far; later appends go to the spare buffer
+				batch = filling;
+				filling = spare;
+				spare = null;
+				target = appended;
+				at = position;
+				position += batch.position();
+				flushing = true;
+			}
+			IOException error = null;
+			try {
+				batch.flip();
+				while (batch.hasRemaining()) {
+					at += channel.write(batch, at);
+				}
+				channel.force(false);
+			}
+			catch (IOException e) {
+				error = e;
+			}
+			synchronized (this) {
+				batch.clear();
+				spare = batch;
+				flushing = false;
+				if (error == null) {
+					durable = Math.max(durable, target);
+					syncs++;
+				}
+				else {
+					failure = error;
+				}
+				notifyAll();
+			}
+			if (error != null) {
+				throw error;
+			}
+		}
+	}
+
+	/**
+	 * Empty the log after a checkpoint: every entry appended so far is in the heap and index files,
+	 * which are on disk, so they all count as durable and none of them needs to be written
+	 *
+	 * @param heapEnd : heap end at the checkpoint, kept in the header
+	 * */
+	public synchronized void reset(long heapEnd) throws IOException {
+		while (flushing) {
+			await();
+		}
+		filling.clear();
+		writeHeader(heapEnd);
+		channel.truncate(constants.WAL_HEADER_SIZE);
+		channel.force(true);
+		position = constants.WAL_HEADER_SIZE;
+		durable = appended;
+		notifyAll();
+	}
+
+	private void writeHeader(long heapEnd) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(constants.WAL_HEADER_SIZE);
+		header.putInt(constants.WAL_MAGIC_OFFSET, constants.WAL_MAGIC);
+		header.putInt(constants.WAL_PAGE_SIZE_OFFSET, pageSize);
+		header.putLong(constants.WAL_HEAP_END_OFFSET, heapEnd);
+		long at = 0;
+		while (header.hasRemaining()) {
+			at += channel.write(header, at);
+		}
+		channel.force(true);
+	}
+
+	private void read(ByteBuffer buffer, long at) throws IOException {
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, at + buffer.position());
+			if (read < 0) {
+				throw new IOException("The log ends early");
+			}
+		}
+	}
+
+	private void await() throws IOException {
+		try {
+			wait();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted waiting for the log");
+		}
+	}
+
+	public synchronized void close() throws IOException {
+		while (flushing) {
+			await();
+		}
+		channel.close();
+	}
+}
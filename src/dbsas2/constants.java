@@ -1,11 +1,75 @@
 package dbsas2;
 public class constants{
-    public static final int DBLOAD_ARG_COUNT = 1;
+    public static final int DBLOAD_ARG_COUNT = 3;
     public static final int DBQUERY_ARG_COUNT = 2;
 
     public static final int DBLOAD_PAGE_SIZE_ARG = 1;
     public static final int DBQUERY_PAGE_SIZE_ARG = 1;
     public static final int DATAFILE_ARG = 2;
+    public static final int DBLOAD_OPTIONS_ARG = 3;
+    public static final String THREADS_FLAG = "-t";
+    public static final int LOAD_CHUNK_PAGES = 256;
+    public static final int LOAD_READ_BUFFER_SIZE = 1 << 16;
+    public static final int LOAD_WRITE_BATCH_PAGES = 64;
+    public static final String SYNC_FLAG = "-sync";
+    public static final String SYNC_NONE_ARG = "none";
+    public static final String SYNC_END_ARG = "end";
+    public static final int SYNC_NEVER = 0;
+    public static final int SYNC_AT_END = -1;
+    public static final String LAYOUT_FLAG = "-layout";
+    public static final String LAYOUT_ROW_ARG = "row";
+    public static final String LAYOUT_PAX_ARG = "pax";
+    public static final int TREELOAD_OPTIONS_ARG = 2;
+    public static final String APPEND_FLAG = "-append";
+    public static final String BULK_LOAD_FLAG = "-b";
+    public static final double DEFAULT_FILL_FACTOR = 0.9;
+    public static final String KEY_FLAG = "-key";
+    public static final String KEY_SDT_NAME_ARG = "sdtname";
+    public static final String KEY_SENSOR_TIME_ARG = "sensortime";
+    public static final String INDEX_FLAG = "-index";
+    public static final String INDEX_SENSOR_ID_ARG = "sensorid";
+    public static final String INDEX_DATE_ARG = "date";
+    public static final String INDEX_COUNTS_ARG = "counts";
+    public static final int TREEQUERY_OPTIONS_ARG = 2;
+    public static final int SERVER_OPTIONS_ARG = 2;
+    public static final String PORT_FLAG = "-port";
+    public static final int DEFAULT_SERVER_PORT = 7400;
+    public static final int SERVER_QUEUE_SIZE = 64;
+    public static final int SERVER_SHUTDOWN_SECONDS = 30; //how long close waits for the queries under way
+    public static final String SERVER_QUIT = "quit";
+    public static final int AGGREGATE_ARG_COUNT = 3;
+    public static final int AGGREGATE_GROUP_ARG = 2;
+    public static final int AGGREGATE_OPTIONS_ARG = 3;
+    public static final String GROUP_ALL_ARG = "all";
+    public static final String GROUP_SENSOR_ID_ARG = "sensorid";
+    public static final String GROUP_MONTH_ARG = "month";
+    public static final String GROUP_DAY_ARG = "day";
+    public static final String GROUP_HOUR_ARG = "hour";
+    public static final int GROUP_ALL = 0;
+    public static final int GROUP_SENSOR_ID = 1;
+    public static final int GROUP_MONTH = 2;
+    public static final int GROUP_DAY = 3;
+    public static final int GROUP_HOUR = 4;
+    public static final int AGGREGATE_TASKS_PER_THREAD = 16;
+    public static final int DBSCAN_OPTIONS_ARG = 2;
+    public static final String WHERE_FLAG = "-where";
+    public static final String OFFSETS_FLAG = "-offsets";
+    public static final String SCAN_TO_FLAG = "-to";
+    public static final String SCAN_BEFORE_FLAG = "-before";
+    public static final String SCAN_AFTER_FLAG = "-after";
+    public static final String SCAN_PREFIX_FLAG = "-prefix";
+    public static final String SCAN_LIMIT_FLAG = "-limit";
+    public static final int FETCH_BATCH_SIZE = 1024;
+    public static final String BATCH_FLAG = "-batch";
+    public static final int BATCH_SIBLING_STEPS = 1;
+    public static final int INSERT_OPTIONS_ARG = 3;
+    public static final String BUFFER_POOL_FLAG = "-pool";
+    public static final int DEFAULT_BUFFER_POOL_PAGES = 1024;
+
+    // treeload -fpr rate: false-positive rate the Bloom filter of tree.pagesize is sized for
+    public static final String FILTER_RATE_FLAG = "-fpr";
+    public static final double DEFAULT_FILTER_RATE = 0.01;
+
     public static final int STD_NAME_SIZE = 24;
     public static final int ID_SIZE = 4;
     public static final int DATE_SIZE = 8;
@@ -105,5 +169,111 @@ public class constants{
                                             SENSORID_SIZE + 
                                             SENSORNAME_SIZE;    
 
+    // PAX heap file (pax.pagesize) page layout: record count (4 bytes), then one minipage per field in
+    // record field order, each holding that field of every slot of the page (see PaxPage)
+    public static final int PAX_COUNT_OFFSET = 0;
+    public static final int PAX_HEADER_SIZE = 4;
+
+    // Paged index file (tree.pagesize) layout. Page 0 is the superblock, every
+    // other page is one B+ tree node addressed by its page id.
+    public static final int INDEX_MAGIC = 0x44425432;
+    public static final int INDEX_VERSION = 4; //version 4 leaves may hold posting lists
+    public static final int INDEX_MIN_VERSION = 2; //oldest version still read; version 2 has no heap end
+    public static final int INDEX_SUPERBLOCK_PAGE = 0;
+    public static final int INDEX_NO_PAGE = -1;
+    public static final int INDEX_OFFSET_SIZE = 8;
+    public static final int INDEX_CHILD_SIZE = 4;
+    public static final String INDEX_TEMP_SUFFIX = ".tmp"; //a build writes here and renames the file into place
+
+    // Superblock fields
+    public static final int SB_MAGIC_OFFSET = 0;
+    public static final int SB_VERSION_OFFSET = 4;
+    public static final int SB_PAGE_SIZE_OFFSET = 8;
+    public static final int SB_KEY_LENGTH_OFFSET = 12;
+    public static final int SB_ROOT_PAGE_OFFSET = 16;
+    public static final int SB_FIRST_LEAF_OFFSET = 20;
+    public static final int SB_PAGE_COUNT_OFFSET = 24;
+    public static final int SB_HEIGHT_OFFSET = 28;
+    public static final int SB_RECORD_COUNT_OFFSET = 32;
+    public static final int SB_HEAP_NAME_OFFSET = 40;
+    public static final int SB_HEAP_NAME_SIZE = 256;
+    public static final int SB_KEY_TYPE_OFFSET = SB_HEAP_NAME_OFFSET + SB_HEAP_NAME_SIZE;
+    // heap offset just past the last record indexed, the high-water mark an append continues from; -1 if unknown
+    public static final int SB_HEAP_END_OFFSET = SB_KEY_TYPE_OFFSET + 4;
+    public static final int SB_SIZE = SB_HEAP_END_OFFSET + 8;
+
+    // Index key types (see IndexKey); 0 is what files written before the field existed hold
+    public static final int INDEX_KEY_SDT_NAME = 0;
+    public static final int INDEX_KEY_SENSOR_TIME = 1;
+    public static final int SENSOR_TIME_KEY_SIZE = SENSORID_SIZE + DATE_SIZE;
+
+    // Secondary index key types, one per indexed field. Field values repeat, so every key ends with the
+    // 8 byte record offset to keep it unique; the index file is tree.pagesize.fieldname
+    public static final int INDEX_KEY_SENSOR_ID = 2;
+    public static final int INDEX_KEY_DATE = 3;
+    public static final int INDEX_KEY_COUNTS = 4;
+
+    // Node page header: type (1 byte), pad (1 byte), key count (2 bytes),
+    // left sibling page id (4 bytes), right sibling page id (4 bytes)
+    public static final byte NODE_INTERNAL = 0;
+    public static final byte NODE_LEAF = 1;
+    public static final int NODE_TYPE_OFFSET = 0;
+    public static final int NODE_KEY_COUNT_OFFSET = 2;
+    public static final int NODE_LEFT_OFFSET = 4;
+    public static final int NODE_RIGHT_OFFSET = 8;
+    public static final int NODE_HEADER_SIZE = 12;
+
+    // Front coded node entries: shared prefix length (1 byte), suffix length (1 byte), suffix, value.
+    // Restart point positions are 2 byte page offsets, which limits node pages to 64K.
+    public static final int NODE_ENTRY_OVERHEAD = 2;
+    public static final int NODE_RESTART_INTERVAL = 16;
+    public static final int NODE_RESTART_SIZE = 2;
+    public static final int NODE_MAX_KEY_LENGTH = 255;
+    public static final int NODE_MAX_PAGE_SIZE = 65536;
+    public static final int NODE_MAX_KEY_COUNT = 65535;
+
+    // A leaf key shared by several records stores a posting list as its value: the first record offset with
+    // the top bit set, the length in bytes of the rest (varint), then the gap to each next offset (varints,
+    // ascending). One entry's list takes at most 1/NODE_POSTING_SHARE of a leaf; more records continue in
+    // another entry with the same key.
+    public static final long POSTING_FLAG = Long.MIN_VALUE;
+    public static final int NODE_POSTING_SHARE = 4;
+
+    // Bloom filter over the keys of an index file, in the index file name followed by FILTER_FILE_SUFFIX:
+    // magic (4 bytes), key type (4 bytes), number of hash functions (4 bytes), number of blocks (4 bytes),
+    // number of keys added (8 bytes) and the heap end of the index it was built for (8 bytes), then the
+    // blocks of FILTER_BLOCK_BITS bits each, as big-endian longs
+    public static final String FILTER_FILE_SUFFIX = ".bloom";
+    public static final int FILTER_MAGIC = 0x4442424c;
+    public static final int FILTER_MAGIC_OFFSET = 0;
+    public static final int FILTER_KEY_TYPE_OFFSET = 4;
+    public static final int FILTER_HASHES_OFFSET = 8;
+    public static final int FILTER_BLOCKS_OFFSET = 12;
+    public static final int FILTER_KEY_COUNT_OFFSET = 16;
+    public static final int FILTER_HEAP_END_OFFSET = 24;
+    public static final int FILTER_HEADER_SIZE = 32;
+    public static final int FILTER_BLOCK_BITS = 512; //one cache line, so a probe reads one line of memory
+    public static final int FILTER_MAX_HASHES = 16;
+
+    // Write-ahead log (wal.pagesize) of the online inserts since the last checkpoint: a header of magic (4 bytes),
+    // page size (4 bytes) and the heap end at the checkpoint (8 bytes), then one entry per record inserted:
+    // crc32 (4 bytes) of the heap offset (8 bytes) and the record (TOTAL_SIZE bytes) that follow it
+    public static final String WAL_FILE_PREFIX = "wal.";
+    public static final int WAL_MAGIC = 0x4442574c;
+    public static final int WAL_MAGIC_OFFSET = 0;
+    public static final int WAL_PAGE_SIZE_OFFSET = 4;
+    public static final int WAL_HEAP_END_OFFSET = 8;
+    public static final int WAL_HEADER_SIZE = 16;
+    public static final int WAL_ENTRY_SIZE = 4 + 8 + TOTAL_SIZE;
+    public static final int WAL_BUFFER_SIZE = 1 << 20;
+    public static final long WAL_CHECKPOINT_BYTES = 64L << 20; //log size that triggers a checkpoint
+
+    // Checkpoint journal (checkpoint.pagesize): magic (4 bytes), page count (4 bytes), then per page the
+    // index file number (4 bytes), page id (4 bytes) and page image, then a crc32 (8 bytes) of all of it
+    public static final String JOURNAL_FILE_PREFIX = "checkpoint.";
+    public static final int JOURNAL_MAGIC = 0x44424a4e;
+    public static final int JOURNAL_HEADER_SIZE = 8;
+    public static final int JOURNAL_PAGE_HEADER_SIZE = 8;
+    public static final int JOURNAL_TRAILER_SIZE = 8;
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,95 @@
+package dbsas2;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+public class dbaggregate {
+
+	/*
+	 * Aggregates the counts field of a heap file by group:
+	 * dbaggregate -p pagesize all|sensorid|month|day|hour [-t threads] [-layout row|pax]
+	 *
+	 * Reads heap.pagesize, or pax.pagesize with -layout pax, and prints one line per group
+	 * with the number of records and the sum, average, minimum and maximum of counts.
+	 */
+	public static void main(String[] args) throws IOException {
+
+		// check for correct number of arguments
+		if (args.length < constants.AGGREGATE_ARG_COUNT) {
+			System.out.println("Error: Incorrect number of arguments were input");
+			return;
+		}
+
+		int pageSize = Integer.parseInt(args[constants.DBQUERY_PAGE_SIZE_ARG]);
+		int groupBy = Aggregator.forName(args[constants.AGGREGATE_GROUP_ARG]);
+		if (groupBy < 0) {
+			System.out.println("Error: Group by must be all, sensorid, month, day or hour");
+			return;
+		}
+		int threads = Runtime.getRuntime().availableProcessors();
+		boolean pax = false;
+		for (int i = constants.AGGREGATE_OPTIONS_ARG; i < args.length; i++) {
+			if (args[i].equals(constants.THREADS_FLAG) && i + 1 < args.length) {
+				threads = Integer.parseInt(args[++i]);
+			}
+			else if (args[i].equals(constants.LAYOUT_FLAG) && i + 1 < args.length) {
+				String layout = args[++i];
+				if (!layout.equals(constants.LAYOUT_ROW_ARG) && !layout.equals(constants.LAYOUT_PAX_ARG)) {
+					System.out.println("Error: Layout must be row or pax");
+					return;
+				}
+				pax = layout.equals(constants.LAYOUT_PAX_ARG);
+			}
+			else {
+				System.out.println("Error: Unknown option " + args[i]);
+				return;
+			}
+		}
+
+		String datafile = (pax ? "pax." : "heap.") + pageSize;
+		Aggregator aggregator = new Aggregator(groupBy, threads);
+		LongAggregateMap aggregates = null;
+		long startTime = System.nanoTime();
+		try {
+			if (pax) {
+				PaxFile file = new PaxFile(datafile, pageSize);
+				try {
+					aggregates = aggregator.aggregate(file);
+				}
+				finally {
+					file.close();
+				}
+			}
+			else {
+				HeapFile file = new HeapFile(datafile, pageSize);
+				try {
+					aggregates = aggregator.aggregate(file);
+				}
+				finally {
+					file.close();
+				}
+			}
+		}
+		catch (FileNotFoundException e) {
+			System.err.println("File not found " + e.getMessage());
+			return;
+		}
+		finally {
+			aggregator.shutdown();
+		}
+		long finishTime = System.nanoTime();
+
+		long records = 0;
+		System.out.println("group,records,sum,avg,min,max");
+		for (long key : aggregates.sortedKeys()) {
+			long count = aggregates.count(key);
+			long sum = aggregates.sum(key);
+			records += count;
+			System.out.println(Aggregator.groupName(groupBy, key) + "," + count + "," + sum + ","
+					+ String.format("%.2f", (double) sum / count) + "," + aggregates.min(key) + "," + aggregates.max(key));
+		}
+		System.out.println("The number of records aggregated: " + records);
+		long timeInMilliseconds = (finishTime - startTime)/constants.MILLISECONDS_PER_SECOND;
+		System.out.println("Time taken: " + timeInMilliseconds + " ms");
+	}
+}
@@ -0,0 +1,170 @@
+package dbsas2;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class dbinsert {
+
+	/*
+	 * Inserts the rows of a csv into heap.pagesize, tree.pagesize and the secondary indexes next to
+	 * it one record at a time, each durable before the next row is taken, through a RecordStore:
+	 * dbinsert -p pagesize datafile [-t threads] [-pool pages]
+	 *
+	 * Every thread takes the next row, inserts it and waits for its log entry to reach the disk, as
+	 * concurrent clients of an online store would; the threads share the log's fsyncs. A store left
+	 * open by a crash is recovered first.
+	 */
+	public static void main(String[] args) throws IOException {
+
+		// check for correct number of arguments
+		if (args.length < constants.DBLOAD_ARG_COUNT) {
+			System.out.println("Error: Incorrect number of arguments were input");
+			return;
+		}
+
+		int pageSize = Integer.parseInt(args[constants.DBLOAD_PAGE_SIZE_ARG]);
+		String datafile = args[constants.DATAFILE_ARG];
+		int threads = 1;
+		int poolPages = constants.DEFAULT_BUFFER_POOL_PAGES;
+		for (int i = constants.INSERT_OPTIONS_ARG; i < args.length; i++) {
+			if (args[i].equals(constants.THREADS_FLAG) && i + 1 < args.length) {
+				threads = Integer.parseInt(args[++i]);
+			}
+			else if (args[i].equals(constants.BUFFER_POOL_FLAG) && i + 1 < args.length) {
+				poolPages = Integer.parseInt(args[++i]);
+			}
+			else {
+				System.out.println("Error: Unknown option " + args[i]);
+				return;
+			}
+		}
+
+		RecordStore store;
+		try {
+			store = new RecordStore(pageSize, poolPages);
+		}
+		catch (FileNotFoundException e) {
+			System.err.println("File not found " + e.getMessage());
+			return;
+		}
+		catch (IOException e) {
+			System.out.println("Error: " + e.getMessage());
+			return;
+		}
+		if (store.getRecovered() > 0) {
+			System.out.println("Records recovered from the log: " + store.getRecovered());
+		}
+
+		long startTime = System.nanoTime();
+		long finishTime;
+		try {
+			insertAll(store, datafile, threads);
+			finishTime = System.nanoTime();
+		}
+		catch (FileNotFoundException e) {
+			System.err.println("Error: File not present " + e.getMessage());
+			store.close();
+			return;
+		}
+		catch (ParseException e) {
+			System.err.println("Parse error when parsing date: " + e.getMessage());
+			store.close();
+			return;
+		}
+		catch (IOException e) {
+			// an insert may have failed halfway: leave the store to be recovered from its log when opened next
+			System.out.println("Error: " + e.getMessage());
+			store.abort();
+			return;
+		}
+		long syncs = store.getLogSyncs();
+		store.close();
+
+		long inserted = store.getInserted();
+		System.out.println("The number of records inserted: " + inserted);
+		System.out.println("Log syncs: " + syncs + ", checkpoints: " + store.getCheckpoints());
+		long timeInMilliseconds = (finishTime - startTime)/constants.MILLISECONDS_PER_SECOND;
+		System.out.println("Time taken: " + timeInMilliseconds + " ms");
+		long insertsPerSecond = (finishTime == startTime) ? 0 : (long) (inserted * 1e9 / (finishTime - startTime));
+		System.out.println("Inserts per second: " + insertsPerSecond);
+	}
+
+	/**
+	 * Insert the rows of a csv from several threads, each row durable before its thread takes the next
+	 *
+	 * @param store : store to insert into
+	 * @param datafile : path of the csv, with a header line
+	 * @param threads : number of inserting threads
+	 * */
+	static void insertAll(final RecordStore store, String datafile, int threads)
+			throws IOException, ParseException {
+		final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(datafile),
+				StandardCharsets.ISO_8859_1), constants.LOAD_READ_BUFFER_SIZE);
+		ExecutorService workers = Executors.newFixedThreadPool(threads);
+		try {
+			// the header line names the fields, which are known
+			reader.readLine();
+			List<Future<Void>> results = new ArrayList<Future<Void>>();
+			for (int t = 0; t < threads; t++) {
+				results.add(workers.submit(new Callable<Void>() {
+					public Void call() throws IOException, ParseException {
+						CsvRecordParser parser = new CsvRecordParser();
+						byte[] record = new byte[constants.TOTAL_SIZE];
+						ByteBuffer buffer = ByteBuffer.wrap(record);
+						String line;
+						while ((line = nextLine(reader)) != null) {
+							if (line.isEmpty()) {
+								continue;
+							}
+							byte[] bytes = line.getBytes(StandardCharsets.ISO_8859_1);
+							parser.encode(bytes, 0, bytes.length, buffer, 0);
+							store.insert(record, 0);
+						}
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> result : results) {
+				try {
+					result.get();
+				}
+				catch (ExecutionException e) {
+					if (e.getCause() instanceof IOException) {
+						throw (IOException) e.getCause();
+					}
+					if (e.getCause() instanceof ParseException) {
+						throw (ParseException) e.getCause();
+					}
+					throw new IOException(e.getCause());
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted waiting for the inserts");
+				}
+			}
+		}
+		finally {
+			workers.shutdownNow();
+			reader.close();
+		}
+	}
+
+	private static String nextLine(BufferedReader reader) throws IOException {
+		synchronized (reader) {
+			return reader.readLine();
+		}
+	}
+}
@@ -1,12 +1,15 @@
 package dbsas2;
 
-import java.io.BufferedReader;
-import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
@@ -28,152 +31,346 @@ public class dbload {
      * counts field = 4 bytes, offset = 108
      * end of record = 111 (inclusive)
      *
-     * Outputs a binary file called heap.pagesize
+     * Outputs a binary file called heap.pagesize, or with -layout pax a file called pax.pagesize
+     * holding the same fields column by column within each page (see PaxPage)
      */
     public static void main(String[] args) throws IOException {
 
         // check for correct number of arguments
-        if (args.length != constants.DBLOAD_ARG_COUNT) {
+        if (args.length < constants.DBLOAD_ARG_COUNT) {
             System.out.println("Error: Incorrect number of arguments were input");
             return;
         }
 
         int pageSize = Integer.parseInt(args[constants.DBLOAD_PAGE_SIZE_ARG]);
         String datafile = args[constants.DATAFILE_ARG];
-        String outputFileName = "heap." + pageSize;
+
+        // optional parallel load and durability policy:
+        // dbload -p pagesize datafile [-t threads] [-sync none|end|pages] [-layout row|pax] [-append]
+        int threads = 1;
+        boolean append = false;
+        int syncInterval = constants.SYNC_NEVER;
+        boolean pax = false;
+        for (int i = constants.DBLOAD_OPTIONS_ARG; i < args.length; i++) {
+            if (args[i].equals(constants.THREADS_FLAG) && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            }
+            else if (args[i].equals(constants.SYNC_FLAG) && i + 1 < args.length) {
+                syncInterval = parseSyncPolicy(args[++i]);
+                if (syncInterval < constants.SYNC_AT_END) {
+                    System.out.println("Error: Sync policy must be none, end or a number of pages");
+                    return;
+                }
+            }
+            else if (args[i].equals(constants.LAYOUT_FLAG) && i + 1 < args.length) {
+                String layout = args[++i];
+                if (!layout.equals(constants.LAYOUT_ROW_ARG) && !layout.equals(constants.LAYOUT_PAX_ARG)) {
+                    System.out.println("Error: Layout must be row or pax");
+                    return;
+                }
+                pax = layout.equals(constants.LAYOUT_PAX_ARG);
+            }
+            else if (args[i].equals(constants.APPEND_FLAG)) {
+                append = true;
+            }
+            else {
+                System.out.println("Error: Unknown option " + args[i]);
+                return;
+            }
+        }
+        if (pax && threads > 1) {
+            System.out.println("Error: The parallel load writes row pages only");
+            return;
+        }
+        if (append && threads > 1) {
+            System.out.println("Error: The parallel load starts a new page and cannot fill the last one");
+            return;
+        }
+        if (threads > 1) {
+            loadParallel(datafile, "heap." + pageSize, pageSize, threads, syncInterval);
+            return;
+        }
+        String outputFileName = (pax ? "pax." : "heap.") + pageSize;
+        int numRecordsLoaded = 0;
+        long startTime = System.nanoTime();
+        try {
+            numRecordsLoaded = loadSequential(datafile, outputFileName, pageSize, syncInterval, pax, append);
+        }
+        catch (FileNotFoundException e) {
+            System.err.println("Error: File not present " + e.getMessage());
+            return;
+        }
+        catch (IOException e) {
+            System.err.println("Error: IOExeption " + e.getMessage());
+            return;
+        }
+        catch (ParseException e) {
+            System.err.println("Parse error when parsing date: " + e.getMessage());
+            return;
+        }
+        long finishTime = System.nanoTime();
+
+        // print out stats if all operations succeeded
+        int numRecordsPerPage = pax ? PaxPage.capacity(pageSize) : pageSize/constants.TOTAL_SIZE;
+        System.out.println("The number of records loaded: " + numRecordsLoaded);
+        System.out.println("The number of pages used: " + (numRecordsLoaded + numRecordsPerPage - 1)/numRecordsPerPage);
+        long timeInMilliseconds = (finishTime - startTime)/constants.MILLISECONDS_PER_SECOND;
+        System.out.println("Time taken: " + timeInMilliseconds + " ms");
+        printRecordsPerSecond(numRecordsLoaded, finishTime - startTime);
+    }
+
+    /**
+     * Load the csv on the calling thread: lines are read in large blocks, parsed at the byte level
+     * straight into the writer's direct pages and written out in batches. PAX pages are filled a
+     * record at a time too: each record is parsed into a row buffer and its fields spread over the
+     * minipages of the page.
+     *
+     * @param datafile : path of the input csv
+     * @param outputFileName : path of the heap file, appended to
+     * @param pageSize : page size of the heap file
+     * @param syncInterval : durability policy, see HeapWriter
+     * @param pax : true to write PAX pages, false for row pages
+     * @return number of records loaded
+     */
+    static int loadSequential(String datafile, String outputFileName, int pageSize, int syncInterval, boolean pax)
+            throws IOException, ParseException {
+        return loadSequential(datafile, outputFileName, pageSize, syncInterval, pax, false);
+    }
+
+    /**
+     * Load the csv on the calling thread, optionally filling the last page of the file first
+     *
+     * @param append : true to continue in the free slots of a partly filled last page, which is
+     *               written again in place, false to start the new records on a new page
+     * @return number of records loaded
+     * @see #loadSequential(String, String, int, int, boolean)
+     */
+    static int loadSequential(String datafile, String outputFileName, int pageSize, int syncInterval, boolean pax,
+            boolean append) throws IOException, ParseException {
+
         int numRecordsLoaded = 0;
-        int numberOfPagesUsed = 0;
-        long startTime = 0;
-        long finishTime = 0;
-        boolean exceptionOccurred = false;
         final int numBytesFixedLengthRecord = constants.TOTAL_SIZE;
-        int numRecordsPerPage = pageSize/numBytesFixedLengthRecord;
-        SimpleDateFormat dateFormat = new SimpleDateFormat("MM/dd/yyyy hh:mm:ss a");
+        int numRecordsPerPage = pax ? PaxPage.capacity(pageSize) : pageSize/numBytesFixedLengthRecord;
+        CsvRecordParser parser = new CsvRecordParser();
+        ByteBuffer row = pax ? ByteBuffer.allocate(numBytesFixedLengthRecord) : null;
 
-        BufferedReader reader = null;
-        FileOutputStream outputStream = null;
-        ByteArrayOutputStream byteOutputStream = null;
-        DataOutputStream dataOutput = null;
+        InputStream input = null;
+        HeapWriter writer = null;
 
         try {
 
-            reader = new BufferedReader(new FileReader(datafile));
-            outputStream = new FileOutputStream(outputFileName, true);
-            byteOutputStream = new ByteArrayOutputStream();
-            dataOutput = new DataOutputStream(byteOutputStream);
-
-            startTime = System.nanoTime();
+            input = new FileInputStream(datafile);
+            long firstPage = -1;
+            int numRecordsInPage = 0;
+            ByteBuffer lastPage = null;
+            if (append) {
+                // the last page is read back and completed if it has free slots
+                long pageCount = new File(outputFileName).length() / pageSize;
+                if (pageCount > 0) {
+                    lastPage = readPage(outputFileName, pageSize, pageCount - 1);
+                    numRecordsInPage = pax ? PaxPage.recordCount(lastPage) : recordCount(lastPage, numRecordsPerPage);
+                }
+                if (numRecordsInPage == numRecordsPerPage) {
+                    numRecordsInPage = 0;
+                }
+                firstPage = (numRecordsInPage > 0) ? pageCount - 1 : pageCount;
+            }
+            writer = new HeapWriter(outputFileName, pageSize, constants.LOAD_WRITE_BATCH_PAGES, syncInterval,
+                    firstPage);
+            CsvLineReader reader = new CsvLineReader(input, constants.LOAD_READ_BUFFER_SIZE);
+            // records are parsed straight into the writer's reusable direct pages
+            ByteBuffer page = writer.page();
+            if (numRecordsInPage > 0) {
+                page.clear();
+                page.put(lastPage);
+                page.clear();
+            }
 
             // read in the header line (not processed further, as datafile fieldnames are known)
-            String line = reader.readLine();
+            reader.next();
 
             // read in lines while not the end of file
-            while ((line = reader.readLine()) != null) {
-
-                String[] valuesAsStrings = line.split(",");
-
-                // Convert data into relevant data types
-                int id = Integer.parseInt(valuesAsStrings[constants.ID_POS]);
-                String dateTimeString = valuesAsStrings[constants.DATETIME_POS];
-                int year = Integer.parseInt(valuesAsStrings[constants.YEAR_POS]);
-                String month = valuesAsStrings[constants.MONTH_POS];
-                int mdate = Integer.parseInt(valuesAsStrings[constants.MDATE_POS]);
-                String day = valuesAsStrings[constants.DAY_POS];
-                int time = Integer.parseInt(valuesAsStrings[constants.TIME_POS]);
-                String sensorIdString = valuesAsStrings[constants.SENSORID_POS];
-                String sensorName = valuesAsStrings[constants.SENSORNAME_POS];
-                int counts = Integer.parseInt(valuesAsStrings[constants.COUNTS_POS]);
-                String sdtName = sensorIdString + dateTimeString;
-                int sensorId = Integer.parseInt(sensorIdString);
-
-                // parse datetime field into a date object, then get long datatype representation
-                Date date = dateFormat.parse(dateTimeString);
-                long dateTimeLongRep = date.getTime();
-
-                // Write bytes to data output stream
-                dataOutput.writeBytes(getStringOfLength(sdtName, constants.STD_NAME_SIZE));
-                dataOutput.writeInt(id);
-                dataOutput.writeLong(dateTimeLongRep);
-                dataOutput.writeInt(year);
-                dataOutput.writeBytes(getStringOfLength(month, constants.MONTH_SIZE));
-                dataOutput.writeInt(mdate);
-                dataOutput.writeBytes(getStringOfLength(day, constants.DAY_SIZE));
-                dataOutput.writeInt(time);
-                dataOutput.writeInt(sensorId);
-                dataOutput.writeBytes(getStringOfLength(sensorName, constants.SENSORNAME_SIZE));
-                dataOutput.writeInt(counts);
+            while (reader.next()) {
+
+                if (reader.start() == reader.end()) {
+                    continue;
+                }
+                if (pax) {
+                    parser.encode(reader.buffer(), reader.start(), reader.end(), row, 0);
+                    PaxPage.putRecord(page, numRecordsPerPage, numRecordsInPage, row.array(), 0);
+                }
+                else {
+                    parser.encode(reader.buffer(), reader.start(), reader.end(), page,
+                            numRecordsInPage * numBytesFixedLengthRecord);
+                }
 
                 numRecordsLoaded++;
+                numRecordsInPage++;
                 // check if a new page is needed
-                if (numRecordsLoaded % numRecordsPerPage == 0) {
-                    dataOutput.flush();
-                    // Get the byte array of loaded records, copy to an empty page and writeout
-                    byte[] page = new byte[pageSize];
-                    byte[] records = byteOutputStream.toByteArray();
-                    int numberBytesToCopy = byteOutputStream.size();
-                    System.arraycopy(records, 0, page, 0, numberBytesToCopy);
-                    writeOut(outputStream, page);
-                    numberOfPagesUsed++;
-                    byteOutputStream.reset();
+                if (numRecordsInPage == numRecordsPerPage) {
+                    finishPage(writer, page, numRecordsInPage, pax);
+                    page = writer.page();
+                    numRecordsInPage = 0;
                 }
             }
 
             // At end of csv, check if there are records in the current page to be written out
-            if (numRecordsLoaded % numRecordsPerPage != 0) {
-                dataOutput.flush();
-                byte[] page = new byte[pageSize];
-                byte[] records = byteOutputStream.toByteArray();
-                int numberBytesToCopy = byteOutputStream.size();
-                System.arraycopy(records, 0, page, 0, numberBytesToCopy);
-                writeOut(outputStream, page);
-                numberOfPagesUsed++;
-                byteOutputStream.reset();
+            if (numRecordsInPage != 0) {
+                finishPage(writer, page, numRecordsInPage, pax);
             }
+            // closing writes the last batch and applies the durability policy, so it is timed
+            writer.close();
+        }
+        finally {
+            // close input/output streams
+            if (input != null) {
+                input.close();
+            }
+            if (writer != null) {
+                writer.close();
+            }
+        }
+        return numRecordsLoaded;
+    }
 
-            finishTime = System.nanoTime();
+    // Reads one page of a heap file
+    private static ByteBuffer readPage(String fileName, int pageSize, long pageNumber) throws IOException {
+        ByteBuffer page = ByteBuffer.allocate(pageSize);
+        FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+        try {
+            while (page.hasRemaining()) {
+                if (channel.read(page, pageNumber * pageSize + page.position()) < 0) {
+                    throw new IOException(fileName + " ends inside page " + pageNumber);
+                }
+            }
+        }
+        finally {
+            channel.close();
+        }
+        page.clear();
+        return page;
+    }
+
+    // Number of records in a row page: its slots are filled in order, so up to the first empty slot
+    private static int recordCount(ByteBuffer page, int numRecordsPerPage) {
+        int slot = 0;
+        while (slot < numRecordsPerPage && page.get(slot * constants.TOTAL_SIZE) != 0) {
+            slot++;
+        }
+        return slot;
+    }
+
+    // Hands a filled page to the writer; a PAX page takes its record count and keeps its unused slots zeroed
+    private static void finishPage(HeapWriter writer, ByteBuffer page, int numRecordsInPage, boolean pax)
+            throws IOException {
+        if (pax) {
+            PaxPage.finish(page, PaxPage.capacity(page.capacity()), numRecordsInPage);
+            writer.finishPage(page.capacity());
+        }
+        else {
+            writer.finishPage(numRecordsInPage * constants.TOTAL_SIZE);
+        }
+    }
+
+    // Loads the csv with a ParallelLoader and prints the same stats as the sequential loop
+    private static void loadParallel(String datafile, String outputFileName, int pageSize, int threads,
+            int syncInterval) {
+
+        ParallelLoader loader = new ParallelLoader(pageSize, threads, syncInterval);
+        long startTime = System.nanoTime();
+        try {
+            loader.load(datafile, outputFileName);
         }
         catch (FileNotFoundException e) {
             System.err.println("Error: File not present " + e.getMessage());
-            exceptionOccurred = true;
+            return;
         }
         catch (IOException e) {
             System.err.println("Error: IOExeption " + e.getMessage());
-            exceptionOccurred = true;
+            return;
         }
         catch (ParseException e) {
             System.err.println("Parse error when parsing date: " + e.getMessage());
+            return;
         }
-        finally {
-            // close input/output streams
-            if (reader != null) {
-                reader.close();
-            }
-            if (dataOutput != null) {
-                dataOutput.close();
-            }
-            if (byteOutputStream != null) {
-                byteOutputStream.close();
-            }
-            if (outputStream != null) {
-                outputStream.close();
-            }
+        catch (InterruptedException e) {
+            System.err.println("Error: Load interrupted");
+            return;
         }
+        long finishTime = System.nanoTime();
 
-        // print out stats if all operations succeeded
-        if (exceptionOccurred == false) {
+        System.out.println("The number of records loaded: " + loader.getNumRecordsLoaded());
+        System.out.println("The number of pages used: " + loader.getNumberOfPagesUsed());
+        long timeInMilliseconds = (finishTime - startTime)/constants.MILLISECONDS_PER_SECOND;
+        System.out.println("Time taken: " + timeInMilliseconds + " ms");
+        printRecordsPerSecond(loader.getNumRecordsLoaded(), finishTime - startTime);
+    }
 
-            System.out.println("The number of records loaded: " + numRecordsLoaded);
-            System.out.println("The number of pages used: " + numberOfPagesUsed);
-            long timeInMilliseconds = (finishTime - startTime)/constants.MILLISECONDS_PER_SECOND;
-            System.out.println("Time taken: " + timeInMilliseconds + " ms");
+    // Returns the sync interval for a -sync argument, or a value below SYNC_AT_END if it is not valid
+    private static int parseSyncPolicy(String policy) {
+        if (policy.equals(constants.SYNC_NONE_ARG)) {
+            return constants.SYNC_NEVER;
+        }
+        if (policy.equals(constants.SYNC_END_ARG)) {
+            return constants.SYNC_AT_END;
+        }
+        try {
+            int pages = Integer.parseInt(policy);
+            return (pages > 0) ? pages : constants.SYNC_AT_END - 1;
+        }
+        catch (NumberFormatException e) {
+            return constants.SYNC_AT_END - 1;
         }
     }
 
-    // Writes out a byte array to file using a FileOutputStream
-    public static void writeOut(FileOutputStream stream, byte[] byteArray)
-            throws FileNotFoundException, IOException {
+    // Prints the load throughput
+    private static void printRecordsPerSecond(int numRecordsLoaded, long nanoseconds) {
+        long recordsPerSecond = (nanoseconds == 0) ? 0 : (long) (numRecordsLoaded * 1e9 / nanoseconds);
+        System.out.println("Records per second: " + recordsPerSecond);
+    }
+
+    /**
+     * Convert one csv line into a fixed-length record and write it to the data output stream
+     *
+     * @param line : one data line of the input csv
+     * @param dateFormat : parser for the date time field; not shared between threads
+     * @param dataOutput : stream the record bytes are written to
+     */
+    public static void encodeRecord(String line, SimpleDateFormat dateFormat, DataOutputStream dataOutput)
+            throws IOException, ParseException {
+
+        String[] valuesAsStrings = line.split(",");
+
+        // Convert data into relevant data types
+        int id = Integer.parseInt(valuesAsStrings[constants.ID_POS]);
+        String dateTimeString = valuesAsStrings[constants.DATETIME_POS];
+        int year = Integer.parseInt(valuesAsStrings[constants.YEAR_POS]);
+        String month = valuesAsStrings[constants.MONTH_POS];
+        int mdate = Integer.parseInt(valuesAsStrings[constants.MDATE_POS]);
+        String day = valuesAsStrings[constants.DAY_POS];
+        int time = Integer.parseInt(valuesAsStrings[constants.TIME_POS]);
+        String sensorIdString = valuesAsStrings[constants.SENSORID_POS];
+        String sensorName = valuesAsStrings[constants.SENSORNAME_POS];
+        int counts = Integer.parseInt(valuesAsStrings[constants.COUNTS_POS]);
+        String sdtName = sensorIdString + dateTimeString;
+        int sensorId = Integer.parseInt(sensorIdString);
+
+        // parse datetime field into a date object, then get long datatype representation
+        Date date = dateFormat.parse(dateTimeString);
+        long dateTimeLongRep = date.getTime();
 
-        stream.write(byteArray);
+        // Write bytes to data output stream
+        dataOutput.writeBytes(getStringOfLength(sdtName, constants.STD_NAME_SIZE));
+        dataOutput.writeInt(id);
+        dataOutput.writeLong(dateTimeLongRep);
+        dataOutput.writeInt(year);
+        dataOutput.writeBytes(getStringOfLength(month, constants.MONTH_SIZE));
+        dataOutput.writeInt(mdate);
+        dataOutput.writeBytes(getStringOfLength(day, constants.DAY_SIZE));
+        dataOutput.writeInt(time);
+        dataOutput.writeInt(sensorId);
+        dataOutput.writeBytes(getStringOfLength(sensorName, constants.SENSORNAME_SIZE));
+        dataOutput.writeInt(counts);
     }
 
     // Returns a whitespace padded string of the same length as parameter int length
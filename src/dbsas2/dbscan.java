@@ -0,0 +1,120 @@
+package dbsas2;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class dbscan {
+
+	/*
+	 * Lists the records of a heap file matching a filter, without an index:
+	 * dbscan -p pagesize [-where condition]... [-t threads] [-offsets] [-limit n] [-layout row|pax]
+	 *
+	 * Conditions are written "field op value", "field in v1,v2" or "field between v1 and v2",
+	 * e.g. -where "sensorid in 3,7" -where "day = Sunday" -where "counts > 1000"; a record must
+	 * meet all of them. With -offsets only the addresses of the matching records are printed.
+	 */
+	public static void main(String[] args) throws IOException {
+
+		// check for correct number of arguments
+		if (args.length < constants.DBQUERY_ARG_COUNT) {
+			System.out.println("Error: Incorrect number of arguments were input");
+			return;
+		}
+
+		int pageSize = Integer.parseInt(args[constants.DBQUERY_PAGE_SIZE_ARG]);
+		int threads = Runtime.getRuntime().availableProcessors();
+		boolean pax = false;
+		boolean offsetsOnly = false;
+		long limit = Long.MAX_VALUE;
+		List<ScanPredicate> predicates = new ArrayList<ScanPredicate>();
+		for (int i = constants.DBSCAN_OPTIONS_ARG; i < args.length; i++) {
+			if (args[i].equals(constants.WHERE_FLAG) && i + 1 < args.length) {
+				try {
+					predicates.add(ScanPredicate.parse(args[++i]));
+				}
+				catch (IllegalArgumentException e) {
+					System.out.println("Error: " + e.getMessage());
+					return;
+				}
+			}
+			else if (args[i].equals(constants.THREADS_FLAG) && i + 1 < args.length) {
+				threads = Integer.parseInt(args[++i]);
+			}
+			else if (args[i].equals(constants.OFFSETS_FLAG)) {
+				offsetsOnly = true;
+			}
+			else if (args[i].equals(constants.SCAN_LIMIT_FLAG) && i + 1 < args.length) {
+				limit = Long.parseLong(args[++i]);
+			}
+			else if (args[i].equals(constants.LAYOUT_FLAG) && i + 1 < args.length) {
+				String layout = args[++i];
+				if (!layout.equals(constants.LAYOUT_ROW_ARG) && !layout.equals(constants.LAYOUT_PAX_ARG)) {
+					System.out.println("Error: Layout must be row or pax");
+					return;
+				}
+				pax = layout.equals(constants.LAYOUT_PAX_ARG);
+			}
+			else {
+				System.out.println("Error: Unknown option " + args[i]);
+				return;
+			}
+		}
+
+		String datafile = (pax ? "pax." : "heap.") + pageSize;
+		FilterScan filter = new FilterScan(predicates.toArray(new ScanPredicate[predicates.size()]), threads);
+		long startTime = System.nanoTime();
+		long listed = 0;
+		try {
+			HeapFile heap = pax ? null : new HeapFile(datafile, pageSize);
+			PaxFile paxFile = pax ? new PaxFile(datafile, pageSize) : null;
+			try {
+				long[] matches = pax ? filter.scan(paxFile) : filter.scan(heap);
+				StringBuilder out = new StringBuilder();
+				for (long address : matches) {
+					if (listed == limit) {
+						break;
+					}
+					if (offsetsOnly) {
+						out.append(address).append('\n');
+					}
+					else {
+						// decode only the records that matched
+						long pageNumber = FilterScan.pageNumber(address, pageSize);
+						int slot = FilterScan.slot(address, pageSize);
+						HeapRecord record = pax ? paxFile.record(pageNumber, slot)
+								: HeapRecord.decode(heap.page(pageNumber), HeapFile.recordPosition(slot));
+						out.append("At ").append(address).append(", record: ").append(record).append('\n');
+					}
+					listed++;
+					if (out.length() > 1 << 16) {
+						System.out.print(out);
+						out.setLength(0);
+					}
+				}
+				System.out.print(out);
+			}
+			finally {
+				if (heap != null) {
+					heap.close();
+				}
+				if (paxFile != null) {
+					paxFile.close();
+				}
+			}
+		}
+		catch (FileNotFoundException e) {
+			System.err.println("File not found " + e.getMessage());
+			return;
+		}
+		finally {
+			filter.shutdown();
+		}
+		long finishTime = System.nanoTime();
+
+		System.out.println("The number of records matched: " + listed);
+		long timeInMilliseconds = (finishTime - startTime)/constants.MILLISECONDS_PER_SECOND;
+		System.out.println("Time taken: " + timeInMilliseconds + " ms");
+	}
+}
@@ -1,51 +1,21 @@
 package dbsas2;
 
 import java.io.BufferedReader;
-import java.io.ByteArrayOutputStream;
-import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.io.ObjectOutputStream;
-import java.io.Serializable;
 import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
-import java.text.SimpleDateFormat;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.List;
 
-/*BPlusTree class to store various details regarding each block of the file like,
- *  the key values and pointers to connecting blocks*/
-@SuppressWarnings("serial")
-class BPlusTree implements Serializable {
-	public List<String> key; //ArrayList to store the key of the records
-	public List<BPlusTree> blockPtr; //ArrayList to store the block pointers of intermediate blocks to corresponding blocks
-	public BPlusTree parent; //stores the pointer to the parent of the current block
-	public List<Long> offsetval; //ArrayList to store the offset of the records present in the input text data file
-	public BPlusTree rightBlockPtr; //pointer of right block of the current node 
-	public BPlusTree leftBlockPtr; //pointer of right block of the current node 
-	public boolean isLeafBlock; //determines if the current block is a leaf block or intermediate block
-	
-	public BPlusTree() {
-		this.key = new ArrayList<String>();
-		this.blockPtr = new ArrayList<BPlusTree>();
-		this.parent = null;
-		this.offsetval = new ArrayList<Long>();
-		this.rightBlockPtr = null;
-		this.leftBlockPtr = null;
-		this.isLeafBlock = false;
-	}
-}
-
 public class treeload {
 	
 	static BPlusTree root;//root block of the index file
-	static int MaxBlockSize;//max block size of each block
+	static int MaxBlockSize;//number of keys at which a block is split, one more than a node page holds
 	static int splitIndex;//index at which we must split the current block once it reaches the maxBlockSize
 	
 	/**
@@ -53,13 +23,12 @@ public class treeload {
 	 *
 	 * @param inputFile : path to the input text data file which needs to be indexed for faster access
 	 * @param indexFile : path where the index file needs to be generated
-	 * @param keyLength : length of the key to be considered while preparing the index file
+	 * @param pageSize : size in bytes of each page of the index file
 	 * */
-	public static void createIndex(String inputFile, String indexFile) throws IOException{
+	public static void createIndex(String inputFile, String indexFile, int pageSize) throws IOException{
 		
 		long offset = 1;// to calculate the offset of the records in the text input file
-		MaxBlockSize = (1024 - 24) / 24 + 8 ; // assuming each block of 1024 bytes and offset of long data type, hence 8 bytes
-		splitIndex = (MaxBlockSize%2==0)?(MaxBlockSize/2)-1 : MaxBlockSize/2;
+		initTree(pageSize, constants.STD_NAME_SIZE);
 		
 		//read the input heap file
 		
@@ -76,30 +45,123 @@ public class treeload {
 			offset += line.length() + 2; //add 2 to each offset after adding line.length() for "\n"
 		}
 		reader.close(); 
-		writefile( inputFile, indexFile);
+		// offsets of the text file are no heap offsets, so the index records no heap end
+		writefile( inputFile, indexFile, pageSize, constants.INDEX_KEY_SDT_NAME, null, -1);
 	
 	}
 	
 	/**
-	 * Write the prepared index file object to index file
+	 * Start an empty tree whose blocks split as soon as they would no longer fit in a node page
+	 * of the given size, so every block of the finished tree can be written as one page
 	 *
-	 * @param datafilepath : path to the input text data file which needs to be indexed for faster access
+	 * @param pageSize : size in bytes of each page of the index file
+	 * @param keyLength : length in bytes of the keys
+	 * */
+	static void initTree(int pageSize, int keyLength) throws IOException {
+		int capacity = Math.min(IndexNode.capacity(pageSize, keyLength, true), IndexNode.capacity(pageSize, keyLength, false));
+		if (capacity < 2) {
+			throw new IOException("Page size " + pageSize + " is too small for keys of " + keyLength + " bytes");
+		}
+		MaxBlockSize = capacity + 1;
+		splitIndex = (MaxBlockSize%2==0)?(MaxBlockSize/2)-1 : MaxBlockSize/2;
+		root = new BPlusTree();
+	}
+
+	/**
+	 * Write the prepared index to the index file as fixed-size node pages,
+	 * with a superblock in page 0 holding the root page id and the metadata
+	 *
+	 * @param datafilepath : path to the input data file which needs to be indexed for faster access
 	 * @param indexfilepath : path where the index file needs to be generated
-	 * @param key : length of the key to be considered while preparing the index file
+	 * @param pageSize : size in bytes of each page of the index file
+	 * @param keyType : type of the keys in the tree, one of the INDEX_KEY_ constants
+	 * @param pool : buffer pool to write the pages through, or null to write them directly
+	 * @param heapEnd : heap offset just past the last record in the tree, or -1 if unknown
 	 * */
-	private static void writefile( String datafilepath, String indexfilepath) throws IOException {
-		FileOutputStream fout = new FileOutputStream(indexfilepath);
-		byte[] inputFileName = datafilepath.getBytes();
-		byte[] keyLength = (24+"").getBytes();
-		byte[] rootOffset = (" " + root.key.get(0)).getBytes();
-		FileChannel fc = fout.getChannel();
-		fc.write(ByteBuffer.wrap(inputFileName));//write the input text file name from 0-255 bytes
-		fc.write(ByteBuffer.wrap(keyLength), 257l);//write the keyLength of int data type in next 4 bytes
-		fc.write(ByteBuffer.wrap(rootOffset), 260l);//write the offset of the root block of long data type next
-		fc.position(1025l);
-		ObjectOutputStream oos = new ObjectOutputStream(fout);
-		oos.writeObject(root);
-		oos.close();
+	private static void writefile( String datafilepath, String indexfilepath, int pageSize, int keyType,
+			BufferPool pool, long heapEnd) throws IOException {
+		IndexWriter.writeTree(root, datafilepath, indexfilepath, pageSize, keyType, pool, heapEnd);
+	}
+
+	/**
+	 * Insert the records added to the heap file since the index files were written into the primary
+	 * index and every secondary index next to it. Each index file records the heap offset it covers
+	 * up to, so only the records past that mark are read; the partial page it falls in is read from
+	 * the slot after the last record indexed. The Bloom filter of the primary index gets the new
+	 * keys too, if it was built for the index as it was.
+	 *
+	 * @param heap : heap file the indexes point into
+	 * @param pageSize : page size of the heap and index files
+	 * @param pool : buffer pool the index pages are read and written through
+	 * @return number of records inserted into the primary index
+	 * */
+	static long appendRecords(HeapFile heap, int pageSize, BufferPool pool) throws IOException {
+		List<IndexInserter> inserters = new ArrayList<IndexInserter>();
+		try {
+			inserters.add(new IndexInserter(IndexKey.fileName(pageSize, constants.INDEX_KEY_SDT_NAME), pool));
+			for (int type = 0; type <= constants.INDEX_KEY_COUNTS; type++) {
+				if (IndexKey.isSecondary(type) && new File(IndexKey.fileName(pageSize, type)).exists()) {
+					inserters.add(new IndexInserter(IndexKey.fileName(pageSize, type), pool));
+				}
+			}
+			long start = Long.MAX_VALUE;
+			for (IndexInserter inserter : inserters) {
+				if (inserter.getHeapEnd() < 0) {
+					throw new IOException("The index files do not record the heap offset they cover, rebuild them");
+				}
+				start = Math.min(start, inserter.getHeapEnd());
+			}
+			long heapEnd = heap.end();
+			if (start > heapEnd) {
+				throw new IOException("The index files cover more records than the heap file holds, rebuild them");
+			}
+
+			IndexInserter primary = inserters.get(0);
+			long recordsBefore = primary.getRecordCount();
+			String filterFile = IndexKey.fileName(pageSize, constants.INDEX_KEY_SDT_NAME) + constants.FILTER_FILE_SUFFIX;
+			KeyFilter filter = KeyFilter.open(filterFile, primary.getKeyType(), recordsBefore, primary.getHeapEnd(), true);
+			byte[][] keys = new byte[inserters.size()][];
+			for (int j = 0; j < keys.length; j++) {
+				keys[j] = new byte[inserters.get(j).getKeyLength()];
+			}
+			int firstSlot = (int) (start % pageSize) / constants.TOTAL_SIZE;
+			for (long pageNumber = start / pageSize; pageNumber < heap.getPageCount(); pageNumber++) {
+				ByteBuffer page = heap.page(pageNumber);
+				int numRecordsInPage = heap.recordCount(page);
+				for (int i = firstSlot; i < numRecordsInPage; i++) {
+					int recordPosition = HeapFile.recordPosition(i);
+					long offset = heap.recordOffset(pageNumber, i);
+					for (int j = 0; j < keys.length; j++) {
+						IndexInserter inserter = inserters.get(j);
+						// an index written after the others may already hold the record
+						if (offset >= inserter.getHeapEnd()) {
+							IndexKey.fromRecord(inserter.getKeyType(), page, recordPosition, offset, keys[j]);
+							if (inserter.insert(keys[j], offset) && j == 0 && filter != null) {
+								filter.add(keys[j]);
+							}
+						}
+					}
+				}
+				firstSlot = 0;
+			}
+
+			for (IndexInserter inserter : inserters) {
+				inserter.setHeapEnd(heapEnd);
+			}
+			if (filter != null) {
+				// written before the index files, it matches them only once they are closed
+				filter.write(filterFile, heapEnd);
+			}
+			if (primary.getDuplicates() > 0) {
+				System.out.println("Records already existing: " + primary.getDuplicates());
+			}
+			return primary.getRecordCount() - recordsBefore;
+		}
+		finally {
+			for (IndexInserter inserter : inserters) {
+				inserter.close();
+			}
+		}
 	}
 	
 	/**
@@ -122,67 +184,22 @@ public class treeload {
 		
 		/* Atleast one record is present in the block and
 		now the current record needs to be inserted in the correct position*/
-		else if (block != null || !block.key.isEmpty()) {
-			
-			for(int i=0;i<block.key.size();i++){
-				
-				String keyPresent = block.key.get(i);
-				
-				if(key.compareTo(keyPresent)<0){
-					
-					if(block.isLeafBlock){
-						
-						block.key.add(i, key);
-						block.offsetval.add(i, offset);
-						if(block.key.size()==MaxBlockSize){
-							split(block);
-						}
-						return;
-					}
-					
-					//current block is an intermediate block and key to be inserted is lesser than this so,
-					//traverse to the left sub-block
-					else{
-						insertRecord(block.blockPtr.get(i), key, offset);
-						return;
-					}
-				}
-				
-				else if(key.compareTo(keyPresent)>0){
-					
-					//Key to be inserted is greater than the key at this position. 
-					//So continue searching for the correct position.
-					if (i < block.key.size() - 1) {
-						continue;
-					}
-					
-					else{
-						if (block.isLeafBlock){
-							block.key.add(key);
-							block.offsetval.add(offset);
-							//split the block if the size of the block is exhausted
-							if(block.key.size()==MaxBlockSize){
-								split(block);
-								return;
-							}
-							return;
-						}
-						
-						//current block is an intermediate block and key to be inserted is greater than this so,
-						//traverse to the left sub-block
-						else{
-							insertRecord(block.blockPtr.get(i + 1),key, offset);
-							return;
-						}
-					}
-				}
-				
-				else{
-					System.out.println("Record already exists!");
-					return;
-				}
-			}
-			
+		
+		//current block is an intermediate block, so traverse to the sub-block covering the key:
+		//the child right of the last key not greater than the key to be inserted
+		if(!block.isLeafBlock){
+			insertRecord(block.blockPtr.get(NodeSearch.upperBound(block.key, key)), key, offset);
+			return;
+		}
+		
+		//binary search the leaf block for the position of the key, after the records that share it
+		int i = NodeSearch.upperBound(block.key, key);
+		
+		block.key.add(i, key);
+		block.offsetval.add(i, offset);
+		//split the block if the size of the block is exhausted
+		if(block.key.size()==MaxBlockSize){
+			split(block);
 		}
 	}
 	
@@ -220,7 +237,7 @@ public class treeload {
 			if(block.parent==null){
 				tempBlock.blockPtr.add(leftBlock);
 				tempBlock.blockPtr.add(rightBlock);
-				tempBlock.key.add(rightBlock.key.get(0));
+				tempBlock.key.add(shortestSeparator(leftBlock.key.get(splitIndex), rightBlock.key.get(0)));
 				
 				leftBlock.parent = tempBlock;
 				rightBlock.parent = tempBlock;
@@ -231,27 +248,14 @@ public class treeload {
 			
 			else{
 				tempBlock = block.parent;
-				String splitKey = rightBlock.key.get(0);
+				String splitKey = shortestSeparator(leftBlock.key.get(splitIndex), rightBlock.key.get(0));
 				
-				for(int i = 0;i<tempBlock.key.size();i++){
-					if(splitKey.compareTo(tempBlock.key.get(i))<=0){
-						tempBlock.key.add(i, splitKey);
-						tempBlock.blockPtr.add(i, leftBlock);
-						tempBlock.blockPtr.set(i+1, rightBlock);
-						break;
-					}
-					else{
-						if (i < tempBlock.key.size() - 1) {
-							continue;
-						}
-						else{
-							tempBlock.key.add(splitKey);
-							tempBlock.blockPtr.add(i+1, leftBlock);
-							tempBlock.blockPtr.set(i+2, rightBlock);
-							break;
-						}
-					}
-				}
+				//the split block is replaced by the left block followed by the right block; it is looked up
+				//itself, as the parent keys of a key shared by several records need not tell it apart
+				int i = tempBlock.blockPtr.indexOf(block);
+				tempBlock.key.add(i, splitKey);
+				tempBlock.blockPtr.add(i, leftBlock);
+				tempBlock.blockPtr.set(i+1, rightBlock);
 				
 				if (block.leftBlockPtr != null) {
 					block.leftBlockPtr.rightBlockPtr = leftBlock;
@@ -276,23 +280,24 @@ public class treeload {
 		
 		else{
 			
+			//the key at splitIndex moves up to the parent, the keys on either side go to the new blocks
 			String splitKey = block.key.get(splitIndex);
-			int i = 0,k=0;
-			for(i=0;i<=splitIndex;i++){
+			int i = 0;
+			for(i=0;i<splitIndex;i++){
 				leftBlock.key.add(block.key.get(i));
 				leftBlock.blockPtr.add(block.blockPtr.get(i));
-				leftBlock.blockPtr.get(i).parent = leftBlock;
+				block.blockPtr.get(i).parent = leftBlock;
 			}
-			leftBlock.blockPtr.add(block.blockPtr.get(i+1));
-			leftBlock.blockPtr.get(i+1).parent = leftBlock;
+			leftBlock.blockPtr.add(block.blockPtr.get(splitIndex));
+			block.blockPtr.get(splitIndex).parent = leftBlock;
 			
-			for(i=splitIndex+2;i<block.key.size();i++){
+			for(i=splitIndex+1;i<block.key.size();i++){
 				rightBlock.key.add(block.key.get(i));
 				rightBlock.blockPtr.add(block.blockPtr.get(i));
-				rightBlock.blockPtr.get(k++).parent = rightBlock;
+				block.blockPtr.get(i).parent = rightBlock;
 			}
-			rightBlock.blockPtr.add(block.blockPtr.get(i+1));
-			rightBlock.blockPtr.get(k++).parent = rightBlock;
+			rightBlock.blockPtr.add(block.blockPtr.get(i));
+			block.blockPtr.get(i).parent = rightBlock;
 			
 			if(block.parent==null){
 				tempBlock.blockPtr.add(leftBlock);
@@ -309,26 +314,10 @@ public class treeload {
 			else{
 				tempBlock = block.parent;
 				
-				for(i = 0;i<tempBlock.key.size();i++){
-					if(splitKey.compareTo(tempBlock.key.get(i))<=0){
-						tempBlock.key.add(i, splitKey);
-						tempBlock.blockPtr.add(i, leftBlock);
-						tempBlock.blockPtr.set(i+1, rightBlock);
-						break;
-					}
-					else{
-						if (i < tempBlock.key.size() - 1) {
-							continue;
-						}
-						
-						else{
-							tempBlock.key.add(splitKey);
-							tempBlock.blockPtr.add(i+1, leftBlock);
-							tempBlock.blockPtr.set(i+2, rightBlock);
-							break;
-						}
-					}
-				}
+				i = tempBlock.blockPtr.indexOf(block);
+				tempBlock.key.add(i, splitKey);
+				tempBlock.blockPtr.add(i, leftBlock);
+				tempBlock.blockPtr.set(i+1, rightBlock);
 				
 				leftBlock.parent = tempBlock;
 				rightBlock.parent = tempBlock;
@@ -345,140 +334,195 @@ public class treeload {
 		
 	}
 
+	/**
+	 * Shortest separator between the two halves of a split leaf: the shortest prefix of the first
+	 * key of the right half that is still greater than the last key of the left half. Keys sharing
+	 * the sensor id and date text need only a few characters past the shared part, so internal
+	 * blocks hold short separators instead of whole keys.
+	 *
+	 * @param left : last key of the left block
+	 * @param right : first key of the right block
+	 * @return the separator to promote to the parent
+	 * */
+	static String shortestSeparator(String left, String right) {
+		int length = Math.min(left.length(), right.length());
+		for (int i = 0; i < length; i++) {
+			if (left.charAt(i) != right.charAt(i)) {
+				return right.substring(0, i + 1);
+			}
+		}
+		return right;
+	}
+
 	public static void main(String[] args) throws IOException {
 		// TODO Auto-generated method stub
 		// check for correct number of arguments
-        if (args.length != constants.DBQUERY_ARG_COUNT) {
+        if (args.length < constants.DBQUERY_ARG_COUNT) {
             System.out.println("Error: Incorrect number of arguments were input");
             return;
         }
 
+        // optional flags: treeload -p pagesize [-b [fillfactor]] [-pool pages] [-key sdtname|sensortime]
+        //                 [-index sensorid,date,counts] [-fpr rate] | -append [-pool pages]
+        boolean bulkLoad = false;
+        boolean append = false;
+        int keyType = constants.INDEX_KEY_SDT_NAME;
+        double fillFactor = constants.DEFAULT_FILL_FACTOR;
+        int poolPages = constants.DEFAULT_BUFFER_POOL_PAGES;
+        double filterRate = constants.DEFAULT_FILTER_RATE;
+        boolean filterOption = false;
+        int[] secondaryTypes = new int[0];
+        for (int i = constants.TREELOAD_OPTIONS_ARG; i < args.length; i++) {
+            if (args[i].equals(constants.BULK_LOAD_FLAG)) {
+                bulkLoad = true;
+                if (i + 1 < args.length && !args[i + 1].startsWith("-")) {
+                    fillFactor = Double.parseDouble(args[++i]);
+                }
+            }
+            else if (args[i].equals(constants.APPEND_FLAG)) {
+                append = true;
+            }
+            else if (args[i].equals(constants.BUFFER_POOL_FLAG) && i + 1 < args.length) {
+                poolPages = Integer.parseInt(args[++i]);
+            }
+            else if (args[i].equals(constants.FILTER_RATE_FLAG) && i + 1 < args.length) {
+                filterRate = Double.parseDouble(args[++i]);
+                filterOption = true;
+                if (!(filterRate > 0 && filterRate < 1)) {
+                    System.out.println("Error: The false-positive rate of " + constants.FILTER_RATE_FLAG
+                            + " must be between 0 and 1");
+                    return;
+                }
+            }
+            else if (args[i].equals(constants.KEY_FLAG) && i + 1 < args.length) {
+                keyType = IndexKey.forName(args[++i]);
+                if (keyType < 0) {
+                    System.out.println("Error: Key must be " + constants.KEY_SDT_NAME_ARG + " or "
+                            + constants.KEY_SENSOR_TIME_ARG);
+                    return;
+                }
+            }
+            else if (args[i].equals(constants.INDEX_FLAG) && i + 1 < args.length) {
+                String[] fields = args[++i].split(",");
+                secondaryTypes = new int[fields.length];
+                for (int j = 0; j < fields.length; j++) {
+                    secondaryTypes[j] = IndexKey.forField(fields[j]);
+                    if (secondaryTypes[j] < 0) {
+                        System.out.println("Error: Secondary indexes can be built on " + constants.INDEX_SENSOR_ID_ARG
+                                + ", " + constants.INDEX_DATE_ARG + " and " + constants.INDEX_COUNTS_ARG);
+                        return;
+                    }
+                }
+            }
+            else {
+                System.out.println("Error: Unknown option " + args[i]);
+                return;
+            }
+        }
+
         
         int pageSize = Integer.parseInt(args[constants.DBQUERY_PAGE_SIZE_ARG]);
         
-        String outputFileName = "tree." + pageSize;
+        String outputFileName = IndexKey.fileName(pageSize, keyType);
         String datafile = "heap." + pageSize;
         long startTime = 0;
         long finishTime = 0;
         
+        if (append) {
+            if (bulkLoad || keyType != constants.INDEX_KEY_SDT_NAME || secondaryTypes.length > 0 || filterOption) {
+                System.out.println("Error: " + constants.APPEND_FLAG + " adds to the existing index files and takes no "
+                        + constants.BULK_LOAD_FLAG + ", " + constants.KEY_FLAG + ", " + constants.INDEX_FLAG + " or "
+                        + constants.FILTER_RATE_FLAG + " option");
+                return;
+            }
+            BufferPool pool = new BufferPool(poolPages, pageSize);
+            HeapFile heap = null;
+            try {
+                heap = new HeapFile(datafile, pageSize);
+                startTime = System.nanoTime();
+                long inserted = appendRecords(heap, pageSize, pool);
+                finishTime = System.nanoTime();
+                System.out.println("The number of records appended: " + inserted);
+            }
+            catch (FileNotFoundException e) {
+                System.err.println("File not found " + e.getMessage());
+            }
+            catch (IOException e) {
+                System.out.println("Error: " + e.getMessage());
+            }
+            finally {
+                if (heap != null) {
+                    heap.close();
+                }
+            }
+            System.out.println(pool.statistics());
+            System.out.println("Time taken: " + (finishTime - startTime)/constants.MILLISECONDS_PER_SECOND + " ms");
+            return;
+        }
+
         
-        int keyLength = 24;
-        long offset = constants.TOTAL_SIZE - 24;// to calculate the offset of the records in the text input file
-		MaxBlockSize = (1024 - keyLength) / keyLength + 8 ; // assuming each block of 1024 bytes and offset of long data type, hence 8 bytes
-		splitIndex = (MaxBlockSize%2==0)?(MaxBlockSize/2)-1 : MaxBlockSize/2;
-        
-        int numRecordsLoaded = 0;
-        int numberOfPagesUsed = 0;
-        int numBytesInOneRecord = constants.TOTAL_SIZE;
-        int numBytesInSdtnameField = constants.STD_NAME_SIZE;
-        int numBytesIntField = Integer.BYTES;
-        int numRecordsPerPage = pageSize/numBytesInOneRecord;
-        SimpleDateFormat dateFormat = new SimpleDateFormat("MM/dd/yyyy hh:mm:ss a");
-        byte[] page = new byte[pageSize];
-        FileInputStream inStream = null;
+        int keyLength = IndexKey.length(keyType);
+        BulkLoader loader = bulkLoad ? new BulkLoader(keyType, fillFactor) : null;
+        // secondary indexes are always bulk loaded, from the same heap scan as the primary index
+        BulkLoader[] secondaries = new BulkLoader[secondaryTypes.length];
+        byte[][] secondaryKeys = new byte[secondaryTypes.length][];
+        for (int j = 0; j < secondaryTypes.length; j++) {
+            secondaries[j] = new BulkLoader(secondaryTypes[j], fillFactor);
+            secondaryKeys[j] = new byte[IndexKey.length(secondaryTypes[j])];
+        }
         
-        BufferedReader reader = null;
-        FileOutputStream outputStream = null;
-        ByteArrayOutputStream byteOutputStream = null;
-        DataOutputStream dataOutput = null;
+        HeapFile heap = null;
+        // index pages are written back through the buffer pool
+        BufferPool pool = new BufferPool(poolPages, pageSize);
 
         try {
-        	reader = new BufferedReader(new FileReader(datafile));
-            outputStream = new FileOutputStream(outputFileName, true);
-            byteOutputStream = new ByteArrayOutputStream();
-            dataOutput = new DataOutputStream(byteOutputStream);
-            
-            inStream = new FileInputStream(datafile);
-            int numBytesRead = 0;
+            initTree(pageSize, keyLength);
+            // map the heap file; records are read in place, only the key fields are extracted
+            heap = new HeapFile(datafile, pageSize);
+            long heapEnd = heap.end(); // recorded in the index files, where a later -append continues
             startTime = System.nanoTime();
-            // Create byte arrays for each field
-            byte[] sdtnameBytes = new byte[numBytesInSdtnameField];
-            byte[] idBytes = new byte[constants.ID_SIZE];
-            byte[] dateBytes = new byte[constants.DATE_SIZE];
-            byte[] yearBytes = new byte[constants.YEAR_SIZE];
-            byte[] monthBytes = new byte[constants.MONTH_SIZE];
-            byte[] mdateBytes = new byte[constants.MDATE_SIZE];
-            byte[] dayBytes = new byte[constants.DAY_SIZE];
-            byte[] timeBytes = new byte[constants.TIME_SIZE];
-            byte[] sensorIdBytes = new byte[constants.SENSORID_SIZE];
-            byte[] sensorNameBytes = new byte[constants.SENSORNAME_SIZE];
-            byte[] countsBytes = new byte[constants.COUNTS_SIZE];
+            byte[] keyBytes = new byte[keyLength];
+            // the filter is sized for full heap pages, a few keys more than the heap holds
+            KeyFilter filter = KeyFilter.create(keyType, heap.getPageCount() * heap.getRecordsPerPage(), filterRate);
 
-            // until the end of the binary file is reached
-            while ((numBytesRead = inStream.read(page)) != -1) {
-                // Process each record in page
-                for (int i = 0; i < numRecordsPerPage; i++) {
-
-                    // Copy record's SdtName (field is located at multiples of the total record byte length)
-                    System.arraycopy(page, (i*numBytesInOneRecord), sdtnameBytes, 0, numBytesInSdtnameField);
-
-                    // Check if field is empty; if so, end of all records found (packed organisation)
-                    if (sdtnameBytes[0] == 0) {
-                        // can stop checking records
-                        break;
+            for (long pageNumber = 0; pageNumber < heap.getPageCount(); pageNumber++) {
+                ByteBuffer page = heap.page(pageNumber);
+                // Process each record in page, up to the first empty slot (packed organisation)
+                int numRecordsInPage = heap.recordCount(page);
+                for (int i = 0; i < numRecordsInPage; i++) {
+                    int recordPosition = HeapFile.recordPosition(i);
+                    long offset = heap.recordOffset(pageNumber, i); //byte offset of the record in the heap file
+                    IndexKey.fromRecord(keyType, page, recordPosition, offset, keyBytes);
+                    filter.add(keyBytes);
+                    if (bulkLoad) {
+                        loader.add(keyBytes, 0, offset); // collect the pair, the tree is built once all are read
                     }
+                    else {
+                        // one char per key byte, so String order is unsigned byte order
+                        String key = new String(keyBytes, StandardCharsets.ISO_8859_1);
+                        insertRecord(root,key, offset); // insert each new key offset pair of the record read from input file to the index file
+                    }
+                    for (int j = 0; j < secondaries.length; j++) {
+                        IndexKey.fromRecord(secondaryTypes[j], page, recordPosition, offset, secondaryKeys[j]);
+                        secondaries[j].add(secondaryKeys[j], 0, offset);
+                    }
+                }
+            }
 
-                    
-                  
-                    
-                    
-                        /*
-                         * Fixed Length Records (total size = 112 bytes):
-                         * SDT_NAME field = 24 bytes, offset = 0
-                         * id field = 4 bytes, offset = 24
-                         * date field = 8 bytes, offset = 28
-                         * year field = 4 bytes, offset = 36
-                         * month field = 9 bytes, offset = 40
-                         * mdate field = 4 bytes, offset = 49
-                         * day field = 9 bytes, offset = 53
-                         * time field = 4 bytes, offset = 62
-                         * sensorid field = 4 bytes, offset = 66
-                         * sensorname field = 38 bytes, offset = 70
-                         * counts field = 4 bytes, offset = 108
-                         *
-                         * Copy the corresponding sections of "page" to the individual field byte arrays
-                         */
-                    	System.arraycopy(page, i*numBytesInOneRecord, sdtnameBytes, 0, constants.STD_NAME_SIZE);
-                        System.arraycopy(page, ((i*numBytesInOneRecord) + constants.ID_OFFSET), idBytes, 0, numBytesIntField);
-                        System.arraycopy(page, ((i*numBytesInOneRecord) + constants.DATE_OFFSET), dateBytes, 0, constants.DATE_SIZE);
-                        System.arraycopy(page, ((i*numBytesInOneRecord) + constants.YEAR_OFFSET), yearBytes, 0, numBytesIntField);
-                        System.arraycopy(page, ((i*numBytesInOneRecord) + constants.MONTH_OFFSET), monthBytes, 0, constants.MONTH_SIZE);
-                        System.arraycopy(page, ((i*numBytesInOneRecord) + constants.MDATE_OFFSET), mdateBytes, 0, numBytesIntField);
-                        System.arraycopy(page, ((i*numBytesInOneRecord) + constants.DAY_OFFSET), dayBytes, 0, constants.DAY_SIZE);
-                        System.arraycopy(page, ((i*numBytesInOneRecord) + constants.TIME_OFFSET), timeBytes, 0, numBytesIntField);
-                        System.arraycopy(page, ((i*numBytesInOneRecord) + constants.SENSORID_OFFSET), sensorIdBytes, 0, numBytesIntField);
-                        System.arraycopy(page, ((i*numBytesInOneRecord) + constants.SENSORNAME_OFFSET), sensorNameBytes, 0, constants.SENSORNAME_SIZE);
-                        System.arraycopy(page, ((i*numBytesInOneRecord) + constants.COUNTS_OFFSET), countsBytes, 0, numBytesIntField);
-                        
-                        
-            			
-                        String key = new String(sdtnameBytes); //extract key upto the specified keyLength from each line to insert in the index file
-            			insertRecord(root,key, constants.TOTAL_SIZE - 24); // insert each new key offset pair of the record read from input file to the index file
-            			//offset += line.length() + 2; //add 2 to each offset after adding line.length() for "\n" i.e. newline charaters
-            			offset += constants.COUNTS_OFFSET + 4;
-                        // Write bytes to data output stream
-                        dataOutput.write(sdtnameBytes);
-                        dataOutput.write(idBytes);
-                        dataOutput.write(dateBytes);
-                        dataOutput.write(yearBytes);
-                        dataOutput.write(monthBytes);
-                        dataOutput.write(mdateBytes);
-                        dataOutput.write(dayBytes);
-                        dataOutput.write(timeBytes);
-                        dataOutput.write(sensorIdBytes);
-                        dataOutput.write(sensorNameBytes);
-                        dataOutput.write(countsBytes);
-
-                        
-
-                        
-                    
+            if (bulkLoad) {
+                loader.build(datafile, outputFileName, pageSize, pool, heapEnd);
+                if (loader.getDuplicates() > 0) {
+                    System.out.println("Records sharing a key with an earlier record: " + loader.getDuplicates());
                 }
-                
-                
-             
             }
-            writefile( datafile, outputFileName);
+            else {
+                writefile( datafile, outputFileName, pageSize, keyType, pool, heapEnd);
+            }
+            for (int j = 0; j < secondaries.length; j++) {
+                secondaries[j].build(datafile, IndexKey.fileName(pageSize, secondaryTypes[j]), pageSize, pool, heapEnd);
+            }
+            filter.write(outputFileName + constants.FILTER_FILE_SUFFIX, heapEnd);
+            System.out.println(filter.statistics());
 
             finishTime = System.nanoTime();
         }
@@ -490,11 +534,12 @@ public class treeload {
         }
         finally {
 
-            if (inStream != null) {
-                inStream.close();
+            if (heap != null) {
+                heap.close();
             }
         }
 
+        System.out.println(pool.statistics());
         long timeInMilliseconds = (finishTime - startTime)/constants.MILLISECONDS_PER_SECOND;
         System.out.println("Time taken: " + timeInMilliseconds + " ms");
 	}
@@ -1,40 +1,28 @@
 package dbsas2;
 
-import java.io.FileInputStream;
+import java.io.BufferedReader;
 import java.io.FileNotFoundException;
+import java.io.FileReader;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.RandomAccessFile;
-import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
 
 public class treequery {
 	
 	/**
-	 * Get Metadata like text file name and key length used from the index file
+	 * Get Metadata like text file name and key length used from the superblock of the index file
 	 *
 	 * @param indexFile : path where the index file is generated
 	 * @return the string array having the textfilename and keylength fetched from the index file
 	 * */
 	public static String[] getMetaData(String indexFile) throws IOException{
 
-		RandomAccessFile randomIndexFile = new RandomAccessFile(indexFile, "r");
-		//fetch the name of the input text file from the metadata we added in the index file
-		randomIndexFile.seek(0);
-		byte[] b = new byte[256];
-		randomIndexFile.read(b);
-		String textFileName = (new String(b)).trim();
-		//fetch the key length from the metadata we added in the index file 
-		randomIndexFile.seek(256);
-		byte[] keyLengthBuffer = new byte[4];
-		randomIndexFile.read(keyLengthBuffer);
-		String keyLength = new String(keyLengthBuffer);
-		keyLength = keyLength.trim();
-		randomIndexFile.close();
-		
-		String[] metData = {textFileName,keyLength};
+		IndexReader index = new IndexReader(indexFile);
+		String[] metData = {index.getHeapFileName(), String.valueOf(index.getKeyLength())};
+		index.close();
 		return metData;
 	}
 	
@@ -42,129 +30,241 @@ public class treequery {
 	 * To find if the record exists in the file and list the subsequent records,
 	 * if operation chosen is list and number of records to list is specified
 	 *
-	 * @param indexFile : path where the index file is generated
+	 * @param index : opened index file to search
+	 * @param records : opened heap file the index points into
 	 * @param key : key of the record to be searched in the index file
-	 * @param numOfRecords : Number of subsequent records to be listed
-	 * @param block : root block object of BPlusTree type to start the search
 	 * @param insertFind : flag to find the record but not print the result in console
 	 * @return : 0 if record not found and 1 if record found
 	 * */
-	public static int listRecords(String indexFile, String key, BPlusTree block, boolean insertFind) throws IOException, ClassNotFoundException{
-		
-		String[] metaData = getMetaData(indexFile);
-		
-		String textFileName = metaData[0];
-		int keyLength = Integer.parseInt(metaData[1]);
-		int currentKeyLength = key.length();
+	public static int listRecords(IndexReader index, RecordReader records, String key, boolean insertFind) throws IOException{
+		return listRecords(index, records, key, insertFind, System.out);
+	}
+	
+	/**
+	 * To find if the record exists in the file and list the subsequent records to a stream
+	 *
+	 * @param index : opened index file to search
+	 * @param records : opened heap file the index points into
+	 * @param key : key of the record to be searched in the index file
+	 * @param insertFind : flag to find the record but not print the result
+	 * @param out : stream to print the records to
+	 * @return : 0 if record not found and 1 if record found
+	 * */
+	public static int listRecords(IndexReader index, RecordReader records, String key, boolean insertFind,
+			final PrintStream out) throws IOException{
 		
 		//	if specified keyLength is small, then pad with blank to match the keylength used in the index file,
 		//	if specified keyLength is large, then trim to match the keylength used in the index file
-		if(currentKeyLength<keyLength){
-			for(int i = 0;i<keyLength-currentKeyLength;i++){
-				key+=" ";
-			}
-		}
-		else{
-			key = key.substring(0, keyLength);
-		}
+		final byte[] searchKey = index.keyBytes(key);
 		
-		int recordsListed = 0;//counter to count the number of records listed
+		//the Bloom filter rules out most absent keys, otherwise descend from the root to the leaf
+		//page that would hold the key, reading one page per level
+		if (insertFind) {
+			return (index.search(searchKey) >= 0) ? 1 : 0;
+		}
 		
-		for(int i = 0;i<block.key.size();i++){
-			if(!block.isLeafBlock){
-				if(key.compareTo(block.key.get(i))<0){
-					return listRecords(indexFile, key,  block.blockPtr.get(i),insertFind);
-					 
-				}
-				else{
-					if (i < block.key.size() - 1) {
-						continue;
-					}
-
-					else if (i == block.key.size() - 1) {
-						if (!block.isLeafBlock && block.blockPtr.get(i + 1) != null) {
-							return listRecords(indexFile, key, block.blockPtr.get(i + 1),insertFind);
-						}
+		//list the records from the key onwards by following the right sibling pointers of the leaves,
+		//whether the key exists or not; the scan descends to the leaf once and its first key tells
+		//whether the key exists. The listing does not ask the filter, so the output is the same with or without one
+		final RecordPrinter printer = new RecordPrinter(records, out);
+		final int[] found = {-1};
+		index.scan(searchKey, true, null, false, Long.MAX_VALUE, new IndexEntryVisitor() {
+			public boolean visit(byte[] key, long offset) throws IOException {
+				if (found[0] < 0) {
+					found[0] = Arrays.equals(key, searchKey) ? 1 : 0;
+					if (found[0] == 0) {
+						out.println("Given key doesn't exist.");
 					}
 				}
+				return printer.visit(key, offset);
 			}
-			//We have traversed and reached the leaf block where we can find the key
-			else{
-				
-				if(block.key.indexOf(key)==-1){
-					if(!insertFind){
-						System.out.println("Given key doesn't exist.");
-					}
-					
-					
-				}
-				while(block!=null){
-					for(int j = 0;j<block.key.size();j++){
-						if(key.compareTo(block.key.get(j))>0){
-							if (j < block.key.size() - 1) {
-								continue;
-							}
-							else{
-								block = block.blockPtr.get(j+1);
-							}
-						}
-						else{
-							
-							long offsetVal = block.offsetval.get(j);
-							
-							if(!insertFind){
-								readTextFileRecord(textFileName, offsetVal);
-							}
-							
-							
-							recordsListed++;
-						}
-					}
-					block = block.rightBlockPtr;
-				}
-			}
+		});
+		if (found[0] < 0) {
+			out.println("Given key doesn't exist.");
+			return 0;
 		}
-		return 0;
+		printer.flush();
+		return found[0];
 	}
 	
 	/**
-	 * Helper function to fetch the root block from the generated index file
+	 * List the records with keys between startKey and endKey. The scan stops at the first key
+	 * past endKey or after limit records, so it costs work proportional to the result.
 	 *
-	 * @param indexFile : path where the index file is generated
-	 * @return the root block
+	 * @param index : opened index file to search
+	 * @param records : opened heap file the index points into
+	 * @param startKey : lower bound of the range
+	 * @param startInclusive : whether a key equal to startKey is listed
+	 * @param endKey : upper bound of the range, or null to list to the end of the index
+	 * @param endInclusive : whether a key equal to endKey is listed
+	 * @param limit : maximum number of records to list
+	 * @param out : stream to print the records to
+	 * @return the number of records listed
 	 * */
-	public static BPlusTree getRoot(String indexFile) throws IOException, ClassNotFoundException{
-		
-		FileInputStream fin = new FileInputStream(indexFile);
-		FileChannel fc = fin.getChannel();
-		fc.position(1025l);// root block starts from 1025th byte as first 1024 bytes reserved for storing metadata
-		ObjectInputStream ois = new ObjectInputStream(fin);
-		BPlusTree root = (BPlusTree) ois.readObject();
-		ois.close();
+	public static long scan(IndexReader index, RecordReader records, String startKey, boolean startInclusive,
+			String endKey, boolean endInclusive, long limit, PrintStream out) throws IOException{
 		
-		return root;
+		// an exclusive bound leaves out every key the text covers, e.g. all records with a secondary key value
+		byte[] start = startInclusive ? index.keyBytes(startKey) : index.endKeyBytes(startKey);
+		byte[] end = null;
+		if (endKey != null) {
+			end = endInclusive ? index.endKeyBytes(endKey) : index.keyBytes(endKey);
+		}
+		RecordPrinter printer = new RecordPrinter(records, out);
+		long listed = index.scan(start, startInclusive, end, endInclusive, limit, printer);
+		printer.flush();
+		return listed;
+	}
+	
+	/**
+	 * List the records with keys from startKey to endKey, both inclusive
+	 *
+	 * @param index : opened index file to search
+	 * @param records : opened heap file the index points into
+	 * @param startKey : first key of the range
+	 * @param endKey : last key of the range
+	 * @param limit : maximum number of records to list
+	 * @return the number of records listed
+	 * */
+	public static long scan(IndexReader index, RecordReader records, String startKey, String endKey, long limit)
+			throws IOException{
+		return scan(index, records, startKey, true, endKey, true, limit, System.out);
+	}
+	
+	/**
+	 * List the records whose keys start with the prefix, e.g. every reading of a sensor id
+	 *
+	 * @param index : opened index file to search
+	 * @param records : opened heap file the index points into
+	 * @param prefix : leading characters of the keys to list, or a sensor id for a sensor time index
+	 * @param limit : maximum number of records to list
+	 * @param out : stream to print the records to
+	 * @return the number of records listed
+	 * */
+	public static long scanPrefix(IndexReader index, RecordReader records, String prefix, long limit, PrintStream out)
+			throws IOException{
+		RecordPrinter printer = new RecordPrinter(records, out);
+		long listed = index.scanPrefix(index.prefixBytes(prefix), limit, printer);
+		printer.flush();
+		return listed;
 	}
 	
 	/**
-	 * To read records from the input tree load file using the offset read from the generated index file 
+	 * Look up every key of a file, one key per line. The keys are sorted and resolved in one forward
+	 * walk over the leaves (see IndexReader.searchBatch), then the records are fetched a batch at a
+	 * time grouped by heap page and listed in key order.
 	 *
-	 * @param textFileName : path of the input tree load file
-	 * @param offsetVal : offset of the required record to be read from the input tree load file
+	 * @param index : opened primary index file to search
+	 * @param records : opened heap file the index points into
+	 * @param keyFile : path of the file of keys
+	 * @param out : stream to print the records to
+	 * @return the number of keys found
 	 * */
-	public static void readTextFileRecord(String textFileName, long offsetVal) throws IOException{
+	public static int lookupBatch(IndexReader index, RecordReader records, String keyFile, PrintStream out)
+			throws IOException{
+		
+		List<String> texts = new ArrayList<String>();
+		BufferedReader in = new BufferedReader(new FileReader(keyFile));
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (!line.trim().isEmpty()) {
+					texts.add(line);
+				}
+			}
+		}
+		finally {
+			in.close();
+		}
+		long startTime = System.nanoTime();
+		
+		// sort the keys, keeping each with its text for the listing
+		int count = texts.size();
+		final byte[][] parsed = new byte[count][];
+		Integer[] order = new Integer[count];
+		for (int i = 0; i < count; i++) {
+			parsed[i] = index.keyBytes(texts.get(i));
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return IndexNode.compare(parsed[a], parsed[a].length, parsed[b], parsed[b].length);
+			}
+		});
+		byte[][] keys = new byte[count][];
+		for (int i = 0; i < count; i++) {
+			keys[i] = parsed[order[i]];
+		}
+		long[] offsets = new long[count];
+		long descents = index.getDescents();
+		long siblingReads = index.getSiblingReads();
+		int found = index.searchBatch(keys, count, offsets);
 		
-		RandomAccessFile textFile = new RandomAccessFile(textFileName, "r");
-		textFile.seek(offsetVal);
-		String line = textFile.readLine();
+		// fetch the records of the keys found, a batch at a time so every heap page is read once per batch
+		long[] batch = new long[constants.FETCH_BATCH_SIZE];
+		for (int from = 0; from < count; from += constants.FETCH_BATCH_SIZE) {
+			int to = Math.min(count, from + constants.FETCH_BATCH_SIZE);
+			int n = 0;
+			for (int i = from; i < to; i++) {
+				if (offsets[i] >= 0) {
+					batch[n++] = offsets[i];
+				}
+			}
+			HeapRecord[] fetched = records.fetchAll(batch, n);
+			n = 0;
+			for (int i = from; i < to; i++) {
+				if (offsets[i] >= 0) {
+					out.println("At "+offsets[i]+", record: "+fetched[n++]);
+				}
+				else {
+					out.println("Given key doesn't exist: "+texts.get(order[i]));
+				}
+			}
+		}
+		long elapsed = System.nanoTime() - startTime;
 		
-		System.out.println("At "+offsetVal+", record: "+line);
-		textFile.close();
+		out.println("The number of keys looked up: " + count + ", found: " + found);
+		out.println("Index descents: " + (index.getDescents() - descents) + ", leaves reached through siblings: "
+				+ (index.getSiblingReads() - siblingReads));
+		out.println("Keys per second: " + (elapsed == 0 ? 0 : (long) (count * 1e9 / elapsed)));
+		return found;
+	}
+	
+	/*RecordPrinter collects the record offsets produced by a scan and prints the records a batch at a time,
+	 *  so the heap pages holding a batch are each read once*/
+	static class RecordPrinter implements IndexEntryVisitor {
+		private final RecordReader records;
+		private final PrintStream out;
+		private final long[] offsets = new long[constants.FETCH_BATCH_SIZE];
+		private int count;
+		
+		RecordPrinter(RecordReader records, PrintStream out) {
+			this.records = records;
+			this.out = out;
+		}
+		
+		public boolean visit(byte[] key, long offset) throws IOException {
+			offsets[count++] = offset;
+			if (count == offsets.length) {
+				flush();
+			}
+			return true;
+		}
+		
+		// Print the records collected so far, in the order they were visited
+		public void flush() throws IOException {
+			HeapRecord[] fetched = records.fetchAll(offsets, count);
+			for (int i = 0; i < count; i++) {
+				out.println("At "+offsets[i]+", record: "+fetched[i]);
+			}
+			count = 0;
+		}
 	}
 
-	public static void main(String[] args) throws IOException, ClassNotFoundException {
+	public static void main(String[] args) throws IOException {
 		// TODO Auto-generated method stub
 		// check for correct number of arguments
-        if (args.length != constants.DBQUERY_ARG_COUNT) {
+        if (args.length < constants.DBQUERY_ARG_COUNT) {
             System.out.println("Error: Incorrect number of arguments were input");
             return;
         }
@@ -172,20 +272,37 @@ public class treequery {
         String text = args[0];
         int pageSize = Integer.parseInt(args[constants.DBQUERY_PAGE_SIZE_ARG]);
 
-        String datafile = "tree." + pageSize;
+        // the key is SDT_NAME text, or "sensorid [MM/dd/yyyy hh:mm:ss a]" for an index built with -key sensortime,
+        // or a field value for a secondary index selected with -index sensorid|date|counts
+        // optional range scan: treequery key pagesize [-after] [-to endkey | -before endkey] [-prefix] [-limit n] [-pool pages]
+        //                      [-index field]
+        // batch lookup of the keys of a file, one per line: treequery keyfile pagesize -batch [-pool pages]
+        QueryRequest request;
+        try {
+            request = QueryRequest.parse(text, args, constants.TREEQUERY_OPTIONS_ARG, true, true);
+        }
+        catch (IllegalArgumentException e) {
+            System.out.println("Error: " + e.getMessage());
+            return;
+        }
+        int secondaryType = request.getSecondaryType();
+
+        String datafile = (secondaryType < 0) ? "tree." + pageSize : IndexKey.fileName(pageSize, secondaryType);
         long startTime = 0;
         long finishTime = 0;
         
-        FileInputStream inStream = null;
+        IndexReader index = null;
+        RecordReader records = null;
+        // heap and index pages are both read through one buffer pool
+        BufferPool pool = new BufferPool(request.getPoolPages(), pageSize);
         
         try {
-            inStream = new FileInputStream(datafile);
-            
             startTime = System.nanoTime();
-            // list all records which has the key in index file
-            listRecords(datafile, text,getRoot(datafile),false);
-
-            
+            // only the superblock is read here, the lookup reads the pages on the root-to-leaf path
+            index = new IndexReader(datafile, pool);
+            // the heap file is opened once and read a page at a time for all the records listed
+            records = new RecordReader(index.getHeapFileName(), pageSize, pool);
+            request.execute(index, records, System.out);
 
             finishTime = System.nanoTime();
         }
@@ -195,13 +312,23 @@ public class treequery {
         catch (IOException e) {
             System.err.println("IO Exception " + e.getMessage());
         }
+        catch (IllegalArgumentException e) {
+            System.err.println("Invalid key: " + e.getMessage());
+        }
         finally {
 
-            if (inStream != null) {
-                inStream.close();
+            if (index != null) {
+                index.close();
+            }
+            if (records != null) {
+                records.close();
             }
         }
 
+        System.out.println(pool.statistics());
+        if (index != null && index.getFilter() != null) {
+            System.out.println(index.getFilter().statistics() + ", lookups ruled out " + index.getFiltered());
+        }
         long timeInMilliseconds = (finishTime - startTime)/constants.MILLISECONDS_PER_SECOND;
         System.out.println("Time taken: " + timeInMilliseconds + " ms");
 	}
@@ -0,0 +1,86 @@
+package dbsas2;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+public class treeserver {
+
+	/*
+	 * Serves treequery queries over a local TCP port, keeping the index files open between queries:
+	 * treeserver -p pagesize [-port n] [-t threads] [-pool pages]
+	 *
+	 * Opens tree.pagesize and the secondary indexes tree.pagesize.field built next to it. Clients
+	 * send one query per line, treequery's arguments without the page size, and read the records
+	 * listed up to an empty line, e.g. with
+	 *   printf '17 -index sensorid -limit 3\nquit\n' | nc localhost 7400
+	 */
+	public static void main(String[] args) throws IOException {
+
+		// check for correct number of arguments
+		if (args.length < constants.DBQUERY_ARG_COUNT) {
+			System.out.println("Error: Incorrect number of arguments were input");
+			return;
+		}
+
+		int pageSize = Integer.parseInt(args[constants.DBQUERY_PAGE_SIZE_ARG]);
+		int port = constants.DEFAULT_SERVER_PORT;
+		int threads = Runtime.getRuntime().availableProcessors();
+		int poolPages = constants.DEFAULT_BUFFER_POOL_PAGES;
+		for (int i = constants.SERVER_OPTIONS_ARG; i < args.length; i++) {
+			if (args[i].equals(constants.PORT_FLAG) && i + 1 < args.length) {
+				port = Integer.parseInt(args[++i]);
+			}
+			else if (args[i].equals(constants.THREADS_FLAG) && i + 1 < args.length) {
+				threads = Integer.parseInt(args[++i]);
+			}
+			else if (args[i].equals(constants.BUFFER_POOL_FLAG) && i + 1 < args.length) {
+				poolPages = Integer.parseInt(args[++i]);
+			}
+			else {
+				System.out.println("Error: Unknown option " + args[i]);
+				return;
+			}
+		}
+
+		final QueryServer server;
+		try {
+			server = new QueryServer(pageSize, poolPages, threads);
+		}
+		catch (FileNotFoundException e) {
+			System.err.println("File not found " + e.getMessage());
+			return;
+		}
+		catch (IllegalArgumentException e) {
+			System.out.println("Error: " + e.getMessage());
+			return;
+		}
+		int listening = server.listen(port);
+		System.out.println("Serving tree." + pageSize + " on localhost:" + listening + " with " + threads
+				+ " threads, secondary indexes " + secondaryNames(server, pageSize));
+		if (server.getFilter() != null) {
+			System.out.println(server.getFilter().statistics());
+		}
+
+		// stop cleanly on Ctrl-C: finish the queries under way and print the buffer pool statistics
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			public void run() {
+				try {
+					server.close();
+				}
+				catch (IOException e) {
+					System.err.println("IO Exception " + e.getMessage());
+				}
+				System.out.println(server.getPool().statistics());
+			}
+		});
+		server.serve();
+	}
+
+	private static String secondaryNames(QueryServer server, int pageSize) {
+		StringBuilder names = new StringBuilder();
+		for (int type : server.getSecondaryTypes()) {
+			names.append(names.length() == 0 ? "" : ", ").append(IndexKey.fileName(pageSize, type));
+		}
+		return (names.length() == 0) ? "none" : names.toString();
+	}
+}
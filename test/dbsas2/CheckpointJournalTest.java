@@ -0,0 +1,149 @@
+package dbsas2;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class CheckpointJournalTest {
+
+	private static final int PAGE_SIZE = 512;
+	private static final int PAGES = 4;
+
+	@TempDir
+	Path dir;
+
+	private String journalFile;
+	private String[] indexFiles;
+
+	@BeforeEach
+	void writeIndexFiles() throws Exception {
+		journalFile = dir.resolve("checkpoint").toString();
+		indexFiles = new String[] {dir.resolve("tree").toString(), dir.resolve("tree.counts").toString()};
+		for (int file = 0; file < indexFiles.length; file++) {
+			byte[] bytes = new byte[PAGES * PAGE_SIZE];
+			for (int page = 0; page < PAGES; page++) {
+				Arrays.fill(bytes, page * PAGE_SIZE, (page + 1) * PAGE_SIZE, (byte) fill(file, page, false));
+			}
+			Files.write(dir.resolve(indexFiles[file]), bytes);
+		}
+	}
+
+	@Test
+	void restoreFinishesInterruptedCheckpoint() throws Exception {
+		CheckpointJournal.write(journalFile, PAGE_SIZE, changes());
+		// the crash came after the first page was written in place
+		writeInPlace(0, 1);
+
+		assertEquals(3, CheckpointJournal.restore(journalFile, PAGE_SIZE, indexFiles));
+		assertFalse(Files.exists(dir.resolve(journalFile)));
+		assertPages(0, new boolean[] {false, true, false, false, false, true});
+		assertPages(1, new boolean[] {false, false, true, false});
+	}
+
+	@Test
+	void restoreIgnoresTornJournal() throws Exception {
+		CheckpointJournal.write(journalFile, PAGE_SIZE, changes());
+		// the crash came while the journal was written, before any page was written in place
+		RandomAccessFile journal = new RandomAccessFile(journalFile, "rw");
+		try {
+			journal.setLength(journal.length() - PAGE_SIZE / 2);
+		}
+		finally {
+			journal.close();
+		}
+
+		assertEquals(0, CheckpointJournal.restore(journalFile, PAGE_SIZE, indexFiles));
+		assertFalse(Files.exists(dir.resolve(journalFile)));
+		assertPages(0, new boolean[PAGES]);
+		assertPages(1, new boolean[PAGES]);
+	}
+
+	@Test
+	void restoreIgnoresCorruptJournal() throws Exception {
+		CheckpointJournal.write(journalFile, PAGE_SIZE, changes());
+		RandomAccessFile journal = new RandomAccessFile(journalFile, "rw");
+		try {
+			long at = constants.JOURNAL_HEADER_SIZE + constants.JOURNAL_PAGE_HEADER_SIZE + 100;
+			journal.seek(at);
+			int b = journal.read();
+			journal.seek(at);
+			journal.write(b ^ 0x01);
+		}
+		finally {
+			journal.close();
+		}
+
+		assertEquals(0, CheckpointJournal.restore(journalFile, PAGE_SIZE, indexFiles));
+		assertPages(0, new boolean[PAGES]);
+		assertPages(1, new boolean[PAGES]);
+	}
+
+	@Test
+	void restoreWithoutJournalDoesNothing() throws Exception {
+		assertEquals(0, CheckpointJournal.restore(journalFile, PAGE_SIZE, indexFiles));
+		assertPages(0, new boolean[PAGES]);
+	}
+
+	// Byte a page is filled with, before or after the checkpoint
+	private static int fill(int file, int page, boolean changed) {
+		return (changed ? 0x80 : 0) | (file << 4) | page;
+	}
+
+	private static ByteBuffer image(int file, int page) {
+		byte[] bytes = new byte[PAGE_SIZE];
+		Arrays.fill(bytes, (byte) fill(file, page, true));
+		return ByteBuffer.wrap(bytes);
+	}
+
+	// A checkpoint changing page 1 and adding page 5 of the first file and changing page 2 of the second
+	private static List<SortedMap<Integer, ByteBuffer>> changes() {
+		List<SortedMap<Integer, ByteBuffer>> pages = new ArrayList<SortedMap<Integer, ByteBuffer>>();
+		SortedMap<Integer, ByteBuffer> tree = new TreeMap<Integer, ByteBuffer>();
+		tree.put(1, image(0, 1));
+		tree.put(5, image(0, 5));
+		pages.add(tree);
+		SortedMap<Integer, ByteBuffer> counts = new TreeMap<Integer, ByteBuffer>();
+		counts.put(2, image(1, 2));
+		pages.add(counts);
+		return pages;
+	}
+
+	private void writeInPlace(int file, int page) throws Exception {
+		RandomAccessFile index = new RandomAccessFile(indexFiles[file], "rw");
+		try {
+			index.seek((long) page * PAGE_SIZE);
+			index.write(image(file, page).array());
+		}
+		finally {
+			index.close();
+		}
+	}
+
+	// Check every page of a file holds its old or its new content; pages past the old end may be new only
+	private void assertPages(int file, boolean[] changed) throws Exception {
+		byte[] bytes = Files.readAllBytes(dir.resolve(indexFiles[file]));
+		assertEquals(Math.max(changed.length, PAGES) * PAGE_SIZE, bytes.length);
+		for (int page = 0; page < changed.length; page++) {
+			if (page >= PAGES && !changed[page]) {
+				continue; // a hole the file grew over
+			}
+			byte[] expected = new byte[PAGE_SIZE];
+			Arrays.fill(expected, (byte) fill(file, page, changed[page]));
+			assertArrayEquals(expected, Arrays.copyOfRange(bytes, page * PAGE_SIZE, (page + 1) * PAGE_SIZE), "page " + page);
+		}
+	}
+}
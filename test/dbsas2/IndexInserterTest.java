@@ -0,0 +1,140 @@
+package dbsas2;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class IndexInserterTest {
+
+	private static final int PAGE_SIZE = 512; //small pages, so the inserts split nodes on every level
+	private static final int THREADS = 8;
+	private static final int PER_THREAD = 4000;
+	private static final int RECORDS = THREADS * PER_THREAD;
+	private static final int SHARED_KEYS = 20; //keys every tenth record goes under, in posting lists across leaves
+	private static final int KEY_LENGTH = IndexKey.length(constants.INDEX_KEY_SDT_NAME);
+
+	@TempDir
+	Path dir;
+
+	@Test
+	void concurrentInsertsAndLookups() throws Exception {
+		String indexFile = dir.resolve("tree").toString();
+		new BulkLoader(constants.INDEX_KEY_SDT_NAME, 1.0).build("heap", indexFile, PAGE_SIZE, null, 0);
+		BufferPool pool = new BufferPool(64, PAGE_SIZE);
+		final IndexInserter inserter = new IndexInserter(indexFile, pool);
+		final AtomicIntegerArray inserted = new AtomicIntegerArray(RECORDS);
+
+		ExecutorService workers = Executors.newFixedThreadPool(THREADS);
+		try {
+			List<Future<Void>> results = new ArrayList<Future<Void>>();
+			for (int t = 0; t < THREADS; t++) {
+				final int thread = t;
+				results.add(workers.submit(new Callable<Void>() {
+					public Void call() throws IOException {
+						Random random = new Random(thread);
+						for (int i = 0; i < PER_THREAD; i++) {
+							int n = i * THREADS + thread;
+							assertTrue(inserter.insert(key(n), n), "insert " + n);
+							assertFound(inserter, n);
+							inserted.set(n, 1);
+							// any record another thread has inserted is found while the tree splits around it
+							int other = random.nextInt(n + 1);
+							if (inserted.get(other) == 1) {
+								assertFound(inserter, other);
+							}
+						}
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> result : results) {
+				try {
+					result.get();
+				}
+				catch (ExecutionException e) {
+					if (e.getCause() instanceof Error) {
+						throw (Error) e.getCause();
+					}
+					throw e;
+				}
+			}
+		}
+		finally {
+			workers.shutdownNow();
+		}
+		assertEquals(RECORDS, inserter.getRecordCount());
+		assertTrue(inserter.getSplits() > 100);
+		inserter.close();
+		pool.close();
+
+		// a scan returns every record once, in key order
+		final boolean[] seen = new boolean[RECORDS];
+		final byte[] previous = new byte[KEY_LENGTH];
+		IndexReader reader = new IndexReader(indexFile);
+		try {
+			assertEquals(RECORDS, reader.getRecordCount());
+			assertTrue(reader.getHeight() >= 3);
+			long visited = reader.scan(null, true, null, true, Long.MAX_VALUE, new IndexEntryVisitor() {
+				public boolean visit(byte[] key, long offset) {
+					assertTrue(IndexNode.compare(previous, KEY_LENGTH, key, KEY_LENGTH) <= 0, "keys out of order");
+					System.arraycopy(key, 0, previous, 0, KEY_LENGTH);
+					int n = (int) offset;
+					assertFalse(seen[n], "record " + n + " visited twice");
+					seen[n] = true;
+					assertArrayEquals(key(n), key);
+					return true;
+				}
+			});
+			assertEquals(RECORDS, visited);
+			for (int n = 0; n < RECORDS; n++) {
+				if (n % 10 != 0) {
+					assertEquals(n, reader.search(key(n)));
+				}
+			}
+		}
+		finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Key of record number n, whose record offset is n: one of the shared keys for every tenth record,
+	 * otherwise a key of its own, spread over the key space so the threads insert all over the tree
+	 * */
+	private static byte[] key(int n) {
+		String text = (n % 10 == 0) ? String.format("S%02d", n / 10 % SHARED_KEYS)
+				: String.format("K%08d", (int) ((long) n * 7919 % RECORDS));
+		byte[] key = new byte[KEY_LENGTH];
+		byte[] bytes = text.getBytes(StandardCharsets.US_ASCII);
+		System.arraycopy(bytes, 0, key, 0, bytes.length);
+		return key;
+	}
+
+	private static void assertFound(IndexInserter inserter, int n) throws IOException {
+		long offset = inserter.search(key(n));
+		if (n % 10 == 0) {
+			// a lookup of a shared key finds one of its records
+			assertTrue(offset >= 0 && offset % 10 == 0, "shared key of " + n);
+		}
+		else {
+			assertEquals(n, offset, "key of " + n);
+		}
+	}
+}
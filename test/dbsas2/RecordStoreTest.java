@@ -0,0 +1,297 @@
+package dbsas2;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/*RecordStore keeps its files in the working directory, which the build points at target/*/
+class RecordStoreTest {
+
+	private static final int PAGE_SIZE = 1024;
+	private static final int RECORDS_PER_PAGE = PAGE_SIZE / constants.TOTAL_SIZE;
+	private static final int POOL_PAGES = 4096;
+	private static final int LOADED = 1000;
+
+	@BeforeEach
+	void load() throws Exception {
+		TestData.deleteFiles(PAGE_SIZE);
+		TestData.load(PAGE_SIZE, LOADED);
+	}
+
+	@AfterEach
+	void deleteFiles() {
+		TestData.deleteFiles(PAGE_SIZE);
+	}
+
+	@Test
+	void insertsAreFoundAfterClose() throws Exception {
+		RecordStore store = new RecordStore(PAGE_SIZE, POOL_PAGES);
+		for (int n = LOADED; n < LOADED + 300; n++) {
+			assertEquals(offset(n), store.insert(TestData.record(n), 0));
+		}
+		store.close();
+		assertFalse(new File(constants.WAL_FILE_PREFIX + PAGE_SIZE).exists());
+		assertConsistent(LOADED + 300);
+	}
+
+	@Test
+	void recoveryInsertsLoggedRecordsAgain() throws Exception {
+		// a checkpoint after the first record of the last page leaves the rest of that page to the log
+		int last = LOADED + 400;
+		int checkpointed = last - 1 - (last - 1) % RECORDS_PER_PAGE;
+		RecordStore store = new RecordStore(PAGE_SIZE, POOL_PAGES);
+		for (int n = LOADED; n < last; n++) {
+			store.insert(TestData.record(n), 0);
+			if (n == checkpointed) {
+				store.checkpoint();
+			}
+		}
+		// the checkpoints taken on opening and above: the pages changed since are all still in the pool
+		assertEquals(2, store.getCheckpoints());
+
+		// the crash: the store is dropped without closing, after tearing an entry it was writing to
+		// the log and writing a record to the heap whose log entry never reached the disk
+		RandomAccessFile log = new RandomAccessFile(constants.WAL_FILE_PREFIX + PAGE_SIZE, "rw");
+		try {
+			log.seek(log.length());
+			log.write(new byte[constants.WAL_ENTRY_SIZE / 2]);
+		}
+		finally {
+			log.close();
+		}
+		RandomAccessFile heap = new RandomAccessFile("heap." + PAGE_SIZE, "rw");
+		try {
+			heap.seek(offset(last));
+			heap.write(TestData.record(last));
+		}
+		finally {
+			heap.close();
+		}
+
+		RecordStore recovered = new RecordStore(PAGE_SIZE, POOL_PAGES);
+		try {
+			assertEquals(last - 1 - checkpointed, recovered.getRecovered());
+			for (int n = 0; n < last; n++) {
+				assertEquals(offset(n), recovered.search(TestData.key(n)));
+			}
+			assertEquals(-1, recovered.search(TestData.key(last)));
+		}
+		finally {
+			recovered.close();
+		}
+		assertConsistent(last);
+	}
+
+	@Test
+	void failedInsertIsRecoveredFromLog() throws Exception {
+		int last = LOADED + 50;
+		RecordStore store = new RecordStore(PAGE_SIZE, POOL_PAGES);
+		for (int n = LOADED; n < last; n++) {
+			store.insert(TestData.record(n), 0);
+		}
+		// an interrupt closes the channel the insert reads or writes, after its log entry is appended
+		Thread.currentThread().interrupt();
+		try {
+			store.insert(TestData.record(last), 0);
+			fail("insert of an interrupted thread");
+		}
+		catch (IOException e) {
+			// expected
+		}
+		finally {
+			Thread.interrupted();
+		}
+		try {
+			store.insert(TestData.record(last + 1), 0);
+			fail("insert into a failed store");
+		}
+		catch (IOException e) {
+			// expected
+		}
+		store.abort();
+		assertTrue(new File(constants.WAL_FILE_PREFIX + PAGE_SIZE).exists());
+
+		RecordStore recovered = new RecordStore(PAGE_SIZE, POOL_PAGES);
+		try {
+			assertEquals(last + 1 - LOADED, recovered.getRecovered());
+		}
+		finally {
+			recovered.close();
+		}
+		assertConsistent(last + 1);
+	}
+
+	@Test
+	void openingRestoresInterruptedCheckpoint() throws Exception {
+		String[] indexFiles = indexFiles();
+		byte[][] before = new byte[indexFiles.length][];
+		for (int i = 0; i < indexFiles.length; i++) {
+			before[i] = Files.readAllBytes(Paths.get(indexFiles[i]));
+		}
+		RecordStore store = new RecordStore(PAGE_SIZE, POOL_PAGES);
+		for (int n = LOADED; n < LOADED + 300; n++) {
+			store.insert(TestData.record(n), 0);
+		}
+		store.close();
+
+		// journal the pages the inserts changed, as the checkpoint did, then put the index files back as
+		// they were with only the first half of the changed pages written in place
+		List<SortedMap<Integer, ByteBuffer>> pages = new ArrayList<SortedMap<Integer, ByteBuffer>>();
+		for (int i = 0; i < indexFiles.length; i++) {
+			byte[] after = Files.readAllBytes(Paths.get(indexFiles[i]));
+			SortedMap<Integer, ByteBuffer> changed = new TreeMap<Integer, ByteBuffer>();
+			for (int page = 0; page < after.length / PAGE_SIZE; page++) {
+				int from = page * PAGE_SIZE;
+				byte[] image = Arrays.copyOfRange(after, from, from + PAGE_SIZE);
+				if (from >= before[i].length || !Arrays.equals(image, Arrays.copyOfRange(before[i], from, from + PAGE_SIZE))) {
+					changed.put(page, ByteBuffer.wrap(image));
+				}
+			}
+			assertTrue(changed.size() > 1);
+			pages.add(changed);
+		}
+		CheckpointJournal.write(constants.JOURNAL_FILE_PREFIX + PAGE_SIZE, PAGE_SIZE, pages);
+		for (int i = 0; i < indexFiles.length; i++) {
+			Files.write(Paths.get(indexFiles[i]), before[i]);
+			RandomAccessFile index = new RandomAccessFile(indexFiles[i], "rw");
+			try {
+				int written = 0;
+				for (Map.Entry<Integer, ByteBuffer> page : pages.get(i).entrySet()) {
+					if (written++ == pages.get(i).size() / 2) {
+						break;
+					}
+					index.seek((long) page.getKey() * PAGE_SIZE);
+					index.write(page.getValue().array());
+				}
+			}
+			finally {
+				index.close();
+			}
+		}
+
+		new RecordStore(PAGE_SIZE, POOL_PAGES).close();
+		assertFalse(new File(constants.JOURNAL_FILE_PREFIX + PAGE_SIZE).exists());
+		assertConsistent(LOADED + 300);
+	}
+
+	@Test
+	void concurrentInsertsCheckpointBeforePoolRunsOut() throws Exception {
+		// a pool barely larger than one insert may change: the inserts must take turns and checkpoint often
+		String csvFile = "insert." + PAGE_SIZE + ".csv";
+		TestData.writeCsv(csvFile, LOADED, LOADED + 2000);
+		RecordStore store = new RecordStore(PAGE_SIZE, 48);
+		try {
+			dbinsert.insertAll(store, csvFile, 8);
+			assertEquals(2000, store.getInserted());
+			assertTrue(store.getCheckpoints() > 10);
+		}
+		finally {
+			store.close();
+		}
+		assertConsistent(LOADED + 2000);
+	}
+
+	// Index files in the order RecordStore numbers them in its checkpoint journal
+	private static String[] indexFiles() {
+		return new String[] {IndexKey.fileName(PAGE_SIZE, constants.INDEX_KEY_SDT_NAME),
+				IndexKey.fileName(PAGE_SIZE, constants.INDEX_KEY_SENSOR_ID),
+				IndexKey.fileName(PAGE_SIZE, constants.INDEX_KEY_DATE),
+				IndexKey.fileName(PAGE_SIZE, constants.INDEX_KEY_COUNTS)};
+	}
+
+	// Heap offset of the n-th record, the offset of reading number n where they are loaded or inserted in order
+	private static long offset(int n) {
+		return (long) (n / RECORDS_PER_PAGE) * PAGE_SIZE + HeapFile.recordPosition(n % RECORDS_PER_PAGE);
+	}
+
+	/**
+	 * Check the heap holds readings 0..rows - 1, in any order, and nothing after them, and that every
+	 * index covers the same heap end and holds the keys of exactly these records
+	 * */
+	private static void assertConsistent(int rows) throws Exception {
+		long heapEnd = offset(rows - 1) + constants.TOTAL_SIZE;
+		HeapFile heap = new HeapFile("heap." + PAGE_SIZE, PAGE_SIZE);
+		try {
+			assertEquals(heapEnd, heap.end());
+			assertEquals(0, new File("heap." + PAGE_SIZE).length() % PAGE_SIZE);
+			long[] offsets = new long[rows]; //heap offset of each reading
+			Arrays.fill(offsets, -1);
+			for (int slot = 0; slot < rows; slot++) {
+				ByteBuffer page = heap.page(slot / RECORDS_PER_PAGE);
+				int position = HeapFile.recordPosition(slot % RECORDS_PER_PAGE);
+				int n = page.getInt(position + constants.ID_OFFSET);
+				assertTrue(n >= 0 && n < rows && offsets[n] < 0, "reading " + n + " in slot " + slot);
+				offsets[n] = offset(slot);
+				byte[] record = new byte[constants.TOTAL_SIZE];
+				page.position(position);
+				page.get(record);
+				assertArrayEquals(TestData.record(n), record, "record " + n);
+			}
+
+			IndexReader primary = new IndexReader(indexFiles()[0]);
+			try {
+				assertEquals(rows, primary.getRecordCount());
+				assertEquals(heapEnd, primary.getHeapEnd());
+				for (int n = 0; n < rows; n++) {
+					assertEquals(offsets[n], primary.search(TestData.key(n)), "key of record " + n);
+				}
+			}
+			finally {
+				primary.close();
+			}
+
+			for (int type = constants.INDEX_KEY_SENSOR_ID; type <= constants.INDEX_KEY_COUNTS; type++) {
+				assertIndexHolds(heap, type, rows, heapEnd);
+			}
+		}
+		finally {
+			heap.close();
+		}
+	}
+
+	// Scan a secondary index and check each entry is the key of the record it points at, once for every record
+	private static void assertIndexHolds(final HeapFile heap, final int type, int rows, long heapEnd) throws Exception {
+		final boolean[] seen = new boolean[rows];
+		final byte[] expected = new byte[IndexKey.length(type)];
+		IndexReader index = new IndexReader(IndexKey.fileName(PAGE_SIZE, type));
+		try {
+			assertEquals(rows, index.getRecordCount());
+			assertEquals(heapEnd, index.getHeapEnd());
+			long visited = index.scan(null, true, null, true, Long.MAX_VALUE, new IndexEntryVisitor() {
+				public boolean visit(byte[] key, long offset) {
+					long pageNumber = offset / PAGE_SIZE;
+					int slot = (int) (offset % PAGE_SIZE) / constants.TOTAL_SIZE;
+					int n = (int) pageNumber * RECORDS_PER_PAGE + slot;
+					assertFalse(seen[n], "record " + n + " indexed twice");
+					seen[n] = true;
+					IndexKey.fromRecord(type, heap.page(pageNumber), HeapFile.recordPosition(slot), offset, expected);
+					assertArrayEquals(expected, key);
+					return true;
+				}
+			});
+			assertEquals(rows, visited);
+		}
+		finally {
+			index.close();
+		}
+	}
+}
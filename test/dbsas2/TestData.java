@@ -0,0 +1,102 @@
+package dbsas2;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/*TestData makes sensor readings for the tests: csv rows whose SDT names all differ, the records
+ *  they encode to, and heap and index files of a page size loaded from them in the working
+ *  directory, where dbload, treeload and RecordStore keep their files*/
+final class TestData {
+
+	static final int SENSORS = 40;
+	static final String HEADER = "ID,Date_Time,Year,Month,Mdate,Day,Time,Sensor_ID,Sensor_Name,Hourly_Counts";
+
+	private TestData() {
+	}
+
+	/**
+	 * Csv row of reading number i: one reading per sensor per hour from the start of 2019. The date
+	 * time text is built in UTC, so no daylight saving change gives two rows the same SDT name.
+	 * */
+	static String row(int i) {
+		int sensor = 1 + i % SENSORS;
+		Calendar time = new GregorianCalendar(TimeZone.getTimeZone("UTC"), Locale.US);
+		time.clear();
+		time.set(2019, Calendar.JANUARY, 1);
+		time.add(Calendar.HOUR_OF_DAY, i / SENSORS);
+		int hour = time.get(Calendar.HOUR_OF_DAY);
+		int hour12 = (hour % 12 == 0) ? 12 : hour % 12;
+		String dateTime = String.format("%02d/%02d/%04d %02d:00:00 %s", time.get(Calendar.MONTH) + 1,
+				time.get(Calendar.DAY_OF_MONTH), time.get(Calendar.YEAR), hour12, (hour < 12) ? "AM" : "PM");
+		return i + "," + dateTime + "," + time.get(Calendar.YEAR) + ","
+				+ time.getDisplayName(Calendar.MONTH, Calendar.LONG, Locale.US) + "," + time.get(Calendar.DAY_OF_MONTH) + ","
+				+ time.getDisplayName(Calendar.DAY_OF_WEEK, Calendar.LONG, Locale.US) + "," + hour + "," + sensor
+				+ ",Sensor Location Number " + sensor + "," + (i * 37) % 1000;
+	}
+
+	// Record of reading number i in heap layout
+	static byte[] record(int i) throws ParseException {
+		byte[] record = new byte[constants.TOTAL_SIZE];
+		byte[] line = row(i).getBytes(StandardCharsets.ISO_8859_1);
+		new CsvRecordParser().encode(line, 0, line.length, ByteBuffer.wrap(record), 0);
+		return record;
+	}
+
+	// Primary (SDT_NAME) key of reading number i
+	static byte[] key(int i) throws ParseException {
+		byte[] key = new byte[constants.STD_NAME_SIZE];
+		System.arraycopy(record(i), 0, key, 0, key.length);
+		return key;
+	}
+
+	// Write readings from..to - 1 to a csv file with its header line
+	static void writeCsv(String csvFile, int from, int to) throws IOException {
+		Writer out = new OutputStreamWriter(new FileOutputStream(csvFile), StandardCharsets.ISO_8859_1);
+		try {
+			out.write(HEADER + "\n");
+			for (int i = from; i < to; i++) {
+				out.write(row(i) + "\n");
+			}
+		}
+		finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Load readings 0..rows - 1 into heap.pagesize and bulk load tree.pagesize and the secondary
+	 * indexes on sensor id, date and counts from it
+	 * */
+	static void load(int pageSize, int rows) throws IOException {
+		String csvFile = "load." + pageSize + ".csv";
+		writeCsv(csvFile, 0, rows);
+		dbload.main(new String[] {"-p", String.valueOf(pageSize), csvFile});
+		treeload.main(new String[] {"-p", String.valueOf(pageSize), "-b", "-index", "sensorid,date,counts"});
+		new File(csvFile).delete();
+	}
+
+	// Delete the files of a page size from the working directory
+	static void deleteFiles(int pageSize) {
+		File[] files = new File(".").listFiles();
+		if (files == null) {
+			return;
+		}
+		String suffix = "." + pageSize;
+		for (File file : files) {
+			String name = file.getName();
+			if (name.endsWith(suffix) || name.contains(suffix + ".")) {
+				file.delete();
+			}
+		}
+	}
+}
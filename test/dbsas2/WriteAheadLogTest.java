@@ -0,0 +1,176 @@
+package dbsas2;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class WriteAheadLogTest {
+
+	private static final int PAGE_SIZE = 4096;
+
+	@TempDir
+	Path dir;
+
+	@Test
+	void replayReturnsCommittedEntries() throws Exception {
+		String logFile = dir.resolve("wal").toString();
+		writeEntries(logFile, 0, 10);
+		assertReplays(logFile, 10);
+	}
+
+	@Test
+	void replayStopsAtTornEntry() throws Exception {
+		String logFile = dir.resolve("wal").toString();
+		writeEntries(logFile, 0, 10);
+		// the crash cut the last entry short
+		RandomAccessFile file = new RandomAccessFile(logFile, "rw");
+		try {
+			file.setLength(file.length() - constants.WAL_ENTRY_SIZE / 2);
+		}
+		finally {
+			file.close();
+		}
+		assertReplays(logFile, 9);
+		assertEquals(constants.WAL_HEADER_SIZE + 9L * constants.WAL_ENTRY_SIZE, dir.resolve("wal").toFile().length());
+
+		// new entries follow the last intact one
+		writeEntries(logFile, 9, 12);
+		assertReplays(logFile, 12);
+	}
+
+	@Test
+	void replayStopsAtCorruptEntry() throws Exception {
+		String logFile = dir.resolve("wal").toString();
+		writeEntries(logFile, 0, 10);
+		// a byte of the record in entry 6 did not reach the disk
+		RandomAccessFile file = new RandomAccessFile(logFile, "rw");
+		try {
+			long at = constants.WAL_HEADER_SIZE + 6L * constants.WAL_ENTRY_SIZE + 12 + 30;
+			file.seek(at);
+			int b = file.read();
+			file.seek(at);
+			file.write(b ^ 0x5a);
+		}
+		finally {
+			file.close();
+		}
+		assertReplays(logFile, 6);
+	}
+
+	@Test
+	void concurrentCommitsKeepEveryEntry() throws Exception {
+		String logFile = dir.resolve("wal").toString();
+		final WriteAheadLog log = new WriteAheadLog(logFile, PAGE_SIZE);
+		final int threads = 8;
+		final int perThread = 200;
+		ExecutorService workers = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<Void>> results = new ArrayList<Future<Void>>();
+			for (int t = 0; t < threads; t++) {
+				final int thread = t;
+				results.add(workers.submit(new Callable<Void>() {
+					public Void call() throws Exception {
+						for (int i = 0; i < perThread; i++) {
+							int n = thread * perThread + i;
+							log.commit(log.append(offset(n), TestData.record(n), 0));
+						}
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> result : results) {
+				result.get();
+			}
+		}
+		finally {
+			workers.shutdownNow();
+		}
+		log.close();
+
+		// every entry is intact, whatever order the threads logged them in
+		final boolean[] seen = new boolean[threads * perThread];
+		WriteAheadLog reopened = new WriteAheadLog(logFile, PAGE_SIZE);
+		try {
+			long entries = reopened.replay(new LogEntryVisitor() {
+				public void apply(long heapOffset, byte[] record) throws IOException {
+					int n = (int) (heapOffset / constants.TOTAL_SIZE);
+					assertArrayEquals(expected(n), record);
+					seen[n] = true;
+				}
+			});
+			assertEquals(threads * perThread, entries);
+		}
+		finally {
+			reopened.close();
+		}
+		for (boolean entry : seen) {
+			assertTrue(entry);
+		}
+	}
+
+	private static long offset(int n) {
+		return (long) n * constants.TOTAL_SIZE;
+	}
+
+	private static byte[] expected(int n) throws IOException {
+		try {
+			return TestData.record(n);
+		}
+		catch (ParseException e) {
+			throw new IOException(e);
+		}
+	}
+
+	// Log entries from..to - 1 after the intact entries of the log and make them durable
+	private static void writeEntries(String logFile, int from, int to) throws Exception {
+		WriteAheadLog log = new WriteAheadLog(logFile, PAGE_SIZE);
+		try {
+			log.replay(new LogEntryVisitor() {
+				public void apply(long heapOffset, byte[] record) {
+				}
+			});
+			long sequence = 0;
+			for (int n = from; n < to; n++) {
+				sequence = log.append(offset(n), TestData.record(n), 0);
+			}
+			log.commit(sequence);
+		}
+		finally {
+			log.close();
+		}
+	}
+
+	// Replay the log and check it holds entries 0..count - 1 in order
+	private static void assertReplays(String logFile, int count) throws IOException {
+		final int[] next = {0};
+		WriteAheadLog log = new WriteAheadLog(logFile, PAGE_SIZE);
+		try {
+			long entries = log.replay(new LogEntryVisitor() {
+				public void apply(long heapOffset, byte[] record) throws IOException {
+					assertEquals(offset(next[0]), heapOffset);
+					assertArrayEquals(expected(next[0]), record);
+					next[0]++;
+				}
+			});
+			assertEquals(count, entries);
+			assertEquals(count, next[0]);
+		}
+		finally {
+			log.close();
+		}
+	}
+}